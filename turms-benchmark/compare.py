@@ -0,0 +1,89 @@
+#!/usr/bin/env python3
+#
+# Copyright (C) 2019 The Turms Project
+# https://github.com/turms-im/turms
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+"""
+Compare two JMH result files in JSON format (generated with "-rf json")
+and exit with 1 if any benchmark regresses more than the threshold.
+
+Usage: compare.py baseline/results.json target/results.json [--threshold 0.1]
+"""
+
+import argparse
+import json
+import sys
+
+# The modes in which a higher score is better
+HIGHER_IS_BETTER_MODES = {'thrpt'}
+
+
+def load(path):
+    with open(path, encoding='utf-8') as file:
+        results = json.load(file)
+    scores = {}
+    for result in results:
+        params = result.get('params') or {}
+        param_string = ','.join('{}={}'.format(key, params[key]) for key in sorted(params))
+        key = result['benchmark'] + ('(' + param_string + ')' if param_string else '')
+        metric = result['primaryMetric']
+        scores[key] = (result['mode'], metric['score'], metric['scoreUnit'])
+    return scores
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Compare two JMH result files')
+    parser.add_argument('baseline')
+    parser.add_argument('current')
+    parser.add_argument('--threshold', type=float, default=0.1,
+                        help='the tolerated relative regression, 0.1 by default')
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    current = load(args.current)
+    regressions = []
+    print('{:<110} {:>14} {:>14} {:>9}'.format('Benchmark', 'Baseline', 'Current', 'Change'))
+    for key in sorted(baseline.keys() | current.keys()):
+        if key not in current:
+            print('{:<110} {:>14.3f} {:>14} {:>9}'.format(key, baseline[key][1], 'N/A', 'removed'))
+            continue
+        if key not in baseline:
+            print('{:<110} {:>14} {:>14.3f} {:>9}'.format(key, 'N/A', current[key][1], 'added'))
+            continue
+        mode, baseline_score, unit = baseline[key]
+        current_score = current[key][1]
+        if current[key][2] != unit or current[key][0] != mode:
+            print('{:<110} {:>14} {:>14} {:>9}'.format(key, unit, current[key][2], 'unit'))
+            continue
+        change = (current_score - baseline_score) / baseline_score if baseline_score else 0
+        # Normalize so that a positive regression always means worse
+        regression = -change if mode in HIGHER_IS_BETTER_MODES else change
+        flag = ' !' if regression > args.threshold else ''
+        print('{:<110} {:>14.3f} {:>14.3f} {:>+8.1%}{} {}'.format(
+            key, baseline_score, current_score, change, flag, unit))
+        if regression > args.threshold:
+            regressions.append(key)
+
+    if regressions:
+        print('\n{} benchmark(s) regressed more than {:.0%}:'.format(len(regressions), args.threshold))
+        for key in regressions:
+            print('  ' + key)
+        return 1
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
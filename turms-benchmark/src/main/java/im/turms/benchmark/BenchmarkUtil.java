@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark;
+
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.Field;
+
+/**
+ * @author James Chen
+ */
+public final class BenchmarkUtil {
+
+    private static final Objenesis OBJENESIS = new ObjenesisStd();
+
+    private BenchmarkUtil() {
+    }
+
+    /**
+     * Create an instance without calling its constructor
+     * so that the code under test can run without the dependencies of a running cluster.
+     * Unlike mocks, the methods of the instance run with their real implementations.
+     */
+    public static <T> T newInstanceWithoutConstructor(Class<T> clazz) {
+        return OBJENESIS.newInstance(clazz);
+    }
+
+    public static void setField(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to set the field " + fieldName + " of " + target.getClass().getName(), e);
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.gateway;
+
+import im.turms.benchmark.BenchmarkUtil;
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.UserStatus;
+import im.turms.gateway.manager.UserSessionsManager;
+import im.turms.gateway.manager.UserSessionsRegistry;
+import im.turms.gateway.pojo.bo.session.UserSession;
+import im.turms.gateway.pojo.bo.session.connection.NetConnection;
+import im.turms.gateway.service.impl.OutboundMessageService;
+import im.turms.gateway.service.impl.SessionService;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.property.TurmsProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the fan-out of a notification to the sessions connected to the local node.
+ * The notifications are consumed and released synchronously once emitted, like an always-writable channel.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutboundMessageServiceBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int recipientCount;
+
+    private OutboundMessageService outboundMessageService;
+    private long[] recipientIds;
+    private ByteBuf notification;
+    private final List<Disposable> subscriptions = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getPlugin().setEnabled(false);
+        Node node = mock(Node.class);
+        when(node.getSharedProperties()).thenReturn(properties);
+
+        UserSessionsRegistry registry = new UserSessionsRegistry(recipientCount);
+        recipientIds = new long[recipientCount];
+        for (long userId = 1; userId <= recipientCount; userId++) {
+            UserSessionsManager manager = new UserSessionsManager(userId, UserStatus.AVAILABLE);
+            UserSession session = manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0, null, null);
+            session.setConnection(new NetConnection(true) {
+            });
+            subscriptions.add(session.getNotificationFlux().subscribe(ReferenceCountUtil::release));
+            registry.computeIfAbsent(userId, id -> manager);
+            recipientIds[(int) userId - 1] = userId;
+        }
+        SessionService sessionService = BenchmarkUtil.newInstanceWithoutConstructor(SessionService.class);
+        BenchmarkUtil.setField(sessionService, "sessionsManagerByUserId", registry);
+        outboundMessageService = new OutboundMessageService(node, sessionService, null);
+
+        notification = PooledByteBufAllocator.DEFAULT.directBuffer(256);
+        notification.writeBytes(new byte[256]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        subscriptions.forEach(Disposable::dispose);
+        notification.release();
+    }
+
+    @Benchmark
+    public boolean sendNotificationToLocalClients() {
+        // The method releases the notification once all sessions have flushed it
+        notification.retain();
+        return outboundMessageService.sendNotificationToLocalClients(notification, recipientIds);
+    }
+
+}
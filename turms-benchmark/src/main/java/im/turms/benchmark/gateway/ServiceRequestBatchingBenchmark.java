@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.gateway;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.gateway.service.impl.ServiceRequestBatcher;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.node.NodeType;
+import im.turms.server.common.cluster.node.NodeVersion;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.RpcAcceptor;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.cluster.service.serialization.SerializationService;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.property.env.common.cluster.RpcProperties;
+import im.turms.server.common.property.env.gateway.ServiceRequestBatchProperties;
+import im.turms.server.common.rpc.request.HandleServiceRequest;
+import im.turms.server.common.rpc.service.IServiceRequestDispatcher;
+import im.turms.server.common.util.ProtoUtil;
+import io.netty.buffer.ByteBuf;
+import io.rsocket.RSocket;
+import io.rsocket.core.RSocketConnector;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares sending every service request in its own RPC frame with packing the requests into batches
+ * by {@link ServiceRequestBatcher}. Every operation sends {@link #concurrency} requests at once and waits for all responses,
+ * so the sample time is the latency of the slowest request in the burst
+ * and the throughput of requests is the throughput of operations multiplied by {@link #concurrency}.
+ * <p>
+ * The turms server is an in-process {@link RpcAcceptor} over the loopback TCP transport
+ * with a dispatcher that responds immediately, so the results only include the RPC overhead.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// Spring Boot fails to configure log4j2 in the shaded jar, and the service classes have loggers
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.loggerContextFactory=org.apache.logging.log4j.simple.SimpleLoggerContextFactory")
+@State(Scope.Thread)
+public class ServiceRequestBatchingBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Param({"1", "16", "256"})
+    private int concurrency;
+
+    @Param({"PER_FRAME", "BATCHED"})
+    private SendMode mode;
+
+    private CloseableChannel server;
+    private RSocket connection;
+    private RpcService rpcService;
+    private ServiceRequestBatcher batcher;
+    private ByteBuf requestBuffer;
+
+    @Setup
+    public void setup() {
+        ServiceResponse response = new ServiceResponse(null, TurmsStatusCode.OK, null);
+        IServiceRequestDispatcher dispatcher = serviceRequest -> Mono.just(response);
+        ApplicationContext context = mock(ApplicationContext.class);
+        when(context.getBean(IServiceRequestDispatcher.class)).thenReturn(dispatcher);
+        server = RSocketServer.create((setup, sendingSocket) -> Mono.just(new RpcAcceptor(context)))
+                .bind(TcpServerTransport.create("localhost", 0))
+                .block(TIMEOUT);
+        connection = RSocketConnector.connectWith(TcpClientTransport.create(server.address())).block(TIMEOUT);
+        Member member = new Member("turms", "turms-service", NodeType.SERVICE, NodeVersion.parse("1.0.0-SNAPSHOT"), false,
+                new Date(), 0, "localhost", 7510, null, true, true);
+        Member localMember = new Member("turms", "turms-gateway", NodeType.GATEWAY, NodeVersion.parse("1.0.0-SNAPSHOT"), false,
+                new Date(), 0, "localhost", 7510, null, true, true);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        when(discoveryService.getLocalMember()).thenReturn(localMember);
+        when(discoveryService.getOtherActiveConnectedServiceMemberList())
+                .thenReturn(List.of(new MemberInfoWithConnection(member, connection)));
+        rpcService = new RpcService(new RpcProperties(), new SerializationService(), discoveryService);
+        Node node = mock(Node.class);
+        when(node.getRpcService()).thenReturn(rpcService);
+        batcher = new ServiceRequestBatcher(node, new ServiceRequestBatchProperties());
+
+        TurmsRequest request = TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                        .setRecipientId(Int64Value.newBuilder().setValue(123456789).build())
+                        .setDeliveryDate(System.currentTimeMillis())
+                        .setText(StringValue.newBuilder().setValue("a".repeat(128)).build()))
+                .build();
+        requestBuffer = ProtoUtil.getDirectByteBuffer(request);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.dispose();
+        server.dispose();
+        requestBuffer.release();
+    }
+
+    @Benchmark
+    public List<ServiceResponse> send() {
+        return Flux.range(0, concurrency)
+                .flatMap(i -> {
+                    // The serialized buffer takes the ownership of the request buffer
+                    ServiceRequest request = new ServiceRequest(1L, 123L, DeviceType.ANDROID, 1000L,
+                            TurmsRequest.KindCase.CREATE_MESSAGE_REQUEST, requestBuffer.retainedDuplicate());
+                    return mode == SendMode.BATCHED
+                            ? batcher.send(request)
+                            : rpcService.requestResponse(new HandleServiceRequest(request));
+                }, concurrency)
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    public enum SendMode {
+        PER_FRAME,
+        BATCHED
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.gateway;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.common.model.dto.request.user.CreateSessionRequest;
+import im.turms.gateway.pojo.dto.SimpleTurmsRequest;
+import im.turms.gateway.util.TurmsRequestUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TurmsRequestUtilBenchmark {
+
+    private ByteBuffer createMessageRequest;
+    private ByteBuffer createSessionRequest;
+
+    @Setup
+    public void setup() {
+        createMessageRequest = toDirectBuffer(TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                        .setRecipientId(Int64Value.newBuilder().setValue(123456789).build())
+                        .setDeliveryDate(System.currentTimeMillis())
+                        .setText(StringValue.newBuilder().setValue("a".repeat(128)).build()))
+                .build());
+        createSessionRequest = toDirectBuffer(TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCreateSessionRequest(CreateSessionRequest.newBuilder()
+                        .setUserId(123456789)
+                        .setPassword(StringValue.newBuilder().setValue("123").build()))
+                .build());
+    }
+
+    @Benchmark
+    public SimpleTurmsRequest parseSimpleRequest_createMessageRequest() {
+        return TurmsRequestUtil.parseSimpleRequest(createMessageRequest.duplicate());
+    }
+
+    @Benchmark
+    public SimpleTurmsRequest parseSimpleRequest_createSessionRequest() {
+        return TurmsRequestUtil.parseSimpleRequest(createSessionRequest.duplicate());
+    }
+
+    private static ByteBuffer toDirectBuffer(TurmsRequest request) {
+        byte[] bytes = request.toByteArray();
+        return ByteBuffer.allocateDirect(bytes.length)
+                .put(bytes)
+                .flip();
+    }
+
+}
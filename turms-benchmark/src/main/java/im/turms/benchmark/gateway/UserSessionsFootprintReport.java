@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.gateway;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.UserStatus;
+import im.turms.gateway.manager.UserSessionsManager;
+import im.turms.gateway.manager.UserSessionsRegistry;
+import im.turms.server.common.util.DeviceTypeUtil;
+import im.turms.server.common.util.MapUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Reports the retained heap of the local sessions managers for a number of online users,
+ * comparing the session registry with the ConcurrentHashMap used before.
+ * Every user has one session, and the sessions themselves aren't included
+ * because they are the same for both layouts.
+ * <p>
+ * The retained heap is measured as the difference of the used heap after full GCs,
+ * so run it with a fixed heap size and a stop-the-world collector as described in README.md.
+ *
+ * @author James Chen
+ */
+public final class UserSessionsFootprintReport {
+
+    private static final Object SESSION = new Object();
+
+    private UserSessionsFootprintReport() {
+    }
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        report("ConcurrentHashMap (before)", userCount, UserSessionsFootprintReport::newConcurrentHashMap);
+        report("UserSessionsRegistry", userCount, UserSessionsFootprintReport::newRegistry);
+    }
+
+    private static void report(String name, int userCount, IntFunction<Object> layoutFactory) {
+        long usedBefore = getUsedHeapAfterGc();
+        Object layout = layoutFactory.apply(userCount);
+        long usedAfter = getUsedHeapAfterGc();
+        long retainedBytes = usedAfter - usedBefore;
+        System.out.printf("%-28s users: %,d, retained: %,.1f MiB, per user: %.1f bytes%n",
+                name, userCount, retainedBytes / 1024D / 1024D, (double) retainedBytes / userCount);
+        // Keep the layout reachable until it has been measured
+        if (layout.hashCode() == 0) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * The layout used before: the managers keyed by the boxed user IDs,
+     * and every manager has a ConcurrentHashMap of sessions keyed by the device type
+     */
+    private static Object newConcurrentHashMap(int userCount) {
+        Map<Long, LegacyUserSessionsManager> map = new ConcurrentHashMap<>(4096);
+        for (long i = 1; i <= userCount; i++) {
+            Long userId = i;
+            LegacyUserSessionsManager manager = map.computeIfAbsent(userId,
+                    id -> new LegacyUserSessionsManager(id, UserStatus.AVAILABLE));
+            manager.sessionMap.put(DeviceType.ANDROID, SESSION);
+        }
+        return map;
+    }
+
+    /**
+     * Note that the slots of the sessions are allocated with the managers,
+     * so adding sessions doesn't change the retained heap
+     */
+    private static Object newRegistry(int userCount) {
+        UserSessionsRegistry registry = new UserSessionsRegistry(4096);
+        for (long userId = 1; userId <= userCount; userId++) {
+            registry.computeIfAbsent(userId, id -> new UserSessionsManager(id, UserStatus.AVAILABLE));
+        }
+        return registry;
+    }
+
+    private static long getUsedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * The fields of UserSessionsManager before the session registry was introduced
+     */
+    private static final class LegacyUserSessionsManager {
+        private final Long userId;
+        private UserStatus userStatus;
+        private final Map<DeviceType, Object> sessionMap = new ConcurrentHashMap<>(MapUtil.getCapability(DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES.length));
+
+        private LegacyUserSessionsManager(Long userId, UserStatus userStatus) {
+            this.userId = userId;
+            this.userStatus = userStatus;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.gateway;
+
+import im.turms.common.constant.UserStatus;
+import im.turms.gateway.manager.UserSessionsManager;
+import im.turms.gateway.manager.UserSessionsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the session registry with the ConcurrentHashMap used before.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class UserSessionsRegistryBenchmark {
+
+    @Param({"10000", "1000000"})
+    private int userCount;
+
+    private UserSessionsRegistry registry;
+    private ConcurrentHashMap<Long, UserSessionsManager> map;
+
+    @Setup
+    public void setup() {
+        registry = new UserSessionsRegistry(userCount);
+        map = new ConcurrentHashMap<>(userCount * 2);
+        for (long userId = 1; userId <= userCount; userId++) {
+            UserSessionsManager manager = new UserSessionsManager(userId, UserStatus.AVAILABLE);
+            registry.computeIfAbsent(userId, id -> manager);
+            map.put(userId, manager);
+        }
+    }
+
+    @Benchmark
+    public UserSessionsManager get_registry() {
+        return registry.get(nextUserId());
+    }
+
+    @Benchmark
+    public UserSessionsManager get_concurrentHashMap() {
+        return map.get(nextUserId());
+    }
+
+    private long nextUserId() {
+        return ThreadLocalRandom.current().nextLong(1, userCount + 1L);
+    }
+
+}
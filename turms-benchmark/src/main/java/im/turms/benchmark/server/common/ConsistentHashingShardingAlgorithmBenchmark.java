@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.server.common;
+
+import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.HashRingShardingAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConsistentHashingShardingAlgorithmBenchmark {
+
+    private static final int USER_ID_COUNT = 1 << 12;
+
+    @Param({"1", "8", "64"})
+    private int serverCount;
+
+    private final ConsistentHashingShardingAlgorithm algorithm = new ConsistentHashingShardingAlgorithm();
+    private final HashRingShardingAlgorithm hashRingAlgorithm = new HashRingShardingAlgorithm();
+    private final long[] userIds = new long[USER_ID_COUNT];
+    private int index;
+
+    @Setup
+    public void setup() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < USER_ID_COUNT; i++) {
+            userIds[i] = random.nextLong(Long.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public int doSharding() {
+        long userId = userIds[index++ & (USER_ID_COUNT - 1)];
+        return algorithm.doSharding(userId, serverCount);
+    }
+
+    @Benchmark
+    public int doHashRingSharding() {
+        long userId = userIds[index++ & (USER_ID_COUNT - 1)];
+        return hashRingAlgorithm.doSharding(userId, serverCount);
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.server.common;
+
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.model.bo.message.Message;
+import im.turms.common.model.bo.message.Messages;
+import im.turms.common.model.dto.notification.TurmsNotification;
+import im.turms.server.common.util.ProtoUtil;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtoUtilBenchmark {
+
+    @Param({"1", "100"})
+    private int messageCount;
+
+    private TurmsNotification notification;
+
+    @Setup
+    public void setup() {
+        Messages.Builder messages = Messages.newBuilder();
+        for (int i = 0; i < messageCount; i++) {
+            messages.addMessages(Message.newBuilder()
+                    .setId(Int64Value.newBuilder().setValue(i).build())
+                    .setDeliveryDate(Int64Value.newBuilder().setValue(System.currentTimeMillis()).build())
+                    .setSenderId(Int64Value.newBuilder().setValue(123456789).build())
+                    .setText(StringValue.newBuilder().setValue("a".repeat(128)).build()));
+        }
+        notification = TurmsNotification.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCode(Int32Value.newBuilder().setValue(1000).build())
+                .setData(TurmsNotification.Data.newBuilder().setMessages(messages))
+                .build();
+    }
+
+    @Benchmark
+    public int getDirectByteBuffer() {
+        ByteBuf buffer = ProtoUtil.getDirectByteBuffer(notification);
+        int bytes = buffer.readableBytes();
+        buffer.release();
+        return bytes;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.server.common;
+
+import im.turms.server.common.cluster.node.NodeType;
+import im.turms.server.common.cluster.node.NodeVersion;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.cluster.service.serialization.SerializationService;
+import im.turms.server.common.property.constant.RpcLoadBalancingStrategy;
+import im.turms.server.common.property.env.common.cluster.RpcProperties;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.SocketAcceptor;
+import io.rsocket.core.RSocketConnector;
+import io.rsocket.core.RSocketServer;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.CloseableChannel;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.EmptyPayload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the latency distribution of the load balanced RPC requests when one of the service members
+ * responds slowly. The members are in-process RSocket responders over the local transport,
+ * so the measured latency is dominated by the delay of the slow responder and the scheduling of the load balancer.
+ * Use the percentiles (e.g. p0.99) of the sample time mode to compare the strategies.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// Spring Boot fails to configure log4j2 in the shaded jar, and the service classes have loggers
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.loggerContextFactory=org.apache.logging.log4j.simple.SimpleLoggerContextFactory")
+@Threads(8)
+@State(Scope.Benchmark)
+public class RpcLoadBalancingBenchmark {
+
+    @Param({"ROUND_ROBIN", "POWER_OF_TWO_CHOICES", "EWMA_LATENCY"})
+    private RpcLoadBalancingStrategy strategy;
+
+    @Param({"4"})
+    private int memberCount;
+
+    @Param({"10"})
+    private int slowResponderDelayMillis;
+
+    private final List<CloseableChannel> servers = new ArrayList<>();
+    private final List<RSocket> connections = new ArrayList<>();
+    private RpcService rpcService;
+    private ByteBuf notificationBuffer;
+    private SendNotificationRequest request;
+
+    @Setup
+    public void setup() {
+        List<MemberInfoWithConnection> members = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            String nodeId = "rpc-benchmark-" + i;
+            // The last member is the slow responder
+            Duration delay = i == memberCount - 1
+                    ? Duration.ofMillis(slowResponderDelayMillis)
+                    : Duration.ZERO;
+            CloseableChannel server = RSocketServer.create(SocketAcceptor.forRequestResponse(payload -> respond(payload, delay)))
+                    .bind(TcpServerTransport.create("localhost", 0))
+                    .block();
+            servers.add(server);
+            RSocket connection = RSocketConnector.connectWith(TcpClientTransport.create(server.address())).block();
+            connections.add(connection);
+            Member member = new Member("turms", nodeId, NodeType.SERVICE, NodeVersion.parse("1.0.0-SNAPSHOT"), false,
+                    new Date(), 0, "localhost", 7510, null, true, true);
+            members.add(new MemberInfoWithConnection(member, connection));
+        }
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        when(discoveryService.getOtherActiveConnectedServiceMemberList()).thenReturn(members);
+        RpcProperties rpcProperties = new RpcProperties();
+        rpcProperties.setLoadBalancingStrategy(strategy);
+        rpcService = new RpcService(rpcProperties, new SerializationService(), discoveryService);
+        notificationBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(64).writeBytes(new byte[64]);
+        request = new SendNotificationRequest(notificationBuffer, new long[]{1L});
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (RSocket connection : connections) {
+            connection.dispose();
+        }
+        for (CloseableChannel server : servers) {
+            server.dispose();
+        }
+        notificationBuffer.release();
+    }
+
+    @Benchmark
+    public Boolean requestResponse() {
+        // The serialized buffer takes the ownership of the notification buffer
+        notificationBuffer.retain();
+        return rpcService.requestResponse(request).block();
+    }
+
+    private static Mono<Payload> respond(Payload payload, Duration delay) {
+        payload.release();
+        Mono<Payload> response = Mono.just(EmptyPayload.INSTANCE);
+        return delay.isZero()
+                ? response
+                : response.delayElement(delay);
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.server.common;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.constant.DeviceType;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.server.common.cluster.service.serialization.SerializationService;
+import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
+import im.turms.server.common.cluster.service.serialization.serializer.SerializerPool;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.rpc.request.HandleServiceRequest;
+import im.turms.server.common.rpc.request.HandleServiceRequestBatch;
+import im.turms.server.common.rpc.request.SendNotificationBatchRequest;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import im.turms.server.common.util.ProtoUtil;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of the RPC requests on the path of sending messages.
+ * Note that the serialized buffers take the ownership of the request buffers,
+ * so the request buffers are retained before being serialized.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationServiceBenchmark {
+
+    @Param({"1", "100"})
+    private int recipientCount;
+
+    @Param({"16"})
+    private int batchSize;
+
+    private final SerializationService serializationService = new SerializationService();
+    private ByteBuf requestBuffer;
+    private HandleServiceRequest handleServiceRequest;
+    private HandleServiceRequestBatch handleServiceRequestBatch;
+    private SendNotificationRequest sendNotificationRequest;
+    private SendNotificationBatchRequest sendNotificationBatchRequest;
+    private ByteBuf serializedHandleServiceRequest;
+    private ByteBuf serializedSendNotificationRequest;
+    private ByteBuf serializedSendNotificationBatchRequest;
+
+    @Setup
+    public void setup() {
+        TurmsRequest request = TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                        .setRecipientId(Int64Value.newBuilder().setValue(123456789).build())
+                        .setDeliveryDate(System.currentTimeMillis())
+                        .setText(StringValue.newBuilder().setValue("a".repeat(128)).build()))
+                .build();
+        requestBuffer = ProtoUtil.getDirectByteBuffer(request);
+        ServiceRequest serviceRequest = new ServiceRequest(1L, 123L, DeviceType.ANDROID, 1000L,
+                TurmsRequest.KindCase.CREATE_MESSAGE_REQUEST, requestBuffer);
+        handleServiceRequest = new HandleServiceRequest(serviceRequest);
+        List<ServiceRequest> serviceRequests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            serviceRequests.add(serviceRequest);
+        }
+        handleServiceRequestBatch = new HandleServiceRequestBatch(serviceRequests);
+        long[] recipientIds = new long[recipientCount];
+        for (int i = 0; i < recipientCount; i++) {
+            recipientIds[i] = 123456789L + i * 7L;
+        }
+        sendNotificationRequest = new SendNotificationRequest(requestBuffer, recipientIds);
+        List<SendNotificationRequest> sendNotificationRequests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            sendNotificationRequests.add(sendNotificationRequest);
+        }
+        sendNotificationBatchRequest = new SendNotificationBatchRequest(sendNotificationRequests);
+
+        requestBuffer.retain(2 + batchSize);
+        serializedHandleServiceRequest = serializationService.serialize(handleServiceRequest);
+        serializedSendNotificationRequest = serializationService.serialize(sendNotificationRequest);
+        serializedSendNotificationBatchRequest = serializationService.serialize(sendNotificationBatchRequest);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serializedHandleServiceRequest.release();
+        serializedSendNotificationRequest.release();
+        serializedSendNotificationBatchRequest.release();
+        requestBuffer.release();
+    }
+
+    @Benchmark
+    public int serialize_handleServiceRequest() {
+        requestBuffer.retain();
+        return release(serializationService.serialize(handleServiceRequest));
+    }
+
+    @Benchmark
+    public int serialize_handleServiceRequestBatch() {
+        requestBuffer.retain(batchSize);
+        return release(serializationService.serialize(handleServiceRequestBatch));
+    }
+
+    @Benchmark
+    public int serialize_sendNotificationRequest() {
+        requestBuffer.retain();
+        return release(serializationService.serialize(sendNotificationRequest));
+    }
+
+    @Benchmark
+    public int serialize_sendNotificationBatchRequest() {
+        requestBuffer.retain(batchSize);
+        return release(serializationService.serialize(sendNotificationBatchRequest));
+    }
+
+    @Benchmark
+    public Object deserialize_handleServiceRequest() {
+        return deserialize(serializedHandleServiceRequest);
+    }
+
+    @Benchmark
+    public Object deserialize_sendNotificationRequest() {
+        return deserialize(serializedSendNotificationRequest);
+    }
+
+    @Benchmark
+    public Object deserialize_sendNotificationBatchRequest() {
+        return deserialize(serializedSendNotificationBatchRequest);
+    }
+
+    private static int release(ByteBuf buffer) {
+        int bytes = buffer.readableBytes();
+        buffer.release();
+        return bytes;
+    }
+
+    private static Object deserialize(ByteBuf serialized) {
+        ByteBuf buffer = serialized.duplicate();
+        Serializer<Object> serializer = SerializerPool.getSerializer(buffer.readShort());
+        return serializer.read(buffer);
+    }
+
+}
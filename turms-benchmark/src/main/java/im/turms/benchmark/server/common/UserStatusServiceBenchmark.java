@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.server.common;
+
+import im.turms.common.constant.UserStatus;
+import im.turms.server.common.bo.session.UserSessionsStatus;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.redis.RedisTemplateFactory;
+import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
+import im.turms.server.common.service.session.UserStatusService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static im.turms.server.common.redis.RedisSerializationContextPool.USER_SESSIONS_STATUS_SERIALIZATION_CONTEXT;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the bulk lookup of users' sessions status with the per-user lookups.
+ * The cache of sessions status is disabled so that every lookup hits Redis.
+ * <p>
+ * Requires a running Redis server, which is "redis://localhost:6379" by default
+ * and can be specified by the system property "turms.benchmark.redis.url".
+ * The benchmark writes the keys from 1 to {@link #userCount} and deletes them in the teardown.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserStatusServiceBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Param({"100", "1000"})
+    private int userCount;
+
+    @Param({"1", "2"})
+    private int shardCount;
+
+    private UserStatusService userStatusService;
+    private List<ReactiveRedisTemplate<Long, String>> templates;
+    private Set<Long> userIds;
+
+    @Setup
+    public void setup() {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getUserStatus().setCacheUserSessionsStatus(false);
+        properties.getUserStatus().setBroadcastCacheInvalidation(false);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+
+        String url = System.getProperty("turms.benchmark.redis.url", "redis://localhost:6379");
+        List<RedisProperties> redisPropertiesList = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            RedisProperties redisProperties = new RedisProperties();
+            redisProperties.setUrl(url);
+            redisProperties.setDatabase(i);
+            redisPropertiesList.add(redisProperties);
+        }
+        templates = RedisTemplateFactory.getTemplates(redisPropertiesList, USER_SESSIONS_STATUS_SERIALIZATION_CONTEXT);
+        userStatusService = new UserStatusService(null,
+                propertiesManager,
+                new ConsistentHashingShardingAlgorithm(),
+                templates);
+
+        userIds = new HashSet<>(userCount * 2);
+        for (long userId = 1; userId <= userCount; userId++) {
+            userIds.add(userId);
+        }
+        userStatusService.updateOnlineUsersStatus(userIds, UserStatus.BUSY).block(TIMEOUT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Flux.fromIterable(templates)
+                .flatMap(template -> template.delete(Flux.fromIterable(userIds)))
+                .blockLast(TIMEOUT);
+        RedisTemplateFactory.destroy();
+    }
+
+    @Benchmark
+    public Map<Long, UserSessionsStatus> getUserSessionsStatuses() {
+        return userStatusService.getUserSessionsStatuses(userIds).block(TIMEOUT);
+    }
+
+    /**
+     * The baseline of the lookups used before the bulk API
+     */
+    @Benchmark
+    public List<UserSessionsStatus> getUserSessionsStatusOneByOne() {
+        List<Mono<UserSessionsStatus>> monos = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            monos.add(userStatusService.getUserSessionsStatus(userId));
+        }
+        return Flux.merge(monos).collectList().block(TIMEOUT);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.dao.context.TurmsMongoMappingContext;
+import im.turms.server.common.dao.util.MongoUtil;
+import im.turms.server.common.manager.TrivialTaskManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.constant.GroupMessageStatusPersistenceMode;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.service.impl.message.MessageService;
+import im.turms.turms.workflow.service.impl.message.MessageStatusService;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the latency of persisting a group message and the number of the documents written for it
+ * between the PER_MEMBER and the WATERMARK modes of group message statuses.
+ * The secondary metric "writtenDocuments" is the number of the written documents per second,
+ * so "writtenDocuments" divided by the number of messages per second is the number of writes per message.
+ * <p>
+ * Requires a running MongoDB server, which is "mongodb://localhost:27017" by default
+ * and can be specified by the system property "turms.benchmark.mongo.url".
+ * The benchmark writes into the database "turms-benchmark" and drops the database in the teardown.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupMessageStatusPersistenceBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final String DATABASE_NAME = "turms-benchmark";
+    private static final long GROUP_ID = 1L;
+    private static final long SENDER_ID = 1L;
+
+    @Param({"100", "1000", "5000"})
+    private int memberCount;
+
+    @Param({"PER_MEMBER", "WATERMARK"})
+    private GroupMessageStatusPersistenceMode mode;
+
+    private MongoClient mongoClient;
+    private ReactiveMongoTemplate mongoTemplate;
+    private MessageCollectionRouter router;
+    private MessageService messageService;
+    private Set<Long> memberIds;
+    private long messageId;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WriteCounters {
+        public long writtenDocuments;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            writtenDocuments = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        String url = System.getProperty("turms.benchmark.mongo.url", "mongodb://localhost:27017");
+        mongoClient = MongoClients.create(url);
+        TurmsMongoMappingContext context = new TurmsMongoMappingContext();
+        context.setAutoIndexCreation(false);
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        mongoTemplate = new ReactiveMongoTemplate(new SimpleReactiveMongoDatabaseFactory(mongoClient, DATABASE_NAME), converter);
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().setGroupMessageStatusPersistenceMode(mode);
+        Node node = mock(Node.class);
+        when(node.getSharedProperties()).thenReturn(properties);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.getRegistry()).thenReturn(new SimpleMeterRegistry());
+        MessageStatusService messageStatusService = mock(MessageStatusService.class);
+        when(messageStatusService.isGroupMessageStatusWatermarkEnabled())
+                .thenReturn(mode == GroupMessageStatusPersistenceMode.WATERMARK);
+
+        router = new MessageCollectionRouter(mongoTemplate, propertiesManager);
+        MongoUtil.createIndexes(mongoTemplate, Message.class, Message.COLLECTION_NAME).block(TIMEOUT);
+        MongoUtil.createIndexes(mongoTemplate, MessageStatus.class, MessageStatus.COLLECTION_NAME).block(TIMEOUT);
+        UnreadMessageCounterService unreadMessageCounterService = new UnreadMessageCounterService(mongoTemplate,
+                router,
+                node,
+                propertiesManager,
+                mock(TrivialTaskManager.class));
+        messageService = new MessageService(mongoTemplate,
+                router,
+                node,
+                propertiesManager,
+                messageStatusService,
+                null,
+                null,
+                null,
+                null,
+                mock(TrivialTaskManager.class),
+                metricsService,
+                null,
+                unreadMessageCounterService);
+
+        memberIds = new HashSet<>(memberCount * 2);
+        for (long memberId = 1; memberId <= memberCount; memberId++) {
+            memberIds.add(memberId);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.destroy();
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public Boolean persistGroupMessage(WriteCounters counters) {
+        long id = ++messageId;
+        Message message = new Message(id, true, false, new Date(), null, "a".repeat(64), SENDER_ID, GROUP_ID, null, null, null);
+        Boolean saved = mongoTemplate.insert(message, router.getMessageCollectionName(id))
+                .then(messageService.saveMessageStatuses(id, true, false, SENDER_ID, GROUP_ID, memberIds, null))
+                .block(TIMEOUT);
+        counters.writtenDocuments += mode == GroupMessageStatusPersistenceMode.WATERMARK
+                ? 1
+                : 1 + memberCount;
+        return saved;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.constant.DeviceType;
+import im.turms.common.model.dto.notification.TurmsNotification;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.redis.RedisTemplateFactory;
+import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import im.turms.server.common.service.session.UserStatusService;
+import im.turms.server.common.util.ProtoUtil;
+import im.turms.server.common.util.ReactorUtil;
+import im.turms.turms.workflow.service.impl.message.OutboundMessageService;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static im.turms.server.common.redis.RedisSerializationContextPool.USER_SESSIONS_STATUS_SERIALIZATION_CONTEXT;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the latency distribution of forwarding a group notification by the group size,
+ * comparing the routing table built in one pass with the per-recipient lookups and RPC requests used before.
+ * The recipients are online and spread over {@link #nodeCount} gateway nodes,
+ * and the cache of sessions status is disabled so that every lookup hits Redis.
+ * The RPC service is a mock that responds immediately, so the results exclude the network cost of the RPC requests.
+ * <p>
+ * Requires a running Redis server, which is "redis://localhost:6379" by default
+ * and can be specified by the system property "turms.benchmark.redis.url".
+ * The benchmark writes the keys from 1 to {@link #groupSize} and deletes them in the teardown.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// Spring Boot fails to configure log4j2 in the shaded jar, and the service classes have loggers
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.loggerContextFactory=org.apache.logging.log4j.simple.SimpleLoggerContextFactory")
+@State(Scope.Thread)
+public class GroupNotificationForwardingBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Param({"10", "100", "1000", "5000"})
+    private int groupSize;
+
+    @Param({"4"})
+    private int nodeCount;
+
+    private UserStatusService userStatusService;
+    private OutboundMessageService outboundMessageService;
+    private RpcService rpcService;
+    private List<ReactiveRedisTemplate<Long, String>> templates;
+    private Set<Long> recipientIds;
+    private TurmsNotification notification;
+    private ByteBuf notificationBuffer;
+
+    @Setup
+    public void setup() {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getUserStatus().setCacheUserSessionsStatus(false);
+        properties.getUserStatus().setBroadcastCacheInvalidation(false);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        rpcService = mock(RpcService.class);
+        // Every RPC request releases the notification buffer once it has been sent
+        when(rpcService.requestResponse(anyString(), any(SendNotificationRequest.class)))
+                .thenAnswer(invocation -> {
+                    SendNotificationRequest request = invocation.getArgument(1);
+                    request.getNotificationBuffer().release();
+                    return Mono.just(true);
+                });
+        Node node = mock(Node.class);
+        when(node.getRpcService()).thenReturn(rpcService);
+
+        RedisProperties redisProperties = new RedisProperties();
+        redisProperties.setUrl(System.getProperty("turms.benchmark.redis.url", "redis://localhost:6379"));
+        templates = RedisTemplateFactory.getTemplates(List.of(redisProperties), USER_SESSIONS_STATUS_SERIALIZATION_CONTEXT);
+        userStatusService = new UserStatusService(node,
+                propertiesManager,
+                new ConsistentHashingShardingAlgorithm(),
+                templates);
+        outboundMessageService = new OutboundMessageService(node, propertiesManager, userStatusService, null);
+
+        recipientIds = new HashSet<>(groupSize * 2);
+        for (long userId = 1; userId <= groupSize; userId++) {
+            recipientIds.add(userId);
+        }
+        ReactiveRedisTemplate<Long, String> template = templates.get(0);
+        Flux.fromIterable(recipientIds)
+                .flatMap(userId -> template.opsForHash()
+                        .putIfAbsent(userId, DeviceType.ANDROID, "gateway-" + userId % nodeCount))
+                .blockLast(TIMEOUT);
+
+        notification = TurmsNotification.newBuilder()
+                .setRelayedRequest(TurmsRequest.newBuilder()
+                        .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                                .setMessageId(Int64Value.newBuilder().setValue(1).build())
+                                .setGroupId(Int64Value.newBuilder().setValue(1).build())
+                                .setDeliveryDate(System.currentTimeMillis())
+                                .setText(StringValue.newBuilder().setValue("a".repeat(128)).build())))
+                .build();
+        notificationBuffer = ProtoUtil.getDirectByteBuffer(notification);
+    }
+
+    @TearDown
+    public void tearDown() {
+        templates.get(0).delete(Flux.fromIterable(recipientIds)).block(TIMEOUT);
+        RedisTemplateFactory.destroy();
+        notificationBuffer.release();
+    }
+
+    @Benchmark
+    public Boolean forwardNotification() {
+        return outboundMessageService.forwardNotification(notification, notificationBuffer.retain(), recipientIds)
+                .block(TIMEOUT);
+    }
+
+    /**
+     * The baseline of forwarding used before the routing table was built in one pass:
+     * the sessions status of every recipient is fetched separately,
+     * and one RPC request is sent for every recipient
+     */
+    @Benchmark
+    public Boolean forwardNotificationOneByOne() {
+        List<Mono<Boolean>> monos = new ArrayList<>(recipientIds.size());
+        for (Long recipientId : recipientIds) {
+            monos.add(userStatusService.getDeviceAndNodeIdMapByUserId(recipientId)
+                    .flatMap(deviceTypeAndNodeIdMap -> {
+                        List<Mono<Boolean>> sends = new ArrayList<>(deviceTypeAndNodeIdMap.size());
+                        for (String nodeId : deviceTypeAndNodeIdMap.values()) {
+                            SendNotificationRequest request = new SendNotificationRequest(notificationBuffer.retain(),
+                                    new long[]{recipientId});
+                            sends.add(rpcService.requestResponse(nodeId, request));
+                        }
+                        return ReactorUtil.atLeastOneTrue(sends);
+                    })
+                    .defaultIfEmpty(false));
+        }
+        return ReactorUtil.atLeastOneTrue(monos).block(TIMEOUT);
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import im.turms.common.constant.ProfileAccessStrategy;
+import im.turms.server.common.dao.context.TurmsMongoMappingContext;
+import im.turms.server.common.dao.domain.User;
+import im.turms.turms.bo.ContinuationToken;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.builder.QueryBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of querying a deep page of users between the offset pagination and the keyset pagination.
+ * The offset pagination has to scan all the skipped records, while the keyset pagination seeks to the first record
+ * of the page with the index directly.
+ * <p>
+ * Requires a running MongoDB server, which is "mongodb://localhost:27017" by default
+ * and can be specified by the system property "turms.benchmark.mongo.url".
+ * The benchmark preloads the users into the database "turms-benchmark" and drops the database in the teardown.
+ * The number of the preloaded users is 10,000,000 by default
+ * and can be specified by the system property "turms.benchmark.user.count".
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeysetPaginationBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(30);
+    private static final String DATABASE_NAME = "turms-benchmark";
+    private static final int PRELOAD_BATCH_SIZE = 10_000;
+    private static final int PAGE_SIZE = 100;
+    /**
+     * Ten users are registered in the same millisecond
+     * so that the keyset pagination over the registration date needs the tie-breaker of IDs
+     */
+    private static final int USERS_PER_MILLISECOND = 10;
+    private static final long REGISTRATION_DATE_EPOCH = 1602547200000L;
+
+    /**
+     * The position of the page in all users
+     */
+    @Param({"0.001", "0.5", "0.99"})
+    private double depth;
+
+    private MongoClient mongoClient;
+    private ReactiveMongoTemplate mongoTemplate;
+    private int page;
+    /**
+     * The ID of the last user in the previous page
+     */
+    private long lastUserId;
+
+    @Setup
+    public void setup() {
+        String url = System.getProperty("turms.benchmark.mongo.url", "mongodb://localhost:27017");
+        long userCount = Long.getLong("turms.benchmark.user.count", 10_000_000L);
+        mongoClient = MongoClients.create(url);
+        TurmsMongoMappingContext context = new TurmsMongoMappingContext();
+        context.setAutoIndexCreation(false);
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        mongoTemplate = new ReactiveMongoTemplate(new SimpleReactiveMongoDatabaseFactory(mongoClient, DATABASE_NAME), converter);
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+
+        mongoTemplate.indexOps(User.COLLECTION_NAME)
+                .ensureIndex(new Index()
+                        .on(User.Fields.REGISTRATION_DATE, Sort.Direction.ASC)
+                        .on(DaoConstant.ID_FIELD_NAME, Sort.Direction.ASC))
+                .block(TIMEOUT);
+        preload(userCount);
+        page = (int) Math.min(userCount / PAGE_SIZE - 1, (long) (userCount / PAGE_SIZE * depth));
+        lastUserId = (long) page * PAGE_SIZE;
+    }
+
+    @TearDown
+    public void tearDown() {
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public List<User> queryPageByOffset() {
+        Query query = QueryBuilder.newBuilder()
+                .paginateIfNotNull(page, PAGE_SIZE, Sort.Direction.ASC, DaoConstant.ID_FIELD_NAME);
+        return find(query);
+    }
+
+    @Benchmark
+    public List<User> queryPageByKeyset() {
+        ContinuationToken token = new ContinuationToken(null, null, lastUserId);
+        Query query = QueryBuilder.newBuilder()
+                .seekIfNotNull(token, PAGE_SIZE, Sort.Direction.ASC, null);
+        return find(query);
+    }
+
+    @Benchmark
+    public List<User> queryPageSortedByRegistrationDateByOffset() {
+        Query query = QueryBuilder.newBuilder()
+                .paginateIfNotNull(page, PAGE_SIZE, Sort.Direction.ASC,
+                        User.Fields.REGISTRATION_DATE, DaoConstant.ID_FIELD_NAME);
+        return find(query);
+    }
+
+    @Benchmark
+    public List<User> queryPageSortedByRegistrationDateByKeyset() {
+        ContinuationToken token = new ContinuationToken(User.Fields.REGISTRATION_DATE, getRegistrationDate(lastUserId), lastUserId);
+        Query query = QueryBuilder.newBuilder()
+                .seekIfNotNull(token, PAGE_SIZE, Sort.Direction.ASC, User.Fields.REGISTRATION_DATE);
+        return find(query);
+    }
+
+    private List<User> find(Query query) {
+        return mongoTemplate.find(query, User.class, User.COLLECTION_NAME)
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    private void preload(long userCount) {
+        for (long loaded = 0; loaded < userCount; loaded += PRELOAD_BATCH_SIZE) {
+            int batchSize = (int) Math.min(PRELOAD_BATCH_SIZE, userCount - loaded);
+            List<User> users = new ArrayList<>(batchSize);
+            for (int i = 1; i <= batchSize; i++) {
+                long id = loaded + i;
+                Date registrationDate = getRegistrationDate(id);
+                users.add(new User(id,
+                        "password",
+                        "user" + id,
+                        null,
+                        ProfileAccessStrategy.ALL,
+                        1L,
+                        registrationDate,
+                        null,
+                        true,
+                        registrationDate));
+            }
+            mongoTemplate.insert(users, User.COLLECTION_NAME).blockLast(TIMEOUT);
+        }
+    }
+
+    private Date getRegistrationDate(long userId) {
+        return new Date(REGISTRATION_DATE_EPOCH + userId / USERS_PER_MILLISECOND);
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import im.turms.server.common.dao.context.TurmsMongoMappingContext;
+import im.turms.server.common.dao.util.MongoUtil;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.constant.MessageCollectionLayout;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the write throughput and the latency of querying the recent messages of a conversation
+ * between the single message collection and the daily bucketed message collections.
+ * <p>
+ * Requires a running MongoDB server, which is "mongodb://localhost:27017" by default
+ * and can be specified by the system property "turms.benchmark.mongo.url".
+ * The benchmark preloads the messages of {@link #HISTORY_DAYS} days into the database "turms-benchmark"
+ * and drops the database in the teardown. The number of the preloaded messages is 1,000,000 by default
+ * and can be specified by the system property "turms.benchmark.message.count",
+ * e.g. "1000000000" to compare the layouts with one billion messages.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageCollectionLayoutBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(10);
+    private static final String DATABASE_NAME = "turms-benchmark";
+    private static final int HISTORY_DAYS = 30;
+    private static final int PRELOAD_BATCH_SIZE = 10_000;
+    private static final int CONVERSATION_COUNT = 10_000;
+    private static final int QUERY_SIZE = 100;
+    /**
+     * The custom epoch of snowflake IDs
+     */
+    private static final long EPOCH = 1602547200000L;
+    private static final int TIMESTAMP_LEFT_SHIFT = 22;
+    private static final long SEQUENCE_MASK = (1L << TIMESTAMP_LEFT_SHIFT) - 1;
+
+    @Param({"SINGLE", "DAILY"})
+    private MessageCollectionLayout layout;
+
+    private MongoClient mongoClient;
+    private ReactiveMongoTemplate mongoTemplate;
+    private MessageCollectionRouter router;
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        String url = System.getProperty("turms.benchmark.mongo.url", "mongodb://localhost:27017");
+        long messageCount = Long.getLong("turms.benchmark.message.count", 1_000_000L);
+        mongoClient = MongoClients.create(url);
+        TurmsMongoMappingContext context = new TurmsMongoMappingContext();
+        context.setAutoIndexCreation(false);
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        mongoTemplate = new ReactiveMongoTemplate(new SimpleReactiveMongoDatabaseFactory(mongoClient, DATABASE_NAME), converter);
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().setCollectionLayout(layout);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        router = new MessageCollectionRouter(mongoTemplate, propertiesManager);
+        if (!router.isBucketed()) {
+            // The bucketed collections are indexed when they are created
+            MongoUtil.createIndexes(mongoTemplate, Message.class, Message.COLLECTION_NAME).block(TIMEOUT);
+        }
+        preload(messageCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.destroy();
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        Message message = newMessage(System.currentTimeMillis());
+        return router.ensureCollections(message.getId())
+                .then(mongoTemplate.insert(message, router.getMessageCollectionName(message.getId())))
+                .block(TIMEOUT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Message> queryRecentMessages() {
+        long now = System.currentTimeMillis();
+        DateRange range = DateRange.of(new Date(now - TimeUnit.HOURS.toMillis(12)), new Date(now));
+        Query query = new Query()
+                .addCriteria(Criteria.where(Message.Fields.TARGET_ID).is(now % CONVERSATION_COUNT))
+                .addCriteria(Criteria.where(Message.Fields.DELIVERY_DATE).gte(range.getStart()).lte(range.getEnd()))
+                .with(Sort.by(Sort.Direction.DESC, Message.Fields.DELIVERY_DATE))
+                .limit(QUERY_SIZE);
+        return router.find(query,
+                Message.class,
+                router.getMessageCollectionNames(range),
+                Comparator.comparing(Message::getDeliveryDate).reversed())
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    private void preload(long messageCount) {
+        long now = System.currentTimeMillis();
+        long interval = Math.max(1, TimeUnit.DAYS.toMillis(HISTORY_DAYS) / messageCount);
+        long timestamp = now - TimeUnit.DAYS.toMillis(HISTORY_DAYS);
+        for (long loaded = 0; loaded < messageCount; loaded += PRELOAD_BATCH_SIZE) {
+            int batchSize = (int) Math.min(PRELOAD_BATCH_SIZE, messageCount - loaded);
+            Map<String, List<Message>> collectionNameAndMessages = new TreeMap<>();
+            for (int i = 0; i < batchSize; i++) {
+                Message message = newMessage(timestamp);
+                collectionNameAndMessages
+                        .computeIfAbsent(router.getMessageCollectionName(message.getId()), name -> new ArrayList<>())
+                        .add(message);
+                timestamp += interval;
+            }
+            Flux.fromIterable(collectionNameAndMessages.entrySet())
+                    .concatMap(entry -> router.ensureCollections(entry.getValue().get(0).getId())
+                            .thenMany(mongoTemplate.insert(entry.getValue(), entry.getKey())))
+                    .blockLast(TIMEOUT);
+        }
+    }
+
+    private Message newMessage(long timestamp) {
+        long id = ((timestamp - EPOCH) << TIMESTAMP_LEFT_SHIFT) | (sequence++ & SEQUENCE_MASK);
+        return new Message(id,
+                false,
+                false,
+                new Date(timestamp),
+                null,
+                "a".repeat(64),
+                id % CONVERSATION_COUNT,
+                (id >>> 8) % CONVERSATION_COUNT,
+                null,
+                null,
+                null);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.StringValue;
+import im.turms.common.model.dto.notification.TurmsNotification;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.server.common.util.ProtoUtil;
+import im.turms.turms.workflow.access.servicerequest.dispatcher.RelayedRequestNotificationEncoder;
+import im.turms.turms.workflow.access.servicerequest.dto.RelayedRequestPatch;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares relaying a CreateMessageRequest by re-serializing the patched request
+ * with wrapping the original request bytes.
+ * Run with "-prof gc" to compare the allocation rates.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RelayedRequestNotificationBenchmark {
+
+    @Param({"16", "1024", "16384"})
+    private int textLength;
+
+    private TurmsRequest request;
+    private ByteBuf requestBuffer;
+    private RelayedRequestPatch patch;
+
+    @Setup
+    public void setup() {
+        request = TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(1000).build())
+                .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                        .setRecipientId(Int64Value.newBuilder().setValue(123456789).build())
+                        .setDeliveryDate(System.currentTimeMillis())
+                        .setText(StringValue.newBuilder().setValue("a".repeat(textLength)).build()))
+                .build();
+        requestBuffer = ProtoUtil.getDirectByteBuffer(request);
+        patch = new RelayedRequestPatch(Long.MAX_VALUE, System.currentTimeMillis());
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestBuffer.release();
+    }
+
+    @Benchmark
+    public int reserialize() {
+        TurmsNotification notification = TurmsNotification.newBuilder()
+                .setRelayedRequest(patch.apply(request))
+                .setRequesterId(Int64Value.newBuilder().setValue(1).build())
+                .build();
+        return release(ProtoUtil.getDirectByteBuffer(notification));
+    }
+
+    @Benchmark
+    public int wrapOriginalBytes() {
+        return release(RelayedRequestNotificationEncoder.encode(1, requestBuffer, patch));
+    }
+
+    private static int release(ByteBuf buffer) {
+        int bytes = buffer.readableBytes();
+        buffer.release();
+        return bytes;
+    }
+
+}
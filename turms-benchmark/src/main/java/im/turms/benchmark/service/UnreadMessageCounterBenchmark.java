@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.benchmark.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.dao.context.TurmsMongoMappingContext;
+import im.turms.server.common.dao.util.MongoUtil;
+import im.turms.server.common.manager.TrivialTaskManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the latency of getting the pending message numbers of the conversations of a user
+ * between counting the message statuses of every conversation and reading the unread message counters,
+ * and measures the cost of maintaining the counters when a group message is fanned out.
+ * <p>
+ * Requires a running MongoDB server, which is "mongodb://localhost:27017" by default
+ * and can be specified by the system property "turms.benchmark.mongo.url".
+ * The benchmark preloads {@link #pendingMessagesPerConversation} pending messages
+ * for every conversation of {@link #USER_COUNT} users into the database "turms-benchmark",
+ * builds the counters by the reconciliation, and drops the database in the teardown.
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UnreadMessageCounterBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(10);
+    private static final String DATABASE_NAME = "turms-benchmark";
+    private static final int USER_COUNT = 1000;
+    private static final int GROUP_MEMBER_COUNT = 500;
+    private static final int PRELOAD_BATCH_SIZE = 10_000;
+
+    @Param({"10", "100"})
+    private int conversationsPerUser;
+
+    @Param({"10", "100"})
+    private int pendingMessagesPerConversation;
+
+    private MongoClient mongoClient;
+    private ReactiveMongoTemplate mongoTemplate;
+    private MessageCollectionRouter router;
+    private UnreadMessageCounterService counterService;
+    private long nextMessageId = 1;
+
+    @Setup
+    public void setup() {
+        String url = System.getProperty("turms.benchmark.mongo.url", "mongodb://localhost:27017");
+        mongoClient = MongoClients.create(url);
+        TurmsMongoMappingContext context = new TurmsMongoMappingContext();
+        context.setAutoIndexCreation(false);
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        mongoTemplate = new ReactiveMongoTemplate(new SimpleReactiveMongoDatabaseFactory(mongoClient, DATABASE_NAME), converter);
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        MongoUtil.createIndexes(mongoTemplate, MessageStatus.class, MessageStatus.COLLECTION_NAME).block(TIMEOUT);
+        MongoUtil.createIndexes(mongoTemplate, UnreadMessageCounter.class, UnreadMessageCounter.COLLECTION_NAME).block(TIMEOUT);
+
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().getUnreadMessageCounter().setEnabled(true);
+        // The counters are reconciled explicitly after the statuses are preloaded
+        properties.getService().getMessage().getUnreadMessageCounter().setReconcileOnStartup(false);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        Node node = mock(Node.class);
+        when(node.getSharedProperties()).thenReturn(properties);
+        router = new MessageCollectionRouter(mongoTemplate, propertiesManager);
+        counterService = new UnreadMessageCounterService(mongoTemplate,
+                router,
+                node,
+                propertiesManager,
+                mock(TrivialTaskManager.class));
+        preload();
+        counterService.reconcileCounters().block(TIMEOUT);
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.destroy();
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        mongoClient.close();
+    }
+
+    /**
+     * The baseline that runs a count for every conversation of the user
+     */
+    @Benchmark
+    public List<Long> countPendingMessagesOfConversations() {
+        long userId = randomUserId();
+        List<String> collectionNames = router.getMessageStatusCollectionNames((DateRange) null);
+        return Flux.range(0, conversationsPerUser)
+                .flatMap(i -> {
+                    Query query = new Query()
+                            .addCriteria(Criteria.where(MessageStatus.Fields.ID_RECIPIENT_ID).is(userId))
+                            .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY))
+                            .addCriteria(Criteria.where(MessageStatus.Fields.GROUP_ID).is(null))
+                            .addCriteria(Criteria.where(MessageStatus.Fields.SENDER_ID).is(toSenderId(i)));
+                    return router.count(query, MessageStatus.class, collectionNames);
+                })
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    @Benchmark
+    public List<UnreadMessageCounter> readCounters() {
+        return counterService.queryCounters(randomUserId(), null, conversationsPerUser, false)
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    /**
+     * The extra writes of the counters when the statuses of a group message are saved
+     */
+    @Benchmark
+    public void incrementCountersForGroupMessage() {
+        long messageId;
+        synchronized (this) {
+            messageId = nextMessageId++;
+        }
+        List<MessageStatus> statuses = new ArrayList<>(GROUP_MEMBER_COUNT);
+        long groupId = -1 - ThreadLocalRandom.current().nextInt(10);
+        for (long memberId = 1; memberId <= GROUP_MEMBER_COUNT; memberId++) {
+            statuses.add(newStatus(messageId, groupId, 1, memberId));
+        }
+        counterService.incrementCounters(statuses, null).block(TIMEOUT);
+    }
+
+    private void preload() {
+        List<MessageStatus> batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+        for (long userId = 1; userId <= USER_COUNT; userId++) {
+            for (int conversation = 0; conversation < conversationsPerUser; conversation++) {
+                for (int i = 0; i < pendingMessagesPerConversation; i++) {
+                    batch.add(newStatus(nextMessageId++, null, toSenderId(conversation), userId));
+                    if (batch.size() == PRELOAD_BATCH_SIZE) {
+                        insert(batch);
+                        batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            insert(batch);
+        }
+    }
+
+    private void insert(List<MessageStatus> statuses) {
+        mongoTemplate.insert(statuses, MessageStatus.COLLECTION_NAME).blockLast(TIMEOUT);
+    }
+
+    private static MessageStatus newStatus(long messageId, Long groupId, long senderId, long recipientId) {
+        return new MessageStatus(messageId, groupId, false, senderId, recipientId,
+                MessageDeliveryStatus.READY, null, null, null);
+    }
+
+    private static long toSenderId(int conversation) {
+        return 1_000_000L + conversation;
+    }
+
+    private static long randomUserId() {
+        return 1 + ThreadLocalRandom.current().nextInt(USER_COUNT);
+    }
+
+}
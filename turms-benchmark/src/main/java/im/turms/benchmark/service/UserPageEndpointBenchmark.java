@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.benchmark.service;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import im.turms.common.constant.ProfileAccessStrategy;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.dao.context.TurmsMongoMappingContext;
+import im.turms.server.common.dao.domain.User;
+import im.turms.server.common.manager.PasswordManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.turms.bo.ContinuationToken;
+import im.turms.turms.workflow.access.http.controller.user.UserController;
+import im.turms.turms.workflow.access.http.dto.response.PaginationDTO;
+import im.turms.turms.workflow.access.http.dto.response.ResponseDTO;
+import im.turms.turms.workflow.access.http.dto.response.ResponseFactory;
+import im.turms.turms.workflow.access.http.util.DateTimeUtil;
+import im.turms.turms.workflow.access.http.util.PageUtil;
+import im.turms.turms.workflow.service.impl.group.GroupMemberService;
+import im.turms.turms.workflow.service.impl.message.MessageService;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import im.turms.turms.workflow.service.impl.user.UserService;
+import im.turms.turms.workflow.service.impl.user.UserVersionService;
+import im.turms.turms.workflow.service.impl.user.onlineuser.SessionService;
+import im.turms.turms.workflow.service.impl.user.relationship.UserRelationshipGroupService;
+import im.turms.turms.workflow.service.impl.user.relationship.UserRelationshipService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.SimpleReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultMongoTypeMapper;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the latency of the admin API "GET /users/page" from the controller to MongoDB,
+ * including counting the total and building the response,
+ * to compare the offset pagination, the keyset pagination,
+ * and the keyset pagination that still counts the total on every page like before.
+ * <p>
+ * Requires a running MongoDB server, which is "mongodb://localhost:27017" by default
+ * and can be specified by the system property "turms.benchmark.mongo.url".
+ * The benchmark preloads the users into the database "turms-benchmark" and drops the database in the teardown.
+ * The number of the preloaded users is 1,000,000 by default
+ * and can be specified by the system property "turms.benchmark.user.count".
+ *
+ * @author James Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserPageEndpointBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(30);
+    private static final String DATABASE_NAME = "turms-benchmark";
+    private static final int PRELOAD_BATCH_SIZE = 10_000;
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * The position of the page in all users
+     */
+    @Param({"0.001", "0.99"})
+    private double depth;
+
+    private MongoClient mongoClient;
+    private UserService userService;
+    private UserController userController;
+    private PageUtil pageUtil;
+    private int page;
+    private String continuationToken;
+
+    @Setup
+    public void setup() {
+        String url = System.getProperty("turms.benchmark.mongo.url", "mongodb://localhost:27017");
+        long userCount = Long.getLong("turms.benchmark.user.count", 1_000_000L);
+        mongoClient = MongoClients.create(url);
+        TurmsMongoMappingContext context = new TurmsMongoMappingContext();
+        context.setAutoIndexCreation(false);
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.setTypeMapper(new DefaultMongoTypeMapper(null));
+        converter.afterPropertiesSet();
+        ReactiveMongoTemplate mongoTemplate =
+                new ReactiveMongoTemplate(new SimpleReactiveMongoDatabaseFactory(mongoClient, DATABASE_NAME), converter);
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+
+        Node node = mock(Node.class);
+        when(node.getSharedProperties()).thenReturn(new TurmsProperties());
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.getRegistry()).thenReturn(new SimpleMeterRegistry());
+        userService = new UserService(node,
+                mongoTemplate,
+                mock(PasswordManager.class),
+                mock(UserRelationshipService.class),
+                mock(GroupMemberService.class),
+                mock(UserVersionService.class),
+                mock(UserRelationshipGroupService.class),
+                mock(SessionService.class),
+                metricsService);
+        pageUtil = new PageUtil(node);
+        userController = new UserController(userService, pageUtil, mock(MessageService.class), mock(DateTimeUtil.class));
+        preload(mongoTemplate, userCount);
+        page = (int) Math.min(userCount / PAGE_SIZE - 1, (long) (userCount / PAGE_SIZE * depth));
+        continuationToken = new ContinuationToken(null, null, (long) page * PAGE_SIZE).encode();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Flux.from(mongoClient.getDatabase(DATABASE_NAME).drop()).blockLast(TIMEOUT);
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<ResponseDTO<PaginationDTO<User>>> queryPageByOffset() {
+        return userController.queryUsers(null, null, null, null, null, null, page, null, PAGE_SIZE)
+                .block(TIMEOUT);
+    }
+
+    @Benchmark
+    public ResponseEntity<ResponseDTO<PaginationDTO<User>>> queryPageByKeyset() {
+        return userController.queryUsers(null, null, null, null, null, null, 0, continuationToken, PAGE_SIZE)
+                .block(TIMEOUT);
+    }
+
+    /**
+     * The endpoint before it skipped counting the total for the pages after the first one
+     */
+    @Benchmark
+    public ResponseEntity<ResponseDTO<PaginationDTO<User>>> queryPageByKeysetWithTotal() {
+        ContinuationToken token = pageUtil.parseContinuationToken(continuationToken);
+        return ResponseFactory.page(userService.countUsers(null, null, null, null),
+                userService.queryUsers(null, null, null, null, 0, token, PAGE_SIZE, true),
+                pageUtil.nextContinuationToken(PAGE_SIZE, User::getId))
+                .block(TIMEOUT);
+    }
+
+    private void preload(ReactiveMongoTemplate mongoTemplate, long userCount) {
+        Date registrationDate = new Date();
+        for (long loaded = 0; loaded < userCount; loaded += PRELOAD_BATCH_SIZE) {
+            int batchSize = (int) Math.min(PRELOAD_BATCH_SIZE, userCount - loaded);
+            List<User> users = new ArrayList<>(batchSize);
+            for (int i = 1; i <= batchSize; i++) {
+                long id = loaded + i;
+                users.add(new User(id,
+                        "password",
+                        "user" + id,
+                        null,
+                        ProfileAccessStrategy.ALL,
+                        1L,
+                        registrationDate,
+                        null,
+                        true,
+                        registrationDate));
+            }
+            mongoTemplate.insert(users, User.COLLECTION_NAME).blockLast(TIMEOUT);
+        }
+    }
+
+}
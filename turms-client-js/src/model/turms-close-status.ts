@@ -6,6 +6,7 @@ enum TurmsCloseStatus {
     HEARTBEAT_TIMEOUT,
     DISCONNECTED_BY_CLIENT,
     DISCONNECTED_BY_OTHER_DEVICE,
+    SLOW_CONSUMER,
 
     SERVER_ERROR = 4500,
     SERVER_CLOSED,
@@ -5,6 +5,7 @@ declare enum TurmsCloseStatus {
     HEARTBEAT_TIMEOUT = 4401,
     DISCONNECTED_BY_CLIENT = 4402,
     DISCONNECTED_BY_OTHER_DEVICE = 4403,
+    SLOW_CONSUMER = 4404,
     SERVER_ERROR = 4500,
     SERVER_CLOSED = 4501,
     SERVER_UNAVAILABLE = 4502,
@@ -28,6 +28,7 @@ import im.turms.gateway.access.tcp.dto.RequestHandlerResult;
 import im.turms.gateway.access.tcp.model.UserSessionWrapper;
 import im.turms.gateway.pojo.bo.session.UserSession;
 import im.turms.gateway.pojo.bo.session.connection.TcpConnection;
+import im.turms.gateway.service.impl.LoginAdmissionService;
 import im.turms.gateway.service.mediator.ServiceMediator;
 import io.netty.util.Timeout;
 import org.springframework.data.geo.Point;
@@ -42,9 +43,11 @@ import reactor.netty.Connection;
 public class SessionController {
 
     private final ServiceMediator serviceMediator;
+    private final LoginAdmissionService loginAdmissionService;
 
-    public SessionController(ServiceMediator serviceMediator) {
+    public SessionController(ServiceMediator serviceMediator, LoginAdmissionService loginAdmissionService) {
         this.serviceMediator = serviceMediator;
+        this.loginAdmissionService = loginAdmissionService;
     }
 
     public Mono<TurmsNotification> handleDeleteSessionRequest(UserSessionWrapper sessionWrapper) {
@@ -63,6 +66,11 @@ public class SessionController {
         if (sessionWrapper.hasUserSession()) {
             return Mono.just(new RequestHandlerResult(TurmsStatusCode.CLIENT_SESSION_ALREADY_ESTABLISHED));
         }
+        long retryAfterMillis = loginAdmissionService.tryAdmit();
+        if (retryAfterMillis > 0) {
+            return Mono.just(new RequestHandlerResult(TurmsStatusCode.UNAVAILABLE,
+                    LoginAdmissionService.getRejectionReason(retryAfterMillis)));
+        }
         long userId = createSessionRequest.getUserId();
         String password = createSessionRequest.hasPassword()
                 ? createSessionRequest.getPassword().getValue()
@@ -22,6 +22,7 @@ import im.turms.common.constant.UserStatus;
 import im.turms.common.constant.statuscode.TurmsStatusCode;
 import im.turms.common.exception.TurmsBusinessException;
 import im.turms.gateway.access.websocket.util.HandshakeRequestUtil;
+import im.turms.gateway.service.impl.LoginAdmissionService;
 import im.turms.gateway.service.mediator.ServiceMediator;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.property.TurmsPropertiesManager;
@@ -71,7 +72,13 @@ public class TurmsHandshakeWebSocketService extends HandshakeWebSocketService {
     private final Node node;
     private final TurmsPropertiesManager turmsPropertiesManager;
     private final ServiceMediator serviceMediator;
+    private final LoginAdmissionService loginAdmissionService;
     private final boolean locationEnabled;
+    /**
+     * Suggest the clients when to retry if the server is unavailable (e.g. too many pending logins)
+     * so that they don't reconnect immediately and make things worse
+     */
+    private final String defaultRetryAfterSeconds;
 
     private List<String> identityList;
 
@@ -79,11 +86,17 @@ public class TurmsHandshakeWebSocketService extends HandshakeWebSocketService {
     public TurmsHandshakeWebSocketService(
             Node node,
             TurmsPropertiesManager turmsPropertiesManager,
-            ServiceMediator serviceMediator) {
+            ServiceMediator serviceMediator,
+            LoginAdmissionService loginAdmissionService) {
         this.node = node;
         this.turmsPropertiesManager = turmsPropertiesManager;
         this.serviceMediator = serviceMediator;
+        this.loginAdmissionService = loginAdmissionService;
         locationEnabled = turmsPropertiesManager.getLocalProperties().getLocation().isEnabled();
+        defaultRetryAfterSeconds = Integer.toString(turmsPropertiesManager.getLocalProperties()
+                .getSecurity()
+                .getPasswordVerification()
+                .getRetryAfterSeconds());
         identityList = getNewIdentityList();
         turmsPropertiesManager.addListeners(turmsProperties -> identityList = getNewIdentityList());
     }
@@ -127,6 +140,12 @@ public class TurmsHandshakeWebSocketService extends HandshakeWebSocketService {
         if (!node.isActive()) {
             return rejectUpgradeRequest(exchange, TurmsStatusCode.UNAVAILABLE, requestId, userId, loggingInDeviceType);
         }
+        long retryAfterMillis = loginAdmissionService.tryAdmit();
+        if (retryAfterMillis > 0) {
+            // Round up so that the clients won't retry earlier than suggested
+            String retryAfterSeconds = Long.toString((retryAfterMillis + 999) / 1000);
+            return rejectUpgradeRequest(exchange, TurmsStatusCode.UNAVAILABLE, retryAfterSeconds, requestId, userId, loggingInDeviceType);
+        }
         if (identityList != null) {
             exchange.getResponse().getHeaders().put(RESPONSE_HEADER_NODE_IDENTITY, identityList);
         }
@@ -161,9 +180,22 @@ public class TurmsHandshakeWebSocketService extends HandshakeWebSocketService {
             @Nullable Long requestId,
             @Nullable Long userId,
             @Nullable DeviceType loggingInDeviceType) {
+        return rejectUpgradeRequest(exchange, statusCode, defaultRetryAfterSeconds, requestId, userId, loggingInDeviceType);
+    }
+
+    private Mono<Void> rejectUpgradeRequest(
+            @NotNull ServerWebExchange exchange,
+            @NotNull TurmsStatusCode statusCode,
+            @NotNull String retryAfterSeconds,
+            @Nullable Long requestId,
+            @Nullable Long userId,
+            @Nullable DeviceType loggingInDeviceType) {
         HttpHeaders headers = exchange.getResponse().getHeaders();
         String headerCodeValue = CODE_STRING_POOL.computeIfAbsent(statusCode, key -> Integer.toString(key.getBusinessCode()));
         headers.set(RESPONSE_HEADER_TURMS_STATUS_CODE, headerCodeValue);
+        if (statusCode == TurmsStatusCode.UNAVAILABLE) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+        }
         ResponseStatusException exception = new ResponseStatusException(HttpStatus.valueOf(statusCode.getHttpStatusCode()));
         return serviceMediator.rejectLoginRequest(statusCode, userId, loggingInDeviceType, requestId)
                 .then(Mono.error(exception));
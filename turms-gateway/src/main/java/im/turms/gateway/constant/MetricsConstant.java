@@ -27,4 +27,21 @@ public class MetricsConstant {
 
     public static final String LOGGED_IN_USERS_COUNTER_NAME = "user.logged_in";
     public static final String ONLINE_USERS_GAUGE_NAME = "user.online";
+
+    public static final String QUEUED_NOTIFICATIONS_GAUGE_NAME = "session.notification.queued";
+    public static final String QUEUED_NOTIFICATION_BYTES_GAUGE_NAME = "session.notification.queued.bytes";
+    public static final String DROPPED_NOTIFICATIONS_COUNTER_NAME = "session.notification.dropped";
+    public static final String DROPPED_NOTIFICATION_BYTES_COUNTER_NAME = "session.notification.dropped.bytes";
+    public static final String SLOW_CONSUMER_DISCONNECTIONS_COUNTER_NAME = "session.slow_consumer.disconnected";
+    public static final String HEARTBEAT_REFRESH_BATCH_SIZE_NAME = "session.heartbeat.refresh.batch.size";
+    public static final String HEARTBEAT_REFRESH_FLUSH_TIMER_NAME = "session.heartbeat.refresh.flush";
+    public static final String HEARTBEAT_REFRESH_FAILED_COUNTER_NAME = "session.heartbeat.refresh.failed";
+    public static final String HEARTBEAT_REFRESH_MISSING_SESSIONS_COUNTER_NAME = "session.heartbeat.refresh.missing";
+    public static final String LOGIN_ADMISSION_ADMITTED_COUNTER_NAME = "login.admission.admitted";
+    public static final String LOGIN_ADMISSION_REJECTED_COUNTER_NAME = "login.admission.rejected";
+    public static final String LOGIN_ADMISSION_RATE_GAUGE_NAME = "login.admission.rate";
+    public static final String LOGIN_ADMISSION_SESSION_REGISTRATION_TIMER_NAME = "login.admission.session.registration";
+
+    public static final String TAG_DEVICE_TYPE = "device_type";
+    public static final String TAG_SHARD = "shard";
 }
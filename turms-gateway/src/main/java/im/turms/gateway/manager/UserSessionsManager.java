@@ -23,26 +23,32 @@ import im.turms.common.constant.statuscode.SessionCloseStatus;
 import im.turms.common.model.bo.signal.Session;
 import im.turms.common.model.dto.notification.TurmsNotification;
 import im.turms.gateway.access.udp.UdpDispatcher;
+import im.turms.gateway.pojo.bo.session.NotificationQueueMetrics;
 import im.turms.gateway.pojo.bo.session.UserSession;
 import im.turms.gateway.pojo.bo.session.connection.NetConnection;
 import im.turms.server.common.constraint.ValidDeviceType;
 import im.turms.server.common.dto.CloseReason;
+import im.turms.server.common.property.env.gateway.NotificationQueueProperties;
 import im.turms.server.common.util.DeviceTypeUtil;
-import im.turms.server.common.util.MapUtil;
 import im.turms.server.common.util.ProtoUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.HashedWheelTimer;
 import io.netty.util.Timeout;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import org.springframework.data.geo.Point;
 import org.springframework.util.Assert;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author James Chen
@@ -57,7 +63,12 @@ public final class UserSessionsManager {
 
     private final Long userId;
     private UserStatus userStatus;
-    private final Map<DeviceType, UserSession> sessionMap = new ConcurrentHashMap<>(MapUtil.getCapability(DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES.length));
+    /**
+     * A fixed-size slot array indexed by {@link DeviceType#getNumber()}
+     * instead of a map to keep the footprint of every online user small
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicReferenceArray<UserSession> sessions = new AtomicReferenceArray<>(DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES.length);
 
     public UserSessionsManager(
             @NotNull Long userId,
@@ -74,14 +85,18 @@ public final class UserSessionsManager {
             @Nullable Point position,
             @Nullable Long logId,
             int closeIdleSessionAfterMillis,
-            int switchProtocolAfterMillis) {
+            int switchProtocolAfterMillis,
+            @Nullable NotificationQueueProperties notificationQueueProperties,
+            @Nullable NotificationQueueMetrics notificationQueueMetrics) {
         Assert.notNull(loggingInDeviceType, "loggingInDeviceType must not be null");
         UserSession userSession = new UserSession(
                 userId,
                 loggingInDeviceType,
                 position,
-                logId);
-        boolean added = sessionMap.putIfAbsent(loggingInDeviceType, userSession) == null;
+                logId,
+                notificationQueueProperties,
+                notificationQueueMetrics);
+        boolean added = sessions.compareAndSet(loggingInDeviceType.getNumber(), null, userSession);
         if (added) {
             if (closeIdleSessionAfterMillis > 0) {
                 updateSessionHeartbeatTimeout(loggingInDeviceType, userSession, closeIdleSessionAfterMillis, switchProtocolAfterMillis);
@@ -95,14 +110,14 @@ public final class UserSessionsManager {
     public void setDeviceOffline(
             @NotNull DeviceType deviceType,
             @NotNull CloseReason closeReason) {
-        sessionMap.computeIfPresent(deviceType, (key, session) -> {
+        UserSession session = sessions.getAndSet(deviceType.getNumber(), null);
+        if (session != null) {
             session.close(closeReason);
-            return null;
-        });
+        }
     }
 
     public boolean pushSessionNotification(DeviceType deviceType) {
-        UserSession userSession = sessionMap.get(deviceType);
+        UserSession userSession = getSession(deviceType);
         if (userSession != null) {
             Session session = Session.newBuilder()
                     .setSessionId(Integer.toString(userSession.getId()))
@@ -118,16 +133,50 @@ public final class UserSessionsManager {
         }
     }
 
+    @Nullable
     public UserSession getSession(@NotNull DeviceType deviceType) {
-        return sessionMap.get(deviceType);
+        return sessions.get(deviceType.getNumber());
+    }
+
+    /**
+     * @return a snapshot of the sessions.
+     * Use {@link #getSession(DeviceType)} on hot paths to avoid allocating a map.
+     */
+    public Map<DeviceType, UserSession> getSessionMap() {
+        Map<DeviceType, UserSession> sessionMap = new EnumMap<>(DeviceType.class);
+        for (DeviceType deviceType : DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES) {
+            UserSession session = getSession(deviceType);
+            if (session != null) {
+                sessionMap.put(deviceType, session);
+            }
+        }
+        return sessionMap;
     }
 
     public int getSessionsNumber() {
-        return sessionMap.size();
+        int number = 0;
+        for (int i = 0; i < sessions.length(); i++) {
+            if (sessions.get(i) != null) {
+                number++;
+            }
+        }
+        return number;
     }
 
+    /**
+     * @return a snapshot of the logged-in device types
+     */
     public Set<DeviceType> getLoggedInDeviceTypes() {
-        return sessionMap.keySet();
+        Set<DeviceType> deviceTypes = null;
+        for (DeviceType deviceType : DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES) {
+            if (getSession(deviceType) != null) {
+                if (deviceTypes == null) {
+                    deviceTypes = EnumSet.noneOf(DeviceType.class);
+                }
+                deviceTypes.add(deviceType);
+            }
+        }
+        return deviceTypes != null ? deviceTypes : Collections.emptySet();
     }
 
     /**
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.gateway.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * A registry of the local user sessions managers keyed by the primitive user ID.
+ * <p>
+ * Compared with {@code ConcurrentHashMap<Long, UserSessionsManager>}, it doesn't box the user ID
+ * and doesn't allocate a node per entry, which matters when a gateway serves millions of sessions.
+ * The registry is split into stripes, and each stripe is an open-addressing hash table
+ * with linear probing guarded by its own {@link StampedLock}, so reads are usually lock-free
+ * (optimistic reads) and writes only contend within a stripe.
+ *
+ * @author James Chen
+ */
+public final class UserSessionsRegistry {
+
+    private static final int STRIPE_COUNT = 64;
+    private static final int STRIPE_SHIFT = Integer.numberOfTrailingZeros(STRIPE_COUNT);
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final AtomicInteger size = new AtomicInteger();
+
+    public UserSessionsRegistry(int expectedSize) {
+        int stripeCapacity = tableSizeFor(Math.max(MIN_STRIPE_CAPACITY, expectedSize / STRIPE_COUNT * 2));
+        stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    public UserSessionsManager get(long userId) {
+        int hash = hash(userId);
+        return stripes[hash & (STRIPE_COUNT - 1)].get(userId, hash >>> STRIPE_SHIFT);
+    }
+
+    public UserSessionsManager computeIfAbsent(long userId, LongFunction<UserSessionsManager> mappingFunction) {
+        UserSessionsManager manager = get(userId);
+        if (manager != null) {
+            return manager;
+        }
+        int hash = hash(userId);
+        return stripes[hash & (STRIPE_COUNT - 1)].computeIfAbsent(userId, hash >>> STRIPE_SHIFT, mappingFunction, size);
+    }
+
+    /**
+     * @return true if the manager was removed
+     */
+    public boolean remove(long userId, UserSessionsManager manager) {
+        int hash = hash(userId);
+        return stripes[hash & (STRIPE_COUNT - 1)].remove(userId, hash >>> STRIPE_SHIFT, manager, size);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * The action is run outside the locks with a snapshot of each stripe,
+     * so it is allowed to modify the registry.
+     */
+    public void forEach(Consumer<UserSessionsManager> action) {
+        for (Stripe stripe : stripes) {
+            for (UserSessionsManager manager : stripe.values()) {
+                action.accept(manager);
+            }
+        }
+    }
+
+    private static int hash(long userId) {
+        long hash = userId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int highestOneBit = Integer.highestOneBit(capacity);
+        return highestOneBit == capacity ? capacity : highestOneBit << 1;
+    }
+
+    private static final class Table {
+        private final long[] keys;
+        /**
+         * A slot is empty if its value is null
+         */
+        private final UserSessionsManager[] values;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            values = new UserSessionsManager[capacity];
+        }
+    }
+
+    private static final class Stripe extends StampedLock {
+
+        private Table table;
+        private int size;
+
+        private Stripe(int capacity) {
+            table = new Table(capacity);
+        }
+
+        private UserSessionsManager get(long key, int hash) {
+            long stamp = tryOptimisticRead();
+            UserSessionsManager value = find(table, key, hash);
+            if (validate(stamp)) {
+                return value;
+            }
+            stamp = readLock();
+            try {
+                return find(table, key, hash);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private UserSessionsManager computeIfAbsent(long key, int hash, LongFunction<UserSessionsManager> mappingFunction, AtomicInteger totalSize) {
+            long stamp = writeLock();
+            try {
+                UserSessionsManager value = find(table, key, hash);
+                if (value != null) {
+                    return value;
+                }
+                value = mappingFunction.apply(key);
+                if (value == null) {
+                    return null;
+                }
+                if ((size + 1) * 2 > table.keys.length) {
+                    resize();
+                }
+                insert(table, key, hash, value);
+                size++;
+                totalSize.incrementAndGet();
+                return value;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private boolean remove(long key, int hash, UserSessionsManager expectedValue, AtomicInteger totalSize) {
+            long stamp = writeLock();
+            try {
+                Table t = table;
+                int mask = t.keys.length - 1;
+                int index = hash & mask;
+                for (int probes = 0; probes <= mask; probes++) {
+                    UserSessionsManager value = t.values[index];
+                    if (value == null) {
+                        return false;
+                    }
+                    if (t.keys[index] == key) {
+                        if (value != expectedValue) {
+                            return false;
+                        }
+                        delete(t, index);
+                        size--;
+                        totalSize.decrementAndGet();
+                        return true;
+                    }
+                    index = (index + 1) & mask;
+                }
+                return false;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private List<UserSessionsManager> values() {
+            long stamp = readLock();
+            try {
+                List<UserSessionsManager> values = new ArrayList<>(size);
+                for (UserSessionsManager value : table.values) {
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+                return values;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        /**
+         * The probes are bounded by the table length so that an optimistic read
+         * that races with a write will never loop forever.
+         */
+        private static UserSessionsManager find(Table t, long key, int hash) {
+            int mask = t.keys.length - 1;
+            int index = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                UserSessionsManager value = t.values[index];
+                if (value == null) {
+                    return null;
+                }
+                if (t.keys[index] == key) {
+                    return value;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static void insert(Table t, long key, int hash, UserSessionsManager value) {
+            int mask = t.keys.length - 1;
+            int index = hash & mask;
+            while (t.values[index] != null) {
+                index = (index + 1) & mask;
+            }
+            t.keys[index] = key;
+            t.values[index] = value;
+        }
+
+        /**
+         * Use backward-shift deletion instead of tombstones
+         * so that lookups never need to probe over deleted slots.
+         */
+        private static void delete(Table t, int index) {
+            int mask = t.keys.length - 1;
+            int hole = index;
+            t.values[hole] = null;
+            int current = (hole + 1) & mask;
+            while (t.values[current] != null) {
+                int ideal = (hash(t.keys[current]) >>> STRIPE_SHIFT) & mask;
+                if (((current - ideal) & mask) >= ((current - hole) & mask)) {
+                    t.keys[hole] = t.keys[current];
+                    t.values[hole] = t.values[current];
+                    t.values[current] = null;
+                    hole = current;
+                }
+                current = (current + 1) & mask;
+            }
+        }
+
+        private void resize() {
+            Table oldTable = table;
+            Table newTable = new Table(oldTable.keys.length << 1);
+            for (int i = 0; i < oldTable.keys.length; i++) {
+                UserSessionsManager value = oldTable.values[i];
+                if (value != null) {
+                    long key = oldTable.keys[i];
+                    insert(newTable, key, hash(key) >>> STRIPE_SHIFT, value);
+                }
+            }
+            table = newTable;
+        }
+    }
+
+}
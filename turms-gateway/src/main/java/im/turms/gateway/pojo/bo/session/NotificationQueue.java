@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.gateway.pojo.bo.session;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+
+import javax.annotation.Nullable;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The queue of the notifications that haven't been flushed to the client,
+ * which tracks the number and the total bytes of the queued notifications
+ * so that a slow client cannot retain notifications without limit.
+ * <p>
+ * Offering never fails so the queue is always accepted by the sink,
+ * and the overflow policy is applied by {@link UserSession} before offering.
+ *
+ * @author James Chen
+ */
+public final class NotificationQueue extends AbstractQueue<ByteBuf> {
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final int maxSize;
+    private final long maxBytes;
+    @Nullable
+    private final NotificationQueueMetrics metrics;
+
+    /**
+     * @param maxSize  0 means no limit
+     * @param maxBytes 0 means no limit
+     */
+    public NotificationQueue(int maxSize, long maxBytes, @Nullable NotificationQueueMetrics metrics) {
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+    }
+
+    public boolean isOverflowed(int incomingBytes) {
+        return (maxSize > 0 && size.get() >= maxSize)
+                || (maxBytes > 0 && bytes.get() + incomingBytes > maxBytes);
+    }
+
+    /**
+     * Drop the oldest notifications until a notification of incomingBytes can be queued
+     */
+    public void evictUntilAvailable(int incomingBytes) {
+        while (isOverflowed(incomingBytes)) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                return;
+            }
+            onDequeued(entry);
+            drop(entry.notification, entry.bytes);
+        }
+    }
+
+    public void drop(ByteBuf notification, int bytes) {
+        ReferenceCountUtil.safeRelease(notification);
+        if (metrics != null) {
+            metrics.onDropped(bytes);
+        }
+    }
+
+    public void onSlowConsumerDisconnected() {
+        if (metrics != null) {
+            metrics.onSlowConsumerDisconnected();
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public boolean offer(ByteBuf notification) {
+        // Record the bytes when queued because the reader index of a shared notification
+        // may be changed by other sessions before it is polled
+        Entry entry = new Entry(notification, notification.readableBytes());
+        queue.offer(entry);
+        size.incrementAndGet();
+        bytes.addAndGet(entry.bytes);
+        if (metrics != null) {
+            metrics.onQueued(entry.bytes);
+        }
+        return true;
+    }
+
+    @Override
+    public ByteBuf poll() {
+        Entry entry = queue.poll();
+        if (entry == null) {
+            return null;
+        }
+        onDequeued(entry);
+        return entry.notification;
+    }
+
+    @Override
+    public ByteBuf peek() {
+        Entry entry = queue.peek();
+        return entry == null ? null : entry.notification;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public Iterator<ByteBuf> iterator() {
+        Iterator<Entry> iterator = queue.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ByteBuf next() {
+                return iterator.next().notification;
+            }
+        };
+    }
+
+    private void onDequeued(Entry entry) {
+        size.decrementAndGet();
+        bytes.addAndGet(-entry.bytes);
+        if (metrics != null) {
+            metrics.onDequeued(entry.bytes);
+        }
+    }
+
+    private static final class Entry {
+        private final ByteBuf notification;
+        private final int bytes;
+
+        private Entry(ByteBuf notification, int bytes) {
+            this.notification = notification;
+            this.bytes = bytes;
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.gateway.pojo.bo.session;
+
+import io.micrometer.core.instrument.Counter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of the notification queues of the sessions on the same device type
+ *
+ * @author James Chen
+ */
+public final class NotificationQueueMetrics {
+
+    private final AtomicLong queuedNotifications;
+    private final AtomicLong queuedBytes;
+    private final Counter droppedNotificationsCounter;
+    private final Counter droppedBytesCounter;
+    private final Counter slowConsumerDisconnectionsCounter;
+
+    public NotificationQueueMetrics(AtomicLong queuedNotifications,
+                                    AtomicLong queuedBytes,
+                                    Counter droppedNotificationsCounter,
+                                    Counter droppedBytesCounter,
+                                    Counter slowConsumerDisconnectionsCounter) {
+        this.queuedNotifications = queuedNotifications;
+        this.queuedBytes = queuedBytes;
+        this.droppedNotificationsCounter = droppedNotificationsCounter;
+        this.droppedBytesCounter = droppedBytesCounter;
+        this.slowConsumerDisconnectionsCounter = slowConsumerDisconnectionsCounter;
+    }
+
+    void onQueued(int bytes) {
+        queuedNotifications.incrementAndGet();
+        queuedBytes.addAndGet(bytes);
+    }
+
+    void onDequeued(int bytes) {
+        queuedNotifications.decrementAndGet();
+        queuedBytes.addAndGet(-bytes);
+    }
+
+    void onDropped(int bytes) {
+        droppedNotificationsCounter.increment();
+        droppedBytesCounter.increment(bytes);
+    }
+
+    void onSlowConsumerDisconnected() {
+        slowConsumerDisconnectionsCounter.increment();
+    }
+
+}
@@ -18,10 +18,14 @@
 package im.turms.gateway.pojo.bo.session;
 
 import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.statuscode.SessionCloseStatus;
 import im.turms.common.util.RandomUtil;
 import im.turms.gateway.pojo.bo.session.connection.NetConnection;
 import im.turms.server.common.dto.CloseReason;
+import im.turms.server.common.property.constant.NotificationQueueOverflowPolicy;
+import im.turms.server.common.property.env.gateway.NotificationQueueProperties;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.Timeout;
 import lombok.AccessLevel;
 import lombok.Data;
@@ -30,8 +34,8 @@ import lombok.extern.log4j.Log4j2;
 import org.springframework.data.geo.Point;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Sinks;
-import reactor.util.concurrent.Queues;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import java.util.Date;
 
@@ -57,10 +61,15 @@ public final class UserSession {
      * we still use ByteBuf for code clarity and extensibility (we will integrate UDP in the future) and ByteBuf won't be copied in the scenario
      * so it's acceptable.
      * Note that the ByteBuf (TurmsNotification) comes from turms servers in most scenarios.
+     * <p>
+     * 3. The queue of the sink is bounded by notificationQueue so that a slow client
+     * cannot make turms-gateway retain notifications without limit.
      */
     @Getter(AccessLevel.PRIVATE)
-    private final Sinks.Many<ByteBuf> notificationSink = Sinks.many().unicast()
-            .onBackpressureBuffer(Queues.<ByteBuf>unbounded(64).get());
+    private final Sinks.Many<ByteBuf> notificationSink;
+    @Getter(AccessLevel.PRIVATE)
+    private final NotificationQueue notificationQueue;
+    private final NotificationQueueOverflowPolicy notificationQueueOverflowPolicy;
     private Timeout heartbeatTimeout;
     private Long logId;
     private volatile long lastHeartbeatTimestampMillis;
@@ -79,6 +88,18 @@ public final class UserSession {
                        DeviceType loggingInDeviceType,
                        Point loginLocation,
                        Long logId) {
+        this(userId, loggingInDeviceType, loginLocation, logId, null, null);
+    }
+
+    /**
+     * @param notificationQueueProperties the notification queue is unbounded if null
+     */
+    public UserSession(Long userId,
+                       DeviceType loggingInDeviceType,
+                       Point loginLocation,
+                       Long logId,
+                       @Nullable NotificationQueueProperties notificationQueueProperties,
+                       @Nullable NotificationQueueMetrics notificationQueueMetrics) {
         Date now = new Date();
         this.userId = userId;
         this.deviceType = loggingInDeviceType;
@@ -86,6 +107,16 @@ public final class UserSession {
         this.loginLocation = loginLocation;
         this.logId = logId;
         this.lastHeartbeatTimestampMillis = now.getTime();
+        if (notificationQueueProperties != null) {
+            notificationQueue = new NotificationQueue(notificationQueueProperties.getMaxSize(),
+                    notificationQueueProperties.getMaxBytes(),
+                    notificationQueueMetrics);
+            notificationQueueOverflowPolicy = notificationQueueProperties.getOverflowPolicy();
+        } else {
+            notificationQueue = new NotificationQueue(0, 0, notificationQueueMetrics);
+            notificationQueueOverflowPolicy = NotificationQueueOverflowPolicy.DROP_OLDEST;
+        }
+        notificationSink = Sinks.many().unicast().onBackpressureBuffer(notificationQueue);
     }
 
     /**
@@ -113,14 +144,43 @@ public final class UserSession {
     }
 
     public Flux<ByteBuf> getNotificationFlux() {
-        return notificationSink.asFlux();
+        // Release the queued notifications that won't be flushed after the session is closed
+        return notificationSink.asFlux()
+                .doOnDiscard(ByteBuf.class, ReferenceCountUtil::safeRelease);
     }
 
+    /**
+     * The reference count of the notification will be decreased by 1 by either
+     * the downstream after flushed or this method if the notification cannot be queued
+     */
     public boolean tryEmitNextNotification(ByteBuf byteBuf) {
+        int bytes = byteBuf.readableBytes();
+        if (notificationQueue.isOverflowed(bytes)) {
+            switch (notificationQueueOverflowPolicy) {
+                case DROP_OLDEST:
+                    notificationQueue.evictUntilAvailable(bytes);
+                    break;
+                case DROP_NEWEST:
+                    notificationQueue.drop(byteBuf, bytes);
+                    return false;
+                case DISCONNECT:
+                    notificationQueue.drop(byteBuf, bytes);
+                    if (isSessionOpen) {
+                        notificationQueue.onSlowConsumerDisconnected();
+                        close(CloseReason.get(SessionCloseStatus.SLOW_CONSUMER));
+                    }
+                    return false;
+                default:
+                    throw new IllegalStateException("Unexpected value: " + notificationQueueOverflowPolicy);
+            }
+        }
         Sinks.EmitResult result = notificationSink.tryEmitNext(byteBuf);
         boolean isEmitted = result == Sinks.EmitResult.OK;
-        if (!isEmitted && isSessionOpen) {
-            log.warn("Failed to send notifications due to " + result.name());
+        if (!isEmitted) {
+            ReferenceCountUtil.safeRelease(byteBuf);
+            if (isSessionOpen) {
+                log.warn("Failed to send notifications due to " + result.name());
+            }
         }
         return isEmitted;
     }
@@ -5,7 +5,9 @@ import im.turms.gateway.pojo.bo.login.LoginFailureReasonKey;
 import im.turms.gateway.pojo.bo.session.SessionDisconnectionReasonKey;
 import im.turms.server.common.bo.session.UserSessionId;
 import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.gateway.redis.sharding.RedisShardingProperties;
 import im.turms.server.common.redis.RedisTemplateFactory;
+import im.turms.server.common.redis.sharding.MigratingShardingAlgorithm;
 import im.turms.server.common.redis.sharding.ShardingAlgorithm;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
@@ -44,12 +46,14 @@ public class RedisConfig {
 
     @Bean
     public ShardingAlgorithm shardingAlgorithmForSession() {
-        return turmsPropertiesManager.getLocalProperties().getGateway().getRedis().getShardingProperties().getAlgorithmForSession();
+        RedisShardingProperties properties = turmsPropertiesManager.getLocalProperties().getGateway().getRedis().getShardingProperties();
+        return MigratingShardingAlgorithm.withMigration(properties.getAlgorithmForSession(), properties.getMigrationForSession());
     }
 
     @Bean
     public ShardingAlgorithm shardingAlgorithmForLocation() {
-        return turmsPropertiesManager.getLocalProperties().getGateway().getRedis().getShardingProperties().getAlgorithmForLocation();
+        RedisShardingProperties properties = turmsPropertiesManager.getLocalProperties().getGateway().getRedis().getShardingProperties();
+        return MigratingShardingAlgorithm.withMigration(properties.getAlgorithmForLocation(), properties.getMigrationForLocation());
     }
 
     @Bean
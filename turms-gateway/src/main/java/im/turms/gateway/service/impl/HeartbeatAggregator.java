@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.gateway.service.impl;
+
+import im.turms.server.common.property.env.gateway.HeartbeatRefreshBatchProperties;
+import im.turms.server.common.service.session.UserStatusService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static im.turms.gateway.constant.MetricsConstant.*;
+
+/**
+ * Collects the users whose heartbeat status needs to be refreshed
+ * and refreshes them periodically in pipelined batches per Redis shard
+ * so that turms-gateway won't flood Redis with an EXPIRE command per heartbeat.
+ * <p>
+ * If a batch fails, its users are collected again and will be retried in the next flush
+ * because their sessions are still alive locally and shouldn't expire in Redis.
+ *
+ * @author James Chen
+ */
+@Log4j2
+public class HeartbeatAggregator {
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("turms-heartbeat-aggregator"));
+    private final UserStatusService userStatusService;
+    private final Supplier<Duration> ttlSupplier;
+    private final int maxBatchSize;
+
+    private final List<Set<Long>> pendingUserIdsByShard;
+    private final List<AtomicBoolean> isFlushingByShard;
+
+    private final List<DistributionSummary> batchSizeSummaries;
+    private final List<Timer> flushTimers;
+    private final List<Counter> failedCounters;
+    private final List<Counter> missingSessionsCounters;
+
+    public HeartbeatAggregator(UserStatusService userStatusService,
+                               MeterRegistry registry,
+                               HeartbeatRefreshBatchProperties properties,
+                               Supplier<Duration> ttlSupplier) {
+        this.userStatusService = userStatusService;
+        this.ttlSupplier = ttlSupplier;
+        maxBatchSize = properties.getMaxBatchSize();
+        int shardCount = userStatusService.getSessionShardCount();
+        pendingUserIdsByShard = new ArrayList<>(shardCount);
+        isFlushingByShard = new ArrayList<>(shardCount);
+        batchSizeSummaries = new ArrayList<>(shardCount);
+        flushTimers = new ArrayList<>(shardCount);
+        failedCounters = new ArrayList<>(shardCount);
+        missingSessionsCounters = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Tags tags = Tags.of(TAG_SHARD, String.valueOf(i));
+            pendingUserIdsByShard.add(ConcurrentHashMap.newKeySet());
+            isFlushingByShard.add(new AtomicBoolean());
+            batchSizeSummaries.add(registry.summary(HEARTBEAT_REFRESH_BATCH_SIZE_NAME, tags));
+            flushTimers.add(registry.timer(HEARTBEAT_REFRESH_FLUSH_TIMER_NAME, tags));
+            failedCounters.add(registry.counter(HEARTBEAT_REFRESH_FAILED_COUNTER_NAME, tags));
+            missingSessionsCounters.add(registry.counter(HEARTBEAT_REFRESH_MISSING_SESSIONS_COUNTER_NAME, tags));
+        }
+        int flushIntervalMillis = properties.getFlushIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public void add(long userId) {
+        pendingUserIdsByShard.get(userStatusService.getSessionShardIndex(userId)).add(userId);
+    }
+
+    private void flush() {
+        for (int i = 0; i < pendingUserIdsByShard.size(); i++) {
+            try {
+                flush(i);
+            } catch (Exception e) {
+                log.error("Failed to refresh the heartbeat status of the users in the shard: " + i, e);
+            }
+        }
+    }
+
+    /**
+     * Skip the shard if its previous flush hasn't finished
+     * so that a slow shard won't pile up concurrent batches.
+     */
+    private void flush(int shardIndex) {
+        AtomicBoolean isFlushing = isFlushingByShard.get(shardIndex);
+        Set<Long> pendingUserIds = pendingUserIdsByShard.get(shardIndex);
+        if (pendingUserIds.isEmpty() || !isFlushing.compareAndSet(false, true)) {
+            return;
+        }
+        List<List<Long>> batches = drain(pendingUserIds);
+        Duration ttl = ttlSupplier.get();
+        Flux.fromIterable(batches)
+                .concatMap(batch -> refresh(shardIndex, batch, ttl))
+                .doFinally(signal -> isFlushing.set(false))
+                .subscribe();
+    }
+
+    private List<List<Long>> drain(Set<Long> pendingUserIds) {
+        List<List<Long>> batches = new ArrayList<>();
+        List<Long> batch = null;
+        Iterator<Long> iterator = pendingUserIds.iterator();
+        while (iterator.hasNext()) {
+            if (batch == null || batch.size() >= maxBatchSize) {
+                batch = new ArrayList<>(Math.min(maxBatchSize, pendingUserIds.size() + 1));
+                batches.add(batch);
+            }
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batches;
+    }
+
+    private Mono<Void> refresh(int shardIndex, List<Long> userIds, Duration ttl) {
+        batchSizeSummaries.get(shardIndex).record(userIds.size());
+        long startTime = System.nanoTime();
+        return userStatusService.updateTtls(shardIndex, userIds, ttl)
+                .doOnSuccess(missingUserIds -> {
+                    flushTimers.get(shardIndex).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                    if (!missingUserIds.isEmpty()) {
+                        missingSessionsCounters.get(shardIndex).increment(missingUserIds.size());
+                        log.warn("Failed to refresh the heartbeat status of {} users because their sessions status doesn't exist in Redis",
+                                missingUserIds.size());
+                    }
+                })
+                .onErrorResume(throwable -> {
+                    flushTimers.get(shardIndex).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                    failedCounters.get(shardIndex).increment();
+                    log.error("Failed to refresh the heartbeat status of {} users in the shard {}. They will be retried in the next flush",
+                            userIds.size(), shardIndex, throwable);
+                    pendingUserIdsByShard.get(shardIndex).addAll(userIds);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+}
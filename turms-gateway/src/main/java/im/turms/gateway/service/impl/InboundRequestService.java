@@ -35,6 +35,9 @@ import im.turms.server.common.dto.ServiceResponse;
 import im.turms.server.common.log4j.ClientApiLogging;
 import im.turms.server.common.property.TurmsPropertiesManager;
 import im.turms.server.common.property.env.common.ClientApiLoggingProperties;
+import im.turms.server.common.property.env.gateway.ClientApiProperties;
+import im.turms.server.common.property.env.gateway.ServiceRequestBatchProperties;
+import im.turms.server.common.property.env.service.env.clientapi.property.IdempotencyProperties;
 import im.turms.server.common.property.env.service.env.clientapi.property.LoggingRequestProperties;
 import im.turms.server.common.rpc.request.HandleServiceRequest;
 import im.turms.server.common.tracing.TracingContext;
@@ -62,11 +65,18 @@ public class InboundRequestService {
     private final SessionService sessionService;
     private final Map<TurmsRequest.KindCase, LoggingRequestProperties> supportedLoggingRequestProperties;
     private final Map<TurmsRequest.KindCase, LoggingRequestProperties> supportedLoggingResponseProperties;
+    @Nullable
+    private final ServiceRequestBatcher serviceRequestBatcher;
 
     public InboundRequestService(Node node, TurmsPropertiesManager propertiesManager, SessionService sessionService) {
         this.node = node;
         this.sessionService = sessionService;
-        ClientApiLoggingProperties loggingProperties = propertiesManager.getLocalProperties().getGateway().getClientApi().getLogging();
+        ClientApiProperties clientApiProperties = propertiesManager.getLocalProperties().getGateway().getClientApi();
+        ServiceRequestBatchProperties batchProperties = clientApiProperties.getServiceRequestBatch();
+        serviceRequestBatcher = batchProperties.isEnabled()
+                ? new ServiceRequestBatcher(node, batchProperties)
+                : null;
+        ClientApiLoggingProperties loggingProperties = clientApiProperties.getLogging();
         supportedLoggingRequestProperties = LoggingRequestUtil.getSupportedLoggingRequestProperties(
                 loggingProperties.getIncludedRequestCategories(),
                 loggingProperties.getIncludedRequests(),
@@ -162,6 +172,17 @@ public class InboundRequestService {
     }
 
     private Mono<ServiceResponse> sendServiceRequest(ServiceRequest serviceRequest) {
+        // Send the requests that may be retried by clients to the same turms server
+        // so that the server can de-duplicate them with its local cache
+        IdempotencyProperties idempotencyProperties = node.getSharedProperties().getService().getClientApi().getIdempotency();
+        if (idempotencyProperties.isEnabled()
+                && idempotencyProperties.isRouteByUserId()
+                && idempotencyProperties.getRequestTypes().contains(serviceRequest.getType())) {
+            return node.getRpcService().requestResponse(new HandleServiceRequest(serviceRequest), serviceRequest.getUserId());
+        }
+        if (serviceRequestBatcher != null) {
+            return serviceRequestBatcher.send(serviceRequest);
+        }
         HandleServiceRequest request = new HandleServiceRequest(serviceRequest);
         return node.getRpcService().requestResponse(request);
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.gateway.service.impl;
+
+import im.turms.server.common.property.env.gateway.LoginAdmissionProperties;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket whose rate adapts to the latency of registering sessions (AIMD):
+ * the rate increases additively while the average latency is lower than the target,
+ * and decreases multiplicatively once the latency exceeds the target.
+ * <p>
+ * The bucket holds at most the permits of one second so that a reconnect storm
+ * can only consume a small burst before being shaped to the adapted rate.
+ * The rejected clients are told a randomized delay spread over the time needed
+ * to admit the recently rejected requests at the current rate
+ * so that their retries won't arrive at the same moment again.
+ *
+ * @author James Chen
+ */
+public class LoginAdmissionLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier nanoTimeSupplier;
+    private final double minRate;
+    private final double maxRate;
+    private final double increaseStep;
+    private final double decreaseFactor;
+    private final long targetLatencyNanos;
+    private final long adjustIntervalNanos;
+    private final long minRetryAfterMillis;
+    private final long maxRetryAfterMillis;
+    private final long minRetryAfterJitterMillis;
+
+    private double rate;
+    private double permits;
+    private long lastRefillTime;
+    private long lastAdjustTime;
+    private long latencySumNanos;
+    private int latencyCount;
+    private int rejectedCountInWindow;
+    private int rejectedCountInLastWindow;
+
+    public LoginAdmissionLimiter(LoginAdmissionProperties properties, LongSupplier nanoTimeSupplier) {
+        this.nanoTimeSupplier = nanoTimeSupplier;
+        minRate = properties.getMinPermitsPerSecond();
+        maxRate = Math.max(minRate, properties.getMaxPermitsPerSecond());
+        increaseStep = properties.getIncreasePermitsPerSecond();
+        decreaseFactor = properties.getDecreaseFactor();
+        targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(properties.getTargetLatencyMillis());
+        adjustIntervalNanos = TimeUnit.MILLISECONDS.toNanos(properties.getAdjustIntervalMillis());
+        // 0 means the login is admitted, so a rejection must suggest a positive delay
+        minRetryAfterMillis = Math.max(1, properties.getMinRetryAfterMillis());
+        maxRetryAfterMillis = Math.max(minRetryAfterMillis, properties.getMaxRetryAfterMillis());
+        minRetryAfterJitterMillis = properties.getMinRetryAfterJitterMillis();
+        rate = Math.min(maxRate, Math.max(minRate, properties.getInitialPermitsPerSecond()));
+        permits = rate;
+        long now = nanoTimeSupplier.getAsLong();
+        lastRefillTime = now;
+        lastAdjustTime = now;
+    }
+
+    /**
+     * @return 0 if the login is admitted, or the delay in millis suggested to the client before retrying
+     */
+    public synchronized long tryAcquire() {
+        long now = nanoTimeSupplier.getAsLong();
+        adjustRateIfNeeded(now);
+        refill(now);
+        if (permits >= 1) {
+            permits--;
+            return 0;
+        }
+        rejectedCountInWindow++;
+        return nextRetryAfterMillis();
+    }
+
+    public synchronized void recordLatency(long latencyNanos) {
+        latencySumNanos += latencyNanos;
+        latencyCount++;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillTime;
+        if (elapsed > 0) {
+            permits = Math.min(rate, permits + elapsed * rate / NANOS_PER_SECOND);
+            lastRefillTime = now;
+        }
+    }
+
+    private void adjustRateIfNeeded(long now) {
+        if (now - lastAdjustTime < adjustIntervalNanos) {
+            return;
+        }
+        // Keep the rate if there is no sample because there is no signal of the load
+        if (latencyCount > 0) {
+            long averageLatency = latencySumNanos / latencyCount;
+            rate = averageLatency > targetLatencyNanos
+                    ? Math.max(minRate, rate * decreaseFactor)
+                    : Math.min(maxRate, rate + increaseStep);
+        }
+        latencySumNanos = 0;
+        latencyCount = 0;
+        rejectedCountInLastWindow = rejectedCountInWindow;
+        rejectedCountInWindow = 0;
+        lastAdjustTime = now;
+    }
+
+    private long nextRetryAfterMillis() {
+        int rejectedCount = Math.max(rejectedCountInWindow, rejectedCountInLastWindow);
+        long spreadMillis = Math.max(minRetryAfterJitterMillis, (long) (rejectedCount * 1000 / rate));
+        long retryAfterMillis = minRetryAfterMillis + ThreadLocalRandom.current().nextLong(spreadMillis + 1);
+        return Math.min(maxRetryAfterMillis, retryAfterMillis);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.gateway.service.impl;
+
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.gateway.LoginAdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+import static im.turms.gateway.constant.MetricsConstant.*;
+
+/**
+ * Admits login requests before authenticating them and registering their sessions
+ * so that a reconnect storm is shaped to the rate that Redis and MongoDB can handle.
+ *
+ * @author James Chen
+ * @see LoginAdmissionLimiter
+ */
+@Service
+public class LoginAdmissionService {
+
+    @Getter
+    private final boolean enabled;
+    @Nullable
+    private final LoginAdmissionLimiter limiter;
+    @Nullable
+    private final Counter admittedCounter;
+    @Nullable
+    private final Counter rejectedCounter;
+    @Nullable
+    private final Timer sessionRegistrationTimer;
+
+    public LoginAdmissionService(TurmsPropertiesManager turmsPropertiesManager, MetricsService metricsService) {
+        LoginAdmissionProperties properties = turmsPropertiesManager.getLocalProperties()
+                .getGateway()
+                .getSession()
+                .getLoginAdmission();
+        enabled = properties.isEnabled();
+        if (!enabled) {
+            limiter = null;
+            admittedCounter = null;
+            rejectedCounter = null;
+            sessionRegistrationTimer = null;
+            return;
+        }
+        limiter = new LoginAdmissionLimiter(properties, System::nanoTime);
+        MeterRegistry registry = metricsService.getRegistry();
+        admittedCounter = registry.counter(LOGIN_ADMISSION_ADMITTED_COUNTER_NAME);
+        rejectedCounter = registry.counter(LOGIN_ADMISSION_REJECTED_COUNTER_NAME);
+        sessionRegistrationTimer = registry.timer(LOGIN_ADMISSION_SESSION_REGISTRATION_TIMER_NAME);
+        registry.gauge(LOGIN_ADMISSION_RATE_GAUGE_NAME, limiter, LoginAdmissionLimiter::getRate);
+    }
+
+    /**
+     * @return 0 if the login is admitted, or the delay in millis suggested to the client before retrying
+     */
+    public long tryAdmit() {
+        if (!enabled) {
+            return 0;
+        }
+        long retryAfterMillis = limiter.tryAcquire();
+        if (retryAfterMillis == 0) {
+            admittedCounter.increment();
+        } else {
+            rejectedCounter.increment();
+        }
+        return retryAfterMillis;
+    }
+
+    /**
+     * Record the latency of registering a session in Redis and MongoDB
+     * to adapt the admission rate
+     */
+    public void recordSessionRegistrationLatency(long latencyNanos) {
+        if (enabled) {
+            limiter.recordLatency(latencyNanos);
+            sessionRegistrationTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static String getRejectionReason(long retryAfterMillis) {
+        return "Too many login requests. Retry after " + retryAfterMillis + " millis";
+    }
+
+}
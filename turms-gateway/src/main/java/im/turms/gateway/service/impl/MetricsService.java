@@ -17,12 +17,23 @@
 
 package im.turms.gateway.service.impl;
 
+import im.turms.common.constant.DeviceType;
+import im.turms.gateway.pojo.bo.session.NotificationQueueMetrics;
+import im.turms.server.common.util.DeviceTypeUtil;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Nullable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static im.turms.gateway.constant.MetricsConstant.*;
+
 /**
  * @author James Chen
  */
@@ -34,4 +45,24 @@ public class MetricsService {
     @Getter
     private final MeterRegistry registry = Metrics.globalRegistry;
 
+    private final Map<DeviceType, NotificationQueueMetrics> notificationQueueMetricsMap = new EnumMap<>(DeviceType.class);
+
+    public MetricsService() {
+        for (DeviceType deviceType : DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES) {
+            Tags tags = Tags.of(TAG_DEVICE_TYPE, deviceType.name());
+            NotificationQueueMetrics metrics = new NotificationQueueMetrics(
+                    registry.gauge(QUEUED_NOTIFICATIONS_GAUGE_NAME, tags, new AtomicLong()),
+                    registry.gauge(QUEUED_NOTIFICATION_BYTES_GAUGE_NAME, tags, new AtomicLong()),
+                    registry.counter(DROPPED_NOTIFICATIONS_COUNTER_NAME, tags),
+                    registry.counter(DROPPED_NOTIFICATION_BYTES_COUNTER_NAME, tags),
+                    registry.counter(SLOW_CONSUMER_DISCONNECTIONS_COUNTER_NAME, tags));
+            notificationQueueMetricsMap.put(deviceType, metrics);
+        }
+    }
+
+    @Nullable
+    public NotificationQueueMetrics getNotificationQueueMetrics(DeviceType deviceType) {
+        return notificationQueueMetricsMap.get(deviceType);
+    }
+
 }
\ No newline at end of file
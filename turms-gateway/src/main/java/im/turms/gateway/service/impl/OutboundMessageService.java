@@ -17,6 +17,7 @@
 
 package im.turms.gateway.service.impl;
 
+import im.turms.common.constant.DeviceType;
 import im.turms.common.model.dto.notification.TurmsNotification;
 import im.turms.gateway.manager.UserSessionsManager;
 import im.turms.gateway.plugin.extension.NotificationHandler;
@@ -25,6 +26,7 @@ import im.turms.gateway.pojo.bo.session.UserSession;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.rpc.service.IOutboundMessageService;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.server.common.util.DeviceTypeUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.RefCntAwareByteBuf;
 import lombok.extern.log4j.Log4j2;
@@ -33,7 +35,12 @@ import reactor.core.publisher.Mono;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author James Chen
@@ -57,12 +64,13 @@ public class OutboundMessageService implements IOutboundMessageService {
 
     /**
      * @param notificationData should be a data serialized from TurmsNotification
+     * @param recipientIds     are iterated as primitives and only boxed when notification handlers are enabled
      * @return true if the notification has forwarded to one recipient at least
      */
     @Override
     public boolean sendNotificationToLocalClients(
             @NotNull ByteBuf notificationData,
-            @NotEmpty Set<Long> recipientIds) {
+            @NotEmpty long[] recipientIds) {
         AssertUtil.notNull(notificationData, "notificationData");
         AssertUtil.notEmpty(recipientIds, "recipientIds");
         // Prepare data
@@ -70,21 +78,29 @@ public class OutboundMessageService implements IOutboundMessageService {
         boolean triggerHandlers = node.getSharedProperties().getPlugin().isEnabled()
                 && !turmsPluginManager.getNotificationHandlerList().isEmpty();
         Set<Long> offlineRecipientIds = triggerHandlers
-                ? new HashSet<>(Math.max(1, recipientIds.size() / 2))
+                ? new HashSet<>(Math.max(1, recipientIds.length / 2))
                 : Collections.emptySet();
 
-        int initialRefCnt = notificationData.refCnt();
+        // Count the pending releases by ourselves instead of comparing the reference count
+        // because the notification may share the reference count with other notifications
+        // in the same batched frame. The initial count is held until all sessions have been handled
+        AtomicInteger pendingReleaseCount = new AtomicInteger(1);
         RefCntAwareByteBuf wrappedNotificationData = new RefCntAwareByteBuf(notificationData, refCnt -> {
-            if (refCnt == initialRefCnt) {
+            if (pendingReleaseCount.decrementAndGet() == 0) {
                 notificationData.release();
             }
         });
 
         // Send notification
-        for (Long recipientId : recipientIds) {
+        for (long recipientId : recipientIds) {
             UserSessionsManager userSessionsManager = sessionService.getUserSessionsManager(recipientId);
             if (userSessionsManager != null) {
-                for (UserSession userSession : userSessionsManager.getSessionMap().values()) {
+                for (DeviceType deviceType : DeviceTypeUtil.ALL_AVAILABLE_DEVICE_TYPES) {
+                    UserSession userSession = userSessionsManager.getSession(deviceType);
+                    if (userSession == null) {
+                        continue;
+                    }
+                    pendingReleaseCount.incrementAndGet();
                     wrappedNotificationData.retain();
                     // It's the responsibility for the downstream to decrease the reference count of the notification by 1
                     // no matter the notification is queued successfully or not
@@ -106,7 +122,7 @@ public class OutboundMessageService implements IOutboundMessageService {
         }
 
         // Release
-        if (!hasForwardedMessageToOneRecipient) {
+        if (pendingReleaseCount.decrementAndGet() == 0) {
             notificationData.release();
         }
 
@@ -114,8 +130,12 @@ public class OutboundMessageService implements IOutboundMessageService {
     }
 
     private void triggerPlugins(@NotNull ByteBuf notificationData,
-                                @NotNull Set<Long> recipientIds,
+                                @NotNull long[] recipientIdArray,
                                 @NotNull Set<Long> offlineRecipientIds) {
+        Set<Long> recipientIds = new HashSet<>(Math.max(16, (int) (recipientIdArray.length / 0.75F) + 1));
+        for (long recipientId : recipientIdArray) {
+            recipientIds.add(recipientId);
+        }
         TurmsNotification notification = null;
         try {
             notification = TurmsNotification.parseFrom(notificationData.nioBuffer());
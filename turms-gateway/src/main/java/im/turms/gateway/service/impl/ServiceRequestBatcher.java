@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.gateway.service.impl;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.dto.BatchedServiceResponse;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.property.env.gateway.ServiceRequestBatchProperties;
+import im.turms.server.common.rpc.request.HandleServiceRequest;
+import im.turms.server.common.rpc.request.HandleServiceRequestBatch;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the service requests within a short window into one RPC frame
+ * to reduce the per-request overhead of RSocket frames, syscalls and metrics.
+ * The responses are streamed back by turms servers so every request completes independently.
+ *
+ * @author James Chen
+ */
+@Log4j2
+public class ServiceRequestBatcher {
+
+    private final Node node;
+    private final Scheduler scheduler;
+    private final long windowMicros;
+    private final int maxSize;
+    private final int maxBytes;
+
+    private List<PendingRequest> pendingRequests;
+    private int pendingBytes;
+
+    public ServiceRequestBatcher(Node node, ServiceRequestBatchProperties properties) {
+        this(node, properties, Schedulers.parallel());
+    }
+
+    public ServiceRequestBatcher(Node node, ServiceRequestBatchProperties properties, Scheduler scheduler) {
+        this.node = node;
+        this.scheduler = scheduler;
+        windowMicros = properties.getWindowMicros();
+        maxSize = properties.getMaxSize();
+        maxBytes = properties.getMaxBytes();
+    }
+
+    public Mono<ServiceResponse> send(ServiceRequest request) {
+        return Mono.create(sink -> add(new PendingRequest(request, sink)));
+    }
+
+    private void add(PendingRequest request) {
+        List<PendingRequest> batchToSend = null;
+        List<PendingRequest> batchToSchedule = null;
+        synchronized (this) {
+            if (pendingRequests == null) {
+                pendingRequests = new ArrayList<>(maxSize);
+                batchToSchedule = pendingRequests;
+            }
+            pendingRequests.add(request);
+            pendingBytes += request.request.getTurmsRequestBuffer().readableBytes();
+            if (pendingRequests.size() >= maxSize || pendingBytes >= maxBytes) {
+                batchToSend = pendingRequests;
+                pendingRequests = null;
+                pendingBytes = 0;
+            }
+        }
+        if (batchToSend != null) {
+            send(batchToSend);
+        } else if (batchToSchedule != null) {
+            List<PendingRequest> batch = batchToSchedule;
+            scheduler.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * @param batch the batch that the flush is scheduled for.
+     *              Do nothing if the batch has been sent because it is full.
+     */
+    private void flush(List<PendingRequest> batch) {
+        synchronized (this) {
+            if (pendingRequests != batch) {
+                return;
+            }
+            pendingRequests = null;
+            pendingBytes = 0;
+        }
+        send(batch);
+    }
+
+    private void send(List<PendingRequest> batch) {
+        RpcService rpcService = node.getRpcService();
+        int size = batch.size();
+        if (size == 1) {
+            PendingRequest request = batch.get(0);
+            rpcService.requestResponse(new HandleServiceRequest(request.request))
+                    .subscribe(response -> request.sink.success(response),
+                            throwable -> request.sink.error(throwable),
+                            () -> request.sink.success());
+            return;
+        }
+        List<ServiceRequest> requests = new ArrayList<>(size);
+        for (PendingRequest request : batch) {
+            requests.add(request.request);
+        }
+        rpcService.requestStream(new HandleServiceRequestBatch(requests))
+                .subscribe(response -> complete(batch, response),
+                        throwable -> {
+                            // MonoSink ignores the signal if the request has completed
+                            for (PendingRequest request : batch) {
+                                request.sink.error(throwable);
+                            }
+                        },
+                        () -> {
+                            for (PendingRequest request : batch) {
+                                request.sink.success();
+                            }
+                        });
+    }
+
+    private void complete(List<PendingRequest> batch, BatchedServiceResponse response) {
+        int index = response.getIndex();
+        if (index < 0 || index >= batch.size()) {
+            log.error("Received a batched service response with the invalid index: " + index);
+            return;
+        }
+        MonoSink<ServiceResponse> sink = batch.get(index).sink;
+        if (response.getException() != null) {
+            sink.error(response.getException());
+        } else {
+            sink.success(response.getResponse());
+        }
+    }
+
+    private static final class PendingRequest {
+        private final ServiceRequest request;
+        private final MonoSink<ServiceResponse> sink;
+
+        private PendingRequest(ServiceRequest request, MonoSink<ServiceResponse> sink) {
+            this.request = request;
+            this.sink = sink;
+        }
+    }
+
+}
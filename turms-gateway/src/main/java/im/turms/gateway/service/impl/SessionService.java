@@ -25,8 +25,10 @@ import im.turms.common.constant.statuscode.SessionCloseStatus;
 import im.turms.common.constant.statuscode.TurmsStatusCode;
 import im.turms.common.exception.TurmsBusinessException;
 import im.turms.gateway.manager.UserSessionsManager;
+import im.turms.gateway.manager.UserSessionsRegistry;
 import im.turms.gateway.plugin.extension.UserOnlineStatusChangeHandler;
 import im.turms.gateway.plugin.manager.TurmsPluginManager;
+import im.turms.gateway.pojo.bo.session.NotificationQueueMetrics;
 import im.turms.gateway.pojo.bo.session.UserSession;
 import im.turms.gateway.service.impl.log.UserLoginActionService;
 import im.turms.server.common.bo.session.UserSessionsStatus;
@@ -35,6 +37,8 @@ import im.turms.server.common.cluster.service.idgen.ServiceType;
 import im.turms.server.common.constraint.ValidDeviceType;
 import im.turms.server.common.dto.CloseReason;
 import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.env.gateway.HeartbeatRefreshBatchProperties;
+import im.turms.server.common.property.env.gateway.NotificationQueueProperties;
 import im.turms.server.common.property.env.gateway.SessionProperties;
 import im.turms.server.common.rpc.request.SetUserOfflineRequest;
 import im.turms.server.common.rpc.service.ISessionService;
@@ -57,7 +61,6 @@ import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static im.turms.gateway.constant.MetricsConstant.LOGGED_IN_USERS_COUNTER_NAME;
 import static im.turms.gateway.constant.MetricsConstant.ONLINE_USERS_GAUGE_NAME;
@@ -76,13 +79,17 @@ public class SessionService implements ISessionService {
     private final UserLoginActionService userLoginActionService;
     private final UserSimultaneousLoginService userSimultaneousLoginService;
     private final boolean pluginEnabled;
-    private final Map<Long, UserSessionsManager> sessionsManagerByUserId;
+    private final UserSessionsRegistry sessionsManagerByUserId;
     private int closeIdleSessionAfterMillis;
     private Duration closeIdleSessionAfterDuration;
     private int minHeartbeatIntervalMillis;
     private int switchProtocolAfterMillis;
+    @Nullable
+    private final HeartbeatAggregator heartbeatAggregator;
 
     private final Counter loggedInUsersCounter;
+    private final MetricsService metricsService;
+    private final LoginAdmissionService loginAdmissionService;
 
     public SessionService(
             Node node,
@@ -92,16 +99,17 @@ public class SessionService implements ISessionService {
             ReasonCacheService reasonCacheService,
             UserStatusService userStatusService,
             UserSimultaneousLoginService userSimultaneousLoginService,
-            MetricsService metricsService) {
+            MetricsService metricsService,
+            LoginAdmissionService loginAdmissionService) {
         this.node = node;
+        this.loginAdmissionService = loginAdmissionService;
         this.userLoginActionService = userLoginActionService;
         this.sessionLocationService = sessionLocationService;
         this.turmsPluginManager = turmsPluginManager;
         this.userStatusService = userStatusService;
         this.userSimultaneousLoginService = userSimultaneousLoginService;
         TurmsProperties turmsProperties = node.getSharedProperties();
-        // Use ConcurrentHashMap to avoid overwriting an existing sessions manager by accident
-        sessionsManagerByUserId = new ConcurrentHashMap<>(4096);
+        sessionsManagerByUserId = new UserSessionsRegistry(4096);
         pluginEnabled = turmsProperties.getPlugin().isEnabled();
         this.reasonCacheService = reasonCacheService;
 
@@ -118,13 +126,21 @@ public class SessionService implements ISessionService {
             switchProtocolAfterMillis = newSessionProperties.getSwitchProtocolAfterSeconds() * 1000;
         });
 
+        this.metricsService = metricsService;
         MeterRegistry registry = metricsService.getRegistry();
+        HeartbeatRefreshBatchProperties heartbeatRefreshBatchProperties = sessionProperties.getHeartbeatRefreshBatch();
+        heartbeatAggregator = heartbeatRefreshBatchProperties.isEnabled()
+                ? new HeartbeatAggregator(userStatusService, registry, heartbeatRefreshBatchProperties, () -> closeIdleSessionAfterDuration)
+                : null;
         loggedInUsersCounter = registry.counter(LOGGED_IN_USERS_COUNTER_NAME);
-        registry.gaugeMapSize(ONLINE_USERS_GAUGE_NAME, Tags.empty(), sessionsManagerByUserId);
+        registry.gauge(ONLINE_USERS_GAUGE_NAME, Tags.empty(), sessionsManagerByUserId, UserSessionsRegistry::size);
     }
 
     @PreDestroy
     public void destroy() {
+        if (heartbeatAggregator != null) {
+            heartbeatAggregator.destroy();
+        }
         CloseReason closeReason = CloseReason.get(SessionCloseStatus.SERVER_CLOSED);
         clearAllLocalSessions(new Date(), closeReason)
                 .subscribe();
@@ -258,12 +274,11 @@ public class SessionService implements ISessionService {
             return Mono.error(e);
         }
         List<Mono<Boolean>> monos = new LinkedList<>();
-        for (Map.Entry<Long, UserSessionsManager> entry : sessionsManagerByUserId.entrySet()) {
-            Long userId = entry.getKey();
-            Set<DeviceType> loggedInDeviceTypes = entry.getValue().getLoggedInDeviceTypes();
-            Mono<Boolean> mono = setLocalSessionOfflineByUserIdAndDeviceTypes(userId, loggedInDeviceTypes, closeReason, disconnectionDate);
+        sessionsManagerByUserId.forEach(manager -> {
+            Set<DeviceType> loggedInDeviceTypes = manager.getLoggedInDeviceTypes();
+            Mono<Boolean> mono = setLocalSessionOfflineByUserIdAndDeviceTypes(manager.getUserId(), loggedInDeviceTypes, closeReason, disconnectionDate);
             monos.add(mono);
-        }
+        });
         return Mono.when(monos);
     }
 
@@ -306,6 +321,11 @@ public class SessionService implements ISessionService {
         }
         long lastHeartbeatTimestampMillis = session.getLastHeartbeatTimestampMillis();
         boolean isAllowedToUpdate = System.currentTimeMillis() - lastHeartbeatTimestampMillis > minHeartbeatIntervalMillis;
+        if (isAllowedToUpdate && heartbeatAggregator != null) {
+            session.setLastHeartbeatTimestampMillis(System.currentTimeMillis());
+            heartbeatAggregator.add(userId);
+            return Mono.just(true);
+        }
         return isAllowedToUpdate
                 ? userStatusService.updateTtl(userId, closeIdleSessionAfterDuration)
                 .doOnNext(exists -> session.setLastHeartbeatTimestampMillis(System.currentTimeMillis()))
@@ -350,6 +370,7 @@ public class SessionService implements ISessionService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
+        long startTime = System.nanoTime();
         // Must fetch the latest status instead of the status in the cache
         return userStatusService.fetchUserSessionsStatus(userId)
                 .flatMap(sessionsStatus -> {
@@ -385,12 +406,12 @@ public class SessionService implements ISessionService {
                                         ? addOnlineDeviceIfAbsent(userId, deviceType, userStatus, position, ip, deviceDetails, sessionsStatus)
                                         : Mono.error(TurmsBusinessException.get(TurmsStatusCode.SESSION_SIMULTANEOUS_CONFLICTS_DECLINE)));
                     }
-                });
+                })
+                .doFinally(signal -> loginAdmissionService.recordSessionRegistrationLatency(System.nanoTime() - startTime));
     }
 
     @Nullable
-    public UserSessionsManager getUserSessionsManager(@NotNull Long userId) {
-        AssertUtil.notNull(userId, "userId");
+    public UserSessionsManager getUserSessionsManager(long userId) {
         return sessionsManagerByUserId.get(userId);
     }
 
@@ -467,11 +488,16 @@ public class SessionService implements ISessionService {
                     UserStatus finalUserStatus = userStatus != null ? userStatus : UserStatus.AVAILABLE;
                     UserSessionsManager manager = sessionsManagerByUserId.computeIfAbsent(userId, key ->
                             new UserSessionsManager(key, finalUserStatus));
-                    UserSession session = manager.addSessionIfAbsent(deviceType, position, null, closeIdleSessionAfterMillis, switchProtocolAfterMillis);
+                    NotificationQueueProperties notificationQueueProperties = node.getSharedProperties()
+                            .getGateway().getSession().getNotificationQueue();
+                    NotificationQueueMetrics notificationQueueMetrics = metricsService.getNotificationQueueMetrics(deviceType);
+                    UserSession session = manager.addSessionIfAbsent(deviceType, position, null, closeIdleSessionAfterMillis,
+                            switchProtocolAfterMillis, notificationQueueProperties, notificationQueueMetrics);
                     // This should never happen
                     if (session == null) {
                         manager.setDeviceOffline(deviceType, CloseReason.get(SessionCloseStatus.LOGIN_CONFLICT));
-                        session = manager.addSessionIfAbsent(deviceType, position, null, closeIdleSessionAfterMillis, switchProtocolAfterMillis);
+                        session = manager.addSessionIfAbsent(deviceType, position, null, closeIdleSessionAfterMillis,
+                                switchProtocolAfterMillis, notificationQueueProperties, notificationQueueMetrics);
                         if (session == null) {
                             return Mono.error(TurmsBusinessException.get(TurmsStatusCode.SERVER_INTERNAL_ERROR));
                         }
@@ -498,7 +524,7 @@ public class SessionService implements ISessionService {
 
     private void removeSessionsManagerIfEmpty(@NotNull CloseReason closeReason, @NotNull UserSessionsManager manager, @NotNull Long userId) {
         if (manager.getSessionsNumber() == 0) {
-            sessionsManagerByUserId.remove(userId);
+            sessionsManagerByUserId.remove(userId, manager);
         }
         if (pluginEnabled) {
             List<UserOnlineStatusChangeHandler> handlerList = turmsPluginManager.getUserOnlineStatusChangeHandlerList();
@@ -17,11 +17,18 @@
 
 package im.turms.gateway.service.impl;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import im.turms.common.exception.TurmsBusinessException;
 import im.turms.gateway.constant.DomainFieldName;
 import im.turms.server.common.dao.domain.User;
 import im.turms.server.common.manager.PasswordManager;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.gateway.VerifiedLoginCacheProperties;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.server.common.util.HmacUtil;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
@@ -31,7 +38,9 @@ import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
+import javax.crypto.spec.SecretKeySpec;
 import javax.validation.constraints.NotNull;
+import java.time.Duration;
 
 /**
  * @author James Chen
@@ -39,17 +48,46 @@ import javax.validation.constraints.NotNull;
 @Service
 public class UserService {
 
+    private static final String METRICS_NAME_VERIFIED_LOGIN_CACHE = "user.verified_login.cache";
+
     private final ReactiveMongoTemplate mongoTemplate;
     private final PasswordManager passwordManager;
 
+    /**
+     * User ID -> VerifiedLogin.
+     * Used to skip verifying the password again when a user reconnects with the same credentials
+     */
+    @Nullable
+    private final Cache<Long, VerifiedLogin> verifiedLoginCache;
+    /**
+     * Used to fingerprint the verified raw passwords so that they are never kept in memory
+     */
+    private final SecretKeySpec passwordFingerprintKey = HmacUtil.newRandomKey();
+
     /**
      * @param mongoTemplate can be null if SessionProperties#enableAuthentication is false
      */
     public UserService(
             @Autowired(required = false) @Qualifier("userMongoTemplate") ReactiveMongoTemplate mongoTemplate,
-            PasswordManager passwordManager) {
+            PasswordManager passwordManager,
+            TurmsPropertiesManager turmsPropertiesManager,
+            MetricsService metricsService) {
         this.mongoTemplate = mongoTemplate;
         this.passwordManager = passwordManager;
+        VerifiedLoginCacheProperties cacheProperties = turmsPropertiesManager.getLocalProperties()
+                .getGateway()
+                .getSession()
+                .getVerifiedLoginCache();
+        if (cacheProperties.isEnabled()) {
+            verifiedLoginCache = Caffeine.newBuilder()
+                    .maximumSize(cacheProperties.getMaxSize())
+                    .expireAfterWrite(Duration.ofSeconds(cacheProperties.getExpireAfterSeconds()))
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(metricsService.getRegistry(), verifiedLoginCache, METRICS_NAME_VERIFIED_LOGIN_CACHE);
+        } else {
+            verifiedLoginCache = null;
+        }
     }
 
     public Mono<Boolean> authenticate(
@@ -64,10 +102,33 @@ public class UserService {
                 .addCriteria(Criteria.where(DomainFieldName.ID_FIELD_NAME).is(userId));
         query.fields().include(User.Fields.PASSWORD);
         return mongoTemplate.findOne(query, User.class)
-                .map(user -> passwordManager.matchesUserPassword(rawPassword, user.getPassword()))
+                .flatMap(user -> authenticate(userId, rawPassword, user.getPassword()))
                 .defaultIfEmpty(false);
     }
 
+    /**
+     * Note that the password is verified on the bounded password verification executor
+     * so the returned publisher may signal UNAVAILABLE if there are too many pending logins
+     */
+    private Mono<Boolean> authenticate(@NotNull Long userId, @Nullable String rawPassword, @Nullable String encodedPassword) {
+        if (verifiedLoginCache == null || rawPassword == null || encodedPassword == null) {
+            return passwordManager.matchesUserPasswordAsync(rawPassword, encodedPassword);
+        }
+        byte[] fingerprint = HmacUtil.sign(passwordFingerprintKey, rawPassword);
+        VerifiedLogin login = verifiedLoginCache.getIfPresent(userId);
+        if (login != null
+                && login.getEncodedPassword().equals(encodedPassword)
+                && HmacUtil.isEqual(login.getRawPasswordFingerprint(), fingerprint)) {
+            return Mono.just(true);
+        }
+        return passwordManager.matchesUserPasswordAsync(rawPassword, encodedPassword)
+                .doOnNext(matched -> {
+                    if (matched) {
+                        verifiedLoginCache.put(userId, new VerifiedLogin(encodedPassword, fingerprint));
+                    }
+                });
+    }
+
     public Mono<Boolean> isActiveAndNotDeleted(@NotNull Long userId) {
         try {
             AssertUtil.notNull(userId, "userId");
@@ -81,5 +142,13 @@ public class UserService {
         return mongoTemplate.exists(query, User.class);
     }
 
-}
+    /**
+     * The encoded password is kept so that the login becomes invalid once the password is changed
+     */
+    @Data
+    private static final class VerifiedLogin {
+        private final String encodedPassword;
+        private final byte[] rawPasswordFingerprint;
+    }
 
+}
@@ -221,7 +221,8 @@ public class ServiceMediator {
     }
 
     /**
-     * @return OK, UNAUTHORIZED, NOT_ACTIVE
+     * @return OK, UNAUTHORIZED, NOT_ACTIVE,
+     * or an error of UNAVAILABLE if there are too many pending password verifications
      */
     private Mono<TurmsStatusCode> authenticate0(
             @NotNull Long userId,
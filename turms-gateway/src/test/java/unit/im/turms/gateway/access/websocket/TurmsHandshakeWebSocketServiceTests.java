@@ -20,6 +20,8 @@ package unit.im.turms.gateway.access.websocket;
 import im.turms.gateway.access.websocket.config.TurmsHandshakeWebSocketService;
 import im.turms.gateway.access.websocket.util.HandshakeRequestUtil;
 import im.turms.gateway.pojo.bo.session.UserSession;
+import im.turms.gateway.service.impl.LoginAdmissionService;
+import im.turms.gateway.service.impl.MetricsService;
 import im.turms.gateway.service.mediator.ServiceMediator;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.property.TurmsProperties;
@@ -125,7 +127,7 @@ class TurmsHandshakeWebSocketServiceTests {
         when(upgradeStrategy.upgrade(any(), any(), any(), any()))
                 .thenReturn(Mono.empty());
 
-        TurmsHandshakeWebSocketService webSocketService = spy(new TurmsHandshakeWebSocketService(node, propertiesManager, serviceMediator));
+        TurmsHandshakeWebSocketService webSocketService = spy(new TurmsHandshakeWebSocketService(node, propertiesManager, serviceMediator, new LoginAdmissionService(propertiesManager, new MetricsService())));
         when(webSocketService.getUpgradeStrategy()).thenReturn(upgradeStrategy);
         return webSocketService;
     }
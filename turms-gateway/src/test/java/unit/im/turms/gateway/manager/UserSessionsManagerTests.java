@@ -56,7 +56,7 @@ class UserSessionsManagerTests {
     @Test
     void setDeviceOffline_shouldSucceed() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(deviceType, null, null, 0, 0);
+        manager.addSessionIfAbsent(deviceType, null, null, 0, 0, null, null);
         NetConnection connection = mock(NetConnection.class);
         manager.getSession(deviceType).setConnection(connection);
 
@@ -68,39 +68,39 @@ class UserSessionsManagerTests {
     @Test
     void pushSessionNotification_shouldReturnTrue_ifSessionExists() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(deviceType, null, null, 0, 0);
+        manager.addSessionIfAbsent(deviceType, null, null, 0, 0, null, null);
         assertTrue(manager.pushSessionNotification(deviceType));
     }
 
     @Test
     void pushSessionNotification_shouldReturnFalse_ifSessionNotExists() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0);
+        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0, null, null);
         assertFalse(manager.pushSessionNotification(DeviceType.IOS));
     }
 
     @Test
     void getSession_shouldReturnSession() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(deviceType, null, null, 0, 0);
+        manager.addSessionIfAbsent(deviceType, null, null, 0, 0, null, null);
         assertNotNull(manager.getSession(deviceType));
     }
 
     @Test
     void getSessionsNumber_shouldBeThree_forThreeSessions() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0);
-        manager.addSessionIfAbsent(DeviceType.IOS, null, null, 1, 0);
-        manager.addSessionIfAbsent(DeviceType.DESKTOP, null, null, 1, 0);
+        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0, null, null);
+        manager.addSessionIfAbsent(DeviceType.IOS, null, null, 1, 0, null, null);
+        manager.addSessionIfAbsent(DeviceType.DESKTOP, null, null, 1, 0, null, null);
         assertEquals(3, manager.getSessionsNumber());
     }
 
     @Test
     void getLoggedInDeviceTypes_shouldBeSame() {
         UserSessionsManager manager = new UserSessionsManager(userId, userStatus);
-        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0);
-        manager.addSessionIfAbsent(DeviceType.IOS, null, null, 1, 0);
-        manager.addSessionIfAbsent(DeviceType.DESKTOP, null, null, 1, 0);
+        manager.addSessionIfAbsent(DeviceType.ANDROID, null, null, 0, 0, null, null);
+        manager.addSessionIfAbsent(DeviceType.IOS, null, null, 1, 0, null, null);
+        manager.addSessionIfAbsent(DeviceType.DESKTOP, null, null, 1, 0, null, null);
 
         Set<DeviceType> loggedInDeviceTypes = manager.getLoggedInDeviceTypes();
 
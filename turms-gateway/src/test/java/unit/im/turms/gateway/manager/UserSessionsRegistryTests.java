@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.gateway.manager;
+
+import im.turms.common.constant.UserStatus;
+import im.turms.gateway.manager.UserSessionsManager;
+import im.turms.gateway.manager.UserSessionsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author James Chen
+ */
+class UserSessionsRegistryTests {
+
+    @Test
+    void computeIfAbsent_shouldReturnExistingManager_ifPresent() {
+        UserSessionsRegistry registry = new UserSessionsRegistry(16);
+        UserSessionsManager manager = registry.computeIfAbsent(1L, userId -> new UserSessionsManager(userId, UserStatus.AVAILABLE));
+        UserSessionsManager existingManager = registry.computeIfAbsent(1L, userId -> new UserSessionsManager(userId, UserStatus.BUSY));
+
+        assertSame(manager, existingManager);
+        assertSame(manager, registry.get(1L));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void remove_shouldOnlyRemoveExpectedManager() {
+        UserSessionsRegistry registry = new UserSessionsRegistry(16);
+        UserSessionsManager manager = registry.computeIfAbsent(1L, userId -> new UserSessionsManager(userId, UserStatus.AVAILABLE));
+
+        assertFalse(registry.remove(1L, new UserSessionsManager(1L, UserStatus.AVAILABLE)));
+        assertTrue(registry.remove(1L, manager));
+        assertNull(registry.get(1L));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void registry_shouldKeepAllManagers_afterResizingAndRemoving() {
+        UserSessionsRegistry registry = new UserSessionsRegistry(16);
+        int count = 100_000;
+        for (long userId = 1; userId <= count; userId++) {
+            registry.computeIfAbsent(userId, id -> new UserSessionsManager(id, UserStatus.AVAILABLE));
+        }
+        for (long userId = 1; userId <= count; userId += 2) {
+            assertTrue(registry.remove(userId, registry.get(userId)));
+        }
+
+        assertEquals(count / 2, registry.size());
+        for (long userId = 1; userId <= count; userId++) {
+            UserSessionsManager manager = registry.get(userId);
+            if (userId % 2 == 0) {
+                assertNotNull(manager);
+                assertEquals(userId, manager.getUserId());
+            } else {
+                assertNull(manager);
+            }
+        }
+        Set<Long> userIds = new HashSet<>();
+        registry.forEach(manager -> userIds.add(manager.getUserId()));
+        assertEquals(count / 2, userIds.size());
+    }
+
+}
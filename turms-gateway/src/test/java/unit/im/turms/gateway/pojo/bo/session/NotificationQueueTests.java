@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.gateway.pojo.bo.session;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.statuscode.SessionCloseStatus;
+import im.turms.gateway.pojo.bo.session.NotificationQueue;
+import im.turms.gateway.pojo.bo.session.NotificationQueueMetrics;
+import im.turms.gateway.pojo.bo.session.UserSession;
+import im.turms.server.common.dto.CloseReason;
+import im.turms.server.common.property.env.gateway.NotificationQueueProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.data.geo.Point;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class NotificationQueueTests {
+
+    private final AtomicLong queuedNotifications = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Counter droppedNotificationsCounter = registry.counter("dropped.notifications");
+    private final NotificationQueueMetrics metrics = new NotificationQueueMetrics(
+            queuedNotifications,
+            queuedBytes,
+            droppedNotificationsCounter,
+            registry.counter("dropped.bytes"),
+            registry.counter("slow.consumer.disconnections"));
+
+    @Test
+    void offer_shouldStayWithinBounds_ifEvictingUntilAvailableBeforeOffering() {
+        int maxSize = 3;
+        long maxBytes = 10;
+        NotificationQueue queue = new NotificationQueue(maxSize, maxBytes, metrics);
+
+        for (int i = 0; i < 100; i++) {
+            ByteBuf notification = newNotification(i % 5 + 1);
+            queue.evictUntilAvailable(notification.readableBytes());
+            queue.offer(notification);
+
+            assertTrue(queue.size() <= maxSize);
+            assertTrue(queue.getBytes() <= maxBytes);
+            assertEquals(queue.size(), queuedNotifications.get());
+            assertEquals(queue.getBytes(), queuedBytes.get());
+        }
+    }
+
+    @Test
+    void evictUntilAvailable_shouldEvictAndReleaseOldestNotification_ifQueueIsOverflowed() {
+        NotificationQueue queue = new NotificationQueue(2, 0, metrics);
+        ByteBuf oldestNotification = newNotification(1);
+        ByteBuf newerNotification = newNotification(2);
+        queue.offer(oldestNotification);
+        queue.offer(newerNotification);
+
+        assertTrue(queue.isOverflowed(1));
+        queue.evictUntilAvailable(1);
+
+        assertEquals(0, oldestNotification.refCnt());
+        assertEquals(1, newerNotification.refCnt());
+        assertSame(newerNotification, queue.peek());
+        assertEquals(1, queue.size());
+        assertEquals(2, queue.getBytes());
+        assertEquals(1, droppedNotificationsCounter.count());
+    }
+
+    @Test
+    void poll_shouldResetCounters_ifQueueIsDrained() {
+        NotificationQueue queue = new NotificationQueue(0, 0, metrics);
+        for (int i = 1; i <= 3; i++) {
+            queue.offer(newNotification(i));
+        }
+
+        ByteBuf notification;
+        while ((notification = queue.poll()) != null) {
+            notification.release();
+        }
+
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.getBytes());
+        assertEquals(0, queuedNotifications.get());
+        assertEquals(0, queuedBytes.get());
+    }
+
+    @Test
+    void close_shouldReleaseQueuedNotificationsAndResetCounters_ifNotificationsAreNotFlushed() {
+        UserSession session = new UserSession(1L, DeviceType.ANDROID, new Point(1F, 1F), 1L,
+                new NotificationQueueProperties(), metrics);
+        // A slow client that never requests notifications
+        BaseSubscriber<ByteBuf> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+            }
+        };
+        session.getNotificationFlux().subscribe(subscriber);
+        List<ByteBuf> notifications = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            ByteBuf notification = newNotification(i);
+            notifications.add(notification);
+            session.tryEmitNextNotification(notification);
+        }
+        assertEquals(3, queuedNotifications.get());
+        assertEquals(6, queuedBytes.get());
+
+        session.close(CloseReason.get(SessionCloseStatus.DISCONNECTED_BY_CLIENT));
+        // The outbound of the closed connection cancels the subscription
+        subscriber.dispose();
+
+        for (ByteBuf notification : notifications) {
+            assertEquals(0, notification.refCnt());
+        }
+        assertEquals(0, queuedNotifications.get());
+        assertEquals(0, queuedBytes.get());
+    }
+
+    private ByteBuf newNotification(int bytes) {
+        return Unpooled.buffer(bytes).writeZero(bytes);
+    }
+
+}
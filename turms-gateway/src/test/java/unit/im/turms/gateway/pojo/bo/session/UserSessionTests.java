@@ -19,11 +19,17 @@ package unit.im.turms.gateway.pojo.bo.session;
 
 import im.turms.common.constant.DeviceType;
 import im.turms.gateway.pojo.bo.session.UserSession;
+import im.turms.server.common.property.constant.NotificationQueueOverflowPolicy;
+import im.turms.server.common.property.env.gateway.NotificationQueueProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.junit.jupiter.api.Test;
 import org.springframework.data.geo.Point;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author James Chen
@@ -57,4 +63,45 @@ class UserSessionTests {
         assertEquals(logId, userSession.getLogId());
     }
 
+    @Test
+    void tryEmitNextNotification_shouldDropOldestNotification_ifQueueIsFullAndPolicyIsDropOldest() {
+        UserSession userSession = newUserSessionWithBoundedQueue(NotificationQueueOverflowPolicy.DROP_OLDEST);
+        ByteBuf oldestNotification = Unpooled.buffer().writeByte(1);
+        ByteBuf newNotification = Unpooled.buffer().writeByte(2);
+        userSession.tryEmitNextNotification(oldestNotification);
+
+        assertTrue(userSession.tryEmitNextNotification(newNotification));
+        assertEquals(0, oldestNotification.refCnt());
+        assertEquals(1, newNotification.refCnt());
+    }
+
+    @Test
+    void tryEmitNextNotification_shouldDropNewNotification_ifQueueIsFullAndPolicyIsDropNewest() {
+        UserSession userSession = newUserSessionWithBoundedQueue(NotificationQueueOverflowPolicy.DROP_NEWEST);
+        ByteBuf oldestNotification = Unpooled.buffer().writeByte(1);
+        ByteBuf newNotification = Unpooled.buffer().writeByte(2);
+        userSession.tryEmitNextNotification(oldestNotification);
+
+        assertFalse(userSession.tryEmitNextNotification(newNotification));
+        assertEquals(1, oldestNotification.refCnt());
+        assertEquals(0, newNotification.refCnt());
+        assertTrue(userSession.isOpen());
+    }
+
+    @Test
+    void tryEmitNextNotification_shouldCloseSession_ifQueueIsFullAndPolicyIsDisconnect() {
+        UserSession userSession = newUserSessionWithBoundedQueue(NotificationQueueOverflowPolicy.DISCONNECT);
+        userSession.tryEmitNextNotification(Unpooled.buffer().writeByte(1));
+
+        assertFalse(userSession.tryEmitNextNotification(Unpooled.buffer().writeByte(2)));
+        assertFalse(userSession.isOpen());
+    }
+
+    private UserSession newUserSessionWithBoundedQueue(NotificationQueueOverflowPolicy overflowPolicy) {
+        NotificationQueueProperties properties = new NotificationQueueProperties();
+        properties.setMaxSize(1);
+        properties.setOverflowPolicy(overflowPolicy);
+        return new UserSession(userId, deviceType, loginLocation, logId, properties, null);
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.gateway.service.impl;
+
+import im.turms.gateway.service.impl.HeartbeatAggregator;
+import im.turms.server.common.property.env.gateway.HeartbeatRefreshBatchProperties;
+import im.turms.server.common.service.session.UserStatusService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class HeartbeatAggregatorTests {
+
+    private final Duration ttl = Duration.ofSeconds(150);
+
+    @Test
+    void add_shouldRefreshUsersByBatch() {
+        UserStatusService userStatusService = mockUserStatusService();
+        when(userStatusService.updateTtls(anyInt(), any(), any()))
+                .thenReturn(Mono.just(Collections.emptyList()));
+        HeartbeatAggregator aggregator = newAggregator(userStatusService);
+        try {
+            aggregator.add(1L);
+            aggregator.add(2L);
+            aggregator.add(2L);
+
+            verify(userStatusService, timeout(1000)).updateTtls(eq(0), eq(List.of(1L, 2L)), eq(ttl));
+        } finally {
+            aggregator.destroy();
+        }
+    }
+
+    @Test
+    void add_shouldRetryUsers_ifFailedToRefresh() {
+        UserStatusService userStatusService = mockUserStatusService();
+        when(userStatusService.updateTtls(anyInt(), any(), any()))
+                .thenReturn(Mono.error(new TimeoutException()))
+                .thenReturn(Mono.just(Collections.emptyList()));
+        HeartbeatAggregator aggregator = newAggregator(userStatusService);
+        try {
+            aggregator.add(1L);
+
+            verify(userStatusService, timeout(1000).times(2)).updateTtls(eq(0), eq(List.of(1L)), eq(ttl));
+        } finally {
+            aggregator.destroy();
+        }
+    }
+
+    private UserStatusService mockUserStatusService() {
+        UserStatusService userStatusService = mock(UserStatusService.class);
+        when(userStatusService.getSessionShardCount())
+                .thenReturn(1);
+        when(userStatusService.getSessionShardIndex(anyLong()))
+                .thenReturn(0);
+        return userStatusService;
+    }
+
+    private HeartbeatAggregator newAggregator(UserStatusService userStatusService) {
+        HeartbeatRefreshBatchProperties properties = new HeartbeatRefreshBatchProperties();
+        properties.setEnabled(true);
+        properties.setFlushIntervalMillis(50);
+        return new HeartbeatAggregator(userStatusService, new SimpleMeterRegistry(), properties, () -> ttl);
+    }
+
+}
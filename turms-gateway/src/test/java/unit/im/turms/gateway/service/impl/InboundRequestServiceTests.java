@@ -25,6 +25,7 @@ import reactor.test.StepVerifier;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -148,9 +149,13 @@ class InboundRequestServiceTests {
         if (handleRequestSuccessfully) {
             when(rpcService.requestResponse(any(HandleServiceRequest.class)))
                     .thenReturn(Mono.just(responseForSuccess));
+            when(rpcService.requestResponse(any(HandleServiceRequest.class), anyLong()))
+                    .thenReturn(Mono.just(responseForSuccess));
         } else {
             when(rpcService.requestResponse(any(HandleServiceRequest.class)))
                     .thenThrow(new IllegalStateException());
+            when(rpcService.requestResponse(any(HandleServiceRequest.class), anyLong()))
+                    .thenThrow(new IllegalStateException());
         }
         when(node.getRpcService())
                 .thenReturn(rpcService);
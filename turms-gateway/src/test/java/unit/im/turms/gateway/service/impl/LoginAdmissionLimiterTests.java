@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.gateway.service.impl;
+
+import im.turms.gateway.service.impl.LoginAdmissionLimiter;
+import im.turms.server.common.property.env.gateway.LoginAdmissionProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class LoginAdmissionLimiterTests {
+
+    private static final int CLIENT_COUNT = 100_000;
+    private static final int LOGIN_ATTEMPT = 0;
+    private static final int SESSION_REGISTERED = 1;
+
+    @Test
+    void tryAcquire_shouldAdmitBurstAndThenReject_withJitteredRetryDelays() {
+        LoginAdmissionProperties properties = new LoginAdmissionProperties();
+        AtomicLong clock = new AtomicLong();
+        LoginAdmissionLimiter limiter = new LoginAdmissionLimiter(properties, clock::get);
+
+        for (int i = 0; i < properties.getInitialPermitsPerSecond(); i++) {
+            assertEquals(0, limiter.tryAcquire());
+        }
+        Set<Long> retryDelays = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            long retryAfterMillis = limiter.tryAcquire();
+            assertTrue(retryAfterMillis >= properties.getMinRetryAfterMillis());
+            assertTrue(retryAfterMillis <= properties.getMaxRetryAfterMillis());
+            retryDelays.add(retryAfterMillis);
+        }
+        assertTrue(retryDelays.size() > 1);
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(0, limiter.tryAcquire());
+    }
+
+    @Test
+    void tryAcquire_shouldSuggestPositiveRetryDelay_whenRetryDelaysAreConfiguredAsZero() {
+        LoginAdmissionProperties properties = new LoginAdmissionProperties();
+        properties.setInitialPermitsPerSecond(1);
+        properties.setMinPermitsPerSecond(1);
+        properties.setMinRetryAfterMillis(0);
+        properties.setMaxRetryAfterMillis(0);
+        AtomicLong clock = new AtomicLong();
+        LoginAdmissionLimiter limiter = new LoginAdmissionLimiter(properties, clock::get);
+
+        assertEquals(0, limiter.tryAcquire());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire() > 0);
+        }
+    }
+
+    /**
+     * Simulate 100k clients reconnecting at the same moment in virtual time
+     * against the stand-ins of Redis and MongoDB, which serve the requests
+     * one by one with fixed capacities so that the latency grows with the backlog
+     */
+    @Test
+    void tryAcquire_shouldKeepSessionRegistrationLatencyBounded_duringReconnectStorm() {
+        LoginAdmissionProperties properties = new LoginAdmissionProperties();
+        AtomicLong clock = new AtomicLong();
+        LoginAdmissionLimiter limiter = new LoginAdmissionLimiter(properties, clock::get);
+        // Fetching the sessions status, adding the device, and EXPIRE
+        BackendStandIn redis = new BackendStandIn(20_000, 3);
+        // Logging the login action
+        BackendStandIn mongo = new BackendStandIn(3_000, 1);
+
+        PriorityQueue<long[]> events = new PriorityQueue<>((e1, e2) -> Long.compare(e1[0], e2[0]));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            events.add(new long[]{random.nextLong(TimeUnit.MILLISECONDS.toNanos(50)), LOGIN_ATTEMPT, 0});
+        }
+        int registeredCount = 0;
+        int rejectedCount = 0;
+        long maxLatency = 0;
+        while (!events.isEmpty()) {
+            long[] event = events.poll();
+            long now = event[0];
+            clock.set(now);
+            if (event[1] == SESSION_REGISTERED) {
+                long latency = event[2];
+                limiter.recordLatency(latency);
+                maxLatency = Math.max(maxLatency, latency);
+                registeredCount++;
+                continue;
+            }
+            long retryAfterMillis = limiter.tryAcquire();
+            if (retryAfterMillis > 0) {
+                rejectedCount++;
+                events.add(new long[]{now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis), LOGIN_ATTEMPT, 0});
+            } else {
+                long registeredTime = mongo.serve(redis.serve(now));
+                events.add(new long[]{registeredTime, SESSION_REGISTERED, registeredTime - now});
+            }
+        }
+        long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(clock.get());
+
+        assertEquals(CLIENT_COUNT, registeredCount);
+        // Without admission control, the last client would wait for about 100k / 3k = 33 seconds
+        assertTrue(maxLatency < TimeUnit.SECONDS.toNanos(2),
+                "The max latency should be bounded but was " + TimeUnit.NANOSECONDS.toMillis(maxLatency) + " millis");
+        assertTrue(elapsedSeconds < 120,
+                "All clients should log in within 2 minutes but took " + elapsedSeconds + " seconds");
+        assertTrue(rejectedCount < CLIENT_COUNT * 10,
+                "The retries should be spread out but " + rejectedCount + " requests were rejected");
+    }
+
+    private static class BackendStandIn {
+        private final long serviceTimeNanos;
+        private long busyUntil;
+
+        BackendStandIn(int operationsPerSecond, int operationsPerLogin) {
+            serviceTimeNanos = TimeUnit.SECONDS.toNanos(1) * operationsPerLogin / operationsPerSecond;
+        }
+
+        /**
+         * @return the time when the request is served
+         */
+        long serve(long arrivalTime) {
+            busyUntil = Math.max(arrivalTime, busyUntil) + serviceTimeNanos;
+            return busyUntil;
+        }
+    }
+
+}
@@ -34,11 +34,10 @@ import org.springframework.data.geo.Point;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -57,12 +56,12 @@ class OutboundMessageServiceTests {
     void sendNotificationToLocalClients_shouldReturnTrue_ifRecipientsAreOnline() {
         UserSessionsManager sessionsManager = mock(UserSessionsManager.class);
         UserSession session = new UserSession(1L, DeviceType.ANDROID, new Point(1F, 1F), null);
-        when(sessionsManager.getSessionMap())
-                .thenReturn(Map.of(DeviceType.ANDROID, session));
+        when(sessionsManager.getSession(DeviceType.ANDROID))
+                .thenReturn(session);
         OutboundMessageService outboundMessageService = newOutboundMessageService(sessionsManager);
 
         ByteBuf byteBuf = PreferredDirectByteBufAllocator.DEFAULT.directBuffer();
-        Set<Long> recipientIds = Set.of(1L);
+        long[] recipientIds = {1L};
 
         assertTrue(outboundMessageService.sendNotificationToLocalClients(byteBuf, recipientIds));
     }
@@ -72,7 +71,7 @@ class OutboundMessageServiceTests {
         OutboundMessageService outboundMessageService = newOutboundMessageService(null);
 
         ByteBuf byteBuf = PreferredDirectByteBufAllocator.DEFAULT.directBuffer();
-        Set<Long> recipientIds = Set.of(1L);
+        long[] recipientIds = {1L};
 
         assertFalse(outboundMessageService.sendNotificationToLocalClients(byteBuf, recipientIds));
     }
@@ -94,7 +93,7 @@ class OutboundMessageServiceTests {
                 .thenReturn(List.of(handler));
 
         SessionService sessionService = mock(SessionService.class);
-        when(sessionService.getUserSessionsManager(any()))
+        when(sessionService.getUserSessionsManager(anyLong()))
                 .thenReturn(userSessionsManager);
         return new OutboundMessageService(node, sessionService, pluginManager);
     }
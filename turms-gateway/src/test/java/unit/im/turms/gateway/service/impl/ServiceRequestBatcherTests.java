@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.gateway.service.impl;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.gateway.service.impl.ServiceRequestBatcher;
+import im.turms.server.common.cluster.exception.RpcException;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.rpc.RpcErrorCode;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.dto.BatchedServiceResponse;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.property.env.gateway.ServiceRequestBatchProperties;
+import im.turms.server.common.rpc.request.HandleServiceRequest;
+import im.turms.server.common.rpc.request.HandleServiceRequestBatch;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class ServiceRequestBatcherTests {
+
+    private final ServiceResponse response = new ServiceResponse(null, TurmsStatusCode.OK, null);
+
+    @Test
+    void send_shouldCompleteEachRequestIndependently_ifBatchIsFull() {
+        RpcService rpcService = mock(RpcService.class);
+        RpcException exception = RpcException.get(RpcErrorCode.FAILED_TO_RUN_RPC, TurmsStatusCode.ILLEGAL_ARGUMENTS);
+        when(rpcService.requestStream(any(HandleServiceRequestBatch.class)))
+                .thenReturn(Flux.just(
+                        new BatchedServiceResponse(2, null, null),
+                        new BatchedServiceResponse(1, null, exception),
+                        new BatchedServiceResponse(0, response, null)));
+        // Use a long window so that the batch is always flushed because it is full
+        ServiceRequestBatcher batcher = newBatcher(rpcService, 3, (int) TimeUnit.SECONDS.toMicros(10));
+
+        Mono<ServiceResponse> result0 = batcher.send(newServiceRequest()).cache();
+        Mono<ServiceResponse> result1 = batcher.send(newServiceRequest()).cache();
+        Mono<ServiceResponse> result2 = batcher.send(newServiceRequest()).cache();
+        result0.subscribe(ignored -> {
+        }, ignored -> {
+        });
+        result1.subscribe(ignored -> {
+        }, ignored -> {
+        });
+        result2.subscribe(ignored -> {
+        }, ignored -> {
+        });
+
+        StepVerifier.create(result0)
+                .expectNext(response)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(result1)
+                .expectErrorMatches(throwable -> throwable == exception)
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(result2)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        verify(rpcService, never()).requestResponse(any(HandleServiceRequest.class));
+    }
+
+    @Test
+    void send_shouldSendRequestAlone_ifNoOtherRequestWithinWindow() {
+        RpcService rpcService = mock(RpcService.class);
+        when(rpcService.requestResponse(any(HandleServiceRequest.class)))
+                .thenReturn(Mono.just(response));
+        ServiceRequestBatcher batcher = newBatcher(rpcService, 64, new ServiceRequestBatchProperties().getWindowMicros());
+
+        StepVerifier.create(batcher.send(newServiceRequest()))
+                .expectNext(response)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+        verify(rpcService, never()).requestStream(any(HandleServiceRequestBatch.class));
+    }
+
+    private ServiceRequestBatcher newBatcher(RpcService rpcService, int maxSize, int windowMicros) {
+        Node node = mock(Node.class);
+        when(node.getRpcService())
+                .thenReturn(rpcService);
+        ServiceRequestBatchProperties properties = new ServiceRequestBatchProperties();
+        properties.setEnabled(true);
+        properties.setMaxSize(maxSize);
+        properties.setWindowMicros(windowMicros);
+        return new ServiceRequestBatcher(node, properties);
+    }
+
+    private ServiceRequest newServiceRequest() {
+        return new ServiceRequest(1L, 1L, DeviceType.ANDROID, 1L, TurmsRequest.KindCase.CREATE_MESSAGE_REQUEST,
+                PooledByteBufAllocator.DEFAULT.buffer());
+    }
+
+}
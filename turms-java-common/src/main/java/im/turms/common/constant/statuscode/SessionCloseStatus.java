@@ -33,6 +33,7 @@ public enum SessionCloseStatus {
     HEARTBEAT_TIMEOUT(4401),
     DISCONNECTED_BY_CLIENT(4402),
     DISCONNECTED_BY_OTHER_DEVICE(4403),
+    SLOW_CONSUMER(4404),
 
     SERVER_ERROR(4500),
     SERVER_CLOSED(4501),
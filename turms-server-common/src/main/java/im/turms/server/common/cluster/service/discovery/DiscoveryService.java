@@ -187,7 +187,13 @@ public class DiscoveryService implements ClusterService {
                             case INSERT:
                             case REPLACE:
                             case UPDATE:
+                                Leader previousLeader = leader;
                                 leader = changedLeader;
+                                // Don't notify the listeners of the heartbeats of the same leader
+                                if (changedLeader != null && (previousLeader == null
+                                        || !previousLeader.getNodeId().equals(changedLeader.getNodeId()))) {
+                                    notifyLeadershipChangeListeners(changedLeader);
+                                }
                                 break;
                             case INVALIDATE:
                                 leader = null;
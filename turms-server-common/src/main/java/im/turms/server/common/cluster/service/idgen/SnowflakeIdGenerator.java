@@ -83,6 +83,13 @@ public class SnowflakeIdGenerator {
         this.memberId = memberId;
     }
 
+    /**
+     * @return the epoch milliseconds when the ID was generated
+     */
+    public static long getTimestampMillis(long id) {
+        return (id >>> TIMESTAMP_LEFT_SHIFT) + EPOCH;
+    }
+
     public long nextId() {
         // prepare each part of ID
         long sequenceId = sequenceNumber.incrementAndGet() & SEQUENCE_NUMBER_MASK;
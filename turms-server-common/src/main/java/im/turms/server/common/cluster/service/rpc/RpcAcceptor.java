@@ -30,6 +30,7 @@ import io.rsocket.util.ByteBufPayload;
 import io.rsocket.util.EmptyPayload;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.context.ApplicationContext;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -67,6 +68,29 @@ public class RpcAcceptor implements RSocket {
         }
     }
 
+    /**
+     * Used for the requests whose results should be sent back independently once they are ready,
+     * e.g. a batch of service requests.
+     *
+     * @see io.rsocket.core.RSocketResponder#handleFrame(io.netty.buffer.ByteBuf)
+     */
+    @Override
+    public Flux<Payload> requestStream(Payload payload) {
+        ByteBuf buffer = payload.sliceData();
+        try {
+            RpcCallable<?> rpcRequest = parseRpcRequest(buffer);
+            return runRpcStreamRequest(rpcRequest)
+                    .map(this::serializeReturnValue)
+                    .onErrorMap(e -> e instanceof RpcException
+                            ? e
+                            : RpcException.get(RpcErrorCode.UNKNOWN_ERROR, TurmsStatusCode.SERVER_INTERNAL_ERROR, e.toString()));
+        } catch (RpcException e) {
+            return Flux.error(e);
+        } catch (Exception e) {
+            return Flux.error(RpcException.get(RpcErrorCode.UNKNOWN_ERROR, TurmsStatusCode.SERVER_INTERNAL_ERROR, e.toString()));
+        }
+    }
+
     // Base methods
 
     private RpcCallable<?> parseRpcRequest(ByteBuf buffer) {
@@ -102,6 +126,17 @@ public class RpcAcceptor implements RSocket {
         }
     }
 
+    public <T> Flux<T> runRpcStreamRequest(RpcCallable<T> rpcRequest) {
+        try {
+            rpcRequest.setApplicationContext(context);
+            return rpcRequest.callStream();
+        } catch (TurmsBusinessException e) {
+            return Flux.error(RpcException.get(RpcErrorCode.FAILED_TO_RUN_RPC, e.getCode(), e.getReason()));
+        } catch (Exception e) {
+            return Flux.error(RpcException.get(RpcErrorCode.FAILED_TO_RUN_RPC, TurmsStatusCode.SERVER_INTERNAL_ERROR, e.toString()));
+        }
+    }
+
     private Payload serializeReturnValue(Object returnValue) {
         if (returnValue != null) {
             Serializer returnValueSerializer = SerializerPool.getSerializer(returnValue.getClass());
@@ -24,6 +24,7 @@ import lombok.Getter;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -73,4 +74,12 @@ public abstract class RpcCallable<T> implements ApplicationContextAware {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Used when the request is sent via {@link RpcService#requestStream(RpcCallable)}
+     * so that the requester can handle each result once it is ready
+     */
+    public Flux<T> callStream() {
+        throw new UnsupportedOperationException();
+    }
+
 }
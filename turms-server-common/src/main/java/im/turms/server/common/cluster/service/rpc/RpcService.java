@@ -22,6 +22,11 @@ import im.turms.server.common.cluster.exception.RpcException;
 import im.turms.server.common.cluster.service.ClusterService;
 import im.turms.server.common.cluster.service.discovery.DiscoveryService;
 import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.balancer.EwmaLatencyLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.PowerOfTwoChoicesLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.RendezvousHashing;
+import im.turms.server.common.cluster.service.rpc.balancer.RoundRobinLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.RpcLoadBalancer;
 import im.turms.server.common.cluster.service.serialization.SerializationService;
 import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
 import im.turms.server.common.cluster.service.serialization.serializer.SerializerPool;
@@ -48,6 +53,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Note that RpcService itself doesn't need to manage the life of the payload because
@@ -69,11 +75,32 @@ public class RpcService implements ClusterService {
     private final SerializationService serializationService;
     private final DiscoveryService discoveryService;
     private final Duration timeoutDuration;
+    @Getter
+    private final RpcLoadBalancer loadBalancer;
 
     public RpcService(RpcProperties rpcProperties, SerializationService serializationService, DiscoveryService discoveryService) {
         this.serializationService = serializationService;
         this.discoveryService = discoveryService;
         timeoutDuration = Duration.ofMillis(rpcProperties.getTimeoutInMillis());
+        loadBalancer = createLoadBalancer(rpcProperties);
+        discoveryService.addListenerOnMembersChange(() ->
+                loadBalancer.retainMembers(discoveryService.getAllKnownMembers().keySet()));
+    }
+
+    private static RpcLoadBalancer createLoadBalancer(RpcProperties rpcProperties) {
+        double ewmaLatencyWeight = rpcProperties.getEwmaLatencyWeight();
+        int failureThreshold = rpcProperties.getCircuitBreakerFailureThreshold();
+        int openDurationMillis = rpcProperties.getCircuitBreakerOpenDurationMillis();
+        switch (rpcProperties.getLoadBalancingStrategy()) {
+            case ROUND_ROBIN:
+                return new RoundRobinLoadBalancer(ewmaLatencyWeight, failureThreshold, openDurationMillis);
+            case POWER_OF_TWO_CHOICES:
+                return new PowerOfTwoChoicesLoadBalancer(ewmaLatencyWeight, failureThreshold, openDurationMillis);
+            case EWMA_LATENCY:
+                return new EwmaLatencyLoadBalancer(ewmaLatencyWeight, failureThreshold, openDurationMillis);
+            default:
+                throw new IllegalStateException("Unexpected value: " + rpcProperties.getLoadBalancingStrategy());
+        }
     }
 
     public static void initRpcAcceptor(ApplicationContext context) {
@@ -88,15 +115,11 @@ public class RpcService implements ClusterService {
      * 3. error for other cases (e.g. no peer exists).
      */
     public <T> Mono<T> requestResponse(RpcCallable<T> request) {
-        //TODO: Provide richer load balancing strategies
         List<MemberInfoWithConnection> serviceMembers = discoveryService.getOtherActiveConnectedServiceMemberList();
-        int size = serviceMembers.size();
-        if (size == 0) {
+        MemberInfoWithConnection info = loadBalancer.choose(serviceMembers);
+        if (info == null) {
             return Mono.error(RpcException.get(RpcErrorCode.SERVICE_NOT_FOUND, TurmsStatusCode.UNAVAILABLE));
         }
-        // use System.currentTimeMillis() instead of "RandomUtil.nextPositiveInt()" for better performance
-        int index = (int) (System.currentTimeMillis() % size);
-        MemberInfoWithConnection info = serviceMembers.get(index);
         String memberNodeId = info.getMember().getNodeId();
         return requestResponse(memberNodeId, info.getConnection(), request, timeoutDuration)
                 .onErrorResume(throwable -> {
@@ -112,6 +135,30 @@ public class RpcService implements ClusterService {
                 });
     }
 
+    /**
+     * Send the requests with the same affinity key to the same service member
+     * (e.g. to make use of the local cache of the member) unless the member is unavailable
+     * (e.g. its circuit is open or the connection fails), in which case the request is load balanced.
+     *
+     * @return 1. an empty publisher if the peer responds with an empty payload;
+     * 2. a non-empty publisher if the peer responds with an non-empty valid payload;
+     * 3. error for other cases (e.g. no peer exists).
+     */
+    public <T> Mono<T> requestResponse(RpcCallable<T> request, long affinityKey) {
+        List<MemberInfoWithConnection> serviceMembers = discoveryService.getOtherActiveConnectedServiceMemberList();
+        MemberInfoWithConnection info = RendezvousHashing.choose(serviceMembers, affinityKey);
+        if (info == null) {
+            return Mono.error(RpcException.get(RpcErrorCode.SERVICE_NOT_FOUND, TurmsStatusCode.UNAVAILABLE));
+        }
+        if (!loadBalancer.isAvailable(info.getMember().getNodeId())) {
+            return requestResponse(request);
+        }
+        return requestResponse(info.getMember().getNodeId(), info.getConnection(), request, timeoutDuration)
+                .onErrorResume(throwable -> isConnectionError(throwable)
+                        ? requestResponse(request)
+                        : Mono.error(throwable));
+    }
+
     /**
      * @return 1. an empty publisher if the peer responds with an empty payload;
      * 2. a non-empty publisher if the peer responds with an non-empty valid payload;
@@ -154,6 +201,30 @@ public class RpcService implements ClusterService {
         }
     }
 
+    /**
+     * Note that the request won't be retried on another member if the connection fails
+     * because the peer may have handled a part of the request.
+     *
+     * @return 1. a publisher that publishes the results of the request one by one once they are ready;
+     * 2. error for other cases (e.g. no peer exists).
+     */
+    public <T> Flux<T> requestStream(RpcCallable<T> request) {
+        List<MemberInfoWithConnection> serviceMembers = discoveryService.getOtherActiveConnectedServiceMemberList();
+        MemberInfoWithConnection info = loadBalancer.choose(serviceMembers);
+        if (info == null) {
+            return Flux.error(RpcException.get(RpcErrorCode.SERVICE_NOT_FOUND, TurmsStatusCode.UNAVAILABLE));
+        }
+        String memberNodeId = info.getMember().getNodeId();
+        try {
+            if (memberNodeId.equals(discoveryService.getLocalMember().getNodeId())) {
+                return rpcAcceptor.runRpcStreamRequest(request);
+            }
+            return requestStream0(memberNodeId, info.getConnection(), request, timeoutDuration);
+        } catch (Exception e) {
+            return Flux.error(e);
+        }
+    }
+
     /**
      * @return 1. an empty publisher if all peers respond with an empty payload;
      * 2. a non-empty publisher if the peer responds with an non-empty valid payload;
@@ -239,8 +310,17 @@ public class RpcService implements ClusterService {
     private <T> Mono<T> requestResponse0(String memberNodeId, RSocket connection, RpcCallable<T> request, Duration timeout) {
         ByteBuf buffer = serializationService.serialize(request);
         Payload requestPayload = ByteBufPayload.create(buffer);
-        Mono<Payload> mono = connection.requestResponse(requestPayload)
-                .timeout(timeout)
+        Mono<Payload> mono = Mono.defer(() -> {
+            // Measure the latency at the same point as the timer of "rpc.request"
+            long startTime = System.nanoTime();
+            loadBalancer.onRequestStarted(memberNodeId);
+            return connection.requestResponse(requestPayload)
+                    .timeout(timeout)
+                    .doOnSuccess(payload -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime, true))
+                    .doOnError(throwable -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime,
+                            !isConnectionError(throwable) && !(throwable instanceof TimeoutException)))
+                    .doOnCancel(() -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime, true));
+        })
                 .name(METRICS_NAME_RPC_REQUEST)
                 .tag(METRICS_TAG_REQUEST_NAME, request.name())
                 .tag(METRICS_TAG_REQUEST_TARGET_NODE_ID, memberNodeId);
@@ -254,6 +334,32 @@ public class RpcService implements ClusterService {
                 .onErrorMap(throwable -> tryLogAndTranslateThrowable(throwable, memberNodeId));
     }
 
+    private <T> Flux<T> requestStream0(String memberNodeId, RSocket connection, RpcCallable<T> request, Duration timeout) {
+        ByteBuf buffer = serializationService.serialize(request);
+        Payload requestPayload = ByteBufPayload.create(buffer);
+        Flux<Payload> flux = Flux.defer(() -> {
+            long startTime = System.nanoTime();
+            loadBalancer.onRequestStarted(memberNodeId);
+            return connection.requestStream(requestPayload)
+                    .timeout(timeout)
+                    .doOnComplete(() -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime, true))
+                    .doOnError(throwable -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime,
+                            !isConnectionError(throwable) && !(throwable instanceof TimeoutException)))
+                    .doOnCancel(() -> loadBalancer.onRequestCompleted(memberNodeId, System.nanoTime() - startTime, true));
+        })
+                .name(METRICS_NAME_RPC_REQUEST)
+                .tag(METRICS_TAG_REQUEST_NAME, request.name())
+                .tag(METRICS_TAG_REQUEST_TARGET_NODE_ID, memberNodeId);
+        Tag tag = request.tag();
+        if (tag != null) {
+            flux = flux.tag(tag.getKey(), tag.getValue());
+        }
+        return (Flux<T>) flux
+                .metrics()
+                .concatMap(this::parsePayload)
+                .onErrorMap(throwable -> tryLogAndTranslateThrowable(throwable, memberNodeId));
+    }
+
     public <T> Flux<T> requestResponsesFromOtherMembers(List<MemberInfoWithConnection> members, @NotNull RpcCallable<T> request, @NotNull Duration timeout, boolean rejectIfMissingAnyConnection) {
         if (members.isEmpty()) {
             return Flux.error(RpcException.get(RpcErrorCode.SERVICE_NOT_FOUND, TurmsStatusCode.UNAVAILABLE));
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains the statistics of members and skips the members whose circuits are open.
+ * If the circuits of all members are open, all members are candidates
+ * because failing fast without trying any member isn't better than trying an unhealthy one.
+ *
+ * @author James Chen
+ */
+public abstract class AbstractRpcLoadBalancer implements RpcLoadBalancer {
+
+    private final Map<String, MemberStats> statsMap = new ConcurrentHashMap<>(16);
+    private final double ewmaLatencyWeight;
+    private final int circuitBreakerFailureThreshold;
+    private final int circuitBreakerOpenDurationMillis;
+
+    protected AbstractRpcLoadBalancer(double ewmaLatencyWeight,
+                                      int circuitBreakerFailureThreshold,
+                                      int circuitBreakerOpenDurationMillis) {
+        this.ewmaLatencyWeight = ewmaLatencyWeight;
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+        this.circuitBreakerOpenDurationMillis = circuitBreakerOpenDurationMillis;
+    }
+
+    @Nullable
+    @Override
+    public MemberInfoWithConnection choose(List<MemberInfoWithConnection> members) {
+        int size = members.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return members.get(0);
+        }
+        return doChoose(getAvailableMembers(members));
+    }
+
+    @Override
+    public void onRequestStarted(String memberNodeId) {
+        getStats(memberNodeId).inFlightRequests.incrementAndGet();
+    }
+
+    @Override
+    public void onRequestCompleted(String memberNodeId, long latencyNanos, boolean isSuccessful) {
+        MemberStats stats = getStats(memberNodeId);
+        stats.inFlightRequests.decrementAndGet();
+        double ewma = stats.ewmaLatencyNanos;
+        stats.ewmaLatencyNanos = ewma == 0
+                ? latencyNanos
+                : ewma + ewmaLatencyWeight * (latencyNanos - ewma);
+        if (isSuccessful) {
+            stats.consecutiveFailures.set(0);
+        } else if (circuitBreakerFailureThreshold > 0
+                && stats.consecutiveFailures.incrementAndGet() >= circuitBreakerFailureThreshold) {
+            // Half-open after the duration: the next failure opens the circuit again
+            // while the next success closes it
+            stats.consecutiveFailures.set(circuitBreakerFailureThreshold - 1);
+            stats.circuitOpenUntilMillis = System.currentTimeMillis() + circuitBreakerOpenDurationMillis;
+        }
+    }
+
+    @Override
+    public boolean isAvailable(String memberNodeId) {
+        if (circuitBreakerFailureThreshold <= 0) {
+            return true;
+        }
+        MemberStats stats = statsMap.get(memberNodeId);
+        return stats == null || !stats.isCircuitOpen(System.currentTimeMillis());
+    }
+
+    @Override
+    public void retainMembers(Set<String> memberNodeIds) {
+        statsMap.keySet().retainAll(memberNodeIds);
+    }
+
+    public MemberStats getStats(String memberNodeId) {
+        return statsMap.computeIfAbsent(memberNodeId, key -> new MemberStats());
+    }
+
+    /**
+     * @param members at least two members
+     */
+    protected abstract MemberInfoWithConnection doChoose(List<MemberInfoWithConnection> members);
+
+    private List<MemberInfoWithConnection> getAvailableMembers(List<MemberInfoWithConnection> members) {
+        if (circuitBreakerFailureThreshold <= 0) {
+            return members;
+        }
+        long now = System.currentTimeMillis();
+        List<MemberInfoWithConnection> availableMembers = null;
+        int size = members.size();
+        for (int i = 0; i < size; i++) {
+            MemberInfoWithConnection member = members.get(i);
+            boolean isCircuitOpen = getStats(member.getMember().getNodeId()).isCircuitOpen(now);
+            if (availableMembers == null) {
+                if (isCircuitOpen) {
+                    // Copy lazily because all circuits are closed in most cases
+                    availableMembers = new ArrayList<>(size - 1);
+                    availableMembers.addAll(members.subList(0, i));
+                }
+            } else if (!isCircuitOpen) {
+                availableMembers.add(member);
+            }
+        }
+        return availableMembers == null || availableMembers.isEmpty()
+                ? members
+                : availableMembers;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choose the member with the lowest cost, which is the EWMA of latency multiplied by
+ * the number of in-flight requests plus one, so that a member whose latency rises
+ * receives fewer requests as soon as its in-flight requests accumulate.
+ *
+ * @author James Chen
+ */
+public class EwmaLatencyLoadBalancer extends AbstractRpcLoadBalancer {
+
+    /**
+     * Used for members without any sample so that they can be probed
+     * without receiving all requests
+     */
+    private static final double DEFAULT_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public EwmaLatencyLoadBalancer(double ewmaLatencyWeight,
+                                   int circuitBreakerFailureThreshold,
+                                   int circuitBreakerOpenDurationMillis) {
+        super(ewmaLatencyWeight, circuitBreakerFailureThreshold, circuitBreakerOpenDurationMillis);
+    }
+
+    @Override
+    protected MemberInfoWithConnection doChoose(List<MemberInfoWithConnection> members) {
+        MemberInfoWithConnection chosenMember = null;
+        double minCost = Double.MAX_VALUE;
+        for (MemberInfoWithConnection member : members) {
+            MemberStats stats = getStats(member.getMember().getNodeId());
+            double latency = stats.getEwmaLatencyNanos();
+            if (latency == 0) {
+                latency = DEFAULT_LATENCY_NANOS;
+            }
+            double cost = latency * (stats.getInFlightRequests() + 1);
+            if (cost < minCost) {
+                minCost = cost;
+                chosenMember = member;
+            }
+        }
+        return chosenMember;
+    }
+
+}
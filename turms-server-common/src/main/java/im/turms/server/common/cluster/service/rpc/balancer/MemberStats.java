@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author James Chen
+ * @implNote It's acceptable to lose some updates of the latency and the circuit state under contention
+ * because they are only used to make a better choice
+ */
+public final class MemberStats {
+
+    final AtomicInteger inFlightRequests = new AtomicInteger();
+    final AtomicInteger consecutiveFailures = new AtomicInteger();
+    /**
+     * 0 means no sample
+     */
+    volatile double ewmaLatencyNanos;
+    volatile long circuitOpenUntilMillis;
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    public double getEwmaLatencyNanos() {
+        return ewmaLatencyNanos;
+    }
+
+    public boolean isCircuitOpen(long nowMillis) {
+        return circuitOpenUntilMillis > nowMillis;
+    }
+
+}
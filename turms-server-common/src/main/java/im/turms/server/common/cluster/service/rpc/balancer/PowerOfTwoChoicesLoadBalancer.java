@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Choose the member with fewer in-flight requests from two random members,
+ * which avoids a slow member without the herd behavior of always choosing the least loaded member.
+ *
+ * @author James Chen
+ */
+public class PowerOfTwoChoicesLoadBalancer extends AbstractRpcLoadBalancer {
+
+    public PowerOfTwoChoicesLoadBalancer(double ewmaLatencyWeight,
+                                         int circuitBreakerFailureThreshold,
+                                         int circuitBreakerOpenDurationMillis) {
+        super(ewmaLatencyWeight, circuitBreakerFailureThreshold, circuitBreakerOpenDurationMillis);
+    }
+
+    @Override
+    protected MemberInfoWithConnection doChoose(List<MemberInfoWithConnection> members) {
+        int size = members.size();
+        if (size == 1) {
+            return members.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index1 = random.nextInt(size);
+        int index2 = random.nextInt(size - 1);
+        if (index2 >= index1) {
+            index2++;
+        }
+        MemberInfoWithConnection member1 = members.get(index1);
+        MemberInfoWithConnection member2 = members.get(index2);
+        int inFlightRequests1 = getStats(member1.getMember().getNodeId()).getInFlightRequests();
+        int inFlightRequests2 = getStats(member2.getMember().getNodeId()).getInFlightRequests();
+        return inFlightRequests1 <= inFlightRequests2 ? member1 : member2;
+    }
+
+}
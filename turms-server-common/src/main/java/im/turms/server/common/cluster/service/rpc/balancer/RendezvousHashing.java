@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Choose the member with the highest score of the hash of (key, node ID)
+ * so that the same key is always routed to the same member as long as the member is available,
+ * and only the keys of a removed member are remapped when the members change.
+ *
+ * @author James Chen
+ */
+public final class RendezvousHashing {
+
+    private RendezvousHashing() {
+    }
+
+    @Nullable
+    public static MemberInfoWithConnection choose(List<MemberInfoWithConnection> members, long key) {
+        MemberInfoWithConnection chosenMember = null;
+        long maxScore = Long.MIN_VALUE;
+        for (MemberInfoWithConnection member : members) {
+            long score = hash(key ^ ((long) member.getMember().getNodeId().hashCode() << 32));
+            if (chosenMember == null || score > maxScore) {
+                maxScore = score;
+                chosenMember = member;
+            }
+        }
+        return chosenMember;
+    }
+
+    /**
+     * The finalizer of MurmurHash3 (fmix64)
+     */
+    private static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author James Chen
+ */
+public class RoundRobinLoadBalancer extends AbstractRpcLoadBalancer {
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public RoundRobinLoadBalancer(double ewmaLatencyWeight,
+                                  int circuitBreakerFailureThreshold,
+                                  int circuitBreakerOpenDurationMillis) {
+        super(ewmaLatencyWeight, circuitBreakerFailureThreshold, circuitBreakerOpenDurationMillis);
+    }
+
+    @Override
+    protected MemberInfoWithConnection doChoose(List<MemberInfoWithConnection> members) {
+        int index = Math.floorMod(counter.getAndIncrement(), members.size());
+        return members.get(index);
+    }
+
+}
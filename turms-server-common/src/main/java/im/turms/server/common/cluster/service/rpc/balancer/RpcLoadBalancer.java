@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The load balancer to choose a member for the RPC requests that can be handled by any member of a service.
+ * RpcService reports the start and the completion of every request to a member
+ * so that implementations can make decisions based on the runtime statistics of members.
+ *
+ * @author James Chen
+ */
+public interface RpcLoadBalancer {
+
+    /**
+     * @return null if members is empty
+     */
+    @Nullable
+    MemberInfoWithConnection choose(List<MemberInfoWithConnection> members);
+
+    void onRequestStarted(String memberNodeId);
+
+    /**
+     * @param isSuccessful false if the member failed to respond (e.g. timeout or connection error).
+     *                     Note that an error responded by the member is a successful response for load balancing
+     */
+    void onRequestCompleted(String memberNodeId, long latencyNanos, boolean isSuccessful);
+
+    /**
+     * @return false if the member shouldn't be chosen for now (e.g. its circuit is open),
+     * so that the callers that choose a member by themselves (e.g. by an affinity key) can fall back to {@link #choose}
+     */
+    default boolean isAvailable(String memberNodeId) {
+        return true;
+    }
+
+    /**
+     * Called when the members of the cluster change so that the statistics of the members that have left can be removed
+     */
+    default void retainMembers(Set<String> memberNodeIds) {
+    }
+
+}
@@ -46,14 +46,18 @@ public enum SerializerId {
     // RPC
     RPC_HANDLE_SERVICE_REQUEST(1000),
     RPC_SEND_NOTIFICATION(1001),
+    RPC_HANDLE_SERVICE_REQUEST_BATCH(1002),
+    RPC_SEND_NOTIFICATION_BATCH(1003),
 
     RPC_SET_USER_OFFLINE(1100),
     RPC_UPDATE_ONLINE_USER_STATUS(1101),
+    RPC_INVALIDATE_USER_SESSIONS_STATUS_CACHE(1102),
 
     // RPC - Statistics
     RPC_COUNT_ONLINE_USERS(1200),
 
-    DTO_SERVICE_RESPONSE(2000);
+    DTO_SERVICE_RESPONSE(2000),
+    DTO_BATCHED_SERVICE_RESPONSE(2001);
 
     @Getter
     private final int id;
@@ -18,9 +18,13 @@
 package im.turms.server.common.cluster.service.serialization.serializer;
 
 import im.turms.server.common.cluster.service.serialization.serializer.impl.*;
+import im.turms.server.common.rpc.serializer.dto.BatchedServiceResponseSerializer;
 import im.turms.server.common.rpc.serializer.dto.ServiceResponseSerializer;
 import im.turms.server.common.rpc.serializer.request.CountOnlineUsersRequestSerializer;
+import im.turms.server.common.rpc.serializer.request.HandleServiceRequestBatchSerializer;
 import im.turms.server.common.rpc.serializer.request.HandleServiceRequestSerializer;
+import im.turms.server.common.rpc.serializer.request.InvalidateUserSessionsStatusCacheRequestSerializer;
+import im.turms.server.common.rpc.serializer.request.SendNotificationBatchRequestSerializer;
 import im.turms.server.common.rpc.serializer.request.SendNotificationRequestSerializer;
 import im.turms.server.common.rpc.serializer.request.SetUserOfflineRequestSerializer;
 import lombok.extern.log4j.Log4j2;
@@ -57,12 +61,16 @@ public class SerializerPool {
 
         // RPC
         register(new SendNotificationRequestSerializer());
+        register(new SendNotificationBatchRequestSerializer());
         register(new HandleServiceRequestSerializer());
+        register(new HandleServiceRequestBatchSerializer());
         register(new SetUserOfflineRequestSerializer());
+        register(new InvalidateUserSessionsStatusCacheRequestSerializer());
         register(new CountOnlineUsersRequestSerializer());
 
         // DTO
         register(new ServiceResponseSerializer());
+        register(new BatchedServiceResponseSerializer());
     }
 
     private SerializerPool() {
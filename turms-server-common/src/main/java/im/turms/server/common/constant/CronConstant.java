@@ -34,5 +34,6 @@ public class CronConstant {
     public static final String DEFAULT_EXPIRED_GROUP_INVITATIONS_CHECKER_CRON = "0 15 2 * * *";
     public static final String DEFAULT_EXPIRED_GROUP_JOIN_REQUESTS_CHECKER_CRON = "0 30 2 * * *";
     public static final String DEFAULT_EXPIRED_MESSAGES_CHECKER_CRON = "0 45 2 * * *";
+    public static final String DEFAULT_UNREAD_MESSAGE_COUNTER_RECONCILIATION_CRON = "0 30 3 * * *";
 
 }
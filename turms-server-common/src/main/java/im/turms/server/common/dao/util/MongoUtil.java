@@ -30,4 +30,15 @@ public class MongoUtil {
         Flux.merge(monos).blockLast(Duration.ofMinutes(5));
     }
 
+    /**
+     * Create the indexes of the class for the specified collection
+     * instead of the collection of the class
+     */
+    public static Mono<Void> createIndexes(ReactiveMongoTemplate template, Class<?> clazz, String collectionName) {
+        TurmsMongoMappingContext context = (TurmsMongoMappingContext) template.getConverter().getMappingContext();
+        ReactiveMongoPersistentEntityIndexCreator indexCreator = new ReactiveMongoPersistentEntityIndexCreator(context,
+                entityCollectionName -> template.indexOps(collectionName));
+        return indexCreator.checkForIndexes(context.getPersistentEntity(clazz));
+    }
+
 }
\ No newline at end of file
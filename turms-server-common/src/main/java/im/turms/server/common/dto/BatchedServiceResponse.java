@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.dto;
+
+import im.turms.server.common.cluster.exception.RpcException;
+import lombok.Data;
+
+import javax.annotation.Nullable;
+
+/**
+ * The response to a service request in a batch.
+ * Only one of {@code response} and {@code exception} can be non-null,
+ * and both are null if the service responds nothing.
+ *
+ * @author James Chen
+ */
+@Data
+public final class BatchedServiceResponse {
+
+    /**
+     * The index of the service request in the batch
+     */
+    private final int index;
+    @Nullable
+    private final ServiceResponse response;
+    @Nullable
+    private final RpcException exception;
+
+}
@@ -17,16 +17,35 @@
 
 package im.turms.server.common.manager;
 
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
 import im.turms.server.common.property.TurmsProperties;
 import im.turms.server.common.property.TurmsPropertiesManager;
 import im.turms.server.common.property.constant.PasswordEncodingAlgorithm;
+import im.turms.server.common.property.env.common.PasswordVerificationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Getter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.MessageDigestPasswordEncoder;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.validation.constraints.NotNull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author James Chen
@@ -34,6 +53,10 @@ import javax.validation.constraints.NotNull;
 @Component
 public class PasswordManager {
 
+    private static final String METRICS_NAME_VERIFIER = "password.verifier";
+    private static final String METRICS_NAME_VERIFICATION = "password.verification";
+    private static final String METRICS_NAME_REJECTED_VERIFICATIONS = "password.verification.rejected";
+
     private static final BCryptPasswordEncoder BCRYPT_PASSWORD_ENCODER = new BCryptPasswordEncoder(10);
     /**
      * Ignore @Deprecated because it's definitely secure enough to encode the password of users in most IM scenarios
@@ -44,10 +67,47 @@ public class PasswordManager {
     private final PasswordEncodingAlgorithm adminPasswordEncodingAlgorithm;
     private final PasswordEncodingAlgorithm userPasswordEncodingAlgorithm;
 
+    /**
+     * Used to run the CPU-intensive password verifications (e.g. BCrypt)
+     * so that they never block the event loops or the threads of the database drivers.
+     * The executor is bounded so that a flood of verifications (e.g. a reconnect storm)
+     * is rejected fast instead of queuing up unboundedly
+     */
+    private final ThreadPoolExecutor passwordVerificationExecutor;
+    private final Scheduler passwordVerificationScheduler;
+    @Getter
+    private final int retryAfterSeconds;
+    private final String rejectionReason;
+    private final Timer verificationTimer;
+    private final Counter rejectedVerificationCounter;
+
     public PasswordManager(TurmsPropertiesManager turmsPropertiesManager) {
         TurmsProperties turmsProperties = turmsPropertiesManager.getLocalProperties();
         adminPasswordEncodingAlgorithm = turmsProperties.getSecurity().getAdminPasswordEncodingAlgorithm();
         userPasswordEncodingAlgorithm = turmsProperties.getSecurity().getUserPasswordEncodingAlgorithm();
+        PasswordVerificationProperties verificationProperties = turmsProperties.getSecurity().getPasswordVerification();
+        int maxThreads = verificationProperties.getMaxThreads();
+        passwordVerificationExecutor = new ThreadPoolExecutor(maxThreads,
+                maxThreads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(verificationProperties.getMaxQueuedTasks()),
+                new DefaultThreadFactory("password-verifier", true),
+                new ThreadPoolExecutor.AbortPolicy());
+        passwordVerificationExecutor.allowCoreThreadTimeOut(true);
+        passwordVerificationScheduler = Schedulers.fromExecutorService(passwordVerificationExecutor, METRICS_NAME_VERIFIER);
+        retryAfterSeconds = verificationProperties.getRetryAfterSeconds();
+        rejectionReason = "Too many pending password verifications. Retry after " + retryAfterSeconds + " seconds";
+
+        MeterRegistry registry = Metrics.globalRegistry;
+        new ExecutorServiceMetrics(passwordVerificationExecutor, METRICS_NAME_VERIFIER, Tags.empty()).bindTo(registry);
+        verificationTimer = registry.timer(METRICS_NAME_VERIFICATION);
+        rejectedVerificationCounter = registry.counter(METRICS_NAME_REJECTED_VERIFICATIONS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        passwordVerificationScheduler.dispose();
     }
 
     public String encodePassword(PasswordEncodingAlgorithm strategy, String rawPassword) {
@@ -80,6 +140,36 @@ public class PasswordManager {
         return matchesPassword(userPasswordEncodingAlgorithm, rawPassword, encodedPassword);
     }
 
+    public Mono<Boolean> matchesAdminPasswordAsync(@Nullable String rawPassword, @Nullable String encodedPassword) {
+        return matchesPasswordAsync(adminPasswordEncodingAlgorithm, rawPassword, encodedPassword);
+    }
+
+    public Mono<Boolean> matchesUserPasswordAsync(@Nullable String rawPassword, @Nullable String encodedPassword) {
+        return matchesPasswordAsync(userPasswordEncodingAlgorithm, rawPassword, encodedPassword);
+    }
+
+    /**
+     * Verify the password on the bounded password verification executor
+     * if the algorithm is expensive, or on the current thread otherwise.
+     *
+     * @return true if the passwords match, or an error of UNAVAILABLE
+     * whose reason contains {@link #retryAfterSeconds} if there are too many pending verifications
+     */
+    public Mono<Boolean> matchesPasswordAsync(
+            @NotNull PasswordEncodingAlgorithm strategy,
+            @Nullable String rawPassword,
+            @Nullable String encodedPassword) {
+        if (strategy == PasswordEncodingAlgorithm.NOOP || rawPassword == null || encodedPassword == null) {
+            return Mono.just(matchesPassword(strategy, rawPassword, encodedPassword));
+        }
+        return Mono.fromCallable(() -> verificationTimer.recordCallable(() -> matchesPassword(strategy, rawPassword, encodedPassword)))
+                .subscribeOn(passwordVerificationScheduler)
+                .onErrorMap(RejectedExecutionException.class, e -> {
+                    rejectedVerificationCounter.increment();
+                    return TurmsBusinessException.get(TurmsStatusCode.UNAVAILABLE, rejectionReason);
+                });
+    }
+
     /**
      * @return true if the passwords match.
      * Note that the method returns true if both passwords are null
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.constant;
+
+/**
+ * @author James Chen
+ */
+public enum MessageCollectionLayout {
+    /**
+     * Store all messages in the collection "message" and all message statuses in the collection "messageStatus"
+     */
+    SINGLE,
+    /**
+     * Store messages and message statuses in the collections of the day when the messages were created
+     * (e.g. "message_d20201013" and "messageStatus_d20201013" in UTC)
+     */
+    DAILY,
+    /**
+     * Store messages and message statuses in the collections of the week (starting on Monday)
+     * when the messages were created (e.g. "message_w20201012" and "messageStatus_w20201012" in UTC)
+     */
+    WEEKLY
+}
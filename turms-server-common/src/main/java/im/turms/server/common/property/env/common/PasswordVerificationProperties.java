@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.common;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class PasswordVerificationProperties {
+
+    @Description("The maximum number of threads used to verify passwords so that " +
+            "the expensive password hashing algorithms (e.g. BCrypt) don't block the event loops")
+    @Min(1)
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    @Description("The maximum number of pending password verifications. " +
+            "A verification is rejected with UNAVAILABLE immediately if the queue is full")
+    @Min(1)
+    private int maxQueuedTasks = 1024;
+
+    @Description("The seconds after which the clients are suggested to retry " +
+            "if their password verifications are rejected because the queue is full")
+    @Min(1)
+    private int retryAfterSeconds = 5;
+
+}
@@ -22,6 +22,7 @@ import im.turms.server.common.property.constant.PasswordEncodingAlgorithm;
 import im.turms.server.common.property.metadata.annotation.Description;
 import im.turms.server.common.property.metadata.annotation.ImmutableOnceApplied;
 import lombok.Data;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
 /**
  * @author James Chen
@@ -37,4 +38,7 @@ public class SecurityProperties {
     @Description("The password encoding algorithm for admins")
     private PasswordEncodingAlgorithm adminPasswordEncodingAlgorithm = PasswordEncodingAlgorithm.BCRYPT;
 
+    @NestedConfigurationProperty
+    private PasswordVerificationProperties passwordVerification = new PasswordVerificationProperties();
+
 }
\ No newline at end of file
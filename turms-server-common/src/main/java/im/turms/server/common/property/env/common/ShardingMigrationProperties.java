@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.property.env.common;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import im.turms.server.common.redis.sharding.ShardingAlgorithm;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class ShardingMigrationProperties {
+
+    @Description("Whether to dual-write the data to both the previous and the current servers " +
+            "and fall back to the previous servers when reading. " +
+            "Enable it when adding servers or changing the sharding algorithm, " +
+            "and disable it after the data has been migrated or expired")
+    private boolean enabled;
+
+    @Description("The server count before resharding. 0 means the server count isn't changed. " +
+            "The previous servers must be the first servers of the current servers")
+    @Min(0)
+    private int previousServerCount;
+
+    @Description("The sharding algorithm before resharding. Null means the algorithm isn't changed. " +
+            "Use \"ConsistentHashingShardingAlgorithm\" (the default algorithm) when switching to " +
+            "\"HashRingShardingAlgorithm\", which maps user IDs differently")
+    private ShardingAlgorithm previousAlgorithm;
+
+}
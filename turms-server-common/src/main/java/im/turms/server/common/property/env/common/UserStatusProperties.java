@@ -36,8 +36,23 @@ public class UserStatusProperties {
     private int userSessionsStatusCacheMaxSize = -1;
 
     @Description("The life duration of each remote user's sessions status in the cache. " +
-            "Note that the cache will make the presentation of users' sessions status inconsistent during the time")
+            "Note that the cache will make the presentation of users' sessions status inconsistent during the time " +
+            "if broadcastCacheInvalidation is disabled")
     @Min(1)
     private int userSessionsStatusExpireAfter = 60;
 
+    @Description("Whether to broadcast the IDs of the users whose sessions status has been changed by the local server " +
+            "to the other turms servers so that they can invalidate their cached sessions status of the users, " +
+            "which allows a long userSessionsStatusExpireAfter. " +
+            "Note that the sessions status that expires in Redis is only evicted from the cache by userSessionsStatusExpireAfter")
+    private boolean broadcastCacheInvalidation = true;
+
+    @Description("The interval to broadcast the collected IDs of the users whose sessions status has been changed")
+    @Min(1)
+    private int cacheInvalidationFlushIntervalMillis = 50;
+
+    @Description("The maximum number of user IDs in one broadcast of the cache invalidation")
+    @Min(1)
+    private int cacheInvalidationMaxBatchSize = 1000;
+
 }
@@ -17,9 +17,12 @@
 
 package im.turms.server.common.property.env.common.cluster;
 
+import im.turms.server.common.property.constant.RpcLoadBalancingStrategy;
 import im.turms.server.common.property.metadata.annotation.Description;
 import lombok.Data;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Min;
 
 /**
@@ -36,4 +39,22 @@ public class RpcProperties {
 
     private int outputThreadNumber = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
 
+    @Description("The strategy to choose a member for the RPC requests that can be handled by any member of a service")
+    private RpcLoadBalancingStrategy loadBalancingStrategy = RpcLoadBalancingStrategy.ROUND_ROBIN;
+
+    @Description("The weight of the latest latency sample in the exponentially weighted moving average of latency " +
+            "used by the strategy EWMA_LATENCY")
+    @DecimalMin("0.01")
+    @DecimalMax("1")
+    private double ewmaLatencyWeight = 0.2;
+
+    @Description("A member will be skipped by the load balancer if the number of its consecutive failed requests " +
+            "reaches the threshold. 0 means no circuit breaking")
+    @Min(0)
+    private int circuitBreakerFailureThreshold = 5;
+
+    @Description("The duration in milliseconds for which a member is skipped by the load balancer after its circuit opens")
+    @Min(1)
+    private int circuitBreakerOpenDurationMillis = 10 * 1000;
+
 }
\ No newline at end of file
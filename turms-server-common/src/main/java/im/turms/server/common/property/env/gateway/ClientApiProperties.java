@@ -51,6 +51,9 @@ public class ClientApiProperties {
     @NestedConfigurationProperty
     private ClientApiLoggingProperties logging = new ClientApiLoggingProperties();
 
+    @NestedConfigurationProperty
+    private ServiceRequestBatchProperties serviceRequestBatch = new ServiceRequestBatchProperties();
+
     public void setReturnReasonForServerError(boolean returnReasonForServerError) {
         this.returnReasonForServerError = returnReasonForServerError;
         CloseReasonUtil.setReturnReasonForServerError(returnReasonForServerError);
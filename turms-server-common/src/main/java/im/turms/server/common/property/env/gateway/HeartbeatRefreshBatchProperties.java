@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.gateway;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class HeartbeatRefreshBatchProperties {
+
+    @Description("Whether to collect the users whose heartbeat status needs to be refreshed " +
+            "and refresh them periodically in pipelined batches per Redis shard " +
+            "instead of sending a command to Redis for every heartbeat")
+    private boolean enabled = false;
+
+    @Description("The interval to flush the collected users. " +
+            "Note that it should be much less than closeIdleSessionAfterSeconds " +
+            "or the sessions may expire before their heartbeat status is refreshed")
+    @Min(1)
+    private int flushIntervalMillis = 1000;
+
+    @Description("The maximum number of users whose heartbeat status is refreshed in one batch")
+    @Min(1)
+    private int maxBatchSize = 1000;
+
+}
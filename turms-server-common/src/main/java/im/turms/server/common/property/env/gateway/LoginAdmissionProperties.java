@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.gateway;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class LoginAdmissionProperties {
+
+    @Description("Whether to limit the rate of login requests admitted by the local node with a token bucket " +
+            "whose rate adapts to the latency of registering sessions in Redis and MongoDB, " +
+            "so that a reconnect storm (e.g. after a node dies) won't overload them")
+    private boolean enabled = false;
+
+    @Description("The initial number of login requests admitted per second")
+    @Min(1)
+    private int initialPermitsPerSecond = 500;
+
+    @Description("The minimum number of login requests admitted per second")
+    @Min(1)
+    private int minPermitsPerSecond = 50;
+
+    @Description("The maximum number of login requests admitted per second")
+    @Min(1)
+    private int maxPermitsPerSecond = 5000;
+
+    @Description("The target average latency of registering sessions. " +
+            "The rate decreases if the latency is higher than the target, and increases otherwise")
+    @Min(1)
+    private int targetLatencyMillis = 100;
+
+    @Description("The interval to adjust the rate according to the latency")
+    @Min(1)
+    private int adjustIntervalMillis = 1000;
+
+    @Description("The number of permits per second added to the rate if the latency is lower than the target")
+    @Min(1)
+    private int increasePermitsPerSecond = 50;
+
+    @Description("The factor multiplied by the rate if the latency is higher than the target")
+    @DecimalMin("0.1")
+    @DecimalMax("0.99")
+    private double decreaseFactor = 0.75;
+
+    @Description("The minimum delay suggested to the rejected clients before retrying")
+    @Min(1)
+    private int minRetryAfterMillis = 1000;
+
+    @Description("The maximum delay suggested to the rejected clients before retrying. " +
+            "The actual delay is randomized between the minimum and a spread " +
+            "estimated from the recently rejected requests so that the retries won't arrive at the same moment")
+    @Min(1)
+    private int maxRetryAfterMillis = 60_000;
+
+    @Description("The minimum spread of the randomized retry delay")
+    @Min(0)
+    private int minRetryAfterJitterMillis = 3000;
+
+}
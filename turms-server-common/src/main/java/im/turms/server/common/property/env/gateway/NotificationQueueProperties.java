@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.property.env.gateway;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import im.turms.server.common.property.constant.NotificationQueueOverflowPolicy;
+import im.turms.server.common.property.metadata.annotation.Description;
+import im.turms.server.common.property.metadata.view.MutablePropertiesView;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class NotificationQueueProperties {
+
+    @JsonView(MutablePropertiesView.class)
+    @Description("The maximum number of notifications queued for a session that haven't been flushed to the client. " +
+            "0 means no limit. The new value only works for new sessions")
+    @Min(0)
+    private int maxSize = 4096;
+
+    @JsonView(MutablePropertiesView.class)
+    @Description("The maximum total bytes of notifications queued for a session that haven't been flushed to the client. " +
+            "0 means no limit. The new value only works for new sessions")
+    @Min(0)
+    private long maxBytes = 16 * 1024 * 1024;
+
+    @JsonView(MutablePropertiesView.class)
+    @Description("The policy to apply when a notification cannot be queued because the client is consuming notifications too slowly")
+    private NotificationQueueOverflowPolicy overflowPolicy = NotificationQueueOverflowPolicy.DROP_OLDEST;
+
+}
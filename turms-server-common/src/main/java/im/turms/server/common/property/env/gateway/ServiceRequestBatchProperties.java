@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.gateway;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class ServiceRequestBatchProperties {
+
+    @Description("Whether to pack the service requests sent to the same turms server within a short window into one RPC frame. " +
+            "Note that the turms servers must support the batched request")
+    private boolean enabled = false;
+
+    @Description("The maximum time in microseconds to wait for more service requests before sending a batch")
+    @Min(1)
+    private int windowMicros = 200;
+
+    @Description("A batch is sent immediately once it contains the number of service requests")
+    @Min(2)
+    @Max(Short.MAX_VALUE)
+    private int maxSize = 64;
+
+    @Description("A batch is sent immediately once the total bytes of its service requests reach the value")
+    @Min(1)
+    private int maxBytes = 256 * 1024;
+
+}
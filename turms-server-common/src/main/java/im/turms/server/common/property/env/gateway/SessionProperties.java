@@ -22,6 +22,7 @@ import im.turms.common.constant.DeviceType;
 import im.turms.server.common.property.metadata.annotation.Description;
 import im.turms.server.common.property.metadata.view.MutablePropertiesView;
 import lombok.Data;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 import org.springframework.web.reactive.socket.CloseStatus;
 
 import javax.validation.constraints.Min;
@@ -54,6 +55,15 @@ public class SessionProperties {
     @Min(0)
     private int minHeartbeatIntervalSeconds = closeIdleSessionAfterSeconds / 10;
 
+    @NestedConfigurationProperty
+    private HeartbeatRefreshBatchProperties heartbeatRefreshBatch = new HeartbeatRefreshBatchProperties();
+
+    @NestedConfigurationProperty
+    private VerifiedLoginCacheProperties verifiedLoginCache = new VerifiedLoginCacheProperties();
+
+    @NestedConfigurationProperty
+    private LoginAdmissionProperties loginAdmission = new LoginAdmissionProperties();
+
     @Description("Whether to enable to query the login failure reason")
     private boolean enableQueryLoginFailureReason = true;
 
@@ -92,4 +102,8 @@ public class SessionProperties {
     @Min(1)
     private int loginFailureReasonExpireAfter = 30;
 
+    @JsonView(MutablePropertiesView.class)
+    @NestedConfigurationProperty
+    private NotificationQueueProperties notificationQueue = new NotificationQueueProperties();
+
 }
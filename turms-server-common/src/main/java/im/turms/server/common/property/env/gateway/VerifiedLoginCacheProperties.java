@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.gateway;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class VerifiedLoginCacheProperties {
+
+    @Description("Whether to cache the verified login credentials of users so that " +
+            "a user reconnecting with the same credentials doesn't need to verify the password again. " +
+            "The raw passwords are never cached but fingerprinted with a random secret of the local node, " +
+            "and a cached credential becomes invalid once the password of the user is changed")
+    private boolean enabled = false;
+
+    @Description("The maximum number of the cached verified login credentials")
+    @Min(1)
+    private int maxSize = 100_000;
+
+    @Description("The cached verified login credentials will expire after the specified seconds")
+    @Min(1)
+    private int expireAfterSeconds = 5 * 60;
+
+}
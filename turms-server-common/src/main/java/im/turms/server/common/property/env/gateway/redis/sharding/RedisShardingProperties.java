@@ -17,9 +17,11 @@
 
 package im.turms.server.common.property.env.gateway.redis.sharding;
 
+import im.turms.server.common.property.env.common.ShardingMigrationProperties;
 import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
 import im.turms.server.common.redis.sharding.ShardingAlgorithm;
 import lombok.Data;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
 /**
  * @author James Chen
@@ -33,6 +35,12 @@ public class RedisShardingProperties {
 
     private ShardingAlgorithm algorithmForLocation = DEFAULT_SHARDING_ALGORITHM;
 
+    @NestedConfigurationProperty
+    private ShardingMigrationProperties migrationForSession = new ShardingMigrationProperties();
+
+    @NestedConfigurationProperty
+    private ShardingMigrationProperties migrationForLocation = new ShardingMigrationProperties();
+
     private ShardingAlgorithm algorithmForLoginFailureReason = DEFAULT_SHARDING_ALGORITHM;
 
     private ShardingAlgorithm algorithmForSessionDisconnectionReason = DEFAULT_SHARDING_ALGORITHM;
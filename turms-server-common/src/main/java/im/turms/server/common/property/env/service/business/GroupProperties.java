@@ -60,6 +60,20 @@ public class GroupProperties {
     @Description("Whether to allow the owner and managers of a group to recall pending group invitations")
     private boolean allowRecallingPendingGroupInvitationByOwnerAndManager = false;
 
+    @Description("Whether to cache the information and the member IDs of groups in the local node " +
+            "so that sending group messages doesn't need to query the database in most cases. " +
+            "The cache of a group is invalidated once its information or members version changes")
+    private boolean nearCacheEnabled = true;
+
+    @Description("The maximum number of groups in the near cache. -1 means no limit")
+    @Min(-1)
+    private int nearCacheMaxSize = 10_000;
+
+    @Description("The life duration of each group in the near cache. " +
+            "Note that it is the maximum time the cache may be stale if a change doesn't update the group versions")
+    @Min(1)
+    private int nearCacheExpireAfterSeconds = 60;
+
     @JsonView(MutablePropertiesView.class)
     @Description("Whether to delete groups logically by default")
     private boolean deleteGroupLogicallyByDefault = true;
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.service.business.message;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class ExpiredMessagePurgeProperties {
+
+    @Description("The maximum number of expired messages to delete in one chunk. " +
+            "The position of the last deleted chunk is persisted so that an interrupted purge can be resumed")
+    @Min(1)
+    private int chunkSize = 1000;
+
+    @Description("The maximum number of documents (messages and message statuses) to delete per second on a turms server. " +
+            "0 means no limit")
+    @Min(0)
+    private int maxDocumentsPerSecond = 5000;
+
+    @Description("Whether to spread the purge across all active turms servers by partitioning messages by their IDs. " +
+            "If false, only the master node purges expired messages")
+    private boolean distributed = false;
+
+}
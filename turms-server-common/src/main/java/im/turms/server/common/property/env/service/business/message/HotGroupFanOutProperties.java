@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.service.business.message;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class HotGroupFanOutProperties {
+
+    @Description("Whether to forward the messages of hot groups on dedicated fan-out workers " +
+            "in paced chunks so that the large broadcasts cannot starve the delivery of other messages. " +
+            "A group is hot if the product of its message rate (messages per second) and its number of recipients " +
+            "reaches the hotness threshold")
+    private boolean enabled = false;
+
+    @Description("The groups whose messages have fewer recipients than the value are never considered hot")
+    @Min(1)
+    private int minRecipientCount = 1000;
+
+    @Description("A group is hot if \"messages per second * recipients\" reaches the value")
+    @Min(1)
+    private long hotnessThreshold = 100_000;
+
+    @Description("The window in seconds to measure the message rate of a group")
+    @Min(1)
+    private int rateWindowSeconds = 10;
+
+    @Description("The maximum number of groups to track. The least recently active groups are evicted first")
+    @Min(1)
+    private int maxTrackedGroups = 10_000;
+
+    @Description("The number of the dedicated fan-out workers")
+    @Min(1)
+    private int workerThreads = 2;
+
+    @Description("The maximum number of recipients in a notification sent to a turms-gateway server")
+    @Min(1)
+    private int chunkSize = 500;
+
+    @Description("The interval in milliseconds between two chunks sent to the same turms-gateway server")
+    @Min(0)
+    private int chunkIntervalMillis = 5;
+
+}
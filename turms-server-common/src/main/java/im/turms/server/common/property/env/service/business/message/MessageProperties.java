@@ -20,6 +20,8 @@ package im.turms.server.common.property.env.service.business.message;
 import com.fasterxml.jackson.annotation.JsonView;
 import im.turms.server.common.constant.CronConstant;
 import im.turms.server.common.constraint.ValidCron;
+import im.turms.server.common.property.constant.GroupMessageStatusPersistenceMode;
+import im.turms.server.common.property.constant.MessageCollectionLayout;
 import im.turms.server.common.property.constant.TimeType;
 import im.turms.server.common.property.metadata.annotation.Description;
 import im.turms.server.common.property.metadata.view.MutablePropertiesView;
@@ -67,6 +69,36 @@ public class MessageProperties {
             "NOTE: This is a major factor that affects performance")
     private boolean messageStatusPersistent = true;
 
+    @JsonView(MutablePropertiesView.class)
+    @Description("How to persist the status of group messages.\n" +
+            "PER_MEMBER: Persist a message status for every group member. A group message with N members costs N + 1 writes.\n" +
+            "WATERMARK: Persist a delivery watermark for every group member and derive the status of group messages from the message IDs. " +
+            "A group message costs only one write.\n" +
+            "Note: Migrate the existing message statuses of group messages to watermarks before switching from PER_MEMBER to WATERMARK")
+    private GroupMessageStatusPersistenceMode groupMessageStatusPersistenceMode = GroupMessageStatusPersistenceMode.PER_MEMBER;
+
+    @JsonView(MutablePropertiesView.class)
+    @Description("Used in the WATERMARK mode of group message statuses. " +
+            "The watermark of a group member only moves over the messages whose IDs were generated " +
+            "more than the grace period ago, because a message with a smaller ID may still be persisted after " +
+            "a message with a greater ID (e.g. the clocks of turms servers differ, or the messages are persisted by the write-behind mode). " +
+            "It should be greater than the max clock difference between turms servers plus the max delay of persisting messages.\n" +
+            "Note: The acknowledged messages within the grace period may be returned as pending messages again")
+    @Min(0)
+    private int groupMessageWatermarkGracePeriodSeconds = 60;
+
+    @Description("The layout of the collections of messages and message statuses.\n" +
+            "SINGLE: Store messages and message statuses in one collection respectively.\n" +
+            "DAILY/WEEKLY: Store messages and message statuses in the collections of the period when the messages were created, " +
+            "so that the expired messages can be deleted by dropping whole collections and " +
+            "the queries with a delivery date range only access the collections of the range.\n" +
+            "Note: 1. The existing messages aren't migrated when the layout is changed; " +
+            "2. The queries that don't specify message IDs or a delivery date range access all collections; " +
+            "3. If the time type is CLIENT_TIME, the delivery date of a message may be far from when it was created, " +
+            "so the queries with a delivery date range access all collections " +
+            "and the expired messages are deleted document by document instead of dropping collections")
+    private MessageCollectionLayout collectionLayout = MessageCollectionLayout.SINGLE;
+
     @JsonView(MutablePropertiesView.class)
     @Description("A message will become expired after the TTL has elapsed. 0 means infinite")
     @Min(0)
@@ -111,6 +143,19 @@ public class MessageProperties {
     @Min(0)
     private int defaultAvailableMessagesNumberWithTotal = 1;
 
+    @JsonView(MutablePropertiesView.class)
+    @Description("The maximum number of the conversations with pending messages returned for a request. " +
+            "The number of the messages returned for every conversation is limited by defaultAvailableMessagesNumberWithTotal " +
+            "or the size specified by the request")
+    @Min(1)
+    private int maxPendingConversationsPerRequest = 100;
+
+    @JsonView(MutablePropertiesView.class)
+    @Description("The maximum number of the pending messages returned for a request in total. " +
+            "The conversations that don't fit in the limit are returned after the previous pending messages are acknowledged")
+    @Min(1)
+    private int maxPendingMessagesPerRequest = 1000;
+
     @JsonView(MutablePropertiesView.class)
     @Description("Whether to update the read date when users querying messages")
     private boolean updateReadDateWhenUserQueryingMessage = true;
@@ -134,4 +179,16 @@ public class MessageProperties {
     @NestedConfigurationProperty
     private TypingStatusProperties typingStatus = new TypingStatusProperties();
 
+    @NestedConfigurationProperty
+    private MessageWriteBehindProperties writeBehind = new MessageWriteBehindProperties();
+
+    @NestedConfigurationProperty
+    private HotGroupFanOutProperties hotGroupFanOut = new HotGroupFanOutProperties();
+
+    @NestedConfigurationProperty
+    private ExpiredMessagePurgeProperties expiredMessagePurge = new ExpiredMessagePurgeProperties();
+
+    @NestedConfigurationProperty
+    private UnreadMessageCounterProperties unreadMessageCounter = new UnreadMessageCounterProperties();
+
 }
\ No newline at end of file
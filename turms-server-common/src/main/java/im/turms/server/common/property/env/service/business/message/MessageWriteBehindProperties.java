@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.service.business.message;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class MessageWriteBehindProperties {
+
+    @Description("Whether to acknowledge a message to its sender and forward it to its recipients once the message " +
+            "has been appended to the local log, and persist the message and its statuses in batches in the background.\n" +
+            "Note: 1. A message cannot be queried until it has been persisted; " +
+            "2. The messages in the log are persisted again when the server restarts, " +
+            "so the log directory must be kept across restarts")
+    private boolean enabled = false;
+
+    @Description("The directory of the log files")
+    private String logDirectory = "./data/message-write-behind";
+
+    @Description("The size of every log file in bytes. A message larger than the value is persisted synchronously")
+    @Min(1024)
+    private int logFileSizeBytes = 64 * 1024 * 1024;
+
+    @Description("The interval in milliseconds to persist the pending messages")
+    @Min(1)
+    private int flushIntervalMillis = 100;
+
+    @Description("The maximum number of messages to persist in one batch")
+    @Min(1)
+    private int maxBatchSize = 1000;
+
+    @Description("The maximum number of attempts to persist a batch that fails with a non-transient error " +
+            "(e.g. a document fails the validation). Then the batch is split into halves to isolate the messages " +
+            "that cannot be persisted, and a single message that still fails is moved to the \"dead-letter\" directory " +
+            "in the log directory. A batch that fails with a transient error (e.g. a network error) is retried until it succeeds")
+    @Min(1)
+    private int maxRetryAttempts = 3;
+
+    @Description("The maximum number of messages that are waiting to be persisted. " +
+            "Messages are persisted synchronously if the number is reached")
+    @Min(1)
+    private int maxPendingMessages = 100_000;
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.property.env.service.business.message;
+
+import im.turms.server.common.constant.CronConstant;
+import im.turms.server.common.constraint.ValidCron;
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class UnreadMessageCounterProperties {
+
+    @Description("Whether to maintain the number of pending messages of every conversation of every user " +
+            "so that the pending conversations of a user can be queried without counting message statuses.\n" +
+            "Note: The counters are built by the reconciliation, so the reconciliation should be run once " +
+            "after the counters are enabled for existing message statuses (see reconcileOnStartup)")
+    private boolean enabled = false;
+
+    @Description("Whether to recount the pending messages and correct the counters " +
+            "once the local node becomes the master after it starts, " +
+            "so that the counters of existing message statuses are built right after the counters are enabled " +
+            "instead of at the next reconciliation triggered by the cron expression")
+    private boolean reconcileOnStartup = true;
+
+    @Description("Recount the pending messages and correct the counters when the cron expression is triggered")
+    @ValidCron
+    private String reconciliationCron = CronConstant.DEFAULT_UNREAD_MESSAGE_COUNTER_RECONCILIATION_CRON;
+
+    @Description("The maximum number of counters to correct in one batch during the reconciliation")
+    @Min(1)
+    private int reconciliationBatchSize = 1000;
+
+}
@@ -18,9 +18,12 @@
 package im.turms.server.common.property.env.service.env;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import im.turms.server.common.property.env.service.env.adminapi.AdminCredentialCacheProperties;
+import im.turms.server.common.property.env.service.env.adminapi.AdminTokenProperties;
 import im.turms.server.common.property.metadata.annotation.Description;
 import im.turms.server.common.property.metadata.view.MutablePropertiesView;
 import lombok.Data;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
 import javax.validation.constraints.Min;
 
@@ -74,4 +77,10 @@ public class AdminApiProperties {
 
     private boolean enableSwagger = false;
 
+    @NestedConfigurationProperty
+    private AdminCredentialCacheProperties credentialCache = new AdminCredentialCacheProperties();
+
+    @NestedConfigurationProperty
+    private AdminTokenProperties token = new AdminTokenProperties();
+
 }
\ No newline at end of file
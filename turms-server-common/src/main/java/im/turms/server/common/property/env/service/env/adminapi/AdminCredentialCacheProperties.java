@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.service.env.adminapi;
+
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class AdminCredentialCacheProperties {
+
+    @Description("Whether to cache the verified credentials of admins so that " +
+            "the expensive password verification is skipped for the repeated requests with the same credentials")
+    private boolean enabled = true;
+
+    @Description("The maximum number of the cached verified credentials")
+    @Min(1)
+    private int maxSize = 1024;
+
+    @Description("The cached verified credentials will expire after the specified seconds")
+    @Min(1)
+    private int expireAfterSeconds = 10 * 60;
+
+}
@@ -19,6 +19,8 @@ package im.turms.server.common.property.env.service.env.clientapi;
 
 import im.turms.common.model.dto.request.TurmsRequest;
 import im.turms.server.common.property.env.common.ClientApiLoggingProperties;
+import im.turms.server.common.property.env.service.env.clientapi.property.IdempotencyProperties;
+import im.turms.server.common.property.env.service.env.clientapi.property.NotificationBatchProperties;
 import im.turms.server.common.property.metadata.annotation.Description;
 import lombok.Data;
 import org.springframework.boot.context.properties.NestedConfigurationProperty;
@@ -38,4 +40,10 @@ public class ClientApiProperties {
     @NestedConfigurationProperty
     private ClientApiLoggingProperties logging = new ClientApiLoggingProperties();
 
+    @NestedConfigurationProperty
+    private NotificationBatchProperties notificationBatch = new NotificationBatchProperties();
+
+    @NestedConfigurationProperty
+    private IdempotencyProperties idempotency = new IdempotencyProperties();
+
 }
\ No newline at end of file
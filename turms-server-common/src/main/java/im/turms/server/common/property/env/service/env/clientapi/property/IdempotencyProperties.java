@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.property.env.service.env.clientapi.property;
+
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.server.common.property.metadata.annotation.Description;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import java.util.Set;
+
+/**
+ * @author James Chen
+ */
+@Data
+public class IdempotencyProperties {
+
+    @Description("Whether to return the cached response to a retried client request instead of handling it again. " +
+            "A request is considered as retried if it has the same user ID, device type, request ID and content " +
+            "as a request handled within the window")
+    private boolean enabled = true;
+
+    @Description("The types of client requests to de-duplicate")
+    private Set<TurmsRequest.KindCase> requestTypes = Set.of(TurmsRequest.KindCase.CREATE_MESSAGE_REQUEST);
+
+    @Description("The time in seconds to remember a handled request")
+    @Min(1)
+    private int windowSeconds = 60;
+
+    @Description("The maximum number of handled requests to remember on every turms server")
+    @Min(1)
+    private int maxEntries = 100_000;
+
+    @Description("Whether turms-gateway sends the requests of the same user to the same turms server by rendezvous hashing, " +
+            "so that a retried request can be de-duplicated even if the client reconnects to another turms-gateway server. " +
+            "Note that the requests routed by user ID aren't batched and are only load balanced " +
+            "if the circuit of the chosen turms server is open. " +
+            "If disabled, a retried request is only de-duplicated if it reaches the turms server that handled it " +
+            "because every turms server only remembers the requests handled by itself")
+    private boolean routeByUserId = true;
+
+}
@@ -95,6 +95,9 @@ public class DatabaseProperties {
 
         private com.mongodb.WriteConcern message = com.mongodb.WriteConcern.ACKNOWLEDGED;
         private com.mongodb.WriteConcern messageStatus = com.mongodb.WriteConcern.ACKNOWLEDGED;
+        private com.mongodb.WriteConcern groupMessageWatermark = com.mongodb.WriteConcern.ACKNOWLEDGED;
+        private com.mongodb.WriteConcern messagePurgeCheckpoint = com.mongodb.WriteConcern.ACKNOWLEDGED;
+        private com.mongodb.WriteConcern unreadMessageCounter = com.mongodb.WriteConcern.ACKNOWLEDGED;
     }
 
 }
\ No newline at end of file
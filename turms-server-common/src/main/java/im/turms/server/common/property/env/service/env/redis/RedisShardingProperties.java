@@ -17,9 +17,11 @@
 
 package im.turms.server.common.property.env.service.env.redis;
 
+import im.turms.server.common.property.env.common.ShardingMigrationProperties;
 import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
 import im.turms.server.common.redis.sharding.ShardingAlgorithm;
 import lombok.Data;
+import org.springframework.boot.context.properties.NestedConfigurationProperty;
 
 /**
  * @author James Chen
@@ -33,4 +35,10 @@ public class RedisShardingProperties {
 
     private ShardingAlgorithm algorithmForLocation = DEFAULT_SHARDING_ALGORITHM;
 
+    @NestedConfigurationProperty
+    private ShardingMigrationProperties migrationForSession = new ShardingMigrationProperties();
+
+    @NestedConfigurationProperty
+    private ShardingMigrationProperties migrationForLocation = new ShardingMigrationProperties();
+
 }
\ No newline at end of file
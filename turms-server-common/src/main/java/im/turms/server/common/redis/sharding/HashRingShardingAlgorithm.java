@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.redis.sharding;
+
+import java.util.Arrays;
+
+/**
+ * A hash ring with virtual nodes so that:
+ * 1. user IDs are distributed evenly regardless of their bit patterns (e.g. snowflake IDs);
+ * 2. only about 1/(n+1) of user IDs are remapped (to the new server) when a server is added.
+ * <p>
+ * Note that it maps user IDs differently from {@link ConsistentHashingShardingAlgorithm},
+ * so enable the sharding migration with {@link ConsistentHashingShardingAlgorithm} as the previous algorithm
+ * when switching an existing deployment to it.
+ *
+ * @author James Chen
+ */
+public class HashRingShardingAlgorithm extends ShardingAlgorithm {
+
+    public static final int DEFAULT_VIRTUAL_NODE_COUNT = 256;
+
+    private static final long VIRTUAL_NODE_SEED = 0x9E3779B97F4A7C15L;
+
+    private static final int BUCKET_BITS = 16;
+    private static final int BUCKET_COUNT = 1 << BUCKET_BITS;
+
+    private final int virtualNodeCount;
+
+    /**
+     * Indexed by the server count
+     */
+    private volatile Ring[] rings = new Ring[0];
+
+    public HashRingShardingAlgorithm() {
+        this(DEFAULT_VIRTUAL_NODE_COUNT);
+    }
+
+    public HashRingShardingAlgorithm(int virtualNodeCount) {
+        if (virtualNodeCount <= 0) {
+            throw new IllegalArgumentException("The virtual node count must be greater than 0");
+        }
+        this.virtualNodeCount = virtualNodeCount;
+    }
+
+    @Override
+    public int doSharding(long userId, int serverCount) {
+        if (serverCount == 1) {
+            return 0;
+        }
+        return getRing(serverCount).locate(hash(userId));
+    }
+
+    private Ring getRing(int serverCount) {
+        Ring[] localRings = rings;
+        if (serverCount < localRings.length) {
+            Ring ring = localRings[serverCount];
+            if (ring != null) {
+                return ring;
+            }
+        }
+        return createRing(serverCount);
+    }
+
+    private synchronized Ring createRing(int serverCount) {
+        Ring[] localRings = rings;
+        if (serverCount < localRings.length && localRings[serverCount] != null) {
+            return localRings[serverCount];
+        }
+        Ring ring = new Ring(serverCount, virtualNodeCount);
+        Ring[] newRings = Arrays.copyOf(localRings, Math.max(localRings.length, serverCount + 1));
+        newRings[serverCount] = ring;
+        rings = newRings;
+        return ring;
+    }
+
+    /**
+     * The finalizer of MurmurHash3 (fmix64), which spreads every input bit to every output bit.
+     */
+    static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static final class Ring {
+
+        /**
+         * Sorted in ascending order
+         */
+        private final long[] positions;
+        private final int[] serverIndexes;
+        /**
+         * The index of the first position in each bucket (the highest bits of positions)
+         * so that locating a hash only needs to scan a few positions instead of a binary search
+         */
+        private final int[] bucketStarts;
+
+        private Ring(int serverCount, int virtualNodeCount) {
+            int nodeCount = serverCount * virtualNodeCount;
+            long[] nodes = new long[nodeCount];
+            long[] nodePositions = new long[nodeCount];
+            for (int serverIndex = 0, i = 0; serverIndex < serverCount; serverIndex++) {
+                for (int virtualNode = 0; virtualNode < virtualNodeCount; virtualNode++, i++) {
+                    // The position of a virtual node only depends on its server index and virtual node index,
+                    // so adding a server never moves the existing virtual nodes
+                    long position = hash(((long) serverIndex << 32 | virtualNode) + VIRTUAL_NODE_SEED);
+                    nodePositions[i] = position;
+                    nodes[i] = position;
+                }
+            }
+            Arrays.sort(nodes);
+            positions = nodes;
+            serverIndexes = new int[nodeCount];
+            for (int serverIndex = 0, i = 0; serverIndex < serverCount; serverIndex++) {
+                for (int virtualNode = 0; virtualNode < virtualNodeCount; virtualNode++, i++) {
+                    int index = Arrays.binarySearch(positions, nodePositions[i]);
+                    serverIndexes[index] = serverIndex;
+                }
+            }
+            bucketStarts = new int[BUCKET_COUNT + 1];
+            for (long position : positions) {
+                bucketStarts[getBucket(position) + 1]++;
+            }
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                bucketStarts[i + 1] += bucketStarts[i];
+            }
+        }
+
+        private int locate(long hash) {
+            int bucket = getBucket(hash);
+            int end = bucketStarts[bucket + 1];
+            for (int i = bucketStarts[bucket]; i < end; i++) {
+                if (positions[i] >= hash) {
+                    return serverIndexes[i];
+                }
+            }
+            return serverIndexes[end == positions.length ? 0 : end];
+        }
+
+        /**
+         * Flip the sign bit so that the buckets are in the same order as the signed positions
+         */
+        private static int getBucket(long position) {
+            return (int) (position >>> (Long.SIZE - BUCKET_BITS)) ^ (BUCKET_COUNT >>> 1);
+        }
+
+    }
+
+}
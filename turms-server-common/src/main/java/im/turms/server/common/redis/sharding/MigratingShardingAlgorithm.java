@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.redis.sharding;
+
+import im.turms.server.common.property.env.common.ShardingMigrationProperties;
+
+/**
+ * Used to reshard the data online (e.g. adding servers or changing the algorithm)
+ * so that the callers can dual-write to both the current and the previous servers
+ * and read from the previous servers if the data hasn't been migrated to the current servers.
+ *
+ * @author James Chen
+ */
+public class MigratingShardingAlgorithm extends ShardingAlgorithm {
+
+    private final ShardingAlgorithm algorithm;
+    private final ShardingAlgorithm previousAlgorithm;
+    /**
+     * 0 means the server count isn't changed
+     */
+    private final int previousServerCount;
+
+    public MigratingShardingAlgorithm(ShardingAlgorithm algorithm,
+                                      ShardingAlgorithm previousAlgorithm,
+                                      int previousServerCount) {
+        if (algorithm == null || previousAlgorithm == null) {
+            throw new IllegalArgumentException("The sharding algorithms must not be null");
+        }
+        if (previousServerCount < 0) {
+            throw new IllegalArgumentException("The previous server count must not be negative");
+        }
+        this.algorithm = algorithm;
+        this.previousAlgorithm = previousAlgorithm;
+        this.previousServerCount = previousServerCount;
+    }
+
+    public static ShardingAlgorithm withMigration(ShardingAlgorithm algorithm, ShardingMigrationProperties properties) {
+        if (!properties.isEnabled()) {
+            return algorithm;
+        }
+        ShardingAlgorithm previousAlgorithm = properties.getPreviousAlgorithm();
+        return new MigratingShardingAlgorithm(algorithm,
+                previousAlgorithm == null ? algorithm : previousAlgorithm,
+                properties.getPreviousServerCount());
+    }
+
+    @Override
+    public int doSharding(long userId, int serverSize) {
+        return algorithm.doSharding(userId, serverSize);
+    }
+
+    /**
+     * @implNote Removing servers is not supported because the removed servers
+     * are still required to be readable until the migration is done
+     */
+    @Override
+    public int doPreviousSharding(long userId, int serverSize) {
+        int serverCount = previousServerCount == 0 ? serverSize : previousServerCount;
+        if (serverCount > serverSize) {
+            throw new IllegalStateException("The previous server count (" + serverCount
+                    + ") must not be greater than the current server count (" + serverSize + ")");
+        }
+        int previousIndex = previousAlgorithm.doSharding(userId, serverCount);
+        return previousIndex == algorithm.doSharding(userId, serverSize) ? NOT_MIGRATING : previousIndex;
+    }
+
+    @Override
+    public boolean isMigrating() {
+        return true;
+    }
+
+}
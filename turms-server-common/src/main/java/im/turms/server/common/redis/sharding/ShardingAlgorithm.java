@@ -22,9 +22,56 @@ package im.turms.server.common.redis.sharding;
  */
 public abstract class ShardingAlgorithm {
 
+    public static final int NOT_MIGRATING = -1;
+
+    /**
+     * Used to bind the properties (e.g. "HashRingShardingAlgorithm")
+     *
+     * @param name the simple name of a built-in algorithm,
+     *             or the fully qualified class name of an algorithm with a public no-arg constructor
+     */
+    public static ShardingAlgorithm valueOf(String name) {
+        switch (name) {
+            case "ConsistentHashingShardingAlgorithm":
+                return new ConsistentHashingShardingAlgorithm();
+            case "HashRingShardingAlgorithm":
+                return new HashRingShardingAlgorithm();
+            case "ModShardingAlgorithm":
+                return new ModShardingAlgorithm();
+            default:
+                break;
+        }
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown sharding algorithm: " + name, e);
+        }
+        if (!ShardingAlgorithm.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("The class " + name + " is not a sharding algorithm");
+        }
+        try {
+            return (ShardingAlgorithm) clazz.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Failed to create the sharding algorithm: " + name, e);
+        }
+    }
+
     /**
      * @return the server index
      */
     public abstract int doSharding(long userId, int serverSize);
 
-}
\ No newline at end of file
+    /**
+     * @return the server index of the user ID in the previous layout during resharding,
+     * or {@link #NOT_MIGRATING} if the data isn't being migrated or the server index isn't changed
+     */
+    public int doPreviousSharding(long userId, int serverSize) {
+        return NOT_MIGRATING;
+    }
+
+    public boolean isMigrating() {
+        return false;
+    }
+
+}
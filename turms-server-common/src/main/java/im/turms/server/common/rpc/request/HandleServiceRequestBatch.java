@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.rpc.request;
+
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.cluster.exception.RpcException;
+import im.turms.server.common.cluster.service.rpc.RpcCallable;
+import im.turms.server.common.cluster.service.rpc.RpcErrorCode;
+import im.turms.server.common.dto.BatchedServiceResponse;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.rpc.service.IServiceRequestDispatcher;
+import lombok.Data;
+import org.springframework.context.ApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * The server type to request: Turms Gateway
+ * The server type to respond: Turms Service
+ * <p>
+ * Multiple service requests are packed into one frame to reduce the RPC overhead,
+ * and the response to each request is streamed back once it is ready
+ * so that a slow request won't delay the others.
+ *
+ * @author James Chen
+ */
+@Data
+public class HandleServiceRequestBatch extends RpcCallable<BatchedServiceResponse> {
+
+    private static final String NAME = "handleServiceRequestBatch";
+    private static IServiceRequestDispatcher dispatcher;
+
+    private final List<ServiceRequest> serviceRequests;
+
+    public HandleServiceRequestBatch(List<ServiceRequest> serviceRequests) {
+        this.serviceRequests = serviceRequests;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        super.setApplicationContext(applicationContext);
+        if (dispatcher == null) {
+            dispatcher = getBean(IServiceRequestDispatcher.class);
+        }
+    }
+
+    @Override
+    public Flux<BatchedServiceResponse> callStream() {
+        int size = serviceRequests.size();
+        return Flux.range(0, size)
+                .flatMap(this::dispatch, size);
+    }
+
+    private Mono<BatchedServiceResponse> dispatch(int index) {
+        return Mono.defer(() -> dispatcher.dispatch(serviceRequests.get(index)))
+                .map(response -> new BatchedServiceResponse(index, response, null))
+                .onErrorResume(throwable -> Mono.just(new BatchedServiceResponse(index, null, translateThrowable(throwable))))
+                .defaultIfEmpty(new BatchedServiceResponse(index, null, null));
+    }
+
+    private static RpcException translateThrowable(Throwable throwable) {
+        if (throwable instanceof RpcException) {
+            return (RpcException) throwable;
+        } else if (throwable instanceof TurmsBusinessException) {
+            TurmsBusinessException exception = (TurmsBusinessException) throwable;
+            return RpcException.get(RpcErrorCode.FAILED_TO_RUN_RPC, exception.getCode(), exception.getReason());
+        } else {
+            return RpcException.get(RpcErrorCode.FAILED_TO_RUN_RPC, TurmsStatusCode.SERVER_INTERNAL_ERROR, throwable.toString());
+        }
+    }
+
+}
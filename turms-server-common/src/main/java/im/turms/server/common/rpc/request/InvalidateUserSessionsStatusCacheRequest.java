@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.rpc.request;
+
+import im.turms.server.common.cluster.service.rpc.RpcCallable;
+import im.turms.server.common.service.session.UserStatusService;
+import lombok.Data;
+import org.springframework.context.ApplicationContext;
+
+import javax.validation.constraints.NotEmpty;
+
+/**
+ * The server type to request: Turms Service + Turms Gateway
+ * The server type to respond: Turms Service
+ *
+ * @author James Chen
+ */
+@Data
+public class InvalidateUserSessionsStatusCacheRequest extends RpcCallable<Boolean> {
+
+    private static final String NAME = "invalidateUserSessionsStatusCache";
+    private static UserStatusService userStatusService;
+
+    private final long[] userIds;
+    /**
+     * The epoch millis when the earliest change of the sessions status in the request happened
+     */
+    private final long changeTime;
+
+    public InvalidateUserSessionsStatusCacheRequest(@NotEmpty long[] userIds, long changeTime) {
+        this.userIds = userIds;
+        this.changeTime = changeTime;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        super.setApplicationContext(applicationContext);
+        if (userStatusService == null) {
+            userStatusService = getBean(UserStatusService.class);
+        }
+    }
+
+    @Override
+    public Boolean call() {
+        userStatusService.invalidateCachedUserSessionsStatuses(userIds, changeTime);
+        return true;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.rpc.request;
+
+import im.turms.server.common.cluster.service.rpc.RpcCallable;
+import im.turms.server.common.rpc.service.IOutboundMessageService;
+import io.netty.buffer.ByteBuf;
+import lombok.Data;
+import org.springframework.context.ApplicationContext;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+
+/**
+ * The server type to request: Turms Service
+ * The server type to respond: Turms Gateway
+ * <p>
+ * Multiple notifications to the same turms-gateway server are packed into one frame
+ * to reduce the RPC overhead when many notifications are sent concurrently.
+ *
+ * @author James Chen
+ */
+@Data
+public class SendNotificationBatchRequest extends RpcCallable<Long> {
+
+    public static final int MAX_SIZE = Long.SIZE;
+
+    private static final String NAME = "sendNotificationBatch";
+    private static IOutboundMessageService outboundMessageService;
+
+    private final List<SendNotificationRequest> requests;
+
+    /**
+     * @param requests the number of requests should be less than or equal to {@link #MAX_SIZE}
+     */
+    public SendNotificationBatchRequest(@NotEmpty List<SendNotificationRequest> requests) {
+        this.requests = requests;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        super.setApplicationContext(applicationContext);
+        if (outboundMessageService == null) {
+            outboundMessageService = getBean(IOutboundMessageService.class);
+        }
+    }
+
+    /**
+     * @return the bitmask in which the Nth bit is set if the Nth notification has forwarded to one recipient at least
+     * @implNote The notification buffers are the slices of the same frame
+     * and every call of sendNotificationToLocalClients releases the notification buffer once,
+     * so we retain the frame for every notification except the first one
+     */
+    @Override
+    public Long call() {
+        int size = requests.size();
+        long forwardedMask = 0;
+        for (int i = 0; i < size; i++) {
+            SendNotificationRequest request = requests.get(i);
+            ByteBuf notificationBuffer = request.getNotificationBuffer();
+            if (i > 0) {
+                notificationBuffer.retain();
+            }
+            if (outboundMessageService.sendNotificationToLocalClients(notificationBuffer, request.getRecipientIds())) {
+                forwardedMask |= 1L << i;
+            }
+        }
+        return forwardedMask;
+    }
+
+}
@@ -25,7 +25,6 @@ import org.springframework.context.ApplicationContext;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
-import java.util.Set;
 
 /**
  * The server type to request: Turms Service
@@ -40,12 +39,14 @@ public class SendNotificationRequest extends RpcCallable<Boolean> {
     private static IOutboundMessageService outboundMessageService;
 
     private final ByteBuf notificationBuffer;
-    private final Set<Long> recipientIds;
+    private final long[] recipientIds;
 
     /**
      * @param notificationBuffer should be a direct byte buffer of TurmsNotification
+     * @param recipientIds       should be sorted in ascending order without duplicates
+     *                           so that they can be delta-encoded
      */
-    public SendNotificationRequest(@NotNull ByteBuf notificationBuffer, @NotEmpty Set<Long> recipientIds) {
+    public SendNotificationRequest(@NotNull ByteBuf notificationBuffer, @NotEmpty long[] recipientIds) {
         this.notificationBuffer = notificationBuffer;
         this.recipientIds = recipientIds;
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.rpc.serializer.dto;
+
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.server.common.cluster.exception.RpcException;
+import im.turms.server.common.cluster.service.rpc.RpcErrorCode;
+import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
+import im.turms.server.common.cluster.service.serialization.serializer.SerializerId;
+import im.turms.server.common.dto.BatchedServiceResponse;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.util.SerializerUtil;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @author James Chen
+ */
+public class BatchedServiceResponseSerializer implements Serializer<BatchedServiceResponse> {
+
+    private static final byte TYPE_EMPTY = 0;
+    private static final byte TYPE_RESPONSE = 1;
+    private static final byte TYPE_EXCEPTION = 2;
+
+    private final ServiceResponseSerializer serviceResponseSerializer = new ServiceResponseSerializer();
+
+    @Override
+    public void write(ByteBuf output, BatchedServiceResponse data) {
+        output.writeShort(data.getIndex());
+        ServiceResponse response = data.getResponse();
+        RpcException exception = data.getException();
+        if (response != null) {
+            output.writeByte(TYPE_RESPONSE);
+            serviceResponseSerializer.write(output, response);
+        } else if (exception != null) {
+            output.writeByte(TYPE_EXCEPTION);
+            output.writeByte(exception.getErrorCode().getErrorCode());
+            output.writeShort(exception.getStatusCode().getBusinessCode());
+            SerializerUtil.writeString(output, exception.getDescription());
+        } else {
+            output.writeByte(TYPE_EMPTY);
+        }
+    }
+
+    @Override
+    public BatchedServiceResponse read(ByteBuf input) {
+        int index = input.readShort();
+        byte type = input.readByte();
+        switch (type) {
+            case TYPE_EMPTY:
+                return new BatchedServiceResponse(index, null, null);
+            case TYPE_RESPONSE:
+                return new BatchedServiceResponse(index, serviceResponseSerializer.read(input), null);
+            case TYPE_EXCEPTION:
+                RpcErrorCode errorCode = RpcErrorCode.from(input.readByte());
+                TurmsStatusCode statusCode = TurmsStatusCode.from(input.readShort());
+                String description = SerializerUtil.readString(input);
+                return new BatchedServiceResponse(index, null, RpcException.get(errorCode, statusCode, description));
+            default:
+                throw new IllegalStateException("Unexpected value: " + type);
+        }
+    }
+
+    @Override
+    public int initialCapacity(BatchedServiceResponse data) {
+        int capacity = Short.BYTES + Byte.BYTES;
+        ServiceResponse response = data.getResponse();
+        RpcException exception = data.getException();
+        if (response != null) {
+            capacity += serviceResponseSerializer.initialCapacity(response);
+        } else if (exception != null) {
+            String description = exception.getDescription();
+            capacity += Byte.BYTES + Short.BYTES * 2 + (description != null ? description.length() : 0);
+        }
+        return capacity;
+    }
+
+    @Override
+    public ByteBuf byteBufToComposite(BatchedServiceResponse data) {
+        ServiceResponse response = data.getResponse();
+        return response != null
+                ? serviceResponseSerializer.byteBufToComposite(response)
+                : null;
+    }
+
+    @Override
+    public SerializerId getSerializerId() {
+        return SerializerId.DTO_BATCHED_SERVICE_RESPONSE;
+    }
+
+}
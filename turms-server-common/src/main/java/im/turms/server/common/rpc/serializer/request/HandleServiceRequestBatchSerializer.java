@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.rpc.serializer.request;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.server.common.cluster.service.serialization.SerializationService;
+import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
+import im.turms.server.common.cluster.service.serialization.serializer.SerializerId;
+import im.turms.server.common.dto.ServiceRequest;
+import im.turms.server.common.rpc.request.HandleServiceRequestBatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Format: [size][header 1][request 1][header 2][request 2]...
+ * The request buffers are composited instead of being copied.
+ *
+ * @author James Chen
+ */
+public class HandleServiceRequestBatchSerializer implements Serializer<HandleServiceRequestBatch> {
+
+    private static final int HEADER_LENGTH = Long.BYTES * 2 + Byte.BYTES + Integer.BYTES;
+
+    @Override
+    public void write(ByteBuf output, HandleServiceRequestBatch data) {
+        int size = data.getServiceRequests().size();
+        if (size == 0) {
+            throw new IllegalArgumentException("The number of service requests must be greater than 0");
+        }
+        output.writeShort(size);
+    }
+
+    @Override
+    public HandleServiceRequestBatch read(ByteBuf input) {
+        int size = input.readShort();
+        List<ServiceRequest> serviceRequests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long traceId = input.readLong();
+            long userId = input.readLong();
+            DeviceType deviceType = DeviceType.forNumber(input.readByte());
+            int length = input.readInt();
+            ByteBuf turmsRequestBuffer = input.readSlice(length);
+            serviceRequests.add(new ServiceRequest(traceId, userId, deviceType, null, null, turmsRequestBuffer));
+        }
+        return new HandleServiceRequestBatch(serviceRequests);
+    }
+
+    @Override
+    public int initialCapacity(HandleServiceRequestBatch data) {
+        return Short.BYTES;
+    }
+
+    @Override
+    public ByteBuf byteBufToComposite(HandleServiceRequestBatch data) {
+        List<ServiceRequest> serviceRequests = data.getServiceRequests();
+        CompositeByteBuf composite = SerializationService.BYTE_BUF_ALLOCATOR.compositeDirectBuffer(serviceRequests.size() * 2);
+        for (ServiceRequest request : serviceRequests) {
+            ByteBuf turmsRequestBuffer = request.getTurmsRequestBuffer();
+            ByteBuf header = SerializationService.BYTE_BUF_ALLOCATOR.directBuffer(HEADER_LENGTH)
+                    .writeLong(request.getTraceId())
+                    .writeLong(request.getUserId())
+                    .writeByte(request.getDeviceType().getNumber())
+                    .writeInt(turmsRequestBuffer.readableBytes());
+            composite.addComponents(true, header, turmsRequestBuffer);
+        }
+        return composite;
+    }
+
+    @Override
+    public SerializerId getSerializerId() {
+        return SerializerId.RPC_HANDLE_SERVICE_REQUEST_BATCH;
+    }
+
+}
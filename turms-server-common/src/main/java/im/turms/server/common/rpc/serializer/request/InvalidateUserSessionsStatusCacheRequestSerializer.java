@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.rpc.serializer.request;
+
+import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
+import im.turms.server.common.cluster.service.serialization.serializer.SerializerId;
+import im.turms.server.common.rpc.request.InvalidateUserSessionsStatusCacheRequest;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * @author James Chen
+ */
+public class InvalidateUserSessionsStatusCacheRequestSerializer implements Serializer<InvalidateUserSessionsStatusCacheRequest> {
+
+    @Override
+    public void write(ByteBuf output, InvalidateUserSessionsStatusCacheRequest data) {
+        long[] userIds = data.getUserIds();
+        if (userIds.length == 0) {
+            throw new IllegalArgumentException("The number of user IDs must be greater than 0");
+        }
+        output.writeLong(data.getChangeTime());
+        output.writeInt(userIds.length);
+        for (long userId : userIds) {
+            output.writeLong(userId);
+        }
+    }
+
+    @Override
+    public InvalidateUserSessionsStatusCacheRequest read(ByteBuf input) {
+        long changeTime = input.readLong();
+        int userIdsNumber = input.readInt();
+        long[] userIds = new long[userIdsNumber];
+        for (int i = 0; i < userIdsNumber; i++) {
+            userIds[i] = input.readLong();
+        }
+        return new InvalidateUserSessionsStatusCacheRequest(userIds, changeTime);
+    }
+
+    @Override
+    public int initialCapacity(InvalidateUserSessionsStatusCacheRequest data) {
+        return Long.BYTES + Integer.BYTES + data.getUserIds().length * Long.BYTES;
+    }
+
+    @Override
+    public SerializerId getSerializerId() {
+        return SerializerId.RPC_INVALIDATE_USER_SESSIONS_STATUS_CACHE;
+    }
+
+}
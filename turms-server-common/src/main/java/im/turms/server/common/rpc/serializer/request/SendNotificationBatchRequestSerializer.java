@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.rpc.serializer.request;
+
+import im.turms.server.common.cluster.service.serialization.SerializationService;
+import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
+import im.turms.server.common.cluster.service.serialization.serializer.SerializerId;
+import im.turms.server.common.rpc.request.SendNotificationBatchRequest;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import im.turms.server.common.util.SerializerUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Format: [size][recipient IDs 1][notification length 1][notification 1][recipient IDs 2]...
+ * The notification buffers are composited instead of being copied.
+ *
+ * @author James Chen
+ * @see SendNotificationRequestSerializer
+ */
+public class SendNotificationBatchRequestSerializer implements Serializer<SendNotificationBatchRequest> {
+
+    @Override
+    public void write(ByteBuf output, SendNotificationBatchRequest data) {
+        int size = data.getRequests().size();
+        if (size == 0 || size > SendNotificationBatchRequest.MAX_SIZE) {
+            throw new IllegalArgumentException("The number of notifications must be in the range [1, "
+                    + SendNotificationBatchRequest.MAX_SIZE + "]");
+        }
+        output.writeByte(size);
+    }
+
+    @Override
+    public SendNotificationBatchRequest read(ByteBuf input) {
+        int size = input.readByte();
+        if (size <= 0 || size > SendNotificationBatchRequest.MAX_SIZE) {
+            throw new IllegalArgumentException("Illegal number of notifications: " + size);
+        }
+        List<SendNotificationRequest> requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long[] recipientIds = SerializerUtil.readSortedLongs(input);
+            int length = input.readInt();
+            ByteBuf notificationBuffer = input.readSlice(length);
+            requests.add(new SendNotificationRequest(notificationBuffer, recipientIds));
+        }
+        return new SendNotificationBatchRequest(requests);
+    }
+
+    @Override
+    public int initialCapacity(SendNotificationBatchRequest data) {
+        return Byte.BYTES;
+    }
+
+    @Override
+    public ByteBuf byteBufToComposite(SendNotificationBatchRequest data) {
+        List<SendNotificationRequest> requests = data.getRequests();
+        CompositeByteBuf composite = SerializationService.BYTE_BUF_ALLOCATOR.compositeDirectBuffer(requests.size() * 2);
+        for (SendNotificationRequest request : requests) {
+            long[] recipientIds = request.getRecipientIds();
+            ByteBuf notificationBuffer = request.getNotificationBuffer();
+            ByteBuf header = SerializationService.BYTE_BUF_ALLOCATOR
+                    .directBuffer(SerializerUtil.estimateSortedLongsBytes(recipientIds) + Integer.BYTES);
+            SerializerUtil.writeSortedLongs(header, recipientIds);
+            header.writeInt(notificationBuffer.readableBytes());
+            composite.addComponents(true, header, notificationBuffer);
+        }
+        return composite;
+    }
+
+    @Override
+    public SerializerId getSerializerId() {
+        return SerializerId.RPC_SEND_NOTIFICATION_BATCH;
+    }
+
+}
@@ -20,14 +20,14 @@ package im.turms.server.common.rpc.serializer.request;
 import im.turms.server.common.cluster.service.serialization.serializer.Serializer;
 import im.turms.server.common.cluster.service.serialization.serializer.SerializerId;
 import im.turms.server.common.rpc.request.SendNotificationRequest;
-import im.turms.server.common.util.MapUtil;
+import im.turms.server.common.util.SerializerUtil;
 import io.netty.buffer.ByteBuf;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
+ * Format: [recipient IDs (sorted and delta-encoded)][notification]
+ *
  * @author James Chen
+ * @see SerializerUtil#writeSortedLongs(ByteBuf, long[])
  */
 public class SendNotificationRequestSerializer implements Serializer<SendNotificationRequest> {
 
@@ -38,31 +38,23 @@ public class SendNotificationRequestSerializer implements Serializer<SendNotific
 
     @Override
     public void write(ByteBuf output, SendNotificationRequest data) {
-        short recipientsNumber = (short) data.getRecipientIds().size();
-        if (recipientsNumber == 0) {
+        long[] recipientIds = data.getRecipientIds();
+        if (recipientIds.length == 0) {
             throw new IllegalArgumentException("The number of recipients must be greater than 0");
         }
-        output.writeShort(recipientsNumber);
-        for (Long id : data.getRecipientIds()) {
-            output.writeLong(id);
-        }
+        SerializerUtil.writeSortedLongs(output, recipientIds);
     }
 
     @Override
     public SendNotificationRequest read(ByteBuf input) {
-        int recipientsNumber = input.readShort();
-        Set<Long> recipientIds = new HashSet<>(MapUtil.getCapability(recipientsNumber));
-        for (int i = 0; i < recipientsNumber; i++) {
-            recipientIds.add(input.readLong());
-        }
+        long[] recipientIds = SerializerUtil.readSortedLongs(input);
         ByteBuf notificationBuffer = input.slice();
         return new SendNotificationRequest(notificationBuffer, recipientIds);
     }
 
     @Override
     public int initialCapacity(SendNotificationRequest data) {
-        int size = data.getRecipientIds().size();
-        return Short.BYTES + size * Long.BYTES;
+        return SerializerUtil.estimateSortedLongsBytes(data.getRecipientIds());
     }
 
     @Override
@@ -21,7 +21,6 @@ import io.netty.buffer.ByteBuf;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
-import java.util.Set;
 
 /**
  * @author James Chen
@@ -30,6 +29,6 @@ public interface IOutboundMessageService {
 
     boolean sendNotificationToLocalClients(
             @NotNull ByteBuf notificationData,
-            @NotEmpty Set<Long> recipientIds);
+            @NotEmpty long[] recipientIds);
 
 }
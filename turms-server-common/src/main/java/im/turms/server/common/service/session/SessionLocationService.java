@@ -54,6 +54,11 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 /**
+ * If the sharding algorithm is migrating (resharding), the location of a user is written to
+ * both the current and the previous shards, and read from the previous shard if it doesn't exist
+ * in the current shard. Because the locations are refreshed when users go online,
+ * the migration can be disabled once the locations in the previous shards are stale.
+ *
  * @author James Chen
  */
 @Service
@@ -115,8 +120,12 @@ public class SessionLocationService {
         if (!locationEnabled) {
             return Mono.error(TurmsBusinessException.get(TurmsStatusCode.DISABLED_FUNCTION));
         }
+        int previousShardIndex = getPreviousShardIndex(userId);
         if (treatUserIdAndDeviceTypeAsUniqueUser) {
             UserSessionId userSessionId = new UserSessionId(userId, deviceType);
+            Mono<Long> previousMono = previousShardIndex == ShardingAlgorithm.NOT_MIGRATING
+                    ? Mono.empty()
+                    : geoByUserSessionIdOperationsList.get(previousShardIndex).add(RedisEntryId.LOCATION, position, userSessionId);
             return getGeoByUserSessionIdOperations(userId).add(RedisEntryId.LOCATION, position, userSessionId)
                     .flatMap(o -> o > 0
                             ? Mono.just(true)
@@ -125,8 +134,12 @@ public class SessionLocationService {
                             : getGeoByUserSessionIdOperations(userId).remove(RedisEntryId.LOCATION, userSessionId)
                             .then(getGeoByUserSessionIdOperations(userId).add(RedisEntryId.LOCATION, position, userSessionId))
                             .map(number -> number > 0))
+                    .flatMap(wasSuccessful -> previousMono.thenReturn(wasSuccessful))
                     .doOnSuccess(o -> tryLogLocation(userId, deviceType, position, timestamp));
         } else {
+            Mono<Long> previousMono = previousShardIndex == ShardingAlgorithm.NOT_MIGRATING
+                    ? Mono.empty()
+                    : geoByUserIdOperationsList.get(previousShardIndex).add(RedisEntryId.LOCATION, position, userId);
             return getGeoByUserIdOperations(userId).add(RedisEntryId.LOCATION, position, userId)
                     .flatMap(o -> o > 0
                             ? Mono.just(true)
@@ -135,6 +148,7 @@ public class SessionLocationService {
                             : getGeoByUserIdOperations(userId).remove(RedisEntryId.LOCATION, userId)
                             .then(getGeoByUserIdOperations(userId).add(RedisEntryId.LOCATION, position, userId))
                             .map(number -> number > 0))
+                    .flatMap(wasSuccessful -> previousMono.thenReturn(wasSuccessful))
                     .doOnSuccess(o -> tryLogLocation(userId, deviceType, position, timestamp));
         }
     }
@@ -153,6 +167,12 @@ public class SessionLocationService {
         Mono<Long> mono = treatUserIdAndDeviceTypeAsUniqueUser
                 ? getGeoByUserSessionIdOperations(userId).remove(RedisEntryId.LOCATION, new UserSessionId(userId, deviceType))
                 : getGeoByUserIdOperations(userId).remove(RedisEntryId.LOCATION, userId);
+        int previousShardIndex = getPreviousShardIndex(userId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            mono = mono.then(treatUserIdAndDeviceTypeAsUniqueUser
+                    ? geoByUserSessionIdOperationsList.get(previousShardIndex).remove(RedisEntryId.LOCATION, new UserSessionId(userId, deviceType))
+                    : geoByUserIdOperationsList.get(previousShardIndex).remove(RedisEntryId.LOCATION, userId));
+        }
         return mono.then();
     }
 
@@ -190,12 +210,18 @@ public class SessionLocationService {
             if (maxDistance > maxDistanceLimitPerQuery) {
                 maxDistance = maxDistanceLimitPerQuery;
             }
-            return getGeoByUserIdOperations(userId).radius(
-                    RedisEntryId.LOCATION,
-                    userId,
-                    new Distance(maxDistance),
-                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().limit(maxPeopleNumber))
+            Distance distance = new Distance(maxDistance);
+            RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().limit(maxPeopleNumber);
+            Flux<Long> userIds = getGeoByUserIdOperations(userId).radius(RedisEntryId.LOCATION, userId, distance, args)
+                    .map(geoLocationGeoResult -> geoLocationGeoResult.getContent().getName());
+            int previousShardIndex = getPreviousShardIndex(userId);
+            if (previousShardIndex == ShardingAlgorithm.NOT_MIGRATING) {
+                return userIds;
+            }
+            Flux<Long> previousUserIds = geoByUserIdOperationsList.get(previousShardIndex)
+                    .radius(RedisEntryId.LOCATION, userId, distance, args)
                     .map(geoLocationGeoResult -> geoLocationGeoResult.getContent().getName());
+            return mergeNearest(userIds, previousUserIds, maxPeopleNumber);
         }
     }
 
@@ -229,12 +255,19 @@ public class SessionLocationService {
         if (maxDistance > maxDistanceLimitPerQuery) {
             maxDistance = maxDistanceLimitPerQuery;
         }
-        return getGeoByUserSessionIdOperations(userId).radius(
-                RedisEntryId.LOCATION,
-                new UserSessionId(userId, deviceType),
-                new Distance(maxDistance),
-                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().limit(maxPeopleNumber))
+        UserSessionId userSessionId = new UserSessionId(userId, deviceType);
+        Distance distance = new Distance(maxDistance);
+        RedisGeoCommands.GeoRadiusCommandArgs args = RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().limit(maxPeopleNumber);
+        Flux<UserSessionId> userSessionIds = getGeoByUserSessionIdOperations(userId).radius(RedisEntryId.LOCATION, userSessionId, distance, args)
                 .map(geoLocationGeoResult -> geoLocationGeoResult.getContent().getName());
+        int previousShardIndex = getPreviousShardIndex(userId);
+        if (previousShardIndex == ShardingAlgorithm.NOT_MIGRATING) {
+            return userSessionIds;
+        }
+        Flux<UserSessionId> previousUserSessionIds = geoByUserSessionIdOperationsList.get(previousShardIndex)
+                .radius(RedisEntryId.LOCATION, userSessionId, distance, args)
+                .map(geoLocationGeoResult -> geoLocationGeoResult.getContent().getName());
+        return mergeNearest(userSessionIds, previousUserSessionIds, maxPeopleNumber);
     }
 
     public Mono<Point> getUserLocation(@NotNull Long userId, @NotNull @ValidDeviceType DeviceType deviceType) {
@@ -246,9 +279,16 @@ public class SessionLocationService {
             return Mono.error(e);
         }
         if (locationEnabled) {
-            return treatUserIdAndDeviceTypeAsUniqueUser
+            Mono<Point> positionMono = treatUserIdAndDeviceTypeAsUniqueUser
                     ? getGeoByUserSessionIdOperations(userId).position(RedisEntryId.LOCATION, new UserSessionId(userId, deviceType))
                     : getGeoByUserIdOperations(userId).position(RedisEntryId.LOCATION, userId);
+            int previousShardIndex = getPreviousShardIndex(userId);
+            if (previousShardIndex == ShardingAlgorithm.NOT_MIGRATING) {
+                return positionMono;
+            }
+            return positionMono.switchIfEmpty(treatUserIdAndDeviceTypeAsUniqueUser
+                    ? geoByUserSessionIdOperationsList.get(previousShardIndex).position(RedisEntryId.LOCATION, new UserSessionId(userId, deviceType))
+                    : geoByUserIdOperationsList.get(previousShardIndex).position(RedisEntryId.LOCATION, userId));
         } else {
             return Mono.error(TurmsBusinessException.get(TurmsStatusCode.DISABLED_FUNCTION));
         }
@@ -273,6 +313,23 @@ public class SessionLocationService {
         }
     }
 
+    /**
+     * The user may exist in only one of the shards during migration,
+     * and Redis responds with an error if the member to search by doesn't exist
+     */
+    private static <T> Flux<T> mergeNearest(Flux<T> nearest, Flux<T> previousNearest, short maxPeopleNumber) {
+        return Flux.concat(nearest.onErrorResume(t -> Flux.empty()), previousNearest.onErrorResume(t -> Flux.empty()))
+                .distinct()
+                .take(maxPeopleNumber);
+    }
+
+    private int getPreviousShardIndex(long userId) {
+        int shardCount = treatUserIdAndDeviceTypeAsUniqueUser
+                ? geoByUserSessionIdOperationsList.size()
+                : geoByUserIdOperationsList.size();
+        return shardingAlgorithmForLocation.doPreviousSharding(userId, shardCount);
+    }
+
     private ReactiveGeoOperations<String, UserSessionId> getGeoByUserSessionIdOperations(long userId) {
         return geoByUserSessionIdOperationsList.get(shardingAlgorithmForLocation.doSharding(userId, geoByUserSessionIdOperationsList.size()));
     }
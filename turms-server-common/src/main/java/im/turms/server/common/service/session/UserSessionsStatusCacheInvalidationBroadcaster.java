@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.server.common.service.session;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.rpc.request.InvalidateUserSessionsStatusCacheRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the IDs of the users whose sessions status has been changed by the local server
+ * and broadcasts them periodically in batches to the other turms servers
+ * so that they can invalidate their cached sessions status of the users.
+ * <p>
+ * A failed broadcast isn't retried because the cached sessions status will expire anyway.
+ *
+ * @author James Chen
+ */
+@Log4j2
+public class UserSessionsStatusCacheInvalidationBroadcaster {
+
+    private static final String METRICS_NAME_BATCH_SIZE = "user.sessions_status.cache.invalidation.broadcast.batch_size";
+    private static final String METRICS_NAME_FAILED = "user.sessions_status.cache.invalidation.broadcast.failed";
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("turms-sessions-status-cache-invalidation"));
+    private final Node node;
+    private final int maxBatchSize;
+
+    private final Set<Long> pendingUserIds = ConcurrentHashMap.newKeySet();
+    /**
+     * The epoch millis of the earliest pending change, or {@link Long#MAX_VALUE} if there is no pending change
+     */
+    private final AtomicLong earliestChangeTime = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicBoolean isFlushing = new AtomicBoolean();
+
+    private final DistributionSummary batchSizeSummary;
+    private final Counter failedCounter;
+
+    public UserSessionsStatusCacheInvalidationBroadcaster(Node node,
+                                                         MeterRegistry registry,
+                                                         int flushIntervalMillis,
+                                                         int maxBatchSize) {
+        this.node = node;
+        this.maxBatchSize = maxBatchSize;
+        batchSizeSummary = registry.summary(METRICS_NAME_BATCH_SIZE);
+        failedCounter = registry.counter(METRICS_NAME_FAILED);
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public void add(long userId) {
+        earliestChangeTime.accumulateAndGet(System.currentTimeMillis(), Math::min);
+        pendingUserIds.add(userId);
+    }
+
+    /**
+     * Skip if the previous flush hasn't finished so that slow peers won't pile up concurrent broadcasts.
+     */
+    private void flush() {
+        if (pendingUserIds.isEmpty() || !isFlushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long changeTime = earliestChangeTime.getAndSet(Long.MAX_VALUE);
+            if (changeTime == Long.MAX_VALUE) {
+                changeTime = System.currentTimeMillis();
+            }
+            List<long[]> batches = drain();
+            if (node.getDiscoveryService().getOtherActiveConnectedServiceMemberList().isEmpty()) {
+                isFlushing.set(false);
+                return;
+            }
+            long requestChangeTime = changeTime;
+            Flux.fromIterable(batches)
+                    .concatMap(batch -> broadcast(batch, requestChangeTime))
+                    .doFinally(signal -> isFlushing.set(false))
+                    .subscribe();
+        } catch (Exception e) {
+            isFlushing.set(false);
+            log.error("Failed to broadcast the invalidation of the cached sessions status", e);
+        }
+    }
+
+    private List<long[]> drain() {
+        List<long[]> batches = new ArrayList<>();
+        long[] batch = newBatch();
+        int size = 0;
+        Iterator<Long> iterator = pendingUserIds.iterator();
+        while (iterator.hasNext()) {
+            if (size == batch.length) {
+                batches.add(batch);
+                batch = newBatch();
+                size = 0;
+            }
+            batch[size++] = iterator.next();
+            iterator.remove();
+        }
+        if (size > 0) {
+            batches.add(size == batch.length ? batch : Arrays.copyOf(batch, size));
+        }
+        return batches;
+    }
+
+    private long[] newBatch() {
+        return new long[Math.max(1, Math.min(maxBatchSize, pendingUserIds.size()))];
+    }
+
+    private Mono<Void> broadcast(long[] userIds, long changeTime) {
+        batchSizeSummary.record(userIds.length);
+        InvalidateUserSessionsStatusCacheRequest request = new InvalidateUserSessionsStatusCacheRequest(userIds, changeTime);
+        return node.getRpcService()
+                .requestResponsesFromOtherServices(request, false)
+                .onErrorResume(throwable -> {
+                    failedCounter.increment();
+                    log.warn("Failed to broadcast the invalidation of the cached sessions status of {} users", userIds.length, throwable);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+}
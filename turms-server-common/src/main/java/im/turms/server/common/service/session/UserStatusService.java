@@ -29,23 +29,46 @@ import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.constraint.ValidDeviceType;
 import im.turms.server.common.property.TurmsProperties;
 import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.common.UserStatusProperties;
 import im.turms.server.common.redis.sharding.ShardingAlgorithm;
 import im.turms.server.common.util.AssertUtil;
 import im.turms.server.common.util.DeviceTypeUtil;
+import im.turms.server.common.util.MapUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.data.redis.core.ReactiveHashOperations;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.stream.Collectors;
 
 /**
+ * If the sharding algorithm is migrating (resharding), the sessions status of a user
+ * is written to both the current and the previous shards, read from both shards
+ * (the current shard wins), and copied to the current shard when its TTL is refreshed,
+ * so the migration can be disabled once every node has refreshed the sessions of its users.
+ * <p>
+ * Once the sessions status of a user is changed by the local server, its cached value is invalidated,
+ * and the user ID is broadcast to the other turms servers to invalidate their cached values
+ * if {@link UserStatusProperties#isBroadcastCacheInvalidation()} is enabled.
+ *
  * @author James Chen
  */
 @Service
@@ -53,6 +76,11 @@ public class UserStatusService {
 
     private static final Byte STATUS_KEY_STATUS = 's';
 
+    private static final String METRICS_NAME_CACHE = "user.sessions_status.cache";
+    private static final String METRICS_NAME_INVALIDATION_LAG = "user.sessions_status.cache.invalidation.lag";
+    private static final String METRICS_NAME_INVALIDATED_STALE_ENTRIES = "user.sessions_status.cache.invalidation.stale";
+    private static final int GENERATION_STRIPES = 1024;
+
     private final Node node;
     private final ShardingAlgorithm shardingAlgorithmForSession;
     private final List<ReactiveRedisTemplate<Long, String>> sessionRedisTemplates;
@@ -84,6 +112,21 @@ public class UserStatusService {
      * Note that both online and offline information will be cached
      */
     private final Cache<Long, UserSessionsStatus> userSessionsStatusCache;
+    /**
+     * Used to avoid caching a stale value fetched before an invalidation but put after the invalidation
+     */
+    @Nullable
+    private final AtomicLongArray generations;
+    @Nullable
+    private final Timer invalidationLagTimer;
+    /**
+     * The number of the invalidated entries that were cached,
+     * which would have been stale until they expired if they weren't invalidated
+     */
+    @Nullable
+    private final Counter invalidatedStaleEntriesCounter;
+    @Nullable
+    private final UserSessionsStatusCacheInvalidationBroadcaster cacheInvalidationBroadcaster;
 
     private final Duration operationTimeout;
     private final boolean cacheUserSessionsStatus;
@@ -95,7 +138,8 @@ public class UserStatusService {
             List<ReactiveRedisTemplate<Long, String>> sessionRedisTemplates) {
         this.node = node;
         TurmsProperties turmsProperties = turmsPropertiesManager.getLocalProperties();
-        cacheUserSessionsStatus = turmsProperties.getUserStatus().isCacheUserSessionsStatus();
+        UserStatusProperties userStatusProperties = turmsProperties.getUserStatus();
+        cacheUserSessionsStatus = userStatusProperties.isCacheUserSessionsStatus();
         operationTimeout = Duration.ofSeconds(10);
         this.shardingAlgorithmForSession = shardingAlgorithmForSession;
         this.sessionRedisTemplates = sessionRedisTemplates;
@@ -103,10 +147,11 @@ public class UserStatusService {
                 .stream()
                 .map(ReactiveRedisTemplate::opsForHash)
                 .collect(Collectors.toList());
+        MeterRegistry registry = Metrics.globalRegistry;
         if (cacheUserSessionsStatus) {
-            Caffeine<Object, Object> builder = Caffeine.newBuilder();
-            int maxSize = turmsProperties.getUserStatus().getUserSessionsStatusCacheMaxSize();
-            int expireAfter = turmsProperties.getUserStatus().getUserSessionsStatusExpireAfter();
+            Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+            int maxSize = userStatusProperties.getUserSessionsStatusCacheMaxSize();
+            int expireAfter = userStatusProperties.getUserSessionsStatusExpireAfter();
             if (maxSize > -1) {
                 builder.maximumSize(maxSize);
             }
@@ -114,8 +159,28 @@ public class UserStatusService {
                 builder.expireAfterWrite(Duration.ofSeconds(expireAfter));
             }
             userSessionsStatusCache = builder.build();
+            generations = new AtomicLongArray(GENERATION_STRIPES);
+            CaffeineCacheMetrics.monitor(registry, userSessionsStatusCache, METRICS_NAME_CACHE);
+            invalidationLagTimer = registry.timer(METRICS_NAME_INVALIDATION_LAG);
+            invalidatedStaleEntriesCounter = registry.counter(METRICS_NAME_INVALIDATED_STALE_ENTRIES);
         } else {
             userSessionsStatusCache = null;
+            generations = null;
+            invalidationLagTimer = null;
+            invalidatedStaleEntriesCounter = null;
+        }
+        cacheInvalidationBroadcaster = userStatusProperties.isBroadcastCacheInvalidation()
+                ? new UserSessionsStatusCacheInvalidationBroadcaster(node,
+                registry,
+                userStatusProperties.getCacheInvalidationFlushIntervalMillis(),
+                userStatusProperties.getCacheInvalidationMaxBatchSize())
+                : null;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (cacheInvalidationBroadcaster != null) {
+            cacheInvalidationBroadcaster.destroy();
         }
     }
 
@@ -169,6 +234,100 @@ public class UserStatusService {
                 });
     }
 
+    /**
+     * Build the routing table "Node ID -> User IDs" for the online users in one pass.
+     *
+     * @return the map of which the key is the node ID the users connect to,
+     * and the value is the IDs of the users who connect to the node.
+     * Offline users are excluded.
+     * @see #getUserSessionsStatuses(Set)
+     */
+    public Mono<SetMultimap<String, Long>> getNodeIdAndUserIdsMapByUserIds(@NotEmpty Set<Long> userIds) {
+        return getUserSessionsStatuses(userIds)
+                .map(sessionsStatuses -> {
+                    int size = sessionsStatuses.size();
+                    SetMultimap<String, Long> userIdsByNodeId = HashMultimap.create(Math.min(size, 16), Math.max(1, size / 8));
+                    for (Map.Entry<Long, UserSessionsStatus> entry : sessionsStatuses.entrySet()) {
+                        putNodeIds(userIdsByNodeId, entry.getKey(), entry.getValue());
+                    }
+                    return userIdsByNodeId;
+                });
+    }
+
+    /**
+     * Cached sessions status are used first, and the rest of user IDs are grouped by their Redis shards
+     * so that the lookups for the same shard are pipelined over one connection
+     * instead of sending a request and waiting for its response for every user.
+     * The fetched sessions status are cached in bulk.
+     *
+     * @return the map of which the key is the user ID and the value is the sessions status.
+     * Offline users are included.
+     */
+    public Mono<Map<Long, UserSessionsStatus>> getUserSessionsStatuses(@NotEmpty Set<Long> userIds) {
+        try {
+            AssertUtil.notEmpty(userIds, "userIds");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        int shardCount = sessionRedisTemplates.size();
+        Map<Long, UserSessionsStatus> sessionsStatuses = new HashMap<>(MapUtil.getCapability(userIds.size()));
+        List<List<Long>> userIdsToFetchByShard = null;
+        long[] generationsSnapshot = null;
+        for (Long userId : userIds) {
+            if (cacheUserSessionsStatus) {
+                UserSessionsStatus sessionsStatus = userSessionsStatusCache.getIfPresent(userId);
+                if (sessionsStatus != null) {
+                    sessionsStatuses.put(userId, sessionsStatus);
+                    continue;
+                }
+            }
+            if (userIdsToFetchByShard == null) {
+                userIdsToFetchByShard = newUserIdListsByShard(shardCount);
+                if (cacheUserSessionsStatus) {
+                    generationsSnapshot = getGenerationsSnapshot();
+                }
+            }
+            userIdsToFetchByShard.get(shardingAlgorithmForSession.doSharding(userId, shardCount)).add(userId);
+        }
+        if (userIdsToFetchByShard == null) {
+            return Mono.just(sessionsStatuses);
+        }
+        Flux<Pair<Long, UserSessionsStatus>> fetchFlux;
+        if (shardingAlgorithmForSession.isMigrating()) {
+            fetchFlux = fetchMigratingUserSessionsStatuses(userIdsToFetchByShard);
+        } else {
+            List<Flux<Pair<Long, UserSessionsStatus>>> fluxes = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                List<Long> userIdsToFetch = userIdsToFetchByShard.get(i);
+                if (!userIdsToFetch.isEmpty()) {
+                    fluxes.add(fetchUserSessionsStatusEntries(i, userIdsToFetch)
+                            .map(pair -> Pair.of(pair.getFirst(), parseUserSessionsStatus(pair.getSecond()))));
+                }
+            }
+            fetchFlux = Flux.merge(fluxes);
+        }
+        Map<Long, UserSessionsStatus> fetchedSessionsStatuses = cacheUserSessionsStatus
+                ? new HashMap<>(MapUtil.getCapability(userIds.size() - sessionsStatuses.size()))
+                : sessionsStatuses;
+        long[] fetchGenerations = generationsSnapshot;
+        return fetchFlux
+                .doOnNext(pair -> fetchedSessionsStatuses.put(pair.getFirst(), pair.getSecond()))
+                .then(Mono.fromCallable(() -> {
+                    if (fetchedSessionsStatuses != sessionsStatuses) {
+                        userSessionsStatusCache.putAll(fetchedSessionsStatuses);
+                        // Check after putting so that an invalidation that happens during putting won't be missed
+                        for (Long userId : fetchedSessionsStatuses.keySet()) {
+                            int index = getGenerationIndex(userId);
+                            if (generations.get(index) != fetchGenerations[index]) {
+                                userSessionsStatusCache.invalidate(userId);
+                            }
+                        }
+                        sessionsStatuses.putAll(fetchedSessionsStatuses);
+                    }
+                    return sessionsStatuses;
+                }));
+    }
+
     public Mono<Boolean> updateOnlineUsersStatus(@NotEmpty Set<Long> userIds, @NotNull UserStatus userStatus) {
         try {
             AssertUtil.notEmpty(userIds, "userIds");
@@ -185,14 +344,64 @@ public class UserStatusService {
             case 1:
                 return updateOnlineUserStatus(userIds.iterator().next(), userStatus);
             default:
-                List<Mono<Boolean>> monos = new ArrayList<>(userIds.size());
+                int shardCount = sessionRedisTemplates.size();
+                List<List<Long>> userIdsByShard = newUserIdListsByShard(shardCount);
+                List<List<Long>> userIdsByPreviousShard = shardingAlgorithmForSession.isMigrating()
+                        ? newUserIdListsByShard(shardCount)
+                        : null;
                 for (Long userId : userIds) {
-                    monos.add(updateOnlineUserStatus(userId, userStatus));
+                    userIdsByShard.get(shardingAlgorithmForSession.doSharding(userId, shardCount)).add(userId);
+                    if (userIdsByPreviousShard != null) {
+                        int previousShardIndex = getPreviousSessionShardIndex(userId);
+                        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+                            userIdsByPreviousShard.get(previousShardIndex).add(userId);
+                        }
+                    }
+                }
+                List<Mono<Boolean>> monos = new ArrayList<>(shardCount);
+                for (int i = 0; i < shardCount; i++) {
+                    List<Long> shardUserIds = userIdsByShard.get(i);
+                    if (!shardUserIds.isEmpty()) {
+                        monos.add(updateOnlineUsersStatus(i, shardUserIds, userStatus));
+                    }
+                }
+                Mono<Boolean> updateMono = Flux.merge(monos).all(value -> value);
+                if (userIdsByPreviousShard != null) {
+                    List<Mono<Boolean>> previousMonos = new ArrayList<>(shardCount);
+                    for (int i = 0; i < shardCount; i++) {
+                        List<Long> shardUserIds = userIdsByPreviousShard.get(i);
+                        if (!shardUserIds.isEmpty()) {
+                            previousMonos.add(updateOnlineUsersStatus(i, shardUserIds, userStatus));
+                        }
+                    }
+                    updateMono = updateMono.flatMap(wasUpdated -> Flux.merge(previousMonos).then(Mono.just(wasUpdated)));
                 }
-                return Flux.merge(monos).all(value -> value);
+                return updateMono
+                        .timeout(operationTimeout)
+                        .doOnSuccess(wasUpdated -> {
+                            for (Long userId : userIds) {
+                                onSessionsStatusChanged(userId);
+                            }
+                        });
         }
     }
 
+    /**
+     * @implNote Use one connection to send all commands so that the commands are pipelined
+     * by the underlying Lettuce connection without waiting for the response of the previous command.
+     */
+    private Mono<Boolean> updateOnlineUsersStatus(int shardIndex, List<Long> userIds, UserStatus userStatus) {
+        ReactiveRedisTemplate<Long, String> template = sessionRedisTemplates.get(shardIndex);
+        RedisSerializationContext<Long, String> serializationContext = template.getSerializationContext();
+        RedisSerializationContext.SerializationPair<Long> keyPair = serializationContext.getKeySerializationPair();
+        ByteBuffer statusKey = serializationContext.getHashKeySerializationPair().write(STATUS_KEY_STATUS);
+        ByteBuffer status = serializationContext.getHashValueSerializationPair().write(userStatus);
+        return template.execute(connection -> Flux.fromIterable(userIds)
+                .flatMap(userId -> connection.hashCommands()
+                        .hSet(keyPair.write(userId), statusKey.duplicate(), status.duplicate())))
+                .all(value -> value);
+    }
+
     public Mono<Boolean> updateOnlineUserStatus(@NotNull Long userId, @NotNull UserStatus userStatus) {
         try {
             AssertUtil.notNull(userId, "userId");
@@ -202,9 +411,16 @@ public class UserStatusService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        return getSessionOperations(userId)
-                .put(userId, STATUS_KEY_STATUS, userStatus)
-                .timeout(operationTimeout);
+        Mono<Boolean> updateMono = getSessionOperations(userId).put(userId, STATUS_KEY_STATUS, userStatus);
+        int previousShardIndex = getPreviousSessionShardIndex(userId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            updateMono = updateMono.flatMap(wasUpdated -> sessionOperationsList.get(previousShardIndex)
+                    .put(userId, STATUS_KEY_STATUS, userStatus)
+                    .thenReturn(wasUpdated));
+        }
+        return updateMono
+                .timeout(operationTimeout)
+                .doOnSuccess(wasUpdated -> onSessionsStatusChanged(userId));
     }
 
     public Mono<Boolean> updateTtl(@NotNull Long userId, @NotNull Duration timeout) {
@@ -214,7 +430,101 @@ public class UserStatusService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        return getSessionRedisTemplate(userId).expire(userId, timeout).timeout(operationTimeout);
+        Mono<Boolean> expireMono = getSessionRedisTemplate(userId).expire(userId, timeout);
+        int previousShardIndex = getPreviousSessionShardIndex(userId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            expireMono = expireMono.flatMap(exists -> exists
+                    ? sessionRedisTemplates.get(previousShardIndex).expire(userId, timeout).thenReturn(true)
+                    : copySessionsStatus(previousShardIndex, userId, timeout));
+        }
+        return expireMono.timeout(operationTimeout);
+    }
+
+    /**
+     * Refresh the TTL of the sessions status of the users in the same shard by one batch.
+     *
+     * @implNote Use one connection to send all commands so that the commands are pipelined
+     * by the underlying Lettuce connection without waiting for the response of the previous command.
+     * @return the IDs of the users whose sessions status doesn't exist.
+     * When migrating, the sessions status only in the previous shards is copied to the shard
+     * and isn't considered as nonexistent
+     */
+    public Mono<List<Long>> updateTtls(int shardIndex, @NotEmpty Collection<Long> userIds, @NotNull Duration timeout) {
+        try {
+            AssertUtil.state(shardIndex >= 0 && shardIndex < sessionRedisTemplates.size(), "The shard index is out of range");
+            AssertUtil.notEmpty(userIds, "userIds");
+            AssertUtil.notNull(timeout, "timeout");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        ReactiveRedisTemplate<Long, String> template = sessionRedisTemplates.get(shardIndex);
+        RedisSerializationContext.SerializationPair<Long> keyPair = template.getSerializationContext().getKeySerializationPair();
+        return template.execute(connection -> Flux.fromIterable(userIds)
+                .flatMap(userId -> connection.keyCommands()
+                        .expire(keyPair.write(userId), timeout)
+                        .filter(exists -> !exists)
+                        .map(exists -> userId)))
+                .collectList()
+                .flatMap(missingUserIds -> shardingAlgorithmForSession.isMigrating() && !missingUserIds.isEmpty()
+                        ? copySessionsStatuses(missingUserIds, timeout)
+                        : Mono.just(missingUserIds))
+                .timeout(operationTimeout);
+    }
+
+    private Mono<List<Long>> copySessionsStatuses(List<Long> userIds, Duration timeout) {
+        return Flux.fromIterable(userIds)
+                .flatMap(userId -> {
+                    int previousShardIndex = getPreviousSessionShardIndex(userId);
+                    if (previousShardIndex == ShardingAlgorithm.NOT_MIGRATING) {
+                        return Mono.just(userId);
+                    }
+                    return copySessionsStatus(previousShardIndex, userId, timeout)
+                            .flatMap(exists -> exists ? Mono.empty() : Mono.just(userId));
+                })
+                .collectList();
+    }
+
+    /**
+     * Copy the sessions status from the previous shard to the current shard
+     * without overwriting the fields that have been written to the current shard.
+     *
+     * @return true if the sessions status exists in the previous shard
+     */
+    private Mono<Boolean> copySessionsStatus(int previousShardIndex, Long userId, Duration timeout) {
+        ReactiveHashOperations<Long, Object, Object> operations = getSessionOperations(userId);
+        return sessionOperationsList.get(previousShardIndex)
+                .entries(userId)
+                .concatMap(entry -> operations.putIfAbsent(userId, entry.getKey(), entry.getValue()))
+                .count()
+                .flatMap(count -> count == 0
+                        ? Mono.just(false)
+                        : getSessionRedisTemplate(userId).expire(userId, timeout)
+                        .then(sessionRedisTemplates.get(previousShardIndex).expire(userId, timeout))
+                        .thenReturn(true));
+    }
+
+    private static List<List<Long>> newUserIdListsByShard(int shardCount) {
+        List<List<Long>> userIdsByShard = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            userIdsByShard.add(new LinkedList<>());
+        }
+        return userIdsByShard;
+    }
+
+    public int getSessionShardCount() {
+        return sessionRedisTemplates.size();
+    }
+
+    public int getSessionShardIndex(long userId) {
+        return shardingAlgorithmForSession.doSharding(userId, sessionRedisTemplates.size());
+    }
+
+    /**
+     * @return the shard index before resharding,
+     * or {@link ShardingAlgorithm#NOT_MIGRATING} if the sessions status isn't being migrated
+     */
+    private int getPreviousSessionShardIndex(long userId) {
+        return shardingAlgorithmForSession.doPreviousSharding(userId, sessionRedisTemplates.size());
     }
 
     public Mono<UserSessionsStatus> getUserSessionsStatus(@NotNull Long userId) {
@@ -238,38 +548,157 @@ public class UserStatusService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        return getSessionOperations(userId).entries(userId)
+        long generation = cacheUserSessionsStatus ? generations.get(getGenerationIndex(userId)) : 0;
+        Mono<List<Map.Entry<Object, Object>>> entriesMono = getSessionOperations(userId).entries(userId).collectList();
+        int previousShardIndex = getPreviousSessionShardIndex(userId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            entriesMono = sessionOperationsList.get(previousShardIndex).entries(userId).collectList()
+                    .zipWith(entriesMono, UserStatusService::mergeEntries);
+        }
+        return entriesMono
                 .timeout(operationTimeout)
-                .collectList()
-                .map(entries -> {
-                    UserStatus userStatus = null;
-                    Map<DeviceType, String> onlineDeviceTypeAndNodeIdMap = null;
-                    for (Map.Entry<Object, Object> entry : entries) {
-                        if (STATUS_KEY_STATUS.equals(entry.getKey())) {
-                            userStatus = (UserStatus) entry.getValue();
-                        } else {
-                            if (onlineDeviceTypeAndNodeIdMap == null) {
-                                onlineDeviceTypeAndNodeIdMap = new EnumMap<>(DeviceType.class);
-                            }
-                            onlineDeviceTypeAndNodeIdMap.put(
-                                    (DeviceType) entry.getKey(),
-                                    (String) entry.getValue());
-                        }
-                    }
-                    if (onlineDeviceTypeAndNodeIdMap == null) {
-                        userStatus = UserStatus.OFFLINE;
-                        onlineDeviceTypeAndNodeIdMap = Collections.emptyMap();
-                    } else if (userStatus == null || userStatus == UserStatus.OFFLINE) {
-                        userStatus = UserStatus.AVAILABLE;
-                    }
-                    UserSessionsStatus userSessionsStatus = new UserSessionsStatus(userStatus, onlineDeviceTypeAndNodeIdMap);
-                    if (cacheUserSessionsStatus) {
-                        userSessionsStatusCache.put(userId, userSessionsStatus);
+                .map(entries -> parseAndCacheUserSessionsStatus(userId, entries, generation));
+    }
+
+    /**
+     * @implNote Use one connection to send all commands so that the commands are pipelined
+     * by the underlying Lettuce connection without waiting for the response of the previous command.
+     */
+    private Flux<Pair<Long, List<Map.Entry<Object, Object>>>> fetchUserSessionsStatusEntries(int shardIndex,
+                                                                                           @NotEmpty List<Long> userIds) {
+        ReactiveRedisTemplate<Long, String> template = sessionRedisTemplates.get(shardIndex);
+        RedisSerializationContext<Long, String> serializationContext = template.getSerializationContext();
+        RedisSerializationContext.SerializationPair<Long> keyPair = serializationContext.getKeySerializationPair();
+        RedisSerializationContext.SerializationPair<Object> hashKeyPair = serializationContext.getHashKeySerializationPair();
+        RedisSerializationContext.SerializationPair<Object> hashValuePair = serializationContext.getHashValueSerializationPair();
+        return template.execute(connection -> Flux.fromIterable(userIds)
+                .flatMap(userId -> {
+                    ByteBuffer key = keyPair.write(userId);
+                    return connection.hashCommands()
+                            .hGetAll(key)
+                            .map(entry -> Map.entry(
+                                    hashKeyPair.read(entry.getKey()),
+                                    hashValuePair.read(entry.getValue())))
+                            .collectList()
+                            .map(entries -> Pair.of(userId, entries));
+                }))
+                .timeout(operationTimeout);
+    }
+
+    /**
+     * Fetch the entries from both the current and the previous shards in batches,
+     * and merge them so that the entries in the current shard win.
+     */
+    private Flux<Pair<Long, UserSessionsStatus>> fetchMigratingUserSessionsStatuses(List<List<Long>> userIdsByShard) {
+        int shardCount = userIdsByShard.size();
+        List<List<Long>> userIdsByPreviousShard = newUserIdListsByShard(shardCount);
+        List<Flux<Pair<Long, List<Map.Entry<Object, Object>>>>> fluxes = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            List<Long> userIds = userIdsByShard.get(i);
+            if (userIds.isEmpty()) {
+                continue;
+            }
+            for (Long userId : userIds) {
+                int previousShardIndex = getPreviousSessionShardIndex(userId);
+                if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+                    userIdsByPreviousShard.get(previousShardIndex).add(userId);
+                }
+            }
+            fluxes.add(fetchUserSessionsStatusEntries(i, userIds));
+        }
+        List<Flux<Pair<Long, List<Map.Entry<Object, Object>>>>> previousFluxes = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            List<Long> userIds = userIdsByPreviousShard.get(i);
+            if (!userIds.isEmpty()) {
+                previousFluxes.add(fetchUserSessionsStatusEntries(i, userIds));
+            }
+        }
+        Mono<Map<Long, List<Map.Entry<Object, Object>>>> previousEntriesMono = previousFluxes.isEmpty()
+                ? Mono.just(Collections.emptyMap())
+                : Flux.merge(previousFluxes).collectMap(Pair::getFirst, Pair::getSecond);
+        return previousEntriesMono
+                .zipWith(Flux.merge(fluxes).collectList())
+                .flatMapIterable(tuple -> {
+                    Map<Long, List<Map.Entry<Object, Object>>> previousEntriesByUserId = tuple.getT1();
+                    List<Pair<Long, List<Map.Entry<Object, Object>>>> pairs = tuple.getT2();
+                    List<Pair<Long, UserSessionsStatus>> statuses = new ArrayList<>(pairs.size());
+                    for (Pair<Long, List<Map.Entry<Object, Object>>> pair : pairs) {
+                        Long userId = pair.getFirst();
+                        List<Map.Entry<Object, Object>> previousEntries = previousEntriesByUserId.get(userId);
+                        List<Map.Entry<Object, Object>> entries = previousEntries == null
+                                ? pair.getSecond()
+                                : mergeEntries(previousEntries, pair.getSecond());
+                        statuses.add(Pair.of(userId, parseUserSessionsStatus(entries)));
                     }
-                    return userSessionsStatus;
+                    return statuses;
                 });
     }
 
+    private static List<Map.Entry<Object, Object>> mergeEntries(List<Map.Entry<Object, Object>> previousEntries,
+                                                                List<Map.Entry<Object, Object>> entries) {
+        if (previousEntries.isEmpty()) {
+            return entries;
+        }
+        if (entries.isEmpty()) {
+            return previousEntries;
+        }
+        Map<Object, Object> mergedEntries = new HashMap<>(previousEntries.size() + entries.size());
+        for (Map.Entry<Object, Object> entry : previousEntries) {
+            mergedEntries.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Object, Object> entry : entries) {
+            mergedEntries.put(entry.getKey(), entry.getValue());
+        }
+        return new ArrayList<>(mergedEntries.entrySet());
+    }
+
+    private UserSessionsStatus parseAndCacheUserSessionsStatus(Long userId,
+                                                               List<Map.Entry<Object, Object>> entries,
+                                                               long generation) {
+        UserSessionsStatus userSessionsStatus = parseUserSessionsStatus(entries);
+        if (cacheUserSessionsStatus) {
+            userSessionsStatusCache.put(userId, userSessionsStatus);
+            // Check after putting so that an invalidation that happens during putting won't be missed
+            if (generations.get(getGenerationIndex(userId)) != generation) {
+                userSessionsStatusCache.invalidate(userId);
+            }
+        }
+        return userSessionsStatus;
+    }
+
+    private UserSessionsStatus parseUserSessionsStatus(List<Map.Entry<Object, Object>> entries) {
+        UserStatus userStatus = null;
+        Map<DeviceType, String> onlineDeviceTypeAndNodeIdMap = null;
+        for (Map.Entry<Object, Object> entry : entries) {
+            if (STATUS_KEY_STATUS.equals(entry.getKey())) {
+                userStatus = (UserStatus) entry.getValue();
+            } else {
+                if (onlineDeviceTypeAndNodeIdMap == null) {
+                    onlineDeviceTypeAndNodeIdMap = new EnumMap<>(DeviceType.class);
+                }
+                onlineDeviceTypeAndNodeIdMap.put(
+                        (DeviceType) entry.getKey(),
+                        (String) entry.getValue());
+            }
+        }
+        if (onlineDeviceTypeAndNodeIdMap == null) {
+            userStatus = UserStatus.OFFLINE;
+            onlineDeviceTypeAndNodeIdMap = Collections.emptyMap();
+        } else if (userStatus == null || userStatus == UserStatus.OFFLINE) {
+            userStatus = UserStatus.AVAILABLE;
+        }
+        return new UserSessionsStatus(userStatus, onlineDeviceTypeAndNodeIdMap);
+    }
+
+    private void putNodeIds(SetMultimap<String, Long> userIdsByNodeId, Long userId, UserSessionsStatus sessionsStatus) {
+        Map<DeviceType, String> deviceTypeAndNodeIdMap = sessionsStatus.getOnlineDeviceTypeAndNodeIdMap();
+        if (deviceTypeAndNodeIdMap != null) {
+            for (String nodeId : deviceTypeAndNodeIdMap.values()) {
+                userIdsByNodeId.put(nodeId, userId);
+            }
+        }
+    }
+
     /**
      * Note that the method only removes the device information of a user
      * and don't remove the online status information to avoid querying and removing one more time.
@@ -286,10 +715,21 @@ public class UserStatusService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        DeviceType[] deviceTypesArray = deviceTypes.toArray(new DeviceType[0]);
-        return getSessionOperations(userId).remove(userId, (Object[]) deviceTypesArray)
+        Object[] deviceTypesArray = deviceTypes.toArray(new DeviceType[0]);
+        Mono<Long> removeMono = getSessionOperations(userId).remove(userId, deviceTypesArray);
+        int previousShardIndex = getPreviousSessionShardIndex(userId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            removeMono = removeMono.zipWith(sessionOperationsList.get(previousShardIndex).remove(userId, deviceTypesArray), Long::sum);
+        }
+        return removeMono
                 .timeout(operationTimeout)
-                .map(number -> number > 0);
+                .map(number -> {
+                    boolean wasRemoved = number > 0;
+                    if (wasRemoved) {
+                        onSessionsStatusChanged(userId);
+                    }
+                    return wasRemoved;
+                });
     }
 
     public Mono<Boolean> addOnlineDeviceIfAbsent(@NotNull Long userId,
@@ -314,12 +754,25 @@ public class UserStatusService {
         // if a user with the same device type sends multiple login requests in a short time
         // (This can also happen in different servers).
         // So use putIfAbsent to make the code robust.
+        int previousShardIndex = getPreviousSessionShardIndex(userId);
         Mono<Boolean> updateMono = getSessionOperations(userId).putIfAbsent(userId, deviceType, nodeId);
+        if (previousShardIndex != ShardingAlgorithm.NOT_MIGRATING) {
+            // The nodes that haven't enabled the migration only know the previous shard,
+            // so the device is considered as registered if it exists in either shard
+            ReactiveHashOperations<Long, Object, Object> previousOperations = sessionOperationsList.get(previousShardIndex);
+            updateMono = updateMono
+                    .flatMap(wasSuccessful -> wasSuccessful
+                            ? previousOperations.putIfAbsent(userId, deviceType, nodeId)
+                            .flatMap(wasPreviousSuccessful -> wasPreviousSuccessful
+                                    ? Mono.just(true)
+                                    : getSessionOperations(userId).remove(userId, deviceType).thenReturn(false))
+                            : Mono.just(false));
+        }
         if (userStatus != null && userStatus != UserStatus.AVAILABLE) {
             updateMono = updateMono
                     .flatMap(wasSuccessful -> {
                         if (wasSuccessful) {
-                            return getSessionOperations(userId).put(userId, STATUS_KEY_STATUS, userStatus)
+                            return updateOnlineUserStatus(userId, userStatus)
                                     .onErrorReturn(true)
                                     .thenReturn(true);
                         } else {
@@ -329,9 +782,61 @@ public class UserStatusService {
         }
         return updateMono
                 .timeout(operationTimeout)
-                .flatMap(wasSuccessful -> wasSuccessful
-                        ? getSessionRedisTemplate(userId).expire(userId, heartbeatTimeout)
-                        : Mono.just(false));
+                .flatMap(wasSuccessful -> {
+                    if (!wasSuccessful) {
+                        return Mono.just(false);
+                    }
+                    onSessionsStatusChanged(userId);
+                    Mono<Boolean> expireMono = getSessionRedisTemplate(userId).expire(userId, heartbeatTimeout);
+                    return previousShardIndex == ShardingAlgorithm.NOT_MIGRATING
+                            ? expireMono
+                            : expireMono.flatMap(exists -> sessionRedisTemplates.get(previousShardIndex)
+                            .expire(userId, heartbeatTimeout)
+                            .thenReturn(exists));
+                });
+    }
+
+    /**
+     * Invalidate the cached sessions status of the users whose sessions status has been changed by another server.
+     *
+     * @param changeTime the epoch millis when the earliest change happened
+     */
+    public void invalidateCachedUserSessionsStatuses(@NotEmpty long[] userIds, long changeTime) {
+        if (!cacheUserSessionsStatus) {
+            return;
+        }
+        ConcurrentMap<Long, UserSessionsStatus> cache = userSessionsStatusCache.asMap();
+        int staleEntries = 0;
+        for (long userId : userIds) {
+            generations.incrementAndGet(getGenerationIndex(userId));
+            if (cache.remove(userId) != null) {
+                staleEntries++;
+            }
+        }
+        invalidatedStaleEntriesCounter.increment(staleEntries);
+        invalidationLagTimer.record(Math.max(0, System.currentTimeMillis() - changeTime), TimeUnit.MILLISECONDS);
+    }
+
+    private void onSessionsStatusChanged(long userId) {
+        if (cacheUserSessionsStatus) {
+            generations.incrementAndGet(getGenerationIndex(userId));
+            userSessionsStatusCache.invalidate(userId);
+        }
+        if (cacheInvalidationBroadcaster != null) {
+            cacheInvalidationBroadcaster.add(userId);
+        }
+    }
+
+    private long[] getGenerationsSnapshot() {
+        long[] snapshot = new long[GENERATION_STRIPES];
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            snapshot[i] = generations.get(i);
+        }
+        return snapshot;
+    }
+
+    private static int getGenerationIndex(long userId) {
+        return (int) (userId ^ (userId >>> 32)) & (GENERATION_STRIPES - 1);
     }
 
     private ReactiveRedisTemplate<Long, String> getSessionRedisTemplate(long userId) {
@@ -50,6 +50,12 @@ public class AssertUtil {
         }
     }
 
+    public static void notEmpty(long[] array, String name) {
+        if (array == null || array.length == 0) {
+            throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS, name + " must not be null or empty");
+        }
+    }
+
     public static void min(Integer num, String name, int min) {
         if (num != null && num < min) {
             throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS, name + " must be greater than or equal to " + min);
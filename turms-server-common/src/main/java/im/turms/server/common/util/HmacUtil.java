@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.server.common.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * @author James Chen
+ */
+public class HmacUtil {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private HmacUtil() {
+    }
+
+    public static SecretKeySpec newRandomKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        SECURE_RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, ALGORITHM);
+    }
+
+    public static SecretKeySpec newKey(String secret) {
+        return new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public static byte[] sign(SecretKeySpec key, String data) {
+        try {
+            // Mac isn't thread-safe and is cheap to create compared with the signing itself
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign the data with " + ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Compare the digests in constant time to avoid timing attacks
+     */
+    public static boolean isEqual(byte[] digest1, byte[] digest2) {
+        return MessageDigest.isEqual(digest1, digest2);
+    }
+
+}
@@ -123,4 +123,78 @@ public class SerializerUtil {
         return integers;
     }
 
+    // Varint
+
+    /**
+     * Write the value as an unsigned varint, which takes 1 to 10 bytes
+     */
+    public static void writeVarLong(ByteBuf output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf input) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Format: [size (varint)][the first value][the deltas between adjacent values (varint)]...
+     * Deltas are usually much smaller than the values so they take fewer bytes.
+     *
+     * @param values must be sorted in ascending order without duplicates
+     */
+    public static void writeSortedLongs(ByteBuf output, long[] values) {
+        int size = values.length;
+        writeVarLong(output, size);
+        if (size == 0) {
+            return;
+        }
+        long previous = values[0];
+        output.writeLong(previous);
+        for (int i = 1; i < size; i++) {
+            long value = values[i];
+            writeVarLong(output, value - previous);
+            previous = value;
+        }
+    }
+
+    public static long[] readSortedLongs(ByteBuf input) {
+        long size = readVarLong(input);
+        // Every value takes one byte at least
+        if (size < 0 || size > input.readableBytes()) {
+            throw new IllegalArgumentException("Illegal size: " + size);
+        }
+        long[] values = new long[(int) size];
+        if (size == 0) {
+            return values;
+        }
+        long previous = input.readLong();
+        values[0] = previous;
+        for (int i = 1; i < size; i++) {
+            previous += readVarLong(input);
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    /**
+     * @return the estimated number of bytes written by {@link #writeSortedLongs(ByteBuf, long[])}
+     */
+    public static int estimateSortedLongsBytes(long[] values) {
+        return values.length == 0
+                ? 1
+                : Integer.BYTES + Long.BYTES + (values.length - 1) * Integer.BYTES;
+    }
+
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.cluster.service.rpc.balancer;
+
+import im.turms.server.common.cluster.node.NodeType;
+import im.turms.server.common.cluster.node.NodeVersion;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.balancer.EwmaLatencyLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.PowerOfTwoChoicesLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.RoundRobinLoadBalancer;
+import im.turms.server.common.cluster.service.rpc.balancer.RpcLoadBalancer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class RpcLoadBalancerTests {
+
+    private final MemberInfoWithConnection member1 = newMember("node1");
+    private final MemberInfoWithConnection member2 = newMember("node2");
+    private final List<MemberInfoWithConnection> members = List.of(member1, member2);
+
+    @Test
+    void choose_shouldReturnNull_ifNoMember() {
+        RpcLoadBalancer balancer = new RoundRobinLoadBalancer(0.2, 5, 1000);
+        assertNull(balancer.choose(List.of()));
+    }
+
+    @Test
+    void choose_shouldChooseMembersInTurn_forRoundRobin() {
+        RpcLoadBalancer balancer = new RoundRobinLoadBalancer(0.2, 5, 1000);
+        assertEquals(member1, balancer.choose(members));
+        assertEquals(member2, balancer.choose(members));
+        assertEquals(member1, balancer.choose(members));
+    }
+
+    @Test
+    void choose_shouldChooseMemberWithFewerInFlightRequests_forPowerOfTwoChoices() {
+        RpcLoadBalancer balancer = new PowerOfTwoChoicesLoadBalancer(0.2, 5, 1000);
+        balancer.onRequestStarted("node1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(member2, balancer.choose(members));
+        }
+    }
+
+    @Test
+    void choose_shouldChooseMemberWithLowerLatency_forEwmaLatency() {
+        RpcLoadBalancer balancer = new EwmaLatencyLoadBalancer(0.2, 5, 1000);
+        balancer.onRequestStarted("node1");
+        balancer.onRequestCompleted("node1", TimeUnit.SECONDS.toNanos(1), true);
+        balancer.onRequestStarted("node2");
+        balancer.onRequestCompleted("node2", TimeUnit.MILLISECONDS.toNanos(10), true);
+        assertEquals(member2, balancer.choose(members));
+    }
+
+    @Test
+    void choose_shouldSkipMemberWithOpenCircuit() {
+        RpcLoadBalancer balancer = new EwmaLatencyLoadBalancer(0.2, 2, 60 * 1000);
+        for (int i = 0; i < 2; i++) {
+            balancer.onRequestStarted("node2");
+            balancer.onRequestCompleted("node2", TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+        balancer.onRequestStarted("node1");
+        balancer.onRequestCompleted("node1", TimeUnit.SECONDS.toNanos(1), true);
+        assertEquals(member1, balancer.choose(members));
+    }
+
+    @Test
+    void isAvailable_shouldReturnFalse_onlyIfCircuitIsOpen() {
+        RpcLoadBalancer balancer = new EwmaLatencyLoadBalancer(0.2, 2, 60 * 1000);
+        assertTrue(balancer.isAvailable("node1"));
+        balancer.onRequestStarted("node1");
+        balancer.onRequestCompleted("node1", TimeUnit.MILLISECONDS.toNanos(1), false);
+        assertTrue(balancer.isAvailable("node1"));
+        balancer.onRequestStarted("node1");
+        balancer.onRequestCompleted("node1", TimeUnit.MILLISECONDS.toNanos(1), false);
+        assertFalse(balancer.isAvailable("node1"));
+    }
+
+    @Test
+    void retainMembers_shouldRemoveStatsOfMembersThatLeft() {
+        RpcLoadBalancer balancer = new EwmaLatencyLoadBalancer(0.2, 2, 60 * 1000);
+        for (int i = 0; i < 2; i++) {
+            balancer.onRequestStarted("node2");
+            balancer.onRequestCompleted("node2", TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+        balancer.onRequestStarted("node1");
+        balancer.onRequestCompleted("node1", TimeUnit.SECONDS.toNanos(1), true);
+        balancer.retainMembers(Set.of("node1"));
+        assertEquals(member2, balancer.choose(members));
+    }
+
+    private MemberInfoWithConnection newMember(String nodeId) {
+        Member member = new Member("turms", nodeId, NodeType.SERVICE, NodeVersion.parse("1.0.0-SNAPSHOT"), false,
+                new Date(), 0, "localhost", 7510, null, true, true);
+        return new MemberInfoWithConnection(member, null);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.server.common.manager;
+
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.manager.PasswordManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.constant.PasswordEncodingAlgorithm;
+import im.turms.server.common.property.env.common.PasswordVerificationProperties;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class PasswordManagerTests {
+
+    private static final String RAW_PASSWORD = "password";
+
+    @Test
+    void matchesPasswordAsync_shouldMatch_forBcryptPassword() {
+        PasswordManager passwordManager = newPasswordManager(1, 1);
+        String encodedPassword = passwordManager.encodePassword(PasswordEncodingAlgorithm.BCRYPT, RAW_PASSWORD);
+
+        StepVerifier.create(passwordManager.matchesPasswordAsync(PasswordEncodingAlgorithm.BCRYPT, RAW_PASSWORD, encodedPassword))
+                .expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(passwordManager.matchesPasswordAsync(PasswordEncodingAlgorithm.BCRYPT, "wrong", encodedPassword))
+                .expectNext(false)
+                .verifyComplete();
+        passwordManager.destroy();
+    }
+
+    @Test
+    void matchesPasswordAsync_shouldRejectWithUnavailable_ifQueueIsFull() {
+        PasswordManager passwordManager = newPasswordManager(1, 1);
+        String encodedPassword = passwordManager.encodePassword(PasswordEncodingAlgorithm.BCRYPT, RAW_PASSWORD);
+
+        // One running, one queued, and the others rejected
+        List<Object> results = Flux.range(0, 4)
+                .flatMap(i -> passwordManager.matchesPasswordAsync(PasswordEncodingAlgorithm.BCRYPT, RAW_PASSWORD, encodedPassword)
+                        .cast(Object.class)
+                        .onErrorResume(Mono::just))
+                .collectList()
+                .block();
+
+        long matchedCount = results.stream().filter(Boolean.TRUE::equals).count();
+        List<Object> errors = results.stream().filter(TurmsBusinessException.class::isInstance).collect(Collectors.toList());
+        assertEquals(2, matchedCount);
+        assertEquals(2, errors.size());
+        for (Object error : errors) {
+            TurmsBusinessException exception = (TurmsBusinessException) error;
+            assertEquals(TurmsStatusCode.UNAVAILABLE, exception.getCode());
+            assertTrue(exception.getReason().contains(String.valueOf(passwordManager.getRetryAfterSeconds())));
+        }
+        passwordManager.destroy();
+    }
+
+    private PasswordManager newPasswordManager(int maxThreads, int maxQueuedTasks) {
+        TurmsProperties properties = new TurmsProperties();
+        PasswordVerificationProperties verificationProperties = properties.getSecurity().getPasswordVerification();
+        verificationProperties.setMaxThreads(maxThreads);
+        verificationProperties.setMaxQueuedTasks(maxQueuedTasks);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties())
+                .thenReturn(properties);
+        return new PasswordManager(propertiesManager);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.redis.sharding;
+
+import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.HashRingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.MigratingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.ShardingAlgorithm;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class HashRingShardingAlgorithmTests {
+
+    private static final int USER_ID_COUNT = 1_000_000;
+
+    /**
+     * Snowflake-like IDs generated by a few nodes in a short time,
+     * whose lowest bits are mostly the same
+     */
+    private static long userId(int i) {
+        long timestamp = 1_600_000_000_000L + i / 64;
+        long nodeId = i % 4;
+        long sequence = i % 16;
+        return timestamp << 22 | nodeId << 12 | sequence;
+    }
+
+    @Test
+    void doSharding_shouldDistributeUserIdsEvenly() {
+        HashRingShardingAlgorithm algorithm = new HashRingShardingAlgorithm();
+        for (int serverCount : new int[]{2, 3, 5, 8, 16}) {
+            int[] counts = new int[serverCount];
+            for (int i = 0; i < USER_ID_COUNT; i++) {
+                counts[algorithm.doSharding(userId(i), serverCount)]++;
+            }
+            double mean = (double) USER_ID_COUNT / serverCount;
+            for (int count : counts) {
+                double deviation = Math.abs(count - mean) / mean;
+                assertTrue(deviation < 0.15, "The deviation " + deviation + " is too large for " + serverCount + " servers");
+            }
+        }
+    }
+
+    @Test
+    void doSharding_shouldOnlyMoveUserIdsToNewServer_whenServerIsAdded() {
+        HashRingShardingAlgorithm algorithm = new HashRingShardingAlgorithm();
+        for (int serverCount = 1; serverCount < 16; serverCount++) {
+            int newServerCount = serverCount + 1;
+            int movedCount = 0;
+            for (int i = 0; i < USER_ID_COUNT; i++) {
+                long userId = userId(i);
+                int index = algorithm.doSharding(userId, serverCount);
+                int newIndex = algorithm.doSharding(userId, newServerCount);
+                if (index != newIndex) {
+                    assertEquals(serverCount, newIndex);
+                    movedCount++;
+                }
+            }
+            double movedRatio = (double) movedCount / USER_ID_COUNT;
+            double expectedRatio = 1D / newServerCount;
+            assertTrue(movedRatio < expectedRatio * 1.3,
+                    "Moved " + movedRatio + " of user IDs but expected about " + expectedRatio);
+        }
+    }
+
+    @Test
+    void doPreviousSharding_shouldReturnPreviousIndex_onlyIfIndexIsChanged() {
+        HashRingShardingAlgorithm algorithm = new HashRingShardingAlgorithm();
+        ShardingAlgorithm migratingAlgorithm = new MigratingShardingAlgorithm(algorithm, new ConsistentHashingShardingAlgorithm(), 2);
+        assertTrue(migratingAlgorithm.isMigrating());
+        assertFalse(algorithm.isMigrating());
+        boolean hasMovedUserId = false;
+        for (int i = 0; i < 10_000; i++) {
+            long userId = userId(i);
+            int previousIndex = migratingAlgorithm.doPreviousSharding(userId, 4);
+            int expectedPreviousIndex = new ConsistentHashingShardingAlgorithm().doSharding(userId, 2);
+            if (expectedPreviousIndex == algorithm.doSharding(userId, 4)) {
+                assertEquals(ShardingAlgorithm.NOT_MIGRATING, previousIndex);
+            } else {
+                assertEquals(expectedPreviousIndex, previousIndex);
+                hasMovedUserId = true;
+            }
+            assertEquals(ShardingAlgorithm.NOT_MIGRATING, algorithm.doPreviousSharding(userId, 4));
+        }
+        assertTrue(hasMovedUserId);
+    }
+
+}
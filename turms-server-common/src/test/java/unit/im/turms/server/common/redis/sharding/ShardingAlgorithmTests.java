@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.redis.sharding;
+
+import im.turms.server.common.property.env.common.ShardingMigrationProperties;
+import im.turms.server.common.redis.sharding.ConsistentHashingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.HashRingShardingAlgorithm;
+import im.turms.server.common.redis.sharding.ModShardingAlgorithm;
+import im.turms.server.common.redis.sharding.ShardingAlgorithm;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author James Chen
+ */
+class ShardingAlgorithmTests {
+
+    @Test
+    void valueOf_shouldCreateAlgorithm_whenNameIsSimpleOrFullyQualifiedClassName() {
+        assertEquals(ConsistentHashingShardingAlgorithm.class,
+                ShardingAlgorithm.valueOf("ConsistentHashingShardingAlgorithm").getClass());
+        assertEquals(HashRingShardingAlgorithm.class,
+                ShardingAlgorithm.valueOf("HashRingShardingAlgorithm").getClass());
+        assertEquals(ModShardingAlgorithm.class,
+                ShardingAlgorithm.valueOf(ModShardingAlgorithm.class.getName()).getClass());
+    }
+
+    @Test
+    void valueOf_shouldThrow_whenNameIsNotShardingAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> ShardingAlgorithm.valueOf("UnknownShardingAlgorithm"));
+        assertThrows(IllegalArgumentException.class, () -> ShardingAlgorithm.valueOf(String.class.getName()));
+    }
+
+    @Test
+    void valueOf_shouldBindAlgorithmOfProperties() {
+        Binder binder = new Binder(new MapConfigurationPropertySource(Map.of(
+                "migration.enabled", "true",
+                "migration.previous-algorithm", "ConsistentHashingShardingAlgorithm")));
+        ShardingMigrationProperties properties = binder.bind("migration", ShardingMigrationProperties.class).get();
+        assertEquals(ConsistentHashingShardingAlgorithm.class, properties.getPreviousAlgorithm().getClass());
+    }
+
+    /**
+     * The default algorithm must keep mapping user IDs in the same way
+     * so that upgrading doesn't move the data of existing deployments
+     */
+    @Test
+    void doSharding_shouldKeepMappingOfDefaultAlgorithm() {
+        ConsistentHashingShardingAlgorithm algorithm = new ConsistentHashingShardingAlgorithm();
+        assertEquals(0, algorithm.doSharding(0x1_0000L, 4));
+        assertEquals(1, algorithm.doSharding(0x4000L, 4));
+        assertEquals(3, algorithm.doSharding(0xFFFFL, 4));
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.rpc.request;
+
+import im.turms.server.common.rpc.request.InvalidateUserSessionsStatusCacheRequest;
+import im.turms.server.common.service.session.UserStatusService;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class InvalidateUserSessionsStatusCacheRequestTests {
+
+    @Test
+    void call_shouldInvalidateCachedUserSessionsStatuses() {
+        UserStatusService userStatusService = mock(UserStatusService.class);
+        ApplicationContext context = mock(ApplicationContext.class);
+        when(context.getBean(UserStatusService.class))
+                .thenReturn(userStatusService);
+        long[] userIds = {1L, 2L};
+        long changeTime = System.currentTimeMillis();
+        InvalidateUserSessionsStatusCacheRequest request = new InvalidateUserSessionsStatusCacheRequest(userIds, changeTime);
+        request.setApplicationContext(context);
+
+        assertTrue(request.call());
+        verify(userStatusService).invalidateCachedUserSessionsStatuses(userIds, changeTime);
+    }
+
+}
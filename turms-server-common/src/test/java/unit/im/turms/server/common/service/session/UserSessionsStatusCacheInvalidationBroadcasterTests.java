@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.service.session;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.rpc.request.InvalidateUserSessionsStatusCacheRequest;
+import im.turms.server.common.service.session.UserSessionsStatusCacheInvalidationBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class UserSessionsStatusCacheInvalidationBroadcasterTests {
+
+    private static final int FLUSH_INTERVAL_MILLIS = 10;
+
+    private final DiscoveryService discoveryService = mock(DiscoveryService.class);
+    private final RpcService rpcService = mock(RpcService.class);
+
+    @Test
+    void add_shouldBroadcastUserIdsInBatches() {
+        // Flush after adding all the user IDs
+        UserSessionsStatusCacheInvalidationBroadcaster broadcaster = newBroadcaster(200, 2);
+        when(rpcService.requestResponsesFromOtherServices(any(InvalidateUserSessionsStatusCacheRequest.class), anyBoolean()))
+                .thenReturn(Flux.just(true));
+        long changeTime = System.currentTimeMillis();
+        try {
+            broadcaster.add(1L);
+            broadcaster.add(2L);
+            broadcaster.add(3L);
+
+            ArgumentCaptor<InvalidateUserSessionsStatusCacheRequest> requestCaptor =
+                    ArgumentCaptor.forClass(InvalidateUserSessionsStatusCacheRequest.class);
+            verify(rpcService, timeout(2000).times(2)).requestResponsesFromOtherServices(requestCaptor.capture(), anyBoolean());
+            List<InvalidateUserSessionsStatusCacheRequest> requests = requestCaptor.getAllValues();
+            Set<Long> userIds = requests.stream()
+                    .flatMap(request -> Arrays.stream(request.getUserIds()).boxed())
+                    .collect(Collectors.toSet());
+            assertEquals(Set.of(1L, 2L, 3L), userIds);
+            for (InvalidateUserSessionsStatusCacheRequest request : requests) {
+                assertTrue(request.getUserIds().length <= 2);
+                assertTrue(request.getChangeTime() >= changeTime);
+            }
+        } finally {
+            broadcaster.destroy();
+        }
+    }
+
+    @Test
+    void add_shouldNotBroadcast_whenThereIsNoOtherServer() {
+        UserSessionsStatusCacheInvalidationBroadcaster broadcaster = newBroadcaster(FLUSH_INTERVAL_MILLIS, 2);
+        when(discoveryService.getOtherActiveConnectedServiceMemberList())
+                .thenReturn(List.of());
+        try {
+            broadcaster.add(1L);
+
+            verify(discoveryService, timeout(1000)).getOtherActiveConnectedServiceMemberList();
+            verify(rpcService, never()).requestResponsesFromOtherServices(any(), anyBoolean());
+        } finally {
+            broadcaster.destroy();
+        }
+    }
+
+    @Test
+    void add_shouldBroadcastLaterChanges_whenBroadcastFailed() {
+        UserSessionsStatusCacheInvalidationBroadcaster broadcaster = newBroadcaster(FLUSH_INTERVAL_MILLIS, 10);
+        when(rpcService.requestResponsesFromOtherServices(any(InvalidateUserSessionsStatusCacheRequest.class), anyBoolean()))
+                .thenReturn(Flux.error(new IllegalStateException("Mocked error")), Flux.just(true));
+        try {
+            broadcaster.add(1L);
+            verify(rpcService, timeout(1000).times(1)).requestResponsesFromOtherServices(any(), anyBoolean());
+            broadcaster.add(2L);
+
+            // The failed batch isn't retried
+            verify(rpcService, after(FLUSH_INTERVAL_MILLIS * 10).times(2)).requestResponsesFromOtherServices(any(), anyBoolean());
+        } finally {
+            broadcaster.destroy();
+        }
+    }
+
+    private UserSessionsStatusCacheInvalidationBroadcaster newBroadcaster(int flushIntervalMillis, int maxBatchSize) {
+        Node node = mock(Node.class);
+        when(node.getDiscoveryService())
+                .thenReturn(discoveryService);
+        when(node.getRpcService())
+                .thenReturn(rpcService);
+        when(discoveryService.getOtherActiveConnectedServiceMemberList())
+                .thenReturn(List.of(mock(MemberInfoWithConnection.class)));
+        return new UserSessionsStatusCacheInvalidationBroadcaster(node, new SimpleMeterRegistry(), flushIntervalMillis, maxBatchSize);
+    }
+
+}
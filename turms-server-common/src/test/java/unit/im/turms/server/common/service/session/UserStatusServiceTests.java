@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.server.common.service.session;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.server.common.bo.session.UserSessionsStatus;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.redis.sharding.ModShardingAlgorithm;
+import im.turms.server.common.service.session.UserStatusService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class UserStatusServiceTests {
+
+    private static final long USER_ID = 1L;
+    private static final String NODE_ID = "node";
+
+    private final ReactiveHashOperations<Long, Object, Object> hashOperations = mock(ReactiveHashOperations.class);
+
+    @Test
+    void getUserSessionsStatus_shouldReturnCachedValue_whenNotInvalidated() {
+        UserStatusService userStatusService = newUserStatusService();
+        when(hashOperations.entries(USER_ID))
+                .thenReturn(Flux.just(Map.entry(DeviceType.ANDROID, NODE_ID)));
+
+        assertOnline(userStatusService.getUserSessionsStatus(USER_ID).block());
+        assertOnline(userStatusService.getUserSessionsStatus(USER_ID).block());
+
+        verify(hashOperations, times(1)).entries(USER_ID);
+    }
+
+    @Test
+    void getUserSessionsStatus_shouldNotCacheValueFetchedBeforeInvalidation_whenInvalidatedDuringFetch() {
+        UserStatusService userStatusService = newUserStatusService();
+        Sinks.Many<Map.Entry<Object, Object>> entriesSink = Sinks.many().unicast().onBackpressureBuffer();
+        when(hashOperations.entries(USER_ID))
+                .thenReturn(entriesSink.asFlux(), Flux.empty());
+
+        CompletableFuture<UserSessionsStatus> inFlightFetch = userStatusService.getUserSessionsStatus(USER_ID).toFuture();
+        userStatusService.invalidateCachedUserSessionsStatuses(new long[]{USER_ID}, System.currentTimeMillis());
+        entriesSink.tryEmitNext(Map.entry(DeviceType.ANDROID, NODE_ID));
+        entriesSink.tryEmitComplete();
+
+        assertOnline(inFlightFetch.join());
+        UserSessionsStatus sessionsStatus = userStatusService.getUserSessionsStatus(USER_ID).block();
+        assertEquals(Map.of(), sessionsStatus.getOnlineDeviceTypeAndNodeIdMap());
+        verify(hashOperations, times(2)).entries(USER_ID);
+    }
+
+    @Test
+    void getUserSessionsStatus_shouldFetchAgain_whenInvalidatedAfterCaching() {
+        UserStatusService userStatusService = newUserStatusService();
+        when(hashOperations.entries(USER_ID))
+                .thenReturn(Flux.just(Map.entry(DeviceType.ANDROID, NODE_ID)), Flux.empty());
+
+        assertOnline(userStatusService.getUserSessionsStatus(USER_ID).block());
+        userStatusService.invalidateCachedUserSessionsStatuses(new long[]{USER_ID}, System.currentTimeMillis());
+        UserSessionsStatus sessionsStatus = userStatusService.getUserSessionsStatus(USER_ID).block();
+
+        assertEquals(Map.of(), sessionsStatus.getOnlineDeviceTypeAndNodeIdMap());
+        verify(hashOperations, times(2)).entries(USER_ID);
+    }
+
+    private UserStatusService newUserStatusService() {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getUserStatus().setBroadcastCacheInvalidation(false);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties())
+                .thenReturn(properties);
+        ReactiveRedisTemplate<Long, String> redisTemplate = mock(ReactiveRedisTemplate.class);
+        doReturn(hashOperations)
+                .when(redisTemplate).opsForHash();
+        return new UserStatusService(mock(Node.class), propertiesManager, new ModShardingAlgorithm(), List.of(redisTemplate));
+    }
+
+    private static void assertOnline(UserSessionsStatus sessionsStatus) {
+        assertEquals(Map.of(DeviceType.ANDROID, NODE_ID), sessionsStatus.getOnlineDeviceTypeAndNodeIdMap());
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.server.common.util;
+
+import im.turms.server.common.util.SerializerUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author James Chen
+ */
+class SerializerUtilTests {
+
+    @Test
+    void readVarLong_shouldReturnWrittenValue() {
+        long[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1};
+        ByteBuf buffer = Unpooled.buffer();
+        for (long value : values) {
+            SerializerUtil.writeVarLong(buffer, value);
+        }
+        for (long value : values) {
+            assertEquals(value, SerializerUtil.readVarLong(buffer));
+        }
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    void readSortedLongs_shouldReturnWrittenValues() {
+        long[] values = {-5, 1, 2, 1000, 123456789, Long.MAX_VALUE};
+        ByteBuf buffer = Unpooled.buffer();
+        SerializerUtil.writeSortedLongs(buffer, values);
+
+        assertArrayEquals(values, SerializerUtil.readSortedLongs(buffer));
+        assertEquals(0, buffer.readableBytes());
+    }
+
+    @Test
+    void readSortedLongs_shouldReturnEmptyArray_forEmptyValues() {
+        ByteBuf buffer = Unpooled.buffer();
+        SerializerUtil.writeSortedLongs(buffer, new long[0]);
+
+        assertEquals(0, SerializerUtil.readSortedLongs(buffer).length);
+    }
+
+    @Test
+    void writeSortedLongs_shouldTakeFewerBytes_forCloseValues() {
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1_000_000_000_000L + i;
+        }
+        ByteBuf buffer = Unpooled.buffer();
+        SerializerUtil.writeSortedLongs(buffer, values);
+
+        // [size (2 bytes)][the first value (8 bytes)][the deltas (1 byte for each)]
+        assertEquals(2 + Long.BYTES + values.length - 1, buffer.readableBytes());
+    }
+
+    @Test
+    void readSortedLongs_shouldThrow_ifSizeExceedsReadableBytes() {
+        ByteBuf buffer = Unpooled.buffer();
+        SerializerUtil.writeVarLong(buffer, 100);
+
+        assertThrows(IllegalArgumentException.class, () -> SerializerUtil.readSortedLongs(buffer));
+    }
+
+}
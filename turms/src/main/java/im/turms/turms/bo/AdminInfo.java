@@ -30,5 +30,4 @@ import lombok.Data;
 @Builder(toBuilder = true)
 public final class AdminInfo {
     private final Admin admin;
-    private String rawPassword;
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.turms.bo;
+
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
+import lombok.Data;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * The position of the last record of a page in the keyset pagination,
+ * which is encoded as an opaque string for clients.
+ * The types of the values are kept in the string (e.g. a date is still a date after decoded)
+ * so that they can be compared with the fields of records directly.
+ * Because clients can tamper with the string, only scalar values are accepted when decoded
+ * so that a value cannot be an operator document or an array when it is used in the criteria of a query.
+ *
+ * @author James Chen
+ * @see im.turms.turms.workflow.dao.builder.QueryBuilder#seekIfNotNull
+ */
+@Data
+public final class ContinuationToken {
+
+    /**
+     * The token to query the first page in the keyset pagination
+     */
+    public static final ContinuationToken FIRST_PAGE = new ContinuationToken(null, null, null);
+
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final String ID = "id";
+    private static final String SORT_FIELD = "f";
+    private static final String SORT_FIELD_VALUE = "v";
+    private static final Set<String> KEYS = Set.of(ID, SORT_FIELD, SORT_FIELD_VALUE);
+
+    /**
+     * Null if the records are only sorted by their IDs
+     */
+    @Nullable
+    private final String sortField;
+
+    /**
+     * Null if the records are only sorted by their IDs
+     */
+    @Nullable
+    private final Object sortFieldValue;
+
+    /**
+     * Null for the first page
+     */
+    @Nullable
+    private final Object id;
+
+    public boolean isFirstPage() {
+        return id == null;
+    }
+
+    public String encode() {
+        Document document = new Document(ID, id);
+        if (sortField != null) {
+            document.append(SORT_FIELD, sortField)
+                    .append(SORT_FIELD_VALUE, sortFieldValue);
+        }
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), document, ENCODER_CONTEXT);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+    }
+
+    public static ContinuationToken decode(@NotNull String token) {
+        Document document;
+        try {
+            document = new RawBsonDocument(Base64.getUrlDecoder().decode(token)).decode(CODEC);
+        } catch (RuntimeException e) {
+            throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS, "Illegal continuation token: " + token);
+        }
+        Object id = document.get(ID);
+        Object sortField = document.get(SORT_FIELD);
+        Object sortFieldValue = document.get(SORT_FIELD_VALUE);
+        boolean isValid = KEYS.containsAll(document.keySet())
+                && isScalar(id)
+                && (sortField == null
+                ? sortFieldValue == null
+                : sortField instanceof String && isScalar(sortFieldValue));
+        if (!isValid) {
+            throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS, "Illegal continuation token: " + token);
+        }
+        return new ContinuationToken((String) sortField, sortFieldValue, id);
+    }
+
+    /**
+     * @return false for null, documents, arrays, regular expressions, and so on
+     */
+    private static boolean isScalar(@Nullable Object value) {
+        return value instanceof Number
+                || value instanceof String
+                || value instanceof Date
+                || value instanceof Boolean
+                || value instanceof ObjectId;
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.bo;
+
+import im.turms.turms.workflow.dao.domain.Message;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * @author James Chen
+ */
+@Data
+public final class PendingConversation {
+    private final PendingMessageKey key;
+    /**
+     * The number of all pending messages in the conversation
+     */
+    private final long total;
+    /**
+     * The ID of the latest pending message in the conversation
+     */
+    private final long lastMessageId;
+    /**
+     * The pending messages in the ascending order of their IDs:
+     * the latest ones, or the oldest ones after the watermark for group messages in the WATERMARK mode
+     */
+    private final List<Message> messages;
+}
@@ -29,6 +29,10 @@ public class MetricsConstant {
 
     public static final String CLIENT_REQUEST_NAME = "client.request";
     public static final String CLIENT_REQUEST_TAG_TYPE = "type";
+    public static final String DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME = "client.request.deduplicated";
+    public static final String NOT_DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME = "client.request.not_deduplicated";
+    public static final String DEDUPLICATION_SAVED_NOTIFICATIONS_COUNTER_NAME = "client.request.deduplicated.saved_notifications";
+    public static final String DEDUPLICATION_CACHE_SIZE_GAUGE_NAME = "client.request.deduplication.cache.size";
 
     // User
 
@@ -44,5 +48,16 @@ public class MetricsConstant {
 
     public static final String ACKNOWLEDGED_MESSAGES_COUNTER_NAME = "msg.acknowledged";
     public static final String SENT_MESSAGES_COUNTER_NAME = "msg.sent";
+    public static final String WRITE_BEHIND_PENDING_MESSAGES_GAUGE_NAME = "msg.write_behind.pending";
+    public static final String WRITE_BEHIND_FLUSH_BATCH_SIZE_NAME = "msg.write_behind.flush.batch_size";
+    public static final String WRITE_BEHIND_FAILED_FLUSHES_COUNTER_NAME = "msg.write_behind.flush.failed";
+    public static final String WRITE_BEHIND_PERSISTENCE_LAG_NAME = "msg.write_behind.persistence.lag";
+    public static final String WRITE_BEHIND_DEAD_LETTERED_MESSAGES_COUNTER_NAME = "msg.write_behind.dead_lettered";
+    public static final String PURGED_EXPIRED_MESSAGE_DOCUMENTS_COUNTER_NAME = "msg.expired.purged";
+    public static final String HOT_GROUP_FAN_OUT_MESSAGES_COUNTER_NAME = "msg.fan_out.hot_group.messages";
+    public static final String HOT_GROUP_FAN_OUT_RECIPIENTS_COUNTER_NAME = "msg.fan_out.hot_group.recipients";
+    public static final String HOT_GROUP_FAN_OUT_DURATION_NAME = "msg.fan_out.hot_group.duration";
+    public static final String HOT_GROUP_FAN_OUT_TAG_GROUP_ID = "group.id";
+    public static final String HOT_GROUPS_GAUGE_NAME = "msg.fan_out.hot_group.count";
 
 }
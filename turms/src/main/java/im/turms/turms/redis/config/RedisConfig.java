@@ -2,7 +2,9 @@ package im.turms.turms.redis.config;
 
 import im.turms.server.common.bo.session.UserSessionId;
 import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.env.redis.RedisShardingProperties;
 import im.turms.server.common.redis.RedisTemplateFactory;
+import im.turms.server.common.redis.sharding.MigratingShardingAlgorithm;
 import im.turms.server.common.redis.sharding.ShardingAlgorithm;
 import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
@@ -41,12 +43,14 @@ public class RedisConfig {
 
     @Bean
     public ShardingAlgorithm shardingAlgorithmForSession() {
-        return turmsPropertiesManager.getLocalProperties().getService().getRedis().getShardingProperties().getAlgorithmForSession();
+        RedisShardingProperties properties = turmsPropertiesManager.getLocalProperties().getService().getRedis().getShardingProperties();
+        return MigratingShardingAlgorithm.withMigration(properties.getAlgorithmForSession(), properties.getMigrationForSession());
     }
 
     @Bean
     public ShardingAlgorithm shardingAlgorithmForLocation() {
-        return turmsPropertiesManager.getLocalProperties().getService().getRedis().getShardingProperties().getAlgorithmForLocation();
+        RedisShardingProperties properties = turmsPropertiesManager.getLocalProperties().getService().getRedis().getShardingProperties();
+        return MigratingShardingAlgorithm.withMigration(properties.getAlgorithmForLocation(), properties.getMigrationForLocation());
     }
 
     @Bean
@@ -17,9 +17,12 @@
 
 package im.turms.turms.workflow.access.http.controller.admin;
 
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
 import im.turms.turms.workflow.access.http.dto.request.admin.AddAdminDTO;
 import im.turms.turms.workflow.access.http.dto.request.admin.UpdateAdminDTO;
 import im.turms.turms.workflow.access.http.dto.response.AcknowledgedDTO;
+import im.turms.turms.workflow.access.http.dto.response.AdminTokenDTO;
 import im.turms.turms.workflow.access.http.dto.response.PaginationDTO;
 import im.turms.turms.workflow.access.http.dto.response.ResponseDTO;
 import im.turms.turms.workflow.access.http.dto.response.ResponseFactory;
@@ -27,6 +30,7 @@ import im.turms.turms.workflow.access.http.permission.RequiredPermission;
 import im.turms.turms.workflow.access.http.util.PageUtil;
 import im.turms.turms.workflow.dao.domain.Admin;
 import im.turms.turms.workflow.service.impl.admin.AdminService;
+import im.turms.turms.workflow.service.impl.admin.AdminTokenService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -48,10 +52,12 @@ import static im.turms.turms.workflow.access.http.permission.AdminPermission.*;
 public class AdminController {
 
     private final AdminService adminService;
+    private final AdminTokenService adminTokenService;
     private final PageUtil pageUtil;
 
-    public AdminController(AdminService adminService, PageUtil pageUtil) {
+    public AdminController(AdminService adminService, AdminTokenService adminTokenService, PageUtil pageUtil) {
         this.adminService = adminService;
+        this.adminTokenService = adminTokenService;
         this.pageUtil = pageUtil;
     }
 
@@ -72,6 +78,20 @@ public class AdminController {
                 });
     }
 
+    @PostMapping("/tokens")
+    @RequiredPermission(NONE)
+    public Mono<ResponseEntity<ResponseDTO<AdminTokenDTO>>> issueToken(
+            @RequestHeader String account,
+            @RequestHeader String password) {
+        if (account.isBlank() || password.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+        Mono<AdminTokenDTO> token = adminTokenService.authenticateAndIssueToken(account, password)
+                .map(AdminTokenDTO::new)
+                .switchIfEmpty(Mono.error(TurmsBusinessException.get(TurmsStatusCode.UNAUTHORIZED)));
+        return ResponseFactory.okIfTruthy(token);
+    }
+
     @PostMapping
     @RequiredPermission(ADMIN_CREATE)
     public Mono<ResponseEntity<ResponseDTO<Admin>>> addAdmin(
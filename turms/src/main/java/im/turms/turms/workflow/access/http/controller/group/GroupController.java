@@ -18,6 +18,7 @@
 package im.turms.turms.workflow.access.http.controller.group;
 
 import im.turms.common.constant.DivideBy;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
 import im.turms.turms.workflow.access.http.dto.request.group.AddGroupDTO;
 import im.turms.turms.workflow.access.http.dto.request.group.GroupStatisticsDTO;
@@ -107,6 +108,7 @@ public class GroupController {
                 DateRange.of(muteEndDateStart, muteEndDateEnd),
                 memberIds,
                 0,
+                null,
                 size);
         return ResponseFactory.okIfTruthy(groupsFlux);
     }
@@ -127,9 +129,11 @@ public class GroupController {
             @RequestParam(required = false) Date muteEndDateEnd,
             @RequestParam(required = false) Set<Long> memberIds,
             @RequestParam(defaultValue = "0") Integer page,
+            @RequestParam(required = false) String continuationToken,
             @RequestParam(required = false) Integer size) {
         size = pageUtil.getSize(size);
-        Mono<Long> count = groupService.countGroups(
+        ContinuationToken token = pageUtil.parseContinuationToken(continuationToken);
+        Mono<Long> count = pageUtil.countIfNeeded(token, () -> groupService.countGroups(
                 ids,
                 typeIds,
                 creatorIds,
@@ -138,7 +142,7 @@ public class GroupController {
                 DateRange.of(creationDateStart, creationDateEnd),
                 DateRange.of(deletionDateStart, deletionDateEnd),
                 DateRange.of(muteEndDateStart, muteEndDateEnd),
-                memberIds);
+                memberIds));
         Flux<Group> groupsFlux = groupService.queryGroups(
                 ids,
                 typeIds,
@@ -150,8 +154,11 @@ public class GroupController {
                 DateRange.of(muteEndDateStart, muteEndDateEnd),
                 memberIds,
                 page,
+                token,
                 size);
-        return ResponseFactory.page(count, groupsFlux);
+        return ResponseFactory.page(count, groupsFlux, token != null
+                ? pageUtil.nextContinuationToken(size, Group::getId)
+                : null);
     }
 
     @GetMapping("/count")
@@ -19,6 +19,7 @@ package im.turms.turms.workflow.access.http.controller.message;
 
 import im.turms.common.constant.DivideBy;
 import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
 import im.turms.turms.workflow.access.http.dto.request.message.CreateMessageDTO;
 import im.turms.turms.workflow.access.http.dto.request.message.MessageStatisticsDTO;
@@ -102,6 +103,7 @@ public class MessageController {
                 DateRange.of(deletionDateStart, deletionDateEnd),
                 deliveryStatuses,
                 0,
+                null,
                 pageUtil.getSize(size));
         return ResponseFactory.okIfTruthy(completeMessagesFlux);
     }
@@ -120,8 +122,11 @@ public class MessageController {
             @RequestParam(required = false) Date deletionDateEnd,
             @RequestParam(required = false) Set<MessageDeliveryStatus> deliveryStatuses,
             @RequestParam(defaultValue = "0") Integer page,
+            @RequestParam(required = false) String continuationToken,
             @RequestParam(required = false) Integer size) {
-        Mono<Long> count = messageService.countMessages(
+        size = pageUtil.getSize(size);
+        ContinuationToken token = pageUtil.parseContinuationToken(continuationToken);
+        Mono<Long> count = pageUtil.countIfNeeded(token, () -> messageService.countMessages(
                 ids,
                 areGroupMessages,
                 areSystemMessages,
@@ -129,7 +134,7 @@ public class MessageController {
                 targetIds,
                 DateRange.of(deliveryDateStart, deliveryDateEnd),
                 DateRange.of(deletionDateStart, deletionDateEnd),
-                deliveryStatuses);
+                deliveryStatuses));
         Flux<Message> completeMessagesFlux = messageService.queryMessages(
                 false,
                 ids,
@@ -141,8 +146,11 @@ public class MessageController {
                 DateRange.of(deletionDateStart, deletionDateEnd),
                 deliveryStatuses,
                 page,
-                pageUtil.getSize(size));
-        return ResponseFactory.page(count, completeMessagesFlux);
+                token,
+                size);
+        return ResponseFactory.page(count, completeMessagesFlux, token != null
+                ? pageUtil.nextContinuationToken(size, Message::getId)
+                : null);
     }
 
     @GetMapping("/count")
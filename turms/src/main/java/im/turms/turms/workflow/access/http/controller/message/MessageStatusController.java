@@ -137,4 +137,16 @@ public class MessageStatusController {
         return ResponseFactory.acknowledged(updateMono);
     }
 
+    /**
+     * Convert the statuses of group messages into the watermarks of group members
+     * before switching the group message status persistence mode to WATERMARK
+     */
+    @PostMapping("/group-watermarks")
+    @RequiredPermission(AdminPermission.MESSAGE_STATUS_UPDATE)
+    public Mono<ResponseEntity<ResponseDTO<AcknowledgedDTO>>> migrateGroupMessageStatusesToWatermarks(
+            @RequestParam(defaultValue = "false") boolean deleteMigratedStatuses) {
+        Mono<Boolean> migrateMono = messageStatusService.migrateGroupMessageStatusesToWatermarks(deleteMigratedStatuses);
+        return ResponseFactory.acknowledged(migrateMono);
+    }
+
 }
@@ -19,6 +19,7 @@ package im.turms.turms.workflow.access.http.controller.user;
 
 import im.turms.common.constant.DivideBy;
 import im.turms.server.common.dao.domain.User;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
 import im.turms.turms.workflow.access.http.dto.request.user.AddUserDTO;
 import im.turms.turms.workflow.access.http.dto.request.user.UpdateUserDTO;
@@ -92,6 +93,7 @@ public class UserController {
                 DateRange.of(deletionDateStart, deletionDateEnd),
                 isActive,
                 0,
+                null,
                 size,
                 true);
         return ResponseFactory.okIfTruthy(usersFlux);
@@ -107,22 +109,27 @@ public class UserController {
             @RequestParam(required = false) Date deletionDateEnd,
             @RequestParam(required = false) Boolean isActive,
             @RequestParam(defaultValue = "0") Integer page,
+            @RequestParam(required = false) String continuationToken,
             @RequestParam(required = false) Integer size) {
         size = pageUtil.getSize(size);
-        Mono<Long> count = userService.countUsers(
+        ContinuationToken token = pageUtil.parseContinuationToken(continuationToken);
+        Mono<Long> count = pageUtil.countIfNeeded(token, () -> userService.countUsers(
                 ids,
                 DateRange.of(registrationDateStart, registrationDateEnd),
                 DateRange.of(deletionDateStart, deletionDateEnd),
-                isActive);
+                isActive));
         Flux<User> usersFlux = userService.queryUsers(
                 ids,
                 DateRange.of(registrationDateStart, registrationDateEnd),
                 DateRange.of(deletionDateStart, deletionDateEnd),
                 isActive,
                 page,
+                token,
                 size,
                 true);
-        return ResponseFactory.page(count, usersFlux);
+        return ResponseFactory.page(count, usersFlux, token != null
+                ? pageUtil.nextContinuationToken(size, User::getId)
+                : null);
     }
 
     @GetMapping("/count")
@@ -48,6 +48,7 @@ import reactor.core.publisher.Mono;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -108,22 +109,20 @@ public class UserOnlineInfoController {
     public Mono<ResponseEntity<ResponseDTO<Collection<UserSessionsStatus>>>> queryOnlineUsersStatus(
             @RequestParam Set<Long> ids,
             @RequestParam(defaultValue = "true") Boolean checkIfExists) {
-        List<Mono<UserSessionsStatus>> userSessionStatusMonos = new ArrayList<>(ids.size());
-        for (Long userId : ids) {
-            Mono<UserSessionsStatus> userOnlineInfoMno = userStatusService.getUserSessionsStatus(userId)
-                    .flatMap(info -> {
-                        if (info.getUserStatus(false) == UserStatus.OFFLINE && checkIfExists) {
-                            return userService.userExists(userId, false)
-                                    .flatMap(exists -> exists
-                                            ? Mono.just(info)
-                                            : Mono.empty());
-                        } else {
-                            return Mono.just(info);
-                        }
-                    });
-            userSessionStatusMonos.add(userOnlineInfoMno);
-        }
-        return ResponseFactory.okIfTruthy(Flux.merge(userSessionStatusMonos));
+        Flux<UserSessionsStatus> userSessionsStatusFlux = userStatusService.getUserSessionsStatuses(ids)
+                .flatMapIterable(Map::entrySet)
+                .flatMap(entry -> {
+                    UserSessionsStatus info = entry.getValue();
+                    if (info.getUserStatus(false) == UserStatus.OFFLINE && checkIfExists) {
+                        return userService.userExists(entry.getKey(), false)
+                                .flatMap(exists -> exists
+                                        ? Mono.just(info)
+                                        : Mono.empty());
+                    } else {
+                        return Mono.just(info);
+                    }
+                });
+        return ResponseFactory.okIfTruthy(userSessionsStatusFlux);
     }
 
     @GetMapping("/users-nearby")
@@ -19,6 +19,7 @@ package im.turms.turms.workflow.access.http.dto.response;
 
 import lombok.Data;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 
 /**
@@ -26,6 +27,15 @@ import java.util.Collection;
  */
 @Data
 public final class PaginationDTO<T> {
+    /**
+     * Null if the records are queried by the continuation token of a page after the first one
+     */
+    @Nullable
     private final Long total;
     private final Collection<T> records;
+    /**
+     * Null if the records are queried by the offset pagination or there are no more records
+     */
+    @Nullable
+    private final String nextContinuationToken;
 }
@@ -24,7 +24,10 @@ import org.springframework.http.ResponseEntity;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
 
 /**
  * @author James Chen
@@ -38,6 +41,28 @@ public class ResponseFactory {
     }
 
     public static <T> Mono<ResponseEntity<ResponseDTO<PaginationDTO<T>>>> page(Mono<Long> totalMono, Flux<T> data) {
+        return page(totalMono, data, null);
+    }
+
+    /**
+     * @param totalMono null to skip counting the records, which is the case for the pages after the first one
+     *                  in the keyset pagination, and then the total of the returned DTO is null
+     */
+    public static <T> Mono<ResponseEntity<ResponseDTO<PaginationDTO<T>>>> page(
+            @Nullable Mono<Long> totalMono,
+            Flux<T> data,
+            @Nullable Function<List<T>, String> nextContinuationTokenGetter) {
+        if (totalMono == null) {
+            Mono<PaginationDTO<T>> mono = data
+                    .collectList()
+                    .map(records -> {
+                        String nextContinuationToken = nextContinuationTokenGetter != null
+                                ? nextContinuationTokenGetter.apply(records)
+                                : null;
+                        return new PaginationDTO<>(null, records, nextContinuationToken);
+                    });
+            return okIfTruthy(mono);
+        }
         Mono<PaginationDTO<T>> mono = Mono
                 .zip(totalMono, data.collectList())
                 .map(tuple -> {
@@ -45,7 +70,11 @@ public class ResponseFactory {
                     if (total.equals(0L)) {
                         throw TurmsBusinessException.get(TurmsStatusCode.NO_CONTENT);
                     }
-                    return new PaginationDTO<>(total, tuple.getT2());
+                    List<T> records = tuple.getT2();
+                    String nextContinuationToken = nextContinuationTokenGetter != null
+                            ? nextContinuationTokenGetter.apply(records)
+                            : null;
+                    return new PaginationDTO<>(total, records, nextContinuationToken);
                 });
         return okIfTruthy(mono);
     }
@@ -19,16 +19,20 @@ package im.turms.turms.workflow.access.http.filter;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.turms.plugin.manager.TurmsPluginManager;
 import im.turms.turms.workflow.access.http.permission.AdminPermission;
 import im.turms.turms.workflow.access.http.permission.RequiredPermission;
 import im.turms.turms.workflow.service.impl.admin.AdminService;
+import im.turms.turms.workflow.service.impl.admin.AdminTokenService;
 import im.turms.turms.workflow.service.impl.log.AdminActionLogService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.MethodParameter;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
@@ -60,12 +64,18 @@ public class ControllerFilter implements WebFilter {
     private static final BasicDBObject EMPTY_DBOJBECT = new BasicDBObject();
     private static final String HEADER_ACCOUNT = "account";
     private static final String HEADER_PASSWORD = "password";
+    private static final String BEARER_PREFIX = "Bearer ";
+    /**
+     * Used to represent the failure of authentication because an empty account is invalid
+     */
+    private static final String UNAUTHENTICATED_ACCOUNT = "";
     private static final String ATTR_BODY = "BODY";
     private static final List<String> DELETE_FILTER_PARAM_NAME = List.of("ids", "keys", "accounts");
 
     private final Node node;
     private final RequestMappingHandlerMapping requestMappingHandlerMapping;
     private final AdminService adminService;
+    private final AdminTokenService adminTokenService;
     private final AdminActionLogService adminActionLogService;
     private final TurmsPluginManager turmsPluginManager;
     private final boolean pluginEnabled;
@@ -77,10 +87,12 @@ public class ControllerFilter implements WebFilter {
             Node node,
             RequestMappingHandlerMapping requestMappingHandlerMapping,
             AdminService adminService,
+            AdminTokenService adminTokenService,
             AdminActionLogService adminActionLogService,
             TurmsPluginManager turmsPluginManager) {
         this.requestMappingHandlerMapping = requestMappingHandlerMapping;
         this.adminService = adminService;
+        this.adminTokenService = adminTokenService;
         this.adminActionLogService = adminActionLogService;
         this.node = node;
         this.turmsPluginManager = turmsPluginManager;
@@ -124,33 +136,27 @@ public class ControllerFilter implements WebFilter {
                 return Mono.empty();
             }
         }
-        String account = parseAccount(exchange);
-        String password = parsePassword(exchange);
-        if (account != null && password != null) {
-            return adminService.authenticate(account, password)
-                    .flatMap(authenticated -> {
-                        if (authenticated == null || !authenticated) {
-                            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-                            return Mono.empty();
-                        }
-                        if (requiredPermission != null) {
-                            return adminService.isAdminAuthorized(exchange, account, requiredPermission.value())
-                                    .flatMap(authorized -> {
-                                        if (authorized != null && authorized) {
-                                            return tryPersistAndPass(account, exchange, chain, handlerMethod);
-                                        } else {
-                                            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-                                            return Mono.empty();
-                                        }
-                                    });
-                        } else {
-                            return tryPersistAndPass(account, exchange, chain, handlerMethod);
-                        }
-                    });
-        } else {
-            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-            return Mono.empty();
-        }
+        return authenticate(exchange)
+                .flatMap(account -> {
+                    if (account.equals(UNAUTHENTICATED_ACCOUNT)) {
+                        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+                        return Mono.empty();
+                    }
+                    ServerWebExchange authenticatedExchange = withAccountHeader(exchange, account);
+                    if (requiredPermission != null) {
+                        return adminService.isAdminAuthorized(authenticatedExchange, account, requiredPermission.value())
+                                .flatMap(authorized -> {
+                                    if (authorized != null && authorized) {
+                                        return tryPersistAndPass(account, authenticatedExchange, chain, handlerMethod);
+                                    } else {
+                                        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+                                        return Mono.empty();
+                                    }
+                                });
+                    } else {
+                        return tryPersistAndPass(account, authenticatedExchange, chain, handlerMethod);
+                    }
+                });
     }
 
     private Mono<Void> filterUnhandledRequest(ServerWebExchange exchange, WebFilterChain chain) {
@@ -161,23 +167,72 @@ public class ControllerFilter implements WebFilter {
             exchange.getResponse().setStatusCode(HttpStatus.FORBIDDEN);
             return Mono.empty();
         }
-        String account = parseAccount(exchange);
-        String password = parsePassword(exchange);
-        if (account == null || password == null) {
-            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-            return Mono.empty();
-        }
-        return adminService.authenticate(account, password)
-                .flatMap(authenticated -> {
-                    if (authenticated) {
-                        return chain.filter(exchange);
-                    } else {
+        return authenticate(exchange)
+                .flatMap(account -> {
+                    if (account.equals(UNAUTHENTICATED_ACCOUNT)) {
                         exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
                         return Mono.empty();
                     }
+                    return chain.filter(withAccountHeader(exchange, account));
+                });
+    }
+
+    /**
+     * Authenticate the admin with the bearer token if the token is enabled and present,
+     * or with the account and password otherwise.
+     *
+     * @return the account of the authenticated admin, or {@link #UNAUTHENTICATED_ACCOUNT}.
+     * Note that the response status is set to 503 and the returned publisher is empty
+     * if the password cannot be verified because the server is busy
+     */
+    private Mono<String> authenticate(@NotNull ServerWebExchange exchange) {
+        Mono<String> accountMono;
+        String token = parseBearerToken(exchange);
+        if (token != null && adminTokenService.isEnabled()) {
+            accountMono = adminTokenService.authenticate(token);
+        } else {
+            String account = parseAccount(exchange);
+            String password = parsePassword(exchange);
+            if (account == null || password == null) {
+                return Mono.just(UNAUTHENTICATED_ACCOUNT);
+            }
+            accountMono = adminService.authenticate(account, password)
+                    .flatMap(authenticated -> authenticated ? Mono.just(account) : Mono.empty());
+        }
+        return accountMono
+                .defaultIfEmpty(UNAUTHENTICATED_ACCOUNT)
+                .onErrorResume(TurmsBusinessException.class, e -> {
+                    if (e.getCode() == TurmsStatusCode.UNAVAILABLE) {
+                        exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+                        return Mono.empty();
+                    }
+                    return Mono.error(e);
                 });
     }
 
+    /**
+     * Override the account header with the authenticated account
+     * so that the controllers can always get the requester account from the header
+     * no matter how the admin is authenticated
+     */
+    private ServerWebExchange withAccountHeader(@NotNull ServerWebExchange exchange, @NotNull String account) {
+        if (account.equals(parseAccount(exchange))) {
+            return exchange;
+        }
+        ServerHttpRequest request = exchange.getRequest()
+                .mutate()
+                .headers(headers -> headers.set(HEADER_ACCOUNT, account))
+                .build();
+        return exchange.mutate().request(request).build();
+    }
+
+    private String parseBearerToken(@NotNull ServerWebExchange exchange) {
+        String authorization = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        return authorization != null && authorization.startsWith(BEARER_PREFIX)
+                ? authorization.substring(BEARER_PREFIX.length())
+                : null;
+    }
+
     private String parseAccount(@NotNull ServerWebExchange exchange) {
         ServerHttpRequest request = exchange.getRequest();
         return request.getHeaders().getFirst(HEADER_ACCOUNT);
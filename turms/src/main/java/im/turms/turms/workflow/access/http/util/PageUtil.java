@@ -18,9 +18,14 @@
 package im.turms.turms.workflow.access.http.util;
 
 import im.turms.server.common.cluster.node.Node;
+import im.turms.turms.bo.ContinuationToken;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author James Chen
@@ -43,4 +48,55 @@ public class PageUtil {
         }
     }
 
+    /**
+     * @return null to use the offset pagination,
+     * {@link ContinuationToken#FIRST_PAGE} if the token is empty,
+     * or the decoded token otherwise
+     */
+    @Nullable
+    public ContinuationToken parseContinuationToken(@Nullable String continuationToken) {
+        if (continuationToken == null) {
+            return null;
+        }
+        return continuationToken.isEmpty()
+                ? ContinuationToken.FIRST_PAGE
+                : ContinuationToken.decode(continuationToken);
+    }
+
+    /**
+     * @return the count of the records for the offset pagination and the first page of the keyset pagination,
+     * or null for the following pages of the keyset pagination because clients already have the total
+     * of the first page, and counting all the matched records on every page costs as much as the offset pagination
+     */
+    @Nullable
+    public Mono<Long> countIfNeeded(@Nullable ContinuationToken continuationToken, Supplier<Mono<Long>> counter) {
+        return continuationToken == null || continuationToken.isFirstPage()
+                ? counter.get()
+                : null;
+    }
+
+    public <T> Function<List<T>, String> nextContinuationToken(int size, Function<? super T, ?> idGetter) {
+        return nextContinuationToken(size, idGetter, null, null);
+    }
+
+    /**
+     * @return the function that returns the continuation token of the next page,
+     * or null if the records are fewer than the size, which means there are no more records
+     * @param sortField null if the records are only sorted by their IDs
+     */
+    public <T> Function<List<T>, String> nextContinuationToken(
+            int size,
+            Function<? super T, ?> idGetter,
+            @Nullable String sortField,
+            @Nullable Function<? super T, ?> sortFieldValueGetter) {
+        return records -> {
+            if (records.size() < size) {
+                return null;
+            }
+            T last = records.get(records.size() - 1);
+            Object sortFieldValue = sortFieldValueGetter != null ? sortFieldValueGetter.apply(last) : null;
+            return new ContinuationToken(sortField, sortFieldValue, idGetter.apply(last)).encode();
+        };
+    }
+
 }
@@ -17,11 +17,8 @@
 
 package im.turms.turms.workflow.access.servicerequest.controller;
 
-import com.google.common.collect.LinkedListMultimap;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.protobuf.ByteString;
-import com.google.protobuf.Int64Value;
 import im.turms.common.constant.MessageDeliveryStatus;
 import im.turms.common.constant.statuscode.TurmsStatusCode;
 import im.turms.common.exception.TurmsBusinessException;
@@ -34,18 +31,24 @@ import im.turms.common.model.dto.request.TurmsRequest;
 import im.turms.common.model.dto.request.message.*;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.property.constant.TimeType;
+import im.turms.server.common.property.env.service.business.message.MessageProperties;
 import im.turms.turms.bo.DateRange;
+import im.turms.turms.bo.PendingConversation;
 import im.turms.turms.bo.PendingMessageKey;
 import im.turms.turms.util.ProtoUtil;
 import im.turms.turms.workflow.access.http.util.PageUtil;
 import im.turms.turms.workflow.access.servicerequest.dispatcher.ClientRequestHandler;
 import im.turms.turms.workflow.access.servicerequest.dispatcher.ServiceRequestMapping;
+import im.turms.turms.workflow.access.servicerequest.dto.RelayedRequestPatch;
 import im.turms.turms.workflow.access.servicerequest.dto.RequestHandlerResultFactory;
 import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
 import im.turms.turms.workflow.service.impl.message.MessageService;
 import im.turms.turms.workflow.service.impl.message.MessageStatusService;
+import im.turms.turms.workflow.service.impl.message.PendingMessageService;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
@@ -65,16 +68,19 @@ public class MessageServiceController {
     private final PageUtil pageUtil;
     private final MessageService messageService;
     private final MessageStatusService messageStatusService;
+    private final PendingMessageService pendingMessageService;
 
     public MessageServiceController(
             Node node,
             PageUtil pageUtil,
             MessageService messageService,
-            MessageStatusService messageStatusService) {
+            MessageStatusService messageStatusService,
+            PendingMessageService pendingMessageService) {
         this.messageService = messageService;
         this.node = node;
         this.pageUtil = pageUtil;
         this.messageStatusService = messageStatusService;
+        this.pendingMessageService = pendingMessageService;
     }
 
     @ServiceRequestMapping(CREATE_MESSAGE_REQUEST)
@@ -128,38 +134,38 @@ public class MessageServiceController {
                     if (!hasDataForRecipients) {
                         return RequestHandlerResultFactory.get(messageId);
                     }
-                    TurmsRequest dataForRecipients;
+                    boolean sendToOtherSenderOnlineDevices = node.getSharedProperties().getService().getMessage()
+                            .isSendMessageToOtherSenderOnlineDevices();
                     if (request.hasMessageId()) {
-                        dataForRecipients = clientRequest.getTurmsRequest()
+                        TurmsRequest dataForRecipients = clientRequest.getTurmsRequest()
                                 .toBuilder()
                                 .setCreateMessageRequest(ProtoUtil.cloneAndFillMessageRequest(request, message))
                                 .build();
-                    } else {
-                        Int64Value.Builder messageIdBuilder = Int64Value.newBuilder().setValue(messageId);
-                        CreateMessageRequest.Builder requestBuilder = request.toBuilder().setMessageId(messageIdBuilder);
-                        if (messageService.getTimeType() == TimeType.LOCAL_SERVER_TIME) {
-                            requestBuilder.setDeliveryDate(message.getDeliveryDate().getTime());
-                        }
-                        dataForRecipients = clientRequest.getTurmsRequest()
-                                .toBuilder()
-                                .setCreateMessageRequest(requestBuilder)
-                                .build();
+                        return RequestHandlerResultFactory.get(
+                                messageId,
+                                recipientsIds,
+                                sendToOtherSenderOnlineDevices,
+                                dataForRecipients);
                     }
+                    // Relay the original request with the message ID and the delivery date patched
+                    // so that the request doesn't need to be rebuilt and re-serialized
+                    Long deliveryDate = messageService.getTimeType() == TimeType.LOCAL_SERVER_TIME
+                            ? message.getDeliveryDate().getTime()
+                            : null;
                     return RequestHandlerResultFactory.get(
                             messageId,
                             recipientsIds,
-                            node.getSharedProperties().getService().getMessage().isSendMessageToOtherSenderOnlineDevices(),
-                            dataForRecipients);
+                            sendToOtherSenderOnlineDevices,
+                            clientRequest.getTurmsRequest(),
+                            new RelayedRequestPatch(messageId, deliveryDate));
                 } else if (hasDataForRecipients) {
-                    TurmsRequest dataForRecipients = clientRequest.getTurmsRequest();
-                    if (messageService.getTimeType() == TimeType.LOCAL_SERVER_TIME) {
-                        dataForRecipients = clientRequest.getTurmsRequest().toBuilder()
-                                .setCreateMessageRequest(request.toBuilder().setDeliveryDate(System.currentTimeMillis()))
-                                .build();
-                    }
+                    Long deliveryDate = messageService.getTimeType() == TimeType.LOCAL_SERVER_TIME
+                            ? System.currentTimeMillis()
+                            : null;
                     return RequestHandlerResultFactory.get(
                             recipientsIds,
-                            dataForRecipients);
+                            clientRequest.getTurmsRequest(),
+                            new RelayedRequestPatch(null, deliveryDate));
                 } else {
                     return RequestHandlerResultFactory.get(TurmsStatusCode.OK);
                 }
@@ -171,7 +177,12 @@ public class MessageServiceController {
     public ClientRequestHandler handleQueryMessageStatusRequest() {
         return clientRequest -> {
             QueryMessageStatusesRequest request = clientRequest.getTurmsRequest().getQueryMessageStatusesRequest();
-            return messageStatusService.queryMessageStatus(request.getMessageId())
+            Mono<MessageStatus> messageStatusMono = messageStatusService.queryMessageStatus(request.getMessageId());
+            if (messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+                messageStatusMono = messageStatusMono.switchIfEmpty(Mono.defer(() ->
+                        messageService.queryGroupMessageStatus(request.getMessageId(), clientRequest.getUserId())));
+            }
+            return messageStatusMono
                     .map(messageStatus -> {
                         MessageStatuses.Builder builder = MessageStatuses.newBuilder();
                         builder.addMessageStatuses(ProtoUtil.messageStatus2proto(messageStatus));
@@ -188,55 +199,39 @@ public class MessageServiceController {
     public ClientRequestHandler handleQueryPendingMessagesWithTotalRequest() {
         return clientRequest -> {
             QueryPendingMessagesWithTotalRequest request = clientRequest.getTurmsRequest().getQueryPendingMessagesWithTotalRequest();
-            Multimap<PendingMessageKey, Message> multimap = LinkedListMultimap.create();
+            MessageProperties messageProperties = node.getSharedProperties().getService().getMessage();
             Integer size = request.hasSize() ? request.getSize().getValue() : null;
             if (size == null) {
-                size = node.getSharedProperties().getService().getMessage().getDefaultAvailableMessagesNumberWithTotal();
+                size = messageProperties.getDefaultAvailableMessagesNumberWithTotal();
             }
             size = pageUtil.getSize(size);
-            return messageService.queryMessages(
-                    false, null, null, null, null,
-                    Set.of(clientRequest.getUserId()), null, null,
-                    Set.of(MessageDeliveryStatus.READY), 0, size)
-                    .doOnNext(message -> {
-                        Long targetId = message.getIsGroupMessage()
-                                ? message.getTargetId()
-                                : message.getSenderId();
-                        PendingMessageKey pendingMessageKey = new PendingMessageKey(message.getIsGroupMessage(), message.getIsSystemMessage(), targetId);
-                        multimap.put(pendingMessageKey, message);
-                    })
-                    .collectList()
-                    .flatMap(messages -> {
-                        if (messages.isEmpty()) {
+            // The request has no cursor so the first page is returned,
+            // and the next conversations become the first page once the user acknowledges the pending messages
+            return pendingMessageService.queryPendingMessages(
+                    clientRequest.getUserId(),
+                    null,
+                    messageProperties.getMaxPendingConversationsPerRequest(),
+                    size,
+                    messageProperties.getMaxPendingMessagesPerRequest())
+                    .flatMap(page -> {
+                        List<PendingConversation> conversations = page.getConversations();
+                        if (conversations.isEmpty()) {
                             return Mono.error(TurmsBusinessException.get(TurmsStatusCode.NO_CONTENT));
                         }
                         MessagesWithTotalList.Builder messagesWithTotalList = MessagesWithTotalList.newBuilder();
-                        List<Mono<Long>> countMonos = new ArrayList<>(multimap.size());
-                        for (PendingMessageKey key : multimap.keys()) {
-                            countMonos.add(messageStatusService.countPendingMessages(key.isGroupMessage(),
-                                    key.isSystemMessage(),
-                                    key.getTargetId(),
-                                    clientRequest.getUserId()));
+                        for (PendingConversation conversation : conversations) {
+                            PendingMessageKey key = conversation.getKey();
+                            MessagesWithTotal.Builder messagesWithTotalBuilder = MessagesWithTotal.newBuilder()
+                                    .setTotal((int) Math.min(Integer.MAX_VALUE, conversation.getTotal()))
+                                    .setIsGroupMessage(key.isGroupMessage())
+                                    .setFromId(key.getTargetId());
+                            for (Message message : conversation.getMessages()) {
+                                messagesWithTotalBuilder.addMessages(ProtoUtil.message2proto(message));
+                            }
+                            messagesWithTotalList.addMessagesWithTotalList(messagesWithTotalBuilder);
                         }
-                        return Mono.zip(countMonos, objects -> objects)
-                                .map(numberObjects -> {
-                                    Iterator<PendingMessageKey> keyIterator = multimap.keys().iterator();
-                                    int count = multimap.keys().size();
-                                    for (int i = 0; i < count; i++) {
-                                        PendingMessageKey key = keyIterator.next();
-                                        int number = ((Long) numberObjects[i]).intValue();
-                                        MessagesWithTotal.Builder messagesWithTotalBuilder = MessagesWithTotal.newBuilder()
-                                                .setTotal(number)
-                                                .setIsGroupMessage(key.isGroupMessage())
-                                                .setFromId(key.getTargetId());
-                                        for (Message message : multimap.get(key)) {
-                                            messagesWithTotalBuilder.addMessages(ProtoUtil.message2proto(message));
-                                        }
-                                        messagesWithTotalList.addMessagesWithTotalList(messagesWithTotalBuilder);
-                                    }
-                                    return RequestHandlerResultFactory.get(TurmsNotification.Data.newBuilder()
-                                            .setMessagesWithTotalList(messagesWithTotalList).build());
-                                });
+                        return Mono.just(RequestHandlerResultFactory.get(TurmsNotification.Data.newBuilder()
+                                .setMessagesWithTotalList(messagesWithTotalList).build()));
                     });
         };
     }
@@ -294,8 +289,11 @@ public class MessageServiceController {
                                 .flatMap(response -> {
                                     boolean updateReadDate = node.getSharedProperties().getService().getMessage()
                                             .isUpdateReadDateWhenUserQueryingMessage();
-                                    return messageStatusService.updateMessagesDeliveryStatus(userId, messageIds, MessageDeliveryStatus.RECEIVED, updateReadDate)
-                                            .thenReturn(response);
+                                    Mono<Boolean> updateMono = messageStatusService.updateMessagesDeliveryStatus(userId, messageIds, MessageDeliveryStatus.RECEIVED, updateReadDate);
+                                    if (messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+                                        updateMono = updateMono.then(messageService.acknowledgeGroupMessages(userId, messages, updateReadDate));
+                                    }
+                                    return updateMono.thenReturn(response);
                                 });
                     });
         };
@@ -397,6 +395,14 @@ public class MessageServiceController {
                                 ? new Date()
                                 : readDate;
                     } // else unset the read date
+                    if (date != null && messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+                        Date finalDate = date;
+                        // Move the watermark in the same way as acknowledging messages so that no pending message is skipped
+                        return messageService.queryMessage(messageId)
+                                .flatMap(message -> message.getIsGroupMessage()
+                                        ? messageService.acknowledgeGroupMessages(userId, List.of(message), true)
+                                        : messageStatusService.updateMessagesReadDate(messageId, finalDate));
+                    }
                     return messageStatusService.updateMessagesReadDate(
                             messageId,
                             date);
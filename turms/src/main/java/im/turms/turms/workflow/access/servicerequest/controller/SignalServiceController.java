@@ -91,9 +91,13 @@ public class SignalServiceController {
     }
 
     private Mono<RequestHandlerResult> authAndUpdateMessagesDeliveryStatus(Long userId, Set<Long> messageIds) {
-        return messageStatusService
-                .updateMessagesDeliveryStatus(userId, messageIds, MessageDeliveryStatus.RECEIVED, false)
-                .map(RequestHandlerResultFactory::okIfTrue);
+        Mono<Boolean> updateMono = messageStatusService
+                .updateMessagesDeliveryStatus(userId, messageIds, MessageDeliveryStatus.RECEIVED, false);
+        if (messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+            updateMono = updateMono.zipWith(messageService.acknowledgeGroupMessages(userId, messageIds),
+                    (privateUpdated, groupUpdated) -> privateUpdated && groupUpdated);
+        }
+        return updateMono.map(RequestHandlerResultFactory::okIfTrue);
     }
 
 }
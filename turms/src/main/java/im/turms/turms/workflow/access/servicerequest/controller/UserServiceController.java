@@ -45,9 +45,7 @@ import im.turms.turms.workflow.service.impl.user.onlineuser.SessionService;
 import im.turms.turms.workflow.service.impl.user.onlineuser.UsersNearbyService;
 import im.turms.turms.workflow.service.impl.user.relationship.UserRelationshipService;
 import org.springframework.data.geo.Point;
-import org.springframework.data.util.Pair;
 import org.springframework.stereotype.Controller;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.*;
@@ -202,22 +200,14 @@ public class UserServiceController {
                 return Mono.empty();
             }
             //TODO : Access Control
-            List<Long> userIds = request.getUserIdsList();
-            UsersOnlineStatuses.Builder statusesBuilder = UsersOnlineStatuses.newBuilder();
-            List<Mono<Pair<Long, UserSessionsStatus>>> monos = new ArrayList<>(userIds.size());
-            for (Long targetUserId : userIds) {
-                monos.add(userStatusService.getUserSessionsStatus(targetUserId)
-                        .map(sessionsStatus -> Pair.of(targetUserId, sessionsStatus)));
-            }
-            return Flux.merge(monos)
-                    .collectList()
-                    .map(userIdAndSessionsStatusList -> {
-                        for (Pair<Long, UserSessionsStatus> userIdAndSessionsStatus : userIdAndSessionsStatusList) {
+            Set<Long> userIds = Sets.newHashSet(request.getUserIdsList());
+            return userStatusService.getUserSessionsStatuses(userIds)
+                    .map(sessionsStatuses -> {
+                        boolean respondOfflineIfInvisible = node.getSharedProperties().getService().getUser().isRespondOfflineIfInvisible();
+                        UsersOnlineStatuses.Builder statusesBuilder = UsersOnlineStatuses.newBuilder();
+                        for (Map.Entry<Long, UserSessionsStatus> entry : sessionsStatuses.entrySet()) {
                             statusesBuilder.addUserStatuses(ProtoUtil
-                                    .userOnlineInfo2userStatus(
-                                            userIdAndSessionsStatus.getFirst(),
-                                            userIdAndSessionsStatus.getSecond(),
-                                            node.getSharedProperties().getService().getUser().isRespondOfflineIfInvisible())
+                                    .userOnlineInfo2userStatus(entry.getKey(), entry.getValue(), respondOfflineIfInvisible)
                                     .build());
                         }
                         return RequestHandlerResultFactory.get(TurmsNotification.Data.newBuilder()
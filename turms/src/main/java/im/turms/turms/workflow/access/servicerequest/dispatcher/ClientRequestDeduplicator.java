@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.access.servicerequest.dispatcher;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import im.turms.common.constant.DeviceType;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.property.env.service.env.clientapi.property.IdempotencyProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import lombok.Data;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+import static im.turms.turms.constant.MetricsConstant.DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.DEDUPLICATION_CACHE_SIZE_GAUGE_NAME;
+import static im.turms.turms.constant.MetricsConstant.DEDUPLICATION_SAVED_NOTIFICATIONS_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.NOT_DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME;
+
+/**
+ * Returns the response of the handled request to a retried request instead of handling it again,
+ * e.g. a client resends a CreateMessageRequest after reconnecting because it didn't receive the response.
+ * <p>
+ * A request is considered as retried if it has the same user ID, device type, request ID
+ * and the same content (compared by hash) as a request handled within the window.
+ * The content is compared because clients generate request IDs in a small range at random
+ * so different requests may have the same request ID.
+ * <p>
+ * The handled requests are remembered locally, and turms-gateway routes the requests of the same user
+ * to the same turms server so that retried requests can be found.
+ * Note that retried requests won't be de-duplicated if the turms server has changed (e.g. restarted).
+ *
+ * @author James Chen
+ */
+public class ClientRequestDeduplicator {
+
+    private final Set<TurmsRequest.KindCase> requestTypes;
+    private final Cache<RequestKey, HandledRequest> handledRequests;
+
+    private final Counter deduplicatedRequestsCounter;
+    private final Counter notDeduplicatedRequestsCounter;
+    private final Counter savedNotificationsCounter;
+
+    public ClientRequestDeduplicator(IdempotencyProperties properties) {
+        Set<TurmsRequest.KindCase> types = properties.getRequestTypes();
+        requestTypes = types.isEmpty()
+                ? EnumSet.noneOf(TurmsRequest.KindCase.class)
+                : EnumSet.copyOf(types);
+        handledRequests = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(properties.getWindowSeconds()))
+                .maximumSize(properties.getMaxEntries())
+                .build();
+        MeterRegistry registry = Metrics.globalRegistry;
+        deduplicatedRequestsCounter = registry.counter(DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME);
+        notDeduplicatedRequestsCounter = registry.counter(NOT_DEDUPLICATED_CLIENT_REQUESTS_COUNTER_NAME);
+        savedNotificationsCounter = registry.counter(DEDUPLICATION_SAVED_NOTIFICATIONS_COUNTER_NAME);
+        registry.gauge(DEDUPLICATION_CACHE_SIZE_GAUGE_NAME, handledRequests, Cache::estimatedSize);
+    }
+
+    public boolean shouldDeduplicate(TurmsRequest.KindCase requestType) {
+        return requestTypes.contains(requestType);
+    }
+
+    /**
+     * @param handler handles the request if it isn't a retried request.
+     *                The handler should pass the number of the recipients notified by the request
+     *                to the consumer so that we can measure the fan-out work saved by de-duplication
+     * @return the response of the handled request if the request is a retried one,
+     * or the response returned by the handler otherwise
+     */
+    public Mono<ServiceResponse> deduplicate(long userId,
+                                             DeviceType deviceType,
+                                             long requestId,
+                                             ByteBuf requestBuffer,
+                                             Function<IntConsumer, Mono<ServiceResponse>> handler) {
+        RequestKey key = new RequestKey(userId, deviceType, requestId, ByteBufUtil.hashCode(requestBuffer));
+        HandledRequest newRequest = new HandledRequest();
+        HandledRequest handledRequest = handledRequests.asMap().putIfAbsent(key, newRequest);
+        if (handledRequest != null) {
+            deduplicatedRequestsCounter.increment();
+            return handledRequest.response.asMono()
+                    .doOnSuccess(response -> savedNotificationsCounter.increment(handledRequest.recipientCount));
+        }
+        notDeduplicatedRequestsCounter.increment();
+        return handler.apply(recipientCount -> newRequest.recipientCount = recipientCount)
+                .doOnSuccess(response -> {
+                    // Don't remember the failed requests so that clients can retry them
+                    if (response == null || response.getCode().isServerError()) {
+                        handledRequests.invalidate(key);
+                    }
+                    if (response == null) {
+                        newRequest.response.tryEmitEmpty();
+                    } else {
+                        newRequest.response.tryEmitValue(response);
+                    }
+                })
+                .doOnError(throwable -> {
+                    handledRequests.invalidate(key);
+                    newRequest.response.tryEmitError(throwable);
+                })
+                .doOnCancel(() -> {
+                    handledRequests.invalidate(key);
+                    newRequest.response.tryEmitEmpty();
+                });
+    }
+
+    @Data
+    private static final class RequestKey {
+        private final long userId;
+        private final DeviceType deviceType;
+        private final long requestId;
+        private final int requestHash;
+    }
+
+    private static final class HandledRequest {
+        private final Sinks.One<ServiceResponse> response = Sinks.one();
+        private volatile int recipientCount;
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.access.servicerequest.dispatcher;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.WireFormat;
+import im.turms.common.model.dto.notification.TurmsNotification;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.turms.workflow.access.servicerequest.dto.RelayedRequestPatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Encodes a {@link TurmsNotification} that relays a request by wrapping the bytes of the request
+ * sent by the requester instead of re-serializing the request.
+ * <p>
+ * The fields to patch are appended to the embedded {@link CreateMessageRequest}
+ * because a protobuf parser takes the last value of a non-repeated field on the wire,
+ * so only the length prefix of the embedded request needs to be rewritten.
+ *
+ * @author James Chen
+ */
+public final class RelayedRequestNotificationEncoder {
+
+    private static final int RELAYED_REQUEST_TAG =
+            makeTag(TurmsNotification.RELAYED_REQUEST_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int REQUESTER_ID_TAG =
+            makeTag(TurmsNotification.REQUESTER_ID_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int CREATE_MESSAGE_REQUEST_TAG =
+            makeTag(TurmsRequest.CREATE_MESSAGE_REQUEST_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int MESSAGE_ID_TAG =
+            makeTag(CreateMessageRequest.MESSAGE_ID_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    private static final int DELIVERY_DATE_TAG =
+            makeTag(CreateMessageRequest.DELIVERY_DATE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+    private static final int INT64_VALUE_TAG =
+            makeTag(Int64Value.VALUE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+
+    /**
+     * The notifications larger than the size wrap the request bytes in a composite buffer
+     * instead of copying them
+     */
+    private static final int MAX_COPIED_NOTIFICATION_SIZE = 4096;
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    private RelayedRequestNotificationEncoder() {
+    }
+
+    /**
+     * @param requestBuffer the serialized {@link TurmsRequest} of a {@link CreateMessageRequest},
+     *                      whose reader index and refCnt won't be changed
+     * @return a buffer of the serialized {@link TurmsNotification}, which retains the request buffer,
+     * or null if the request buffer cannot be patched in place and the notification should be serialized as usual
+     */
+    @Nullable
+    public static ByteBuf encode(long requesterId, @NotNull ByteBuf requestBuffer, @NotNull RelayedRequestPatch patch) {
+        int start = requestBuffer.readerIndex();
+        int end = requestBuffer.writerIndex();
+        int[] createMessageRequestIndexes = findCreateMessageRequest(requestBuffer, start, end);
+        if (createMessageRequestIndexes == null) {
+            return null;
+        }
+        int tagStart = createMessageRequestIndexes[0];
+        int bodyStart = createMessageRequestIndexes[1];
+        int bodyEnd = createMessageRequestIndexes[2];
+
+        Long messageId = patch.getMessageId();
+        Long deliveryDate = patch.getDeliveryDate();
+        int messageIdValueSize = 0;
+        int patchSize = 0;
+        if (messageId != null) {
+            messageIdValueSize = CodedOutputStream.computeUInt32SizeNoTag(INT64_VALUE_TAG)
+                    + CodedOutputStream.computeInt64SizeNoTag(messageId);
+            patchSize += CodedOutputStream.computeUInt32SizeNoTag(MESSAGE_ID_TAG)
+                    + CodedOutputStream.computeUInt32SizeNoTag(messageIdValueSize)
+                    + messageIdValueSize;
+        }
+        if (deliveryDate != null) {
+            patchSize += CodedOutputStream.computeUInt32SizeNoTag(DELIVERY_DATE_TAG)
+                    + CodedOutputStream.computeInt64SizeNoTag(deliveryDate);
+        }
+        int bodySize = bodyEnd - bodyStart + patchSize;
+        int createMessageRequestHeaderSize = CodedOutputStream.computeUInt32SizeNoTag(CREATE_MESSAGE_REQUEST_TAG)
+                + CodedOutputStream.computeUInt32SizeNoTag(bodySize);
+        int requestSize = (tagStart - start) + createMessageRequestHeaderSize + bodySize + (end - bodyEnd);
+        int requesterIdValueSize = CodedOutputStream.computeUInt32SizeNoTag(INT64_VALUE_TAG)
+                + CodedOutputStream.computeInt64SizeNoTag(requesterId);
+
+        int relayedRequestHeaderSize = CodedOutputStream.computeUInt32SizeNoTag(RELAYED_REQUEST_TAG)
+                + CodedOutputStream.computeUInt32SizeNoTag(requestSize);
+        int requesterIdSize = CodedOutputStream.computeUInt32SizeNoTag(REQUESTER_ID_TAG)
+                + CodedOutputStream.computeUInt32SizeNoTag(requesterIdValueSize)
+                + requesterIdValueSize;
+
+        // Layout: [relayedRequest tag and length][request fields before createMessageRequest]
+        // [createMessageRequest tag and length][createMessageRequest fields][patch]
+        // [request fields after createMessageRequest][requesterId]
+        if (relayedRequestHeaderSize + requestSize + requesterIdSize <= MAX_COPIED_NOTIFICATION_SIZE) {
+            // Copying a small request is cheaper than maintaining the components of a composite buffer
+            ByteBuf notification = ALLOCATOR.directBuffer(relayedRequestHeaderSize + requestSize + requesterIdSize);
+            writeLengthDelimitedHeader(notification, RELAYED_REQUEST_TAG, requestSize);
+            notification.writeBytes(requestBuffer, start, tagStart - start);
+            writeLengthDelimitedHeader(notification, CREATE_MESSAGE_REQUEST_TAG, bodySize);
+            notification.writeBytes(requestBuffer, bodyStart, bodyEnd - bodyStart);
+            writePatch(notification, messageId, messageIdValueSize, deliveryDate);
+            notification.writeBytes(requestBuffer, bodyEnd, end - bodyEnd);
+            writeRequesterId(notification, requesterId, requesterIdValueSize);
+            return notification;
+        }
+        // Write all the fields to encode in one buffer and compose its slices with the slices of the request
+        ByteBuf fields = ALLOCATOR.directBuffer(relayedRequestHeaderSize + createMessageRequestHeaderSize + patchSize + requesterIdSize);
+        writeLengthDelimitedHeader(fields, RELAYED_REQUEST_TAG, requestSize);
+        writeLengthDelimitedHeader(fields, CREATE_MESSAGE_REQUEST_TAG, bodySize);
+        writePatch(fields, messageId, messageIdValueSize, deliveryDate);
+        writeRequesterId(fields, requesterId, requesterIdValueSize);
+        int createMessageRequestHeaderIndex = relayedRequestHeaderSize;
+        int patchIndex = createMessageRequestHeaderIndex + createMessageRequestHeaderSize;
+        int requesterIdIndex = patchIndex + patchSize;
+
+        CompositeByteBuf notification = ALLOCATOR.compositeDirectBuffer(7);
+        notification.addComponent(true, fields.retainedSlice(0, relayedRequestHeaderSize));
+        if (tagStart > start) {
+            notification.addComponent(true, requestBuffer.retainedSlice(start, tagStart - start));
+        }
+        notification.addComponent(true, fields.retainedSlice(createMessageRequestHeaderIndex, createMessageRequestHeaderSize));
+        if (bodyEnd > bodyStart) {
+            notification.addComponent(true, requestBuffer.retainedSlice(bodyStart, bodyEnd - bodyStart));
+        }
+        if (patchSize > 0) {
+            notification.addComponent(true, fields.retainedSlice(patchIndex, patchSize));
+        }
+        if (end > bodyEnd) {
+            notification.addComponent(true, requestBuffer.retainedSlice(bodyEnd, end - bodyEnd));
+        }
+        notification.addComponent(true, fields.retainedSlice(requesterIdIndex, requesterIdSize));
+        fields.release();
+        return notification;
+    }
+
+    private static void writeLengthDelimitedHeader(ByteBuf output, int tag, int length) {
+        writeVarint32(output, tag);
+        writeVarint32(output, length);
+    }
+
+    private static void writePatch(ByteBuf output, @Nullable Long messageId, int messageIdValueSize, @Nullable Long deliveryDate) {
+        if (messageId != null) {
+            writeLengthDelimitedHeader(output, MESSAGE_ID_TAG, messageIdValueSize);
+            writeVarint32(output, INT64_VALUE_TAG);
+            writeVarint64(output, messageId);
+        }
+        if (deliveryDate != null) {
+            writeVarint32(output, DELIVERY_DATE_TAG);
+            writeVarint64(output, deliveryDate);
+        }
+    }
+
+    private static void writeRequesterId(ByteBuf output, long requesterId, int requesterIdValueSize) {
+        writeLengthDelimitedHeader(output, REQUESTER_ID_TAG, requesterIdValueSize);
+        writeVarint32(output, INT64_VALUE_TAG);
+        writeVarint64(output, requesterId);
+    }
+
+    /**
+     * @return the index of the tag, the start index and the end index of the body of the createMessageRequest field,
+     * or null if the request doesn't contain exactly one createMessageRequest field or is malformed
+     */
+    @Nullable
+    private static int[] findCreateMessageRequest(ByteBuf buffer, int start, int end) {
+        int[] result = null;
+        int index = start;
+        while (index < end) {
+            int tagStart = index;
+            long tagAndIndex = readVarint(buffer, index, end);
+            if (tagAndIndex == -1) {
+                return null;
+            }
+            int tag = (int) (tagAndIndex >>> 32);
+            index = (int) tagAndIndex;
+            switch (WireFormat.getTagWireType(tag)) {
+                case WireFormat.WIRETYPE_VARINT:
+                    index = skipVarint(buffer, index, end);
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    index += Long.BYTES;
+                    break;
+                case WireFormat.WIRETYPE_FIXED32:
+                    index += Integer.BYTES;
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    long lengthAndIndex = readVarint(buffer, index, end);
+                    if (lengthAndIndex == -1) {
+                        return null;
+                    }
+                    int length = (int) (lengthAndIndex >>> 32);
+                    index = (int) lengthAndIndex;
+                    if (length < 0) {
+                        return null;
+                    }
+                    if (tag == CREATE_MESSAGE_REQUEST_TAG) {
+                        if (result != null) {
+                            // Multiple occurrences should be merged, which we don't handle
+                            return null;
+                        }
+                        result = new int[]{tagStart, index, index + length};
+                    }
+                    index += length;
+                    break;
+                default:
+                    // Groups are deprecated and never used by turms
+                    return null;
+            }
+            if (index < 0 || index > end) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the value of the varint (up to 32 bits) in the high 32 bits and the index after it in the low 32 bits,
+     * or -1 if the varint is malformed
+     */
+    private static long readVarint(ByteBuf buffer, int index, int end) {
+        int value = 0;
+        for (int shift = 0; shift < 32 && index < end; shift += 7) {
+            byte b = buffer.getByte(index++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ((long) value << 32) | index;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipVarint(ByteBuf buffer, int index, int end) {
+        for (int i = 0; i < 10 && index < end; i++) {
+            if (buffer.getByte(index++) >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int makeTag(int fieldNumber, int wireType) {
+        return (fieldNumber << 3) | wireType;
+    }
+
+    private static void writeVarint32(ByteBuf buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte(value);
+    }
+
+    private static void writeVarint64(ByteBuf buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.writeByte((int) value);
+    }
+
+}
@@ -30,6 +30,7 @@ import im.turms.server.common.log4j.ClientApiLogging;
 import im.turms.server.common.pojo.ThrowableInfo;
 import im.turms.server.common.property.TurmsPropertiesManager;
 import im.turms.server.common.property.env.common.ClientApiLoggingProperties;
+import im.turms.server.common.property.env.service.env.clientapi.property.IdempotencyProperties;
 import im.turms.server.common.property.env.service.env.clientapi.property.LoggingRequestProperties;
 import im.turms.server.common.rpc.service.IServiceRequestDispatcher;
 import im.turms.server.common.tracing.TracingContext;
@@ -37,6 +38,7 @@ import im.turms.server.common.util.LoggingRequestUtil;
 import im.turms.server.common.util.ProtoUtil;
 import im.turms.turms.plugin.manager.TurmsPluginManager;
 import im.turms.turms.workflow.access.servicerequest.dto.ClientRequest;
+import im.turms.turms.workflow.access.servicerequest.dto.RelayedRequestPatch;
 import im.turms.turms.workflow.access.servicerequest.dto.RequestHandlerResult;
 import im.turms.turms.workflow.access.servicerequest.dto.RequestHandlerResultFactory;
 import im.turms.turms.workflow.access.servicerequest.dto.ServiceResponseFactory;
@@ -50,11 +52,13 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 import static im.turms.common.model.dto.request.TurmsRequest.KindCase.*;
 import static im.turms.turms.constant.MetricsConstant.CLIENT_REQUEST_NAME;
@@ -75,6 +79,8 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
     private final boolean pluginEnabled;
     private final Map<TurmsRequest.KindCase, LoggingRequestProperties> supportedLoggingRequestProperties;
     private final Map<TurmsRequest.KindCase, LoggingRequestProperties> supportedLoggingResponseProperties;
+    @Nullable
+    private final ClientRequestDeduplicator requestDeduplicator;
 
     public ServiceRequestDispatcher(ApplicationContext context,
                                     Node node,
@@ -92,6 +98,10 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
         this.node = node;
         this.turmsPluginManager = turmsPluginManager;
         pluginEnabled = turmsPropertiesManager.getLocalProperties().getPlugin().isEnabled();
+        IdempotencyProperties idempotencyProperties = turmsPropertiesManager.getLocalProperties().getService().getClientApi().getIdempotency();
+        requestDeduplicator = idempotencyProperties.isEnabled() && !idempotencyProperties.getRequestTypes().isEmpty()
+                ? new ClientRequestDeduplicator(idempotencyProperties)
+                : null;
         ClientApiLoggingProperties loggingProperties = node.getSharedProperties().getService().getClientApi().getLogging();
         supportedLoggingRequestProperties = LoggingRequestUtil.getSupportedLoggingRequestProperties(
                 loggingProperties.getIncludedRequestCategories(),
@@ -166,10 +176,29 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
             return Mono.just(ServiceResponseFactory.get(TurmsStatusCode.INVALID_DATA));
         }
 
-        TracingContext tracingContext = new TracingContext(traceId);
+        // 2. Return the response of the handled request if the request is retried by the client
+        if (requestDeduplicator != null
+                && request.hasRequestId()
+                && requestDeduplicator.shouldDeduplicate(request.getKindCase())) {
+            return requestDeduplicator.deduplicate(userId, deviceType, request.getRequestId().getValue(),
+                    serviceRequest.getTurmsRequestBuffer(),
+                    recipientCountConsumer -> handleRequest(serviceRequest, request, recipientCountConsumer));
+        }
+        return handleRequest(serviceRequest, request, null);
+    }
+
+    /**
+     * @param recipientCountConsumer accepts the number of the recipients to notify if the request is handled successfully
+     */
+    private Mono<ServiceResponse> handleRequest(ServiceRequest serviceRequest,
+                                                TurmsRequest request,
+                                                @Nullable IntConsumer recipientCountConsumer) {
+        Long userId = serviceRequest.getUserId();
+        DeviceType deviceType = serviceRequest.getDeviceType();
+        TracingContext tracingContext = new TracingContext(serviceRequest.getTraceId());
         tracingContext.updateMdc();
 
-        // 2. Transform and handle the request
+        // 3. Transform and handle the request
         ClientRequest clientRequest = new ClientRequest(
                 serviceRequest.getUserId(),
                 serviceRequest.getDeviceType(),
@@ -184,7 +213,7 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
             }
         }
         return clientRequestMono.flatMap(lastClientRequest -> {
-            // 3. Validate ClientRequest
+            // 4. Validate ClientRequest
             TurmsRequest lastRequest = lastClientRequest.getTurmsRequest();
             if (lastRequest == null) {
                 String message = "The TurmsRequest instance is null in the client request: " + lastClientRequest;
@@ -199,11 +228,11 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
             if (handler == null) {
                 return Mono.just(ServiceResponseFactory.get(TurmsStatusCode.ILLEGAL_ARGUMENTS, "The request type is unsupported"));
             }
-            // 4. Log
+            // 5. Log
             if (LoggingRequestUtil.shouldLog(requestType, supportedLoggingRequestProperties)) {
                 ClientApiLogging.log(lastClientRequest);
             }
-            // 5. Pass the request to the controller and get a response
+            // 6. Pass the request to the controller and get a response
             Mono<RequestHandlerResult> result;
             if (pluginEnabled && !clientClientRequestHandlerList.isEmpty()) {
                 Mono<RequestHandlerResult> requestResultMono = Mono.empty();
@@ -215,7 +244,7 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
             } else {
                 result = handler.handle(lastClientRequest);
             }
-            // 6. Metrics and transform to ServiceResponse
+            // 7. Metrics and transform to ServiceResponse
             return result
                     .name(CLIENT_REQUEST_NAME)
                     .tag(CLIENT_REQUEST_TAG_TYPE, requestType.name())
@@ -223,7 +252,10 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
                     .defaultIfEmpty(RequestHandlerResultFactory.NO_CONTENT)
                     .doOnSuccess(requestResult -> {
                         if (requestResult.getCode() == TurmsStatusCode.OK) {
-                            notifyRelatedUsersOfAction(requestResult, userId, deviceType)
+                            if (recipientCountConsumer != null && requestResult.getDataForRecipients() != null) {
+                                recipientCountConsumer.accept(requestResult.getRecipients().size());
+                            }
+                            notifyRelatedUsersOfAction(requestResult, lastClientRequest, userId, deviceType)
                                     .subscribe();
                         }
                     })
@@ -250,6 +282,7 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
 
     private Mono<Void> notifyRelatedUsersOfAction(
             @NotNull RequestHandlerResult result,
+            @NotNull ClientRequest clientRequest,
             @NotNull Long requesterId,
             @NotNull DeviceType requesterDevice) {
         TurmsRequest dataForRecipients = result.getDataForRecipients();
@@ -257,22 +290,59 @@ public class ServiceRequestDispatcher implements IServiceRequestDispatcher {
         if (dataForRecipients == null || recipients.isEmpty()) {
             return Mono.empty();
         }
-        TurmsNotification notificationForRecipients = TurmsNotification
-                .newBuilder()
-                .setRelayedRequest(dataForRecipients)
-                .setRequesterId(Int64Value.newBuilder().setValue(requesterId).build())
-                .build();
-        ByteBuf notificationByteBuf = ProtoUtil.getDirectByteBuffer(notificationForRecipients);
+        RelayedRequestPatch patch = result.getRelayedRequestPatch();
+        boolean shouldLogNotification = outboundMessageService.shouldLogNotification(dataForRecipients.getKindCase());
+        ByteBuf encodedNotification = null;
+        if (patch != null) {
+            // Wrap the original request bytes if the request hasn't been transformed by plugins
+            ByteBuf requestBuffer = clientRequest.getTurmsRequestBuffer();
+            if (requestBuffer != null && dataForRecipients == clientRequest.getTurmsRequest()) {
+                encodedNotification = RelayedRequestNotificationEncoder.encode(requesterId, requestBuffer, patch);
+            }
+            // The patched request is still needed for logging or if it cannot be encoded in place
+            if (encodedNotification == null || shouldLogNotification) {
+                dataForRecipients = patch.apply(dataForRecipients);
+            }
+        }
+        // Only build the notification if it needs to be serialized or logged
+        TurmsNotification notificationForRecipients = null;
+        if (encodedNotification == null || shouldLogNotification) {
+            notificationForRecipients = TurmsNotification
+                    .newBuilder()
+                    .setRelayedRequest(dataForRecipients)
+                    .setRequesterId(Int64Value.newBuilder().setValue(requesterId).build())
+                    .build();
+        }
+        ByteBuf notificationByteBuf = encodedNotification == null
+                ? ProtoUtil.getDirectByteBuffer(notificationForRecipients)
+                : encodedNotification;
         if (result.isForwardDataForRecipientsToOtherSenderOnlineDevices()) {
             notificationByteBuf.retain();
             Mono<Boolean> notifyRequesterMono = outboundMessageService.forwardNotification(notificationForRecipients, notificationByteBuf, requesterId, requesterDevice);
-            Mono<Boolean> notifyRecipientsMono = outboundMessageService.forwardNotification(notificationForRecipients, notificationByteBuf, recipients);
+            Mono<Boolean> notifyRecipientsMono = forwardNotificationToRecipients(dataForRecipients, notificationForRecipients, notificationByteBuf, recipients);
             return Mono.when(notifyRequesterMono, notifyRecipientsMono)
                     .doOnTerminate(notificationByteBuf::release);
         } else {
-            return outboundMessageService.forwardNotification(notificationForRecipients, notificationByteBuf, recipients)
+            return forwardNotificationToRecipients(dataForRecipients, notificationForRecipients, notificationByteBuf, recipients)
                     .then();
         }
     }
 
+    /**
+     * Group messages are forwarded as group notifications so that the messages of hot groups
+     * can be fanned out on the dedicated workers
+     */
+    private Mono<Boolean> forwardNotificationToRecipients(
+            @NotNull TurmsRequest dataForRecipients,
+            @Nullable TurmsNotification notificationForRecipients,
+            @NotNull ByteBuf notificationByteBuf,
+            @NotNull Set<Long> recipients) {
+        if (dataForRecipients.getKindCase() == CREATE_MESSAGE_REQUEST
+                && dataForRecipients.getCreateMessageRequest().hasGroupId()) {
+            long groupId = dataForRecipients.getCreateMessageRequest().getGroupId().getValue();
+            return outboundMessageService.forwardGroupNotification(notificationForRecipients, notificationByteBuf, groupId, recipients);
+        }
+        return outboundMessageService.forwardNotification(notificationForRecipients, notificationByteBuf, recipients);
+    }
+
 }
\ No newline at end of file
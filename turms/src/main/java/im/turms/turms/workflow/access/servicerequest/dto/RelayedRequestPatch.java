@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.access.servicerequest.dto;
+
+import com.google.protobuf.Int64Value;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import lombok.Data;
+
+import javax.annotation.Nullable;
+
+/**
+ * The fields of a {@link CreateMessageRequest} that turms fills in
+ * before relaying the request of the requester to the recipients.
+ * <p>
+ * Used to relay the original request bytes with the patch appended
+ * instead of rebuilding and re-serializing the whole request.
+ *
+ * @author James Chen
+ */
+@Data
+public class RelayedRequestPatch {
+
+    @Nullable
+    private final Long messageId;
+    @Nullable
+    private final Long deliveryDate;
+
+    public boolean isEmpty() {
+        return messageId == null && deliveryDate == null;
+    }
+
+    /**
+     * @return a new request with the patch applied, or the request itself if there is nothing to patch
+     */
+    public TurmsRequest apply(TurmsRequest request) {
+        if (isEmpty() || !request.hasCreateMessageRequest()) {
+            return request;
+        }
+        CreateMessageRequest.Builder builder = request.getCreateMessageRequest().toBuilder();
+        if (messageId != null) {
+            builder.setMessageId(Int64Value.newBuilder().setValue(messageId).build());
+        }
+        if (deliveryDate != null) {
+            builder.setDeliveryDate(deliveryDate);
+        }
+        return request.toBuilder()
+                .setCreateMessageRequest(builder)
+                .build();
+    }
+
+}
@@ -23,6 +23,7 @@ import im.turms.common.model.dto.request.TurmsRequest;
 import im.turms.server.common.util.ProtoUtil;
 import lombok.Data;
 
+import javax.annotation.Nullable;
 import java.util.Set;
 
 /**
@@ -37,6 +38,39 @@ public class RequestHandlerResult {
     private final TurmsRequest dataForRecipients;
     private final TurmsStatusCode code;
     private final String reason;
+    /**
+     * If not null, {@link #dataForRecipients} is the original request of the requester
+     * and the patch should be applied before relaying it
+     */
+    @Nullable
+    private final RelayedRequestPatch relayedRequestPatch;
+
+    public RequestHandlerResult(
+            TurmsNotification.Data dataForRequester,
+            boolean forwardDataForRecipientsToOtherSenderOnlineDevices,
+            Set<Long> recipients,
+            TurmsRequest dataForRecipients,
+            TurmsStatusCode code,
+            String reason) {
+        this(dataForRequester, forwardDataForRecipientsToOtherSenderOnlineDevices, recipients, dataForRecipients, code, reason, null);
+    }
+
+    public RequestHandlerResult(
+            TurmsNotification.Data dataForRequester,
+            boolean forwardDataForRecipientsToOtherSenderOnlineDevices,
+            Set<Long> recipients,
+            TurmsRequest dataForRecipients,
+            TurmsStatusCode code,
+            String reason,
+            @Nullable RelayedRequestPatch relayedRequestPatch) {
+        this.dataForRequester = dataForRequester;
+        this.forwardDataForRecipientsToOtherSenderOnlineDevices = forwardDataForRecipientsToOtherSenderOnlineDevices;
+        this.recipients = recipients;
+        this.dataForRecipients = dataForRecipients;
+        this.code = code;
+        this.reason = reason;
+        this.relayedRequestPatch = relayedRequestPatch;
+    }
 
     @Override
     public String toString() {
@@ -47,6 +81,7 @@ public class RequestHandlerResult {
                 ", dataForRecipients=" + ProtoUtil.toLogString(dataForRecipients) +
                 ", code=" + code +
                 ", reason='" + reason + '\'' +
+                ", relayedRequestPatch=" + relayedRequestPatch +
                 '}';
     }
 }
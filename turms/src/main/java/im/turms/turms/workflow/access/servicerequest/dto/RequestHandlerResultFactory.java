@@ -111,6 +111,29 @@ public class RequestHandlerResultFactory {
                 null);
     }
 
+    /**
+     * @param originalRequest the request sent by the requester, which will be relayed with the patch applied
+     */
+    public static RequestHandlerResult get(
+            @NotNull Long id,
+            @NotEmpty Set<Long> recipients,
+            boolean relayDataToOtherSenderOnlineDevices,
+            @NotNull TurmsRequest originalRequest,
+            @NotNull RelayedRequestPatch patch) {
+        TurmsNotification.Data data = TurmsNotification.Data
+                .newBuilder()
+                .setIds(Int64Values.newBuilder().addValues(id).build())
+                .build();
+        return new RequestHandlerResult(
+                data,
+                relayDataToOtherSenderOnlineDevices,
+                recipients,
+                originalRequest,
+                TurmsStatusCode.OK,
+                null,
+                patch);
+    }
+
     public static RequestHandlerResult get(@NotNull TurmsNotification.Data dataForRequester) {
         return new RequestHandlerResult(dataForRequester, false, Collections.emptySet(), null, TurmsStatusCode.OK, null);
     }
@@ -127,6 +150,16 @@ public class RequestHandlerResultFactory {
         return new RequestHandlerResult(null, false, recipientIds, dataForRecipient, TurmsStatusCode.OK, null);
     }
 
+    /**
+     * @param originalRequest the request sent by the requester, which will be relayed with the patch applied
+     */
+    public static RequestHandlerResult get(
+            @NotEmpty Set<Long> recipientIds,
+            @NotNull TurmsRequest originalRequest,
+            @NotNull RelayedRequestPatch patch) {
+        return new RequestHandlerResult(null, false, recipientIds, originalRequest, TurmsStatusCode.OK, null, patch);
+    }
+
     public static RequestHandlerResult get(
             @NotNull Long recipientId,
             @NotNull TurmsRequest dataForRecipient,
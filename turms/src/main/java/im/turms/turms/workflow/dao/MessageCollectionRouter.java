@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.dao;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import im.turms.server.common.cluster.service.idgen.SnowflakeIdGenerator;
+import im.turms.server.common.dao.util.MongoUtil;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.business.message.MessageProperties;
+import im.turms.server.common.property.constant.MessageCollectionLayout;
+import im.turms.server.common.property.constant.TimeType;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes messages and message statuses to their collections according to {@link MessageCollectionLayout}.
+ * <p>
+ * In the DAILY and WEEKLY layouts, a message and its statuses are stored in the collections (called "bucket")
+ * of the period of the timestamp in the snowflake ID of the message, so:
+ * 1. The queries by message IDs only access the buckets of the IDs;
+ * 2. Because the delivery date of a message is close to the timestamp of its ID when the time type is
+ * {@link TimeType#LOCAL_SERVER_TIME} (they differ by {@link #MAX_DELIVERY_DATE_SKEW_MILLIS} at most),
+ * the queries with a delivery date range only access the buckets of the range;
+ * 3. The expired messages can be deleted by dropping the buckets.
+ * <p>
+ * If the time type is {@link TimeType#CLIENT_TIME}, the delivery date can be any time specified by the client,
+ * either earlier or later than the timestamp, so the queries with a delivery date range access all buckets
+ * and no bucket is dropped as a whole.
+ * <p>
+ * The multi-collection operations of the class short-circuit to one plain operation
+ * if only one collection is involved, which is always the case in the SINGLE layout.
+ *
+ * @author James Chen
+ */
+@Log4j2
+@Component
+public class MessageCollectionRouter {
+
+    private static final long MAX_DELIVERY_DATE_SKEW_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+    private static final long WEEK_MILLIS = Duration.ofDays(7).toMillis();
+    /**
+     * 1970-01-01 is Thursday so the first Monday is 1970-01-05
+     */
+    private static final long FIRST_MONDAY_MILLIS = DAY_MILLIS * 4;
+    private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(1);
+    private static final DateTimeFormatter BUCKET_DATE_FORMATTER = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final List<String> SINGLE_MESSAGE_COLLECTION_NAMES = List.of(Message.COLLECTION_NAME);
+    private static final List<String> SINGLE_MESSAGE_STATUS_COLLECTION_NAMES = List.of(MessageStatus.COLLECTION_NAME);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final boolean isServerTime;
+    @Getter
+    private final MessageCollectionLayout layout;
+    private final boolean isBucketed;
+    private final long bucketMillis;
+    private final String messageCollectionPrefix;
+    private final String messageStatusCollectionPrefix;
+
+    /**
+     * The start epoch milliseconds of the known buckets,
+     * which may not contain the buckets created by other nodes recently
+     */
+    private final NavigableSet<Long> knownBucketStarts = new ConcurrentSkipListSet<>();
+    private final Map<Long, Mono<Void>> ensuredBuckets = new ConcurrentHashMap<>();
+    @Nullable
+    private final ScheduledExecutorService refresher;
+
+    public MessageCollectionRouter(
+            @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            TurmsPropertiesManager turmsPropertiesManager) {
+        this.mongoTemplate = mongoTemplate;
+        MessageProperties messageProperties = turmsPropertiesManager.getLocalProperties().getService().getMessage();
+        layout = messageProperties.getCollectionLayout();
+        isServerTime = messageProperties.getTimeType() == TimeType.LOCAL_SERVER_TIME;
+        isBucketed = layout != MessageCollectionLayout.SINGLE;
+        bucketMillis = layout == MessageCollectionLayout.WEEKLY ? WEEK_MILLIS : DAY_MILLIS;
+        String bucketTypeIdentifier = layout == MessageCollectionLayout.WEEKLY ? "_w" : "_d";
+        messageCollectionPrefix = Message.COLLECTION_NAME + bucketTypeIdentifier;
+        messageStatusCollectionPrefix = MessageStatus.COLLECTION_NAME + bucketTypeIdentifier;
+        if (!isBucketed) {
+            refresher = null;
+            return;
+        }
+        refreshKnownBuckets().block(Duration.ofMinutes(1));
+        refresher = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("turms-message-collection-refresher", true));
+        refresher.scheduleWithFixedDelay(() -> refreshKnownBuckets()
+                        .subscribe(null, t -> log.error("Failed to refresh the message collections", t)),
+                REFRESH_INTERVAL.toMillis(),
+                REFRESH_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    public boolean isBucketed() {
+        return isBucketed;
+    }
+
+    // Collection names
+
+    public String getMessageCollectionName(long messageId) {
+        return isBucketed
+                ? messageCollectionPrefix + formatBucket(getBucketStartByMessageId(messageId))
+                : Message.COLLECTION_NAME;
+    }
+
+    public String getMessageStatusCollectionName(long messageId) {
+        return isBucketed
+                ? messageStatusCollectionPrefix + formatBucket(getBucketStartByMessageId(messageId))
+                : MessageStatus.COLLECTION_NAME;
+    }
+
+    public List<String> getMessageCollectionNames(long messageId) {
+        return isBucketed
+                ? List.of(getMessageCollectionName(messageId))
+                : SINGLE_MESSAGE_COLLECTION_NAMES;
+    }
+
+    public List<String> getMessageStatusCollectionNames(long messageId) {
+        return isBucketed
+                ? List.of(getMessageStatusCollectionName(messageId))
+                : SINGLE_MESSAGE_STATUS_COLLECTION_NAMES;
+    }
+
+    /**
+     * @param messageIds null means all messages
+     */
+    public List<String> getMessageCollectionNames(@Nullable Collection<Long> messageIds) {
+        if (!isBucketed) {
+            return SINGLE_MESSAGE_COLLECTION_NAMES;
+        }
+        return messageIds == null
+                ? toNames(messageCollectionPrefix, getAllBucketStarts())
+                : toNames(messageCollectionPrefix, getBucketStartsByMessageIds(messageIds));
+    }
+
+    /**
+     * @param messageIds null means all messages
+     */
+    public List<String> getMessageStatusCollectionNames(@Nullable Collection<Long> messageIds) {
+        if (!isBucketed) {
+            return SINGLE_MESSAGE_STATUS_COLLECTION_NAMES;
+        }
+        return messageIds == null
+                ? toNames(messageStatusCollectionPrefix, getAllBucketStarts())
+                : toNames(messageStatusCollectionPrefix, getBucketStartsByMessageIds(messageIds));
+    }
+
+    /**
+     * @param deliveryDateRange null means all messages
+     */
+    public List<String> getMessageCollectionNames(@Nullable DateRange deliveryDateRange) {
+        return isBucketed
+                ? toNames(messageCollectionPrefix, getBucketStartsByDeliveryDateRange(deliveryDateRange))
+                : SINGLE_MESSAGE_COLLECTION_NAMES;
+    }
+
+    /**
+     * @param deliveryDateRange null means all messages
+     */
+    public List<String> getMessageStatusCollectionNames(@Nullable DateRange deliveryDateRange) {
+        return isBucketed
+                ? toNames(messageStatusCollectionPrefix, getBucketStartsByDeliveryDateRange(deliveryDateRange))
+                : SINGLE_MESSAGE_STATUS_COLLECTION_NAMES;
+    }
+
+    public String toMessageStatusCollectionName(String messageCollectionName) {
+        return isBucketed
+                ? messageStatusCollectionPrefix + messageCollectionName.substring(messageCollectionPrefix.length())
+                : MessageStatus.COLLECTION_NAME;
+    }
+
+    // Buckets
+
+    /**
+     * Create the bucket collections and their indexes of the message if they don't exist.
+     * Note that the method should be called outside transactions
+     * because collections cannot be created in transactions
+     */
+    public Mono<Void> ensureCollections(long messageId) {
+        if (!isBucketed) {
+            return Mono.empty();
+        }
+        long bucketStart = getBucketStartByMessageId(messageId);
+        return ensuredBuckets.computeIfAbsent(bucketStart, start -> {
+            String suffix = formatBucket(start);
+            return MongoUtil.createIndexes(mongoTemplate, Message.class, messageCollectionPrefix + suffix)
+                    .then(MongoUtil.createIndexes(mongoTemplate, MessageStatus.class, messageStatusCollectionPrefix + suffix))
+                    .doOnSuccess(unused -> knownBucketStarts.add(start))
+                    .doOnError(t -> ensuredBuckets.remove(start))
+                    .cache();
+        });
+    }
+
+    /**
+     * Drop the buckets whose messages have all expired
+     *
+     * @return the number of dropped buckets
+     */
+    public Mono<Integer> dropExpiredCollections(Date expirationDate) {
+        // A bucket may contain messages whose delivery dates specified by clients haven't expired
+        if (!isBucketed || !isServerTime) {
+            return Mono.just(0);
+        }
+        List<Long> expiredBucketStarts = new ArrayList<>();
+        for (Long bucketStart : knownBucketStarts) {
+            // The delivery dates of the messages in the bucket are before "bucket end + skew"
+            if (bucketStart + bucketMillis + MAX_DELIVERY_DATE_SKEW_MILLIS > expirationDate.getTime()) {
+                break;
+            }
+            expiredBucketStarts.add(bucketStart);
+        }
+        return Flux.fromIterable(expiredBucketStarts)
+                .concatMap(bucketStart -> {
+                    String suffix = formatBucket(bucketStart);
+                    return mongoTemplate.dropCollection(messageStatusCollectionPrefix + suffix)
+                            .then(mongoTemplate.dropCollection(messageCollectionPrefix + suffix))
+                            .doOnSuccess(unused -> {
+                                knownBucketStarts.remove(bucketStart);
+                                ensuredBuckets.remove(bucketStart);
+                                log.info("Dropped the expired message collections: {}", messageCollectionPrefix + suffix);
+                            })
+                            .thenReturn(bucketStart);
+                })
+                .count()
+                .map(Long::intValue);
+    }
+
+    private Mono<Void> refreshKnownBuckets() {
+        return mongoTemplate.getCollectionNames()
+                .collectList()
+                .doOnNext(names -> {
+                    NavigableSet<Long> bucketStarts = new TreeSet<>();
+                    for (String name : names) {
+                        if (name.startsWith(messageCollectionPrefix)) {
+                            Long bucketStart = parseBucket(name.substring(messageCollectionPrefix.length()));
+                            if (bucketStart != null) {
+                                bucketStarts.add(bucketStart);
+                            }
+                        }
+                    }
+                    knownBucketStarts.addAll(bucketStarts);
+                    // Remove the buckets dropped by other nodes
+                    knownBucketStarts.retainAll(bucketStarts);
+                })
+                .then();
+    }
+
+    private long getBucketStart(long epochMillis) {
+        if (bucketMillis == DAY_MILLIS) {
+            return Math.floorDiv(epochMillis, DAY_MILLIS) * DAY_MILLIS;
+        }
+        return Math.floorDiv(epochMillis - FIRST_MONDAY_MILLIS, WEEK_MILLIS) * WEEK_MILLIS + FIRST_MONDAY_MILLIS;
+    }
+
+    private long getBucketStartByMessageId(long messageId) {
+        return getBucketStart(SnowflakeIdGenerator.getTimestampMillis(messageId));
+    }
+
+    private NavigableSet<Long> getBucketStartsByMessageIds(Collection<Long> messageIds) {
+        NavigableSet<Long> bucketStarts = new TreeSet<>();
+        for (Long messageId : messageIds) {
+            bucketStarts.add(getBucketStartByMessageId(messageId));
+        }
+        return bucketStarts;
+    }
+
+    private NavigableSet<Long> getAllBucketStarts() {
+        return getBucketStarts(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private NavigableSet<Long> getBucketStartsByDeliveryDateRange(@Nullable DateRange deliveryDateRange) {
+        if (deliveryDateRange == null || !isServerTime) {
+            return getAllBucketStarts();
+        }
+        Date start = deliveryDateRange.getStart();
+        Date end = deliveryDateRange.getEnd();
+        long lowerBucketStart = start == null
+                ? Long.MIN_VALUE
+                : getBucketStart(start.getTime() - MAX_DELIVERY_DATE_SKEW_MILLIS);
+        long upperBucketStart = end == null
+                ? Long.MAX_VALUE
+                : getBucketStart(end.getTime() + MAX_DELIVERY_DATE_SKEW_MILLIS);
+        return getBucketStarts(lowerBucketStart, upperBucketStart);
+    }
+
+    /**
+     * @return the known buckets and the current buckets that may haven't been known yet within the bounds
+     */
+    private NavigableSet<Long> getBucketStarts(long lowerBucketStart, long upperBucketStart) {
+        NavigableSet<Long> bucketStarts = new TreeSet<>(knownBucketStarts.subSet(lowerBucketStart, true, upperBucketStart, true));
+        long now = System.currentTimeMillis();
+        long currentBucketStart = getBucketStart(now);
+        long nextBucketStart = getBucketStart(now + MAX_DELIVERY_DATE_SKEW_MILLIS);
+        if (lowerBucketStart <= currentBucketStart && currentBucketStart <= upperBucketStart) {
+            bucketStarts.add(currentBucketStart);
+        }
+        if (lowerBucketStart <= nextBucketStart && nextBucketStart <= upperBucketStart) {
+            bucketStarts.add(nextBucketStart);
+        }
+        return bucketStarts;
+    }
+
+    private static String formatBucket(long bucketStart) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(bucketStart), ZoneOffset.UTC).format(BUCKET_DATE_FORMATTER);
+    }
+
+    @Nullable
+    private Long parseBucket(String suffix) {
+        try {
+            long epochMillis = LocalDate.parse(suffix, BUCKET_DATE_FORMATTER).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            return getBucketStart(epochMillis) == epochMillis ? epochMillis : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static List<String> toNames(String prefix, Collection<Long> bucketStarts) {
+        List<String> names = new ArrayList<>(bucketStarts.size());
+        for (Long bucketStart : bucketStarts) {
+            names.add(prefix + formatBucket(bucketStart));
+        }
+        return names;
+    }
+
+    // Multi-collection operations
+
+    public <T> Flux<T> find(Query query, Class<T> entityClass, List<String> collectionNames) {
+        return find(query, entityClass, collectionNames, null);
+    }
+
+    /**
+     * @param comparator is used to sort the documents from different collections
+     *                   in the same order specified by the sort of the query.
+     *                   If null, the documents are returned in the order of collections
+     */
+    public <T> Flux<T> find(Query query,
+                            Class<T> entityClass,
+                            List<String> collectionNames,
+                            @Nullable Comparator<T> comparator) {
+        int size = collectionNames.size();
+        if (size == 0) {
+            return Flux.empty();
+        }
+        if (size == 1) {
+            return mongoTemplate.find(query, entityClass, collectionNames.get(0));
+        }
+        long skip = query.getSkip();
+        int limit = query.getLimit();
+        boolean isSorted = comparator != null && query.isSorted();
+        if (skip == 0 && limit == 0 && !isSorted) {
+            return Flux.fromIterable(collectionNames)
+                    .concatMap(name -> mongoTemplate.find(query, entityClass, name));
+        }
+        // Every collection returns its first "skip + limit" documents,
+        // and then the documents are merged, skipped, and limited in memory.
+        // Note that the query is copied because it belongs to the caller
+        Query collectionQuery = Query.of(query).skip(0);
+        if (limit > 0) {
+            collectionQuery.limit((int) Math.min(Integer.MAX_VALUE, skip + limit));
+        }
+        Flux<T> documents;
+        if (isSorted) {
+            List<Flux<T>> fluxes = new ArrayList<>(size);
+            for (String name : collectionNames) {
+                fluxes.add(mongoTemplate.find(collectionQuery, entityClass, name));
+            }
+            documents = Flux.merge(fluxes)
+                    .collectSortedList(comparator)
+                    .flatMapIterable(list -> list);
+        } else {
+            documents = Flux.fromIterable(collectionNames)
+                    .concatMap(name -> mongoTemplate.find(collectionQuery, entityClass, name));
+        }
+        documents = documents.skip(skip);
+        return limit > 0 ? documents.take(limit) : documents;
+    }
+
+    public <T> Mono<T> findOne(Query query, Class<T> entityClass, List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return mongoTemplate.findOne(query, entityClass, collectionNames.get(0));
+        }
+        return Flux.fromIterable(collectionNames)
+                .concatMap(name -> mongoTemplate.findOne(query, entityClass, name))
+                .next();
+    }
+
+    public Mono<Boolean> exists(Query query, Class<?> entityClass, List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return mongoTemplate.exists(query, entityClass, collectionNames.get(0));
+        }
+        return Flux.fromIterable(collectionNames)
+                .concatMap(name -> mongoTemplate.exists(query, entityClass, name))
+                .any(exists -> exists);
+    }
+
+    public Mono<Long> count(Query query, Class<?> entityClass, List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return mongoTemplate.count(query, entityClass, collectionNames.get(0));
+        }
+        return Flux.fromIterable(collectionNames)
+                .flatMap(name -> mongoTemplate.count(query, entityClass, name))
+                .reduce(0L, Long::sum);
+    }
+
+    public <T> Flux<T> aggregate(Aggregation aggregation, List<String> collectionNames, Class<T> outputType) {
+        if (collectionNames.size() == 1) {
+            return mongoTemplate.aggregate(aggregation, collectionNames.get(0), outputType);
+        }
+        return Flux.fromIterable(collectionNames)
+                .concatMap(name -> mongoTemplate.aggregate(aggregation, name, outputType));
+    }
+
+    public Mono<UpdateResult> updateMulti(Query query, Update update, Class<?> entityClass, List<String> collectionNames) {
+        return updateMulti(mongoTemplate, query, update, entityClass, collectionNames);
+    }
+
+    public Mono<UpdateResult> updateMulti(
+            ReactiveMongoOperations operations,
+            Query query,
+            Update update,
+            Class<?> entityClass,
+            List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return operations.updateMulti(query, update, entityClass, collectionNames.get(0));
+        }
+        return Flux.fromIterable(collectionNames)
+                .concatMap(name -> operations.updateMulti(query, update, entityClass, name))
+                .collectList()
+                .map(results -> {
+                    long matchedCount = 0;
+                    long modifiedCount = 0;
+                    for (UpdateResult result : results) {
+                        if (!result.wasAcknowledged()) {
+                            return UpdateResult.unacknowledged();
+                        }
+                        matchedCount += result.getMatchedCount();
+                        modifiedCount += result.getModifiedCount();
+                    }
+                    return UpdateResult.acknowledged(matchedCount, modifiedCount, null);
+                });
+    }
+
+    public Mono<DeleteResult> remove(Query query, Class<?> entityClass, List<String> collectionNames) {
+        return remove(mongoTemplate, query, entityClass, collectionNames);
+    }
+
+    public Mono<DeleteResult> remove(
+            ReactiveMongoOperations operations,
+            Query query,
+            Class<?> entityClass,
+            List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return operations.remove(query, entityClass, collectionNames.get(0));
+        }
+        return Flux.fromIterable(collectionNames)
+                .concatMap(name -> operations.remove(query, entityClass, name))
+                .collectList()
+                .map(results -> {
+                    long deletedCount = 0;
+                    for (DeleteResult result : results) {
+                        if (!result.wasAcknowledged()) {
+                            return DeleteResult.unacknowledged();
+                        }
+                        deletedCount += result.getDeletedCount();
+                    }
+                    return DeleteResult.acknowledged(deletedCount);
+                });
+    }
+
+}
@@ -73,7 +73,10 @@ public class MongoDataGenerator {
 
     private static final List<String> MESSAGE_COLLECTIONS = List.of(
             Message.COLLECTION_NAME,
-            MessageStatus.COLLECTION_NAME);
+            MessageStatus.COLLECTION_NAME,
+            GroupMessageWatermark.COLLECTION_NAME,
+            MessagePurgeCheckpoint.COLLECTION_NAME,
+            UnreadMessageCounter.COLLECTION_NAME);
 
     private static final List<String> USER_COLLECTIONS = List.of(
             User.COLLECTION_NAME,
@@ -169,6 +172,9 @@ public class MongoDataGenerator {
                 createCollectionIfNotExist(GroupVersion.class, null),
                 createCollectionIfNotExist(Message.class, null),
                 createCollectionIfNotExist(MessageStatus.class, null),
+                createCollectionIfNotExist(GroupMessageWatermark.class, null),
+                createCollectionIfNotExist(MessagePurgeCheckpoint.class, null),
+                createCollectionIfNotExist(UnreadMessageCounter.class, null),
                 createCollectionIfNotExist(User.class, null),
                 createCollectionIfNotExist(UserFriendRequest.class, null),
                 createCollectionIfNotExist(UserPermissionGroup.class, null),
@@ -475,7 +481,8 @@ public class MongoDataGenerator {
                 || clazz == GroupJoinQuestion.class || clazz == GroupJoinRequest.class || clazz == GroupMember.class
                 || clazz == GroupType.class || clazz == GroupVersion.class) {
             mongoTemplate = groupMongoTemplate;
-        } else if (clazz == Message.class || clazz == MessageStatus.class) {
+        } else if (clazz == Message.class || clazz == MessageStatus.class || clazz == GroupMessageWatermark.class
+                || clazz == MessagePurgeCheckpoint.class || clazz == UnreadMessageCounter.class) {
             mongoTemplate = messageMongoTemplate;
         } else {
             return Mono.error(new IllegalArgumentException("Unknown collection=" + clazz.getName()));
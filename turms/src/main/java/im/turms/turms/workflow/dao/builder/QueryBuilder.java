@@ -17,7 +17,11 @@
 
 package im.turms.turms.workflow.dao.builder;
 
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
+import im.turms.turms.constant.DaoConstant;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -30,6 +34,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * @author James Chen
@@ -148,6 +153,92 @@ public class QueryBuilder {
         }
     }
 
+    /**
+     * Use the keyset pagination if the continuation token is not null, or the offset pagination otherwise
+     */
+    public Query paginateIfNotNull(@Nullable Integer page, @Nullable ContinuationToken continuationToken, @Nullable Integer size) {
+        return continuationToken != null
+                ? seekIfNotNull(continuationToken, size, Sort.Direction.ASC, null)
+                : paginateIfNotNull(page, size);
+    }
+
+    /**
+     * Use the keyset pagination if the continuation token is not null, or the offset pagination otherwise
+     */
+    public Query paginateIfNotNull(
+            @Nullable Integer page,
+            @Nullable ContinuationToken continuationToken,
+            @Nullable Integer size,
+            @NotNull Sort.Direction direction,
+            @NotNull String sortField) {
+        return continuationToken != null
+                ? seekIfNotNull(continuationToken, size, direction, sortField)
+                : paginateIfNotNull(page, size, direction, sortField);
+    }
+
+    /**
+     * Keyset (seek) pagination: the records are sorted by (sortField, _id), or _id if sortField is null,
+     * and only the records after the continuation token are queried.
+     * Unlike the offset pagination, the skipped records don't need to be scanned,
+     * so the cost of a page doesn't grow with the number of the pages before it.
+     * Note that the sort field should not be null in any record.
+     *
+     * @param continuationToken the position of the last record of the previous page
+     * @param sortField         null to sort the records by _id only
+     */
+    public Query seekIfNotNull(
+            @NotNull ContinuationToken continuationToken,
+            @Nullable Integer size,
+            @NotNull Sort.Direction direction,
+            @Nullable String sortField) {
+        if (size == null) {
+            return buildQuery();
+        }
+        if (!continuationToken.isFirstPage()) {
+            criteriaList.add(getSeekCriteria(continuationToken, direction, sortField));
+        }
+        buildReadyCriteria();
+        Query query;
+        if (finalCriteria != null) {
+            query = new Query(finalCriteria);
+        } else {
+            query = new Query();
+        }
+        Sort sort = sortField != null
+                ? Sort.by(direction, sortField, DaoConstant.ID_FIELD_NAME)
+                : Sort.by(direction, DaoConstant.ID_FIELD_NAME);
+        return query.with(sort).limit(size);
+    }
+
+    private static Criteria getSeekCriteria(
+            ContinuationToken continuationToken,
+            Sort.Direction direction,
+            @Nullable String sortField) {
+        boolean isAscending = direction.isAscending();
+        Object id = continuationToken.getId();
+        Criteria afterId = isAscending
+                ? Criteria.where(DaoConstant.ID_FIELD_NAME).gt(id)
+                : Criteria.where(DaoConstant.ID_FIELD_NAME).lt(id);
+        if (!Objects.equals(sortField, continuationToken.getSortField())) {
+            throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS,
+                    "The continuation token is for the records sorted by " + continuationToken.getSortField()
+                            + " instead of " + sortField);
+        }
+        if (sortField == null) {
+            return afterId;
+        }
+        Object value = continuationToken.getSortFieldValue();
+        if (value == null) {
+            throw TurmsBusinessException.get(TurmsStatusCode.ILLEGAL_ARGUMENTS,
+                    "The continuation token doesn't contain the value of the sort field: " + sortField);
+        }
+        Criteria afterValue = isAscending
+                ? Criteria.where(sortField).gt(value)
+                : Criteria.where(sortField).lt(value);
+        return new Criteria().orOperator(afterValue,
+                new Criteria().andOperator(Criteria.where(sortField).is(value), afterId));
+    }
+
     private void buildReadyCriteria() {
         Criteria criteria = buildCriteria();
         if (criteria != EMPTY_CRITERIA) {
@@ -102,6 +102,9 @@ public class MongoConfig {
 
         map.put(Message.class, writeConcern.getMessage());
         map.put(MessageStatus.class, writeConcern.getMessageStatus());
+        map.put(GroupMessageWatermark.class, writeConcern.getGroupMessageWatermark());
+        map.put(MessagePurgeCheckpoint.class, writeConcern.getMessagePurgeCheckpoint());
+        map.put(UnreadMessageCounter.class, writeConcern.getUnreadMessageCounter());
 
         map.put(User.class, writeConcern.getUser());
         map.put(UserFriendRequest.class, writeConcern.getUserFriendRequest());
@@ -162,7 +165,7 @@ public class MongoConfig {
             TurmsPropertiesManager turmsPropertiesManager,
             WriteConcernResolver writeConcernResolver) {
         ReactiveMongoTemplate template = getMongoTemplate(turmsPropertiesManager.getLocalProperties().getService().getDatabase().getMongoProperties().getMessage(), writeConcernResolver);
-        MongoUtil.createIndexes(template, Set.of(Message.class, MessageStatus.class));
+        MongoUtil.createIndexes(template, Set.of(Message.class, MessageStatus.class, GroupMessageWatermark.class, UnreadMessageCounter.class));
         return template;
     }
 
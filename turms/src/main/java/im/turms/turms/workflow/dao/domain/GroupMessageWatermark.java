@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.turms.workflow.dao.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+
+/**
+ * The delivery and read watermarks of a group member in a group,
+ * which are used to derive the status of group messages
+ * when the group message status persistence mode is WATERMARK.
+ * <p>
+ * Because message IDs are generated by the snowflake algorithm and increase roughly in time,
+ * a group message whose ID is less than or equal to the received message ID has been received by the member,
+ * and a group message whose ID is greater than the received message ID is pending.
+ * The watermark only moves over the messages generated before a grace period
+ * so that the messages with smaller IDs persisted later are still pending.
+ *
+ * @author James Chen
+ * @see im.turms.server.common.property.constant.GroupMessageStatusPersistenceMode#WATERMARK
+ */
+@Data
+@AllArgsConstructor(onConstructor = @__(@PersistenceConstructor))
+@Document
+@CompoundIndex(
+        name = GroupMessageWatermark.Key.Fields.USER_ID + "_" + GroupMessageWatermark.Key.Fields.GROUP_ID + "_idx",
+        def = "{'" + GroupMessageWatermark.Fields.ID_USER_ID + "': 1, '" + GroupMessageWatermark.Fields.ID_GROUP_ID + "': 1}")
+@Sharded(shardKey = {GroupMessageWatermark.Fields.ID_USER_ID, GroupMessageWatermark.Fields.ID_GROUP_ID}, immutableKey = true)
+public final class GroupMessageWatermark {
+
+    public static final String COLLECTION_NAME = "groupMessageWatermark";
+
+    @Id
+    private final Key key;
+
+    @Field(Fields.RECEIVED_MESSAGE_ID)
+    private final Long receivedMessageId;
+
+    @Field(Fields.READ_MESSAGE_ID)
+    private final Long readMessageId;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor // Make sure spring can initiate the key and use setters
+    public static final class Key {
+
+        @Field(Fields.USER_ID)
+        private Long userId;
+
+        @Field(Fields.GROUP_ID)
+        private Long groupId;
+
+        public static final class Fields {
+            public static final String USER_ID = "uid";
+            public static final String GROUP_ID = "gid";
+
+            private Fields() {
+            }
+        }
+    }
+
+    public static final class Fields {
+        public static final String ID_USER_ID = "_id." + Key.Fields.USER_ID;
+        public static final String ID_GROUP_ID = "_id." + Key.Fields.GROUP_ID;
+        public static final String RECEIVED_MESSAGE_ID = "rmid";
+        public static final String READ_MESSAGE_ID = "rdmid";
+
+        private Fields() {
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import im.turms.turms.workflow.dao.index.documentation.OptionalIndexedForCustomF
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.Sharded;
@@ -34,9 +35,15 @@ import java.util.List;
  */
 @Data
 @Document
-@CompoundIndex(
-        name = Message.Fields.TARGET_ID + "_" + Message.Fields.DELIVERY_DATE + "_idx",
-        def = "{'" + Message.Fields.TARGET_ID + "': 1, '" + Message.Fields.DELIVERY_DATE + "': 1}")
+@CompoundIndexes({
+        @CompoundIndex(
+                name = Message.Fields.TARGET_ID + "_" + Message.Fields.DELIVERY_DATE + "_idx",
+                def = "{'" + Message.Fields.TARGET_ID + "': 1, '" + Message.Fields.DELIVERY_DATE + "': 1}"),
+        // Used to walk the expired messages in the order of the delivery date with a keyset cursor
+        @CompoundIndex(
+                name = Message.Fields.DELIVERY_DATE + "__id_idx",
+                def = "{'" + Message.Fields.DELIVERY_DATE + "': 1, '_id': 1}")
+})
 @Sharded(shardKey = {Message.Fields.TARGET_ID, Message.Fields.DELIVERY_DATE}, immutableKey = true)
 public final class Message {
 
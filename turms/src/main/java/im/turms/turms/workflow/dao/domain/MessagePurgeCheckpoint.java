@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.dao.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.Date;
+
+/**
+ * The position of the last purged chunk of expired messages
+ * so that an interrupted purge can resume from where it stopped.
+ * The expired messages are walked in the order of (deliveryDate, id).
+ *
+ * @author James Chen
+ * @see im.turms.turms.workflow.service.impl.message.ExpiredMessagePurger
+ */
+@Data
+@AllArgsConstructor(onConstructor = @__(@PersistenceConstructor))
+@Document
+public final class MessagePurgeCheckpoint {
+
+    public static final String COLLECTION_NAME = "messagePurgeCheckpoint";
+
+    /**
+     * "{partition index}/{partition count}"
+     */
+    @Id
+    private final String id;
+
+    @Field(Fields.DELIVERY_DATE)
+    private final Date deliveryDate;
+
+    @Field(Fields.MESSAGE_ID)
+    private final Long messageId;
+
+    public static final class Fields {
+        public static final String DELIVERY_DATE = "dyd";
+        public static final String MESSAGE_ID = "mid";
+
+        private Fields() {
+        }
+    }
+
+}
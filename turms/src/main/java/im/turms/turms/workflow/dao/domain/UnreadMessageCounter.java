@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.turms.workflow.dao.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+
+import java.util.Date;
+
+/**
+ * The number of the pending (READY) messages of a conversation of a user,
+ * which is incremented when the statuses of messages are saved
+ * and decremented when the messages are acknowledged.
+ * <p>
+ * The conversation of a group message is the group, and the conversation of a private message is the sender,
+ * which is the same as {@link im.turms.turms.bo.PendingMessageKey}.
+ *
+ * @author James Chen
+ * @see im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService
+ */
+@Data
+@AllArgsConstructor(onConstructor = @__(@PersistenceConstructor))
+@Document
+@CompoundIndex(
+        name = UnreadMessageCounter.Key.Fields.USER_ID + "_" + UnreadMessageCounter.Fields.LAST_MESSAGE_ID + "_idx",
+        def = "{'" + UnreadMessageCounter.Fields.ID_USER_ID + "': 1, '" + UnreadMessageCounter.Fields.LAST_MESSAGE_ID + "': -1}")
+@Sharded(shardKey = UnreadMessageCounter.Fields.ID_USER_ID, immutableKey = true)
+public final class UnreadMessageCounter {
+
+    public static final String COLLECTION_NAME = "unreadMessageCounter";
+
+    @Id
+    private final Key key;
+
+    @Field(Fields.COUNT)
+    private final Long count;
+
+    /**
+     * The max ID of the pending messages when the counter was incremented or reconciled,
+     * which is used to sort the conversations
+     */
+    @Field(Fields.LAST_MESSAGE_ID)
+    private final Long lastMessageId;
+
+    @Field(Fields.LAST_MODIFIED_DATE)
+    private final Date lastModifiedDate;
+
+    /**
+     * Note that the order of the fields matters because the key is matched as a whole
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor // Make sure spring can initiate the key and use setters
+    public static final class Key {
+
+        @Field(Fields.USER_ID)
+        private Long userId;
+
+        @Field(Fields.IS_GROUP_MESSAGE)
+        private Boolean isGroupMessage;
+
+        @Field(Fields.IS_SYSTEM_MESSAGE)
+        private Boolean isSystemMessage;
+
+        /**
+         * Group ID or sender ID
+         */
+        @Field(Fields.TARGET_ID)
+        private Long targetId;
+
+        public static final class Fields {
+            public static final String USER_ID = "uid";
+            public static final String IS_GROUP_MESSAGE = "gm";
+            public static final String IS_SYSTEM_MESSAGE = "sm";
+            public static final String TARGET_ID = "tid";
+
+            private Fields() {
+            }
+        }
+    }
+
+    public static final class Fields {
+        public static final String ID_USER_ID = "_id." + Key.Fields.USER_ID;
+        public static final String ID_IS_GROUP_MESSAGE = "_id." + Key.Fields.IS_GROUP_MESSAGE;
+        public static final String COUNT = "c";
+        public static final String LAST_MESSAGE_ID = "lmid";
+        public static final String LAST_MODIFIED_DATE = "lmd";
+
+        private Fields() {
+        }
+    }
+
+}
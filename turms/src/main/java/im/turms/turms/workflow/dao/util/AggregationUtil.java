@@ -17,14 +17,18 @@
 
 package im.turms.turms.workflow.dao.util;
 
+import im.turms.turms.constant.DaoConstant;
 import org.bson.Document;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.constraints.NotNull;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
 
 /**
  * @author James Chen
@@ -52,4 +56,35 @@ public class AggregationUtil {
                 .onErrorReturn(NoSuchElementException.class, 0L);
     }
 
+    /**
+     * Count the distinct values across the collections.
+     * The distinct values of every collection are merged in memory if there are multiple collections
+     */
+    public static Mono<Long> countDistinct(
+            @NotNull ReactiveMongoTemplate mongoTemplate,
+            @NotNull Criteria criteria,
+            @NotNull String field,
+            @NotNull List<String> collectionNames) {
+        if (collectionNames.size() == 1) {
+            return mongoTemplate.aggregate(Aggregation.newAggregation(
+                    Aggregation.match(criteria),
+                    Aggregation.project(field),
+                    Aggregation.group(field),
+                    Aggregation.count().as(TOTAL))
+                    , collectionNames.get(0), Document.class)
+                    .single()
+                    .map(document -> Long.valueOf((Integer) document.get(TOTAL)))
+                    .onErrorReturn(NoSuchElementException.class, 0L);
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.project(field),
+                Aggregation.group(field));
+        return Flux.fromIterable(collectionNames)
+                .concatMap(collectionName -> mongoTemplate.aggregate(aggregation, collectionName, Document.class))
+                .map(document -> document.get(DaoConstant.ID_FIELD_NAME))
+                .collect(Collectors.toSet())
+                .map(values -> (long) values.size());
+    }
+
 }
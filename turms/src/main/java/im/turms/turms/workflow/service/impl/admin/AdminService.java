@@ -17,6 +17,8 @@
 
 package im.turms.turms.workflow.service.impl.admin;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.Sets;
 import im.turms.common.constant.statuscode.TurmsStatusCode;
 import im.turms.common.exception.TurmsBusinessException;
@@ -24,13 +26,19 @@ import im.turms.common.util.Validator;
 import im.turms.server.common.cluster.service.config.ChangeStreamUtil;
 import im.turms.server.common.constraint.NoWhitespace;
 import im.turms.server.common.manager.PasswordManager;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.env.adminapi.AdminCredentialCacheProperties;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.server.common.util.HmacUtil;
 import im.turms.turms.bo.AdminInfo;
 import im.turms.turms.constant.DaoConstant;
 import im.turms.turms.workflow.access.http.permission.AdminPermission;
 import im.turms.turms.workflow.dao.builder.QueryBuilder;
 import im.turms.turms.workflow.dao.builder.UpdateBuilder;
 import im.turms.turms.workflow.dao.domain.Admin;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.hibernate.validator.constraints.Length;
@@ -47,9 +55,11 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
+import javax.crypto.spec.SecretKeySpec;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.PastOrPresent;
+import java.time.Duration;
 import java.util.Date;
 import java.util.Map;
 import java.util.Set;
@@ -73,6 +83,7 @@ public class AdminService {
     public static final int MAX_ACCOUNT_LIMIT = 32;
     public static final int MAX_PASSWORD_LIMIT = 32;
     public static final int MAX_NAME_LIMIT = 32;
+    private static final String METRICS_NAME_CREDENTIAL_CACHE = "admin.credential.cache";
     private final PasswordManager passwordManager;
     private final ReactiveMongoTemplate mongoTemplate;
     private final AdminRoleService adminRoleService;
@@ -82,13 +93,41 @@ public class AdminService {
      */
     private static final Map<String, AdminInfo> adminMap = new ConcurrentHashMap<>();
 
+    /**
+     * Account -> VerifiedCredential.
+     * Used to avoid verifying the password with the expensive algorithm (e.g. BCrypt)
+     * for every admin request
+     */
+    @Nullable
+    private final Cache<String, VerifiedCredential> verifiedCredentialCache;
+    /**
+     * Used to fingerprint the verified raw passwords so that they are never kept in memory
+     */
+    private final SecretKeySpec credentialFingerprintKey = HmacUtil.newRandomKey();
+
     public AdminService(
+            TurmsPropertiesManager turmsPropertiesManager,
             PasswordManager passwordManager,
             @Qualifier("adminMongoTemplate") ReactiveMongoTemplate mongoTemplate,
-            AdminRoleService adminRoleService) {
+            AdminRoleService adminRoleService,
+            MetricsService metricsService) {
         this.passwordManager = passwordManager;
         this.mongoTemplate = mongoTemplate;
         this.adminRoleService = adminRoleService;
+        AdminCredentialCacheProperties cacheProperties = turmsPropertiesManager.getLocalProperties()
+                .getService()
+                .getAdminApi()
+                .getCredentialCache();
+        if (cacheProperties.isEnabled()) {
+            verifiedCredentialCache = Caffeine.newBuilder()
+                    .maximumSize(cacheProperties.getMaxSize())
+                    .expireAfterWrite(Duration.ofSeconds(cacheProperties.getExpireAfterSeconds()))
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(metricsService.getRegistry(), verifiedCredentialCache, METRICS_NAME_CREDENTIAL_CACHE);
+        } else {
+            verifiedCredentialCache = null;
+        }
 
         listenAndLoadAdmins();
     }
@@ -105,14 +144,19 @@ public class AdminService {
                         case INSERT:
                         case UPDATE:
                         case REPLACE:
-                            adminMap.put(admin.getAccount(), new AdminInfo(admin, null));
+                            adminMap.put(admin.getAccount(), new AdminInfo(admin));
+                            invalidateVerifiedCredential(admin.getAccount());
                             break;
                         case DELETE:
                             String account = ChangeStreamUtil.getIdAsString(event);
                             adminMap.remove(account);
+                            invalidateVerifiedCredential(account);
                             break;
                         case INVALIDATE:
                             adminMap.clear();
+                            if (verifiedCredentialCache != null) {
+                                verifiedCredentialCache.invalidateAll();
+                            }
                             break;
                         default:
                             log.error("Detect an illegal operation on Admin collection: " + event);
@@ -130,7 +174,7 @@ public class AdminService {
                         if (admin.getRoleId().equals(DaoConstant.ADMIN_ROLE_ROOT_ID)) {
                             rootAdminExists = true;
                         }
-                        adminMap.put(admin.getAccount(), new AdminInfo(admin, null));
+                        adminMap.put(admin.getAccount(), new AdminInfo(admin));
                     }
                     if (!rootAdminExists) {
                         addAdmin(ROOT_ADMIN_ACCOUNT,
@@ -207,7 +251,7 @@ public class AdminService {
                 ? registrationDate
                 : new Date();
         Admin admin = new Admin(account, password, name, roleId, registrationDate);
-        AdminInfo adminInfo = new AdminInfo(admin, rawPassword);
+        AdminInfo adminInfo = new AdminInfo(admin);
         String finalAccount = account;
         return upsert
                 ? mongoTemplate.save(admin, Admin.COLLECTION_NAME).doOnNext(result -> adminMap.put(finalAccount, adminInfo))
@@ -285,19 +329,40 @@ public class AdminService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        AdminInfo adminInfo = adminMap.get(account);
-        if (adminInfo != null && adminInfo.getRawPassword() != null) {
-            return Mono.just(adminInfo.getRawPassword().equals(rawPassword));
-        } else {
-            return queryAdmin(account)
-                    .map(admin -> {
-                        boolean valid = passwordManager.matchesAdminPassword(rawPassword, admin.getPassword());
-                        if (valid) {
-                            adminMap.get(admin.getAccount()).setRawPassword(rawPassword);
-                        }
-                        return valid;
-                    })
-                    .defaultIfEmpty(false);
+        return queryAdmin(account)
+                .flatMap(admin -> authenticate(admin, rawPassword))
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * @return true if the raw password matches the password of the admin.
+     * The verified credential is cached so that the subsequent requests
+     * with the same credential don't need to verify the password again
+     */
+    private Mono<Boolean> authenticate(@NotNull Admin admin, @NotNull String rawPassword) {
+        String encodedPassword = admin.getPassword();
+        if (verifiedCredentialCache == null) {
+            return passwordManager.matchesAdminPasswordAsync(rawPassword, encodedPassword);
+        }
+        String account = admin.getAccount();
+        byte[] fingerprint = HmacUtil.sign(credentialFingerprintKey, rawPassword);
+        VerifiedCredential credential = verifiedCredentialCache.getIfPresent(account);
+        if (credential != null
+                && credential.getEncodedPassword().equals(encodedPassword)
+                && HmacUtil.isEqual(credential.getRawPasswordFingerprint(), fingerprint)) {
+            return Mono.just(true);
+        }
+        return passwordManager.matchesAdminPasswordAsync(rawPassword, encodedPassword)
+                .doOnNext(matched -> {
+                    if (matched) {
+                        verifiedCredentialCache.put(account, new VerifiedCredential(encodedPassword, fingerprint));
+                    }
+                });
+    }
+
+    private void invalidateVerifiedCredential(@NotNull String account) {
+        if (verifiedCredentialCache != null) {
+            verifiedCredentialCache.invalidate(account);
         }
     }
 
@@ -312,7 +377,7 @@ public class AdminService {
             return Mono.just(adminInfo.getAdmin());
         } else {
             return mongoTemplate.findById(account, Admin.class, Admin.COLLECTION_NAME)
-                    .doOnNext(admin -> adminMap.put(account, new AdminInfo(admin, null)));
+                    .doOnNext(admin -> adminMap.put(account, new AdminInfo(admin)));
         }
     }
 
@@ -358,6 +423,7 @@ public class AdminService {
                     if (result.wasAcknowledged()) {
                         for (String account : accounts) {
                             adminMap.remove(account);
+                            invalidateVerifiedCredential(account);
                         }
                     }
                     return result.wasAcknowledged();
@@ -443,10 +509,8 @@ public class AdminService {
                     boolean wasAcknowledged = result.wasAcknowledged();
                     if (wasAcknowledged && rawPassword != null) {
                         for (String account : targetAccounts) {
-                            AdminInfo adminInfo = adminMap.get(account);
-                            if (adminInfo != null) {
-                                adminInfo.setRawPassword(rawPassword);
-                            }
+                            adminMap.remove(account);
+                            invalidateVerifiedCredential(account);
                         }
                     }
                     return wasAcknowledged;
@@ -461,4 +525,14 @@ public class AdminService {
         return mongoTemplate.count(query, Admin.class, Admin.COLLECTION_NAME);
     }
 
-}
\ No newline at end of file
+    /**
+     * The encoded password is kept so that the credential becomes invalid
+     * once the password is changed even if the cache hasn't been invalidated yet
+     */
+    @Data
+    private static final class VerifiedCredential {
+        private final String encodedPassword;
+        private final byte[] rawPasswordFingerprint;
+    }
+
+}
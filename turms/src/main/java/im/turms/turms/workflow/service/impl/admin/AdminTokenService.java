@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.admin;
+
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.env.adminapi.AdminTokenProperties;
+import im.turms.server.common.util.AssertUtil;
+import im.turms.server.common.util.HmacUtil;
+import im.turms.turms.workflow.dao.domain.Admin;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Issue and verify the signed short-lived tokens of admins so that
+ * the admins don't need to send their passwords and verify them with
+ * the expensive password encoding algorithm (e.g. BCrypt) for every request.
+ * <p>
+ * Token format: base64url(account).expirationTimeMillis.base64url(HMAC-SHA256(account.expirationTimeMillis.encodedPassword)).
+ * The encoded password is signed so that all the tokens of an admin become invalid once the password is changed.
+ *
+ * @author James Chen
+ */
+@Service
+public class AdminTokenService {
+
+    private static final char SEPARATOR = '.';
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final AdminService adminService;
+    @Getter
+    private final boolean enabled;
+    private final long expireAfterMillis;
+    private final SecretKeySpec key;
+
+    public AdminTokenService(TurmsPropertiesManager turmsPropertiesManager, AdminService adminService) {
+        this.adminService = adminService;
+        AdminTokenProperties tokenProperties = turmsPropertiesManager.getLocalProperties()
+                .getService()
+                .getAdminApi()
+                .getToken();
+        enabled = tokenProperties.isEnabled();
+        expireAfterMillis = tokenProperties.getExpireAfterSeconds() * 1000L;
+        String secret = tokenProperties.getSecret();
+        key = secret == null || secret.isBlank()
+                ? HmacUtil.newRandomKey()
+                : HmacUtil.newKey(secret);
+    }
+
+    /**
+     * @return empty if the credential is invalid
+     */
+    public Mono<String> authenticateAndIssueToken(@NotNull String account, @NotNull String rawPassword) {
+        try {
+            AssertUtil.state(enabled, "The admin token is disabled");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        return adminService.authenticate(account, rawPassword)
+                .flatMap(authenticated -> authenticated
+                        ? adminService.queryAdmin(account).map(this::issueToken)
+                        : Mono.empty());
+    }
+
+    public String issueToken(@NotNull Admin admin) {
+        String account = admin.getAccount();
+        long expirationTime = System.currentTimeMillis() + expireAfterMillis;
+        String signature = ENCODER.encodeToString(sign(account, expirationTime, admin.getPassword()));
+        return ENCODER.encodeToString(account.getBytes(StandardCharsets.UTF_8))
+                + SEPARATOR + expirationTime
+                + SEPARATOR + signature;
+    }
+
+    /**
+     * @return the account of the admin, or empty if the token is invalid or expired
+     */
+    public Mono<String> authenticate(@NotNull String token) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        int firstSeparatorIndex = token.indexOf(SEPARATOR);
+        int secondSeparatorIndex = token.indexOf(SEPARATOR, firstSeparatorIndex + 1);
+        if (firstSeparatorIndex <= 0 || secondSeparatorIndex < 0) {
+            return Mono.empty();
+        }
+        String account;
+        long expirationTime;
+        byte[] signature;
+        try {
+            account = new String(DECODER.decode(token.substring(0, firstSeparatorIndex)), StandardCharsets.UTF_8);
+            expirationTime = Long.parseLong(token.substring(firstSeparatorIndex + 1, secondSeparatorIndex));
+            signature = DECODER.decode(token.substring(secondSeparatorIndex + 1));
+        } catch (IllegalArgumentException e) {
+            return Mono.empty();
+        }
+        if (expirationTime < System.currentTimeMillis()) {
+            return Mono.empty();
+        }
+        return adminService.queryAdmin(account)
+                .filter(admin -> HmacUtil.isEqual(signature, sign(account, expirationTime, admin.getPassword())))
+                .map(Admin::getAccount);
+    }
+
+    private byte[] sign(String account, long expirationTime, String encodedPassword) {
+        return HmacUtil.sign(key, account + SEPARATOR + expirationTime + SEPARATOR + encodedPassword);
+    }
+
+}
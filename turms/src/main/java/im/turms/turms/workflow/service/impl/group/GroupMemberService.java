@@ -17,6 +17,7 @@
 
 package im.turms.turms.workflow.service.impl.group;
 
+import com.google.common.collect.Sets;
 import com.google.protobuf.Int64Value;
 import im.turms.common.constant.GroupInvitationStrategy;
 import im.turms.common.constant.GroupMemberRole;
@@ -54,7 +55,6 @@ import javax.annotation.Nullable;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.PastOrPresent;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -71,14 +71,17 @@ public class GroupMemberService {
     private final GroupService groupService;
     private final GroupVersionService groupVersionService;
     private final UserStatusService userStatusService;
+    private final GroupNearCacheService groupNearCacheService;
 
     public GroupMemberService(
             Node node,
             @Qualifier("groupMongoTemplate") ReactiveMongoTemplate mongoTemplate,
             GroupService groupService,
             GroupVersionService groupVersionService,
-            UserStatusService userStatusService) {
+            UserStatusService userStatusService,
+            GroupNearCacheService groupNearCacheService) {
         this.mongoTemplate = mongoTemplate;
+        this.groupNearCacheService = groupNearCacheService;
         this.groupService = groupService;
         this.groupVersionService = groupVersionService;
         this.userStatusService = userStatusService;
@@ -114,6 +117,7 @@ public class GroupMemberService {
                 muteEndDate);
         ReactiveMongoOperations mongoOperations = operations != null ? operations : mongoTemplate;
         return mongoOperations.insert(groupMember, GroupMember.COLLECTION_NAME)
+                .doOnSuccess(member -> groupNearCacheService.invalidate(groupId, false, true))
                 .zipWith(groupVersionService.updateMembersVersion(groupId))
                 .map(Tuple2::getT1);
     }
@@ -194,6 +198,9 @@ public class GroupMemberService {
         return mongoOperations.remove(query, GroupMember.class, GroupMember.COLLECTION_NAME)
                 .flatMap(result -> {
                     if (result.wasAcknowledged()) {
+                        // Invalidate the local near cache immediately,
+                        // and the near caches of other nodes are invalidated once the members version is updated
+                        groupNearCacheService.invalidate(groupId, false, true);
                         return updateGroupMembersVersion
                                 ? groupVersionService.updateMembersVersion(groupId).thenReturn(true)
                                 : Mono.just(true);
@@ -259,6 +266,7 @@ public class GroupMemberService {
         return mongoOperations.updateMulti(query, update, GroupMember.class, GroupMember.COLLECTION_NAME)
                 .flatMap(result -> {
                     if (result.wasAcknowledged()) {
+                        groupNearCacheService.invalidate(groupId, false, true);
                         return updateGroupMembersVersion
                                 ? groupVersionService.updateMembersVersion(groupId).thenReturn(true)
                                 : Mono.just(true);
@@ -317,6 +325,18 @@ public class GroupMemberService {
                 .map(groupMember -> groupMember.getKey().getUserId());
     }
 
+    /**
+     * @return an unmodifiable set of the member IDs, which is served by the near cache if enabled
+     */
+    public Mono<Set<Long>> getMemberIdSetByGroupId(@NotNull Long groupId) {
+        if (groupNearCacheService.isEnabled()) {
+            return groupNearCacheService.getGroupMembers(groupId)
+                    .map(GroupNearCacheService.GroupMembers::getMemberIds);
+        }
+        return getMemberIdsByGroupId(groupId)
+                .collect(Collectors.toSet());
+    }
+
     public Mono<Boolean> isGroupMember(@NotNull Long groupId, @NotNull Long userId) {
         try {
             AssertUtil.notNull(groupId, "groupId");
@@ -415,6 +435,9 @@ public class GroupMemberService {
      * Note that a blacklisted user is never a group member
      */
     public Mono<Boolean> isAllowedToSendMessage(@NotNull Long groupId, @NotNull Long senderId) {
+        if (groupNearCacheService.isEnabled()) {
+            return isAllowedToSendMessageWithNearCache(groupId, senderId);
+        }
         return isGroupMember(groupId, senderId)
                 .flatMap(isGroupMember -> {
                     if (isGroupMember != null && isGroupMember) {
@@ -443,31 +466,65 @@ public class GroupMemberService {
                                     }
                                 });
                     } else {
-                        return groupService.queryGroupType(groupId)
-                                .flatMap(type -> {
-                                    Boolean speakable = type.getGuestSpeakable();
-                                    return speakable != null && speakable
-                                            ? groupService.isGroupMuted(groupId)
-                                            : Mono.error(TurmsBusinessException.get(TurmsStatusCode.GUESTS_HAVE_BEEN_MUTED));
-                                })
-                                .switchIfEmpty(Mono.error(TurmsBusinessException.get(TurmsStatusCode.TYPE_NOT_EXISTS)))
-                                .flatMap(isGroupMuted -> isGroupMuted
-                                        ? Mono.error(TurmsBusinessException.get(TurmsStatusCode.GROUP_HAS_BEEN_MUTED))
-                                        : groupService.isGroupActiveAndNotDeleted(groupId))
-                                .flatMap(isGroupActiveAndNotDeleted -> {
-                                    if (isGroupActiveAndNotDeleted) {
-                                        return isBlacklisted(groupId, senderId)
-                                                .map(isBlacklisted -> {
-                                                    if (isBlacklisted) {
-                                                        throw TurmsBusinessException.get(TurmsStatusCode.USER_HAS_BEEN_BLACKLISTED);
-                                                    } else {
-                                                        return true;
-                                                    }
-                                                });
+                        return isAllowedToSendMessageAsGuest(groupId, senderId);
+                    }
+                });
+    }
+
+    private Mono<Boolean> isAllowedToSendMessageWithNearCache(@NotNull Long groupId, @NotNull Long senderId) {
+        try {
+            AssertUtil.notNull(groupId, "groupId");
+            AssertUtil.notNull(senderId, "senderId");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        return groupNearCacheService.getGroupMembers(groupId)
+                .flatMap(members -> {
+                    if (!members.isMember(senderId)) {
+                        return isAllowedToSendMessageAsGuest(groupId, senderId);
+                    }
+                    return groupNearCacheService.getGroupInfo(groupId)
+                            .switchIfEmpty(Mono.error(TurmsBusinessException.get(TurmsStatusCode.NOT_ACTIVE)))
+                            .map(info -> {
+                                if (info.isMuted()) {
+                                    throw TurmsBusinessException.get(TurmsStatusCode.GROUP_HAS_BEEN_MUTED);
+                                }
+                                if (node.getSharedProperties().getService().getMessage().isCheckIfTargetActiveAndNotDeleted()
+                                        && !info.isActiveAndNotDeleted()) {
+                                    throw TurmsBusinessException.get(TurmsStatusCode.NOT_ACTIVE);
+                                }
+                                if (members.isMemberMuted(senderId)) {
+                                    throw TurmsBusinessException.get(TurmsStatusCode.MEMBER_HAS_BEEN_MUTED);
+                                }
+                                return true;
+                            });
+                });
+    }
+
+    private Mono<Boolean> isAllowedToSendMessageAsGuest(@NotNull Long groupId, @NotNull Long senderId) {
+        return groupService.queryGroupType(groupId)
+                .flatMap(type -> {
+                    Boolean speakable = type.getGuestSpeakable();
+                    return speakable != null && speakable
+                            ? groupService.isGroupMuted(groupId)
+                            : Mono.error(TurmsBusinessException.get(TurmsStatusCode.GUESTS_HAVE_BEEN_MUTED));
+                })
+                .switchIfEmpty(Mono.error(TurmsBusinessException.get(TurmsStatusCode.TYPE_NOT_EXISTS)))
+                .flatMap(isGroupMuted -> isGroupMuted
+                        ? Mono.error(TurmsBusinessException.get(TurmsStatusCode.GROUP_HAS_BEEN_MUTED))
+                        : groupService.isGroupActiveAndNotDeleted(groupId))
+                .flatMap(isGroupActiveAndNotDeleted -> {
+                    if (isGroupActiveAndNotDeleted) {
+                        return isBlacklisted(groupId, senderId)
+                                .map(isBlacklisted -> {
+                                    if (isBlacklisted) {
+                                        throw TurmsBusinessException.get(TurmsStatusCode.USER_HAS_BEEN_BLACKLISTED);
                                     } else {
-                                        return Mono.error(TurmsBusinessException.get(TurmsStatusCode.NOT_ACTIVE));
+                                        return true;
                                     }
                                 });
+                    } else {
+                        return Mono.error(TurmsBusinessException.get(TurmsStatusCode.NOT_ACTIVE));
                     }
                 });
     }
@@ -642,6 +699,7 @@ public class GroupMemberService {
         return mongoTemplate.remove(query, GroupMember.class, GroupMember.COLLECTION_NAME)
                 .flatMap(result -> {
                     if (result.wasAcknowledged()) {
+                        groupNearCacheService.invalidateAllMembers();
                         return updateGroupMembersVersion
                                 ? groupVersionService.updateMembersVersion().thenReturn(true)
                                 : Mono.just(true);
@@ -773,7 +831,7 @@ public class GroupMemberService {
         }
         return isAuthorizedMono
                 .flatMap(isAuthorized -> isAuthorized != null && isAuthorized
-                        ? updateGroupMember(groupId, memberId, name, role, new Date(), muteEndDate, null, false)
+                        ? updateGroupMember(groupId, memberId, name, role, new Date(), muteEndDate, null, true)
                         : Mono.error(TurmsBusinessException.get(TurmsStatusCode.UNAUTHORIZED)));
     }
 
@@ -789,6 +847,11 @@ public class GroupMemberService {
         return mongoOperations.remove(query, GroupMember.class, GroupMember.COLLECTION_NAME)
                 .flatMap(result -> {
                     if (result.wasAcknowledged()) {
+                        if (groupIds != null) {
+                            for (Long groupId : groupIds) {
+                                groupNearCacheService.invalidate(groupId, false, true);
+                            }
+                        }
                         return updateMembersVersion
                                 ? groupVersionService.updateMembersVersion(groupIds).thenReturn(true)
                                 : Mono.just(true);
@@ -821,17 +884,17 @@ public class GroupMemberService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
-        List<Mono<UserSessionsStatus>> monoList = new ArrayList<>(members.size());
+        if (members.isEmpty()) {
+            return Mono.empty();
+        }
+        Set<Long> userIds = Sets.newHashSetWithExpectedSize(members.size());
         for (GroupMember member : members) {
-            Long userId = member.getKey().getUserId();
-            monoList.add(userStatusService.getUserSessionsStatus(userId));
-        }
-        return Mono.zip(monoList, objects -> objects)
-                .map(results -> {
-                    int memberNumber = members.size();
-                    for (int i = 0; i < memberNumber; i++) {
-                        GroupMember member = members.get(i);
-                        UserSessionsStatus info = (UserSessionsStatus) results[i];
+            userIds.add(member.getKey().getUserId());
+        }
+        return userStatusService.getUserSessionsStatuses(userIds)
+                .map(sessionsStatuses -> {
+                    for (GroupMember member : members) {
+                        UserSessionsStatus info = sessionsStatuses.get(member.getKey().getUserId());
                         im.turms.common.model.bo.group.GroupMember groupMember = ProtoUtil
                                 .userOnlineInfo2groupMember(
                                         member.getKey().getUserId(),
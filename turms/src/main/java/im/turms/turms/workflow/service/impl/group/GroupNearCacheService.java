@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.group;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.cluster.service.config.ChangeStreamUtil;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.business.GroupProperties;
+import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.domain.Group;
+import im.turms.turms.workflow.dao.domain.GroupMember;
+import im.turms.turms.workflow.dao.domain.GroupVersion;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A node-local cache of the information and the members of groups used on the path of sending group messages.
+ * <p>
+ * The cache of a group is invalidated by the change stream of the group versions
+ * once {@link GroupVersionService} updates its information or members version
+ * (the local cache is also invalidated immediately once {@link GroupMemberService} changes the members),
+ * and every cached group expires after a while in case a change doesn't update the versions.
+ *
+ * @author James Chen
+ */
+@Log4j2
+@Service
+public class GroupNearCacheService {
+
+    private static final String METRICS_NAME_GROUP_INFO_CACHE = "group.near_cache.info";
+    private static final String METRICS_NAME_GROUP_MEMBERS_CACHE = "group.near_cache.members";
+    private static final String METRICS_NAME_INVALIDATION_LAG = "group.near_cache.invalidation.lag";
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    @Getter
+    private final boolean enabled;
+    @Nullable
+    private final Cache<Long, GroupInfo> groupInfoCache;
+    @Nullable
+    private final Cache<Long, GroupMembers> groupMembersCache;
+    /**
+     * Used to avoid caching a stale value loaded before an invalidation but put after the invalidation
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    @Nullable
+    private final Timer invalidationLagTimer;
+
+    public GroupNearCacheService(
+            TurmsPropertiesManager turmsPropertiesManager,
+            @Qualifier("groupMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MetricsService metricsService) {
+        this.mongoTemplate = mongoTemplate;
+        GroupProperties groupProperties = turmsPropertiesManager.getLocalProperties().getService().getGroup();
+        enabled = groupProperties.isNearCacheEnabled();
+        if (!enabled) {
+            groupInfoCache = null;
+            groupMembersCache = null;
+            invalidationLagTimer = null;
+            return;
+        }
+        int maxSize = groupProperties.getNearCacheMaxSize();
+        Duration expireAfter = Duration.ofSeconds(groupProperties.getNearCacheExpireAfterSeconds());
+        groupInfoCache = newCache(maxSize, expireAfter);
+        groupMembersCache = newCache(maxSize, expireAfter);
+        MeterRegistry registry = metricsService.getRegistry();
+        CaffeineCacheMetrics.monitor(registry, groupInfoCache, METRICS_NAME_GROUP_INFO_CACHE);
+        CaffeineCacheMetrics.monitor(registry, groupMembersCache, METRICS_NAME_GROUP_MEMBERS_CACHE);
+        invalidationLagTimer = registry.timer(METRICS_NAME_INVALIDATION_LAG);
+        listenGroupVersionChangeEvents();
+    }
+
+    private static <V> Cache<Long, V> newCache(int maxSize, Duration expireAfter) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .expireAfterWrite(expireAfter)
+                .recordStats();
+        if (maxSize > -1) {
+            builder.maximumSize(maxSize);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return empty if the group doesn't exist
+     */
+    public Mono<GroupInfo> getGroupInfo(@NotNull Long groupId) {
+        try {
+            AssertUtil.notNull(groupId, "groupId");
+            AssertUtil.state(enabled, "The near cache of groups is disabled");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        GroupInfo groupInfo = groupInfoCache.getIfPresent(groupId);
+        if (groupInfo != null) {
+            return Mono.just(groupInfo);
+        }
+        long generation = generations.get(getGenerationIndex(groupId));
+        Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(groupId));
+        query.fields()
+                .include(Group.Fields.TYPE_ID)
+                .include(Group.Fields.MUTE_END_DATE)
+                .include(Group.Fields.IS_ACTIVE)
+                .include(Group.Fields.DELETION_DATE);
+        return mongoTemplate.findOne(query, Group.class, Group.COLLECTION_NAME)
+                .map(group -> {
+                    GroupInfo info = new GroupInfo(group.getTypeId(),
+                            group.getMuteEndDate(),
+                            group.getIsActive() != null && group.getIsActive(),
+                            group.getDeletionDate());
+                    putIfNotInvalidated(groupInfoCache, groupId, info, generation);
+                    return info;
+                });
+    }
+
+    public Mono<GroupMembers> getGroupMembers(@NotNull Long groupId) {
+        try {
+            AssertUtil.notNull(groupId, "groupId");
+            AssertUtil.state(enabled, "The near cache of groups is disabled");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        GroupMembers members = groupMembersCache.getIfPresent(groupId);
+        if (members != null) {
+            return Mono.just(members);
+        }
+        long generation = generations.get(getGenerationIndex(groupId));
+        Query query = new Query().addCriteria(Criteria.where(GroupMember.Fields.ID_GROUP_ID).is(groupId));
+        query.fields()
+                .include(GroupMember.Fields.ID_USER_ID)
+                .include(GroupMember.Fields.MUTE_END_DATE);
+        return mongoTemplate.find(query, GroupMember.class, GroupMember.COLLECTION_NAME)
+                .collect(HashMap<Long, Date>::new, (map, member) -> map.put(member.getKey().getUserId(), member.getMuteEndDate()))
+                .map(muteEndDateByMemberId -> {
+                    GroupMembers groupMembers = new GroupMembers(Collections.unmodifiableMap(muteEndDateByMemberId));
+                    putIfNotInvalidated(groupMembersCache, groupId, groupMembers, generation);
+                    return groupMembers;
+                });
+    }
+
+    public void invalidate(@NotNull Long groupId, boolean invalidateInfo, boolean invalidateMembers) {
+        if (!enabled) {
+            return;
+        }
+        generations.incrementAndGet(getGenerationIndex(groupId));
+        if (invalidateInfo) {
+            groupInfoCache.invalidate(groupId);
+        }
+        if (invalidateMembers) {
+            groupMembersCache.invalidate(groupId);
+        }
+    }
+
+    public void invalidateAllMembers() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        groupMembersCache.invalidateAll();
+    }
+
+    private <V> void putIfNotInvalidated(Cache<Long, V> cache, Long groupId, V value, long generation) {
+        cache.put(groupId, value);
+        // Check after putting so that an invalidation that happens during putting won't be missed
+        if (generations.get(getGenerationIndex(groupId)) != generation) {
+            cache.invalidate(groupId);
+        }
+    }
+
+    private static int getGenerationIndex(long groupId) {
+        return (int) (groupId ^ (groupId >>> 32)) & (GENERATION_STRIPES - 1);
+    }
+
+    private void listenGroupVersionChangeEvents() {
+        mongoTemplate.changeStream(GroupVersion.class)
+                .watchCollection(GroupVersion.class)
+                .listen()
+                .doOnNext(event -> {
+                    OperationType operationType = event.getOperationType();
+                    switch (operationType) {
+                        case UPDATE:
+                            UpdateDescription description = event.getRaw().getUpdateDescription();
+                            BsonDocument updatedFields = description != null ? description.getUpdatedFields() : null;
+                            if (updatedFields != null) {
+                                BsonValue infoVersion = updatedFields.get(GroupVersion.Fields.INFO);
+                                BsonValue membersVersion = updatedFields.get(GroupVersion.Fields.MEMBERS);
+                                if (infoVersion != null || membersVersion != null) {
+                                    invalidate(ChangeStreamUtil.getIdAsLong(event), infoVersion != null, membersVersion != null);
+                                    recordInvalidationLag(infoVersion);
+                                    recordInvalidationLag(membersVersion);
+                                }
+                            }
+                            break;
+                        case INSERT:
+                        case REPLACE:
+                        case DELETE:
+                            invalidate(ChangeStreamUtil.getIdAsLong(event), true, true);
+                            break;
+                        case INVALIDATE:
+                            groupInfoCache.invalidateAll();
+                            groupMembersCache.invalidateAll();
+                            break;
+                        default:
+                            log.error("Detect an illegal operation on GroupVersion collection: " + event);
+                    }
+                })
+                .onErrorContinue((throwable, o) -> log.error("Error while processing the change stream event of GroupVersion: {}", o, throwable))
+                .subscribe();
+    }
+
+    private void recordInvalidationLag(@Nullable BsonValue version) {
+        if (version != null && version.isDateTime()) {
+            long lag = System.currentTimeMillis() - version.asDateTime().getValue();
+            invalidationLagTimer.record(Math.max(0, lag), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Data
+    public static final class GroupInfo {
+        @Nullable
+        private final Long typeId;
+        @Nullable
+        private final Date muteEndDate;
+        private final boolean isActive;
+        @Nullable
+        private final Date deletionDate;
+
+        public boolean isMuted() {
+            return muteEndDate != null && muteEndDate.getTime() > System.currentTimeMillis();
+        }
+
+        public boolean isActiveAndNotDeleted() {
+            return isActive && deletionDate == null;
+        }
+    }
+
+    @Data
+    public static final class GroupMembers {
+        /**
+         * Member ID -> Mute end date
+         */
+        private final Map<Long, Date> muteEndDateByMemberId;
+
+        public boolean isMember(Long userId) {
+            return muteEndDateByMemberId.containsKey(userId);
+        }
+
+        public boolean isMemberMuted(Long userId) {
+            Date muteEndDate = muteEndDateByMemberId.get(userId);
+            return muteEndDate != null && muteEndDate.getTime() > System.currentTimeMillis();
+        }
+
+        public Set<Long> getMemberIds() {
+            return muteEndDateByMemberId.keySet();
+        }
+    }
+
+}
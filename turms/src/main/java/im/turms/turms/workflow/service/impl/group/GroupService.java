@@ -28,6 +28,7 @@ import im.turms.common.util.Validator;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.cluster.service.idgen.ServiceType;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
 import im.turms.turms.util.ProtoUtil;
 import im.turms.turms.workflow.dao.builder.QueryBuilder;
@@ -250,6 +251,7 @@ public class GroupService {
             @Nullable DateRange muteEndDateRange,
             @Nullable Set<Long> memberIds,
             @Nullable Integer page,
+            @Nullable ContinuationToken continuationToken,
             @Nullable Integer size) {
         return getGroupIdsFromGroupIdsAndMemberIds(ids, memberIds)
                 .defaultIfEmpty(Collections.emptySet())
@@ -264,7 +266,7 @@ public class GroupService {
                             .addBetweenIfNotNull(Group.Fields.CREATION_DATE, creationDateRange)
                             .addBetweenIfNotNull(Group.Fields.DELETION_DATE, deletionDateRange)
                             .addBetweenIfNotNull(Group.Fields.MUTE_END_DATE, muteEndDateRange)
-                            .paginateIfNotNull(page, size);
+                            .paginateIfNotNull(page, continuationToken, size);
                     return mongoTemplate.find(query, Group.class, Group.COLLECTION_NAME);
                 });
     }
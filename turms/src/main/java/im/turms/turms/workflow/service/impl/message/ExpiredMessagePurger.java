@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.client.result.DeleteResult;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.property.env.service.business.message.ExpiredMessagePurgeProperties;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.plugin.extension.handler.ExpiredMessageAutoDeletionNotificationHandler;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessagePurgeCheckpoint;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Deletes expired messages and their statuses chunk by chunk instead of in one transaction
+ * so that the memory and the transaction size are bounded by the chunk size:
+ * 1. Walk the expired messages in the order of (deliveryDate, id) with a keyset cursor;
+ * 2. Pass every chunk to {@link ExpiredMessageAutoDeletionNotificationHandler} to get the messages to delete;
+ * 3. Delete the statuses of the messages and then the messages so that no status is orphaned if the purge is interrupted;
+ * 4. Persist the position of the chunk as the checkpoint, and pause to limit the deletion rate.
+ * <p>
+ * An interrupted purge resumes from the checkpoint, and the checkpoint is removed once the purge completes
+ * so that the messages kept by the handlers are passed to the handlers again in the next purge.
+ * If the purge is distributed, every active turms server purges the messages whose "id % server count"
+ * equals its index with its own checkpoint.
+ * <p>
+ * If the message collections are bucketed by time, the delivery dates are the server time, and there is no handler,
+ * the buckets whose messages have all expired are dropped as a whole before the chunks are purged.
+ *
+ * @author James Chen
+ */
+@Log4j2
+public class ExpiredMessagePurger {
+
+    private static final Comparator<Message> CHUNK_ORDER = Comparator.comparing(Message::getDeliveryDate)
+            .thenComparing(Message::getId);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
+    private final Node node;
+    private final Supplier<List<ExpiredMessageAutoDeletionNotificationHandler>> handlersSupplier;
+    private final Counter deletedDocumentsCounter;
+    private final AtomicBoolean isPurging = new AtomicBoolean();
+
+    public ExpiredMessagePurger(
+            ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
+            Node node,
+            Supplier<List<ExpiredMessageAutoDeletionNotificationHandler>> handlersSupplier,
+            Counter deletedDocumentsCounter) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
+        this.node = node;
+        this.handlersSupplier = handlersSupplier;
+        this.deletedDocumentsCounter = deletedDocumentsCounter;
+    }
+
+    /**
+     * @return the number of the deleted messages and message statuses
+     */
+    public Mono<Long> purge(int timeToLiveHours) {
+        if (!isPurging.compareAndSet(false, true)) {
+            log.info("Skipped purging expired messages because the previous purge is still running");
+            return Mono.just(0L);
+        }
+        ExpiredMessagePurgeProperties properties = node.getSharedProperties().getService().getMessage().getExpiredMessagePurge();
+        int partitionIndex = 0;
+        int partitionCount = 1;
+        if (properties.isDistributed()) {
+            DiscoveryService discoveryService = node.getDiscoveryService();
+            Integer localMemberIndex = discoveryService.getLocalServiceMemberIndex();
+            if (localMemberIndex == null) {
+                isPurging.set(false);
+                return Mono.just(0L);
+            }
+            partitionIndex = localMemberIndex;
+            partitionCount = discoveryService.getActiveServiceMemberList().size();
+        }
+        Date expirationDate = Date.from(Instant.now().minus(timeToLiveHours, ChronoUnit.HOURS));
+        PurgeContext context = new PurgeContext(expirationDate, partitionIndex, partitionCount, properties);
+        long startTime = System.currentTimeMillis();
+        // The handlers need to check every expired message so the buckets cannot be dropped as a whole
+        Mono<Integer> dropExpiredCollections = context.partitionIndex == 0 && !context.hasHandlers
+                ? messageCollectionRouter.dropExpiredCollections(expirationDate)
+                : Mono.just(0);
+        return dropExpiredCollections
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        log.info("Dropped {} buckets of expired messages", count);
+                    }
+                })
+                .then(mongoTemplate.findById(context.checkpointId, MessagePurgeCheckpoint.class, MessagePurgeCheckpoint.COLLECTION_NAME))
+                .defaultIfEmpty(new MessagePurgeCheckpoint(context.checkpointId, null, null))
+                .flatMap(checkpoint -> {
+                    if (checkpoint.getDeliveryDate() != null) {
+                        log.info("Resuming the purge of expired messages from the checkpoint: {}", checkpoint);
+                    }
+                    return purgeChunks(context, checkpoint.getDeliveryDate(), checkpoint.getMessageId());
+                })
+                .doOnSuccess(count -> log.info("Purged {} expired messages and statuses in {} millis",
+                        count, System.currentTimeMillis() - startTime))
+                .doFinally(signal -> isPurging.set(false));
+    }
+
+    /**
+     * Repeat purging the next chunk instead of recursing
+     * so that the depth of the operator chain doesn't grow with the number of chunks
+     */
+    private Mono<Long> purgeChunks(
+            PurgeContext context,
+            @Nullable Date lastDeliveryDate,
+            @Nullable Long lastMessageId) {
+        PurgeCursor cursor = new PurgeCursor(lastDeliveryDate, lastMessageId);
+        return Mono.defer(() -> purgeChunk(context, cursor))
+                .repeat(() -> !cursor.isCompleted)
+                .then(Mono.defer(() -> removeCheckpoint(context)))
+                .then(Mono.fromCallable(() -> cursor.deletedCount));
+    }
+
+    /**
+     * Purge the chunk after the cursor and move the cursor to the end of the chunk
+     */
+    private Mono<Void> purgeChunk(PurgeContext context, PurgeCursor cursor) {
+        long startTime = System.nanoTime();
+        return queryChunk(context, cursor.lastDeliveryDate, cursor.lastMessageId)
+                .collectList()
+                .flatMap(messages -> {
+                    if (messages.isEmpty()) {
+                        cursor.isCompleted = true;
+                        return Mono.empty();
+                    }
+                    Message lastMessage = messages.get(messages.size() - 1);
+                    return filterByHandlers(messages)
+                            .flatMap(this::deleteMessagesAndStatuses)
+                            .flatMap(count -> saveCheckpoint(context, lastMessage).thenReturn(count))
+                            .flatMap(count -> {
+                                deletedDocumentsCounter.increment(count);
+                                cursor.lastDeliveryDate = lastMessage.getDeliveryDate();
+                                cursor.lastMessageId = lastMessage.getId();
+                                cursor.deletedCount += count;
+                                if (messages.size() < context.chunkSize) {
+                                    cursor.isCompleted = true;
+                                    return Mono.empty();
+                                }
+                                Duration pause = getPause(context, count, System.nanoTime() - startTime);
+                                return pause.isZero()
+                                        ? Mono.empty()
+                                        : Mono.delay(pause).then();
+                            });
+                });
+    }
+
+    private Flux<Message> queryChunk(
+            PurgeContext context,
+            @Nullable Date lastDeliveryDate,
+            @Nullable Long lastMessageId) {
+        Criteria criteria;
+        if (lastDeliveryDate == null) {
+            criteria = Criteria.where(Message.Fields.DELIVERY_DATE).lt(context.expirationDate);
+        } else {
+            criteria = Criteria.where(Message.Fields.DELIVERY_DATE).gte(lastDeliveryDate).lt(context.expirationDate)
+                    .orOperator(Criteria.where(Message.Fields.DELIVERY_DATE).gt(lastDeliveryDate),
+                            Criteria.where(DaoConstant.ID_FIELD_NAME).gt(lastMessageId));
+        }
+        if (context.partitionCount > 1) {
+            criteria.and(DaoConstant.ID_FIELD_NAME).mod(context.partitionCount, context.partitionIndex);
+        }
+        Query query = new Query(criteria)
+                .with(Sort.by(Sort.Direction.ASC, Message.Fields.DELIVERY_DATE, DaoConstant.ID_FIELD_NAME))
+                .limit(context.chunkSize);
+        if (!context.hasHandlers) {
+            query.fields()
+                    .include(DaoConstant.ID_FIELD_NAME)
+                    .include(Message.Fields.DELIVERY_DATE);
+        }
+        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames(DateRange.of(null, context.expirationDate));
+        return messageCollectionRouter.find(query, Message.class, collectionNames, CHUNK_ORDER);
+    }
+
+    private Mono<List<Long>> filterByHandlers(List<Message> messages) {
+        List<ExpiredMessageAutoDeletionNotificationHandler> handlers = handlersSupplier.get();
+        Mono<List<Message>> messagesMono = Mono.just(messages);
+        for (ExpiredMessageAutoDeletionNotificationHandler handler : handlers) {
+            messagesMono = messagesMono.flatMap(messagesToDelete -> messagesToDelete.isEmpty()
+                    ? Mono.just(messagesToDelete)
+                    : handler.getMessagesToDelete(messagesToDelete));
+        }
+        return messagesMono
+                .defaultIfEmpty(List.of())
+                .map(messagesToDelete -> {
+                    List<Long> messageIds = new ArrayList<>(messagesToDelete.size());
+                    for (Message message : messagesToDelete) {
+                        messageIds.add(message.getId());
+                    }
+                    return messageIds;
+                });
+    }
+
+    /**
+     * @return the number of the deleted messages and message statuses
+     */
+    private Mono<Long> deleteMessagesAndStatuses(List<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return Mono.just(0L);
+        }
+        Query messageStatusesQuery = new Query().addCriteria(Criteria.where(MessageStatus.Fields.ID_MESSAGE_ID).in(messageIds));
+        Query messagesQuery = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(messageIds));
+        List<String> messageStatusCollectionNames = messageCollectionRouter.getMessageStatusCollectionNames(messageIds);
+        List<String> messageCollectionNames = messageCollectionRouter.getMessageCollectionNames(messageIds);
+        return messageCollectionRouter.remove(messageStatusesQuery, MessageStatus.class, messageStatusCollectionNames)
+                .zipWhen(statusesResult -> messageCollectionRouter.remove(messagesQuery, Message.class, messageCollectionNames))
+                .map(results -> getDeletedCount(results.getT1()) + getDeletedCount(results.getT2()));
+    }
+
+    private static long getDeletedCount(DeleteResult result) {
+        return result.wasAcknowledged() ? result.getDeletedCount() : 0;
+    }
+
+    private Mono<Void> saveCheckpoint(PurgeContext context, Message lastMessage) {
+        MessagePurgeCheckpoint checkpoint = new MessagePurgeCheckpoint(context.checkpointId,
+                lastMessage.getDeliveryDate(),
+                lastMessage.getId());
+        return mongoTemplate.save(checkpoint, MessagePurgeCheckpoint.COLLECTION_NAME).then();
+    }
+
+    private Mono<Void> removeCheckpoint(PurgeContext context) {
+        Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(context.checkpointId));
+        return mongoTemplate.remove(query, MessagePurgeCheckpoint.class, MessagePurgeCheckpoint.COLLECTION_NAME).then();
+    }
+
+    private static Duration getPause(PurgeContext context, long deletedCount, long elapsedNanos) {
+        if (context.maxDocumentsPerSecond <= 0 || deletedCount == 0) {
+            return Duration.ZERO;
+        }
+        long expectedNanos = deletedCount * TimeUnit.SECONDS.toNanos(1) / context.maxDocumentsPerSecond;
+        long pauseNanos = expectedNanos - elapsedNanos;
+        return pauseNanos > 0 ? Duration.ofNanos(pauseNanos) : Duration.ZERO;
+    }
+
+    /**
+     * The position of the purge, which is only accessed by the chunks purged one by one
+     */
+    private static final class PurgeCursor {
+        @Nullable
+        private Date lastDeliveryDate;
+        @Nullable
+        private Long lastMessageId;
+        private long deletedCount;
+        private boolean isCompleted;
+
+        private PurgeCursor(@Nullable Date lastDeliveryDate, @Nullable Long lastMessageId) {
+            this.lastDeliveryDate = lastDeliveryDate;
+            this.lastMessageId = lastMessageId;
+        }
+    }
+
+    private final class PurgeContext {
+        private final Date expirationDate;
+        private final int partitionIndex;
+        private final int partitionCount;
+        private final String checkpointId;
+        private final int chunkSize;
+        private final int maxDocumentsPerSecond;
+        private final boolean hasHandlers;
+
+        private PurgeContext(Date expirationDate,
+                             int partitionIndex,
+                             int partitionCount,
+                             ExpiredMessagePurgeProperties properties) {
+            this.expirationDate = expirationDate;
+            this.partitionIndex = partitionIndex;
+            this.partitionCount = partitionCount;
+            checkpointId = partitionIndex + "/" + partitionCount;
+            chunkSize = properties.getChunkSize();
+            maxDocumentsPerSecond = properties.getMaxDocumentsPerSecond();
+            hasHandlers = !handlersSupplier.get().isEmpty();
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import im.turms.server.common.property.env.service.business.message.HotGroupFanOutProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUPS_GAUGE_NAME;
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_DURATION_NAME;
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_MESSAGES_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_RECIPIENTS_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_TAG_GROUP_ID;
+
+/**
+ * Detects the groups whose messages are expensive to fan out,
+ * i.e. "messages per second * recipients" reaches the hotness threshold.
+ * <p>
+ * The message rate of a group is estimated with a sliding window approximated by two fixed windows:
+ * rate = (previous window count * the uncovered ratio of the previous window + current window count) / window.
+ * Only the groups whose messages have enough recipients are tracked.
+ *
+ * @author James Chen
+ */
+public class HotGroupDetector {
+
+    private final MeterRegistry registry;
+    private final int minRecipientCount;
+    private final long hotnessThreshold;
+    private final long windowNanos;
+    private final int windowSeconds;
+    private final Cache<Long, GroupStats> statsByGroupId;
+    private final AtomicInteger hotGroupCount = new AtomicInteger();
+
+    public HotGroupDetector(HotGroupFanOutProperties properties, MeterRegistry registry) {
+        this.registry = registry;
+        minRecipientCount = properties.getMinRecipientCount();
+        hotnessThreshold = properties.getHotnessThreshold();
+        windowSeconds = properties.getRateWindowSeconds();
+        windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+        statsByGroupId = Caffeine.newBuilder()
+                .maximumSize(properties.getMaxTrackedGroups())
+                // A group cannot be hot if it has had no message within two windows
+                .expireAfterAccess(Duration.ofSeconds(windowSeconds * 2L))
+                .removalListener((Long groupId, GroupStats stats, RemovalCause cause) -> {
+                    if (stats != null) {
+                        stats.removeMeters();
+                    }
+                })
+                .build();
+        registry.gauge(HOT_GROUPS_GAUGE_NAME, hotGroupCount);
+    }
+
+    /**
+     * Record a message of the group
+     *
+     * @return the stats of the group if the group is hot; otherwise null
+     */
+    @Nullable
+    public GroupStats recordMessage(long groupId, int recipientCount) {
+        if (recipientCount < minRecipientCount) {
+            return null;
+        }
+        GroupStats stats = statsByGroupId.get(groupId, GroupStats::new);
+        double rate = stats.recordMessage(System.nanoTime());
+        if (rate * recipientCount < hotnessThreshold) {
+            return null;
+        }
+        stats.registerMetersIfAbsent();
+        return stats;
+    }
+
+    public final class GroupStats {
+
+        private final long groupId;
+        private long windowStartNanos;
+        private int previousWindowCount;
+        private int currentWindowCount;
+
+        @Nullable
+        private volatile HotGroupMeters meters;
+
+        private GroupStats(long groupId) {
+            this.groupId = groupId;
+            windowStartNanos = System.nanoTime();
+        }
+
+        /**
+         * @return the estimated messages per second
+         */
+        private synchronized double recordMessage(long now) {
+            long elapsedNanos = now - windowStartNanos;
+            if (elapsedNanos >= windowNanos) {
+                long elapsedWindows = elapsedNanos / windowNanos;
+                previousWindowCount = elapsedWindows == 1 ? currentWindowCount : 0;
+                currentWindowCount = 0;
+                windowStartNanos += elapsedWindows * windowNanos;
+                elapsedNanos = now - windowStartNanos;
+            }
+            currentWindowCount++;
+            double previousWindowWeight = 1 - (double) elapsedNanos / windowNanos;
+            return (previousWindowCount * previousWindowWeight + currentWindowCount) / windowSeconds;
+        }
+
+        /**
+         * Only register the meters tagged with the group ID for hot groups to bound the cardinality
+         */
+        private void registerMetersIfAbsent() {
+            if (meters == null) {
+                synchronized (this) {
+                    if (meters == null) {
+                        meters = new HotGroupMeters(Tags.of(HOT_GROUP_FAN_OUT_TAG_GROUP_ID, String.valueOf(groupId)));
+                        hotGroupCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        private synchronized void removeMeters() {
+            HotGroupMeters groupMeters = meters;
+            if (groupMeters != null) {
+                meters = null;
+                registry.remove(groupMeters.messagesCounter);
+                registry.remove(groupMeters.recipientsCounter);
+                registry.remove(groupMeters.fanOutTimer);
+                hotGroupCount.decrementAndGet();
+            }
+        }
+
+        public void recordFanOut(int recipientCount, long durationNanos) {
+            HotGroupMeters groupMeters = meters;
+            if (groupMeters != null) {
+                groupMeters.messagesCounter.increment();
+                groupMeters.recipientsCounter.increment(recipientCount);
+                groupMeters.fanOutTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+    }
+
+    private final class HotGroupMeters {
+        private final Counter messagesCounter;
+        private final Counter recipientsCounter;
+        private final Timer fanOutTimer;
+
+        private HotGroupMeters(Tags tags) {
+            messagesCounter = registry.counter(HOT_GROUP_FAN_OUT_MESSAGES_COUNTER_NAME, tags);
+            recipientsCounter = registry.counter(HOT_GROUP_FAN_OUT_RECIPIENTS_COUNTER_NAME, tags);
+            fanOutTimer = registry.timer(HOT_GROUP_FAN_OUT_DURATION_NAME, tags);
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import im.turms.server.common.property.env.service.business.message.HotGroupFanOutProperties;
+import im.turms.server.common.service.session.UserStatusService;
+import im.turms.server.common.util.ReactorUtil;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.log4j.Log4j2;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans out the notifications of hot groups on dedicated workers
+ * so that the large broadcasts don't occupy the threads shared by other notifications.
+ * The recipients on a turms-gateway server are sent in chunks
+ * and the chunks are paced to smooth the load on the gateway server.
+ *
+ * @author James Chen
+ * @see HotGroupDetector
+ */
+@Log4j2
+public class HotGroupFanOutExecutor {
+
+    private final UserStatusService userStatusService;
+    private final NotificationSender sender;
+    private final Scheduler scheduler;
+    private final int chunkSize;
+    private final Duration chunkInterval;
+
+    public HotGroupFanOutExecutor(
+            UserStatusService userStatusService,
+            NotificationSender sender,
+            HotGroupFanOutProperties properties) {
+        this(userStatusService,
+                sender,
+                properties,
+                Schedulers.newParallel("turms-hot-group-fan-out", properties.getWorkerThreads(), true));
+    }
+
+    public HotGroupFanOutExecutor(
+            UserStatusService userStatusService,
+            NotificationSender sender,
+            HotGroupFanOutProperties properties,
+            Scheduler scheduler) {
+        this.userStatusService = userStatusService;
+        this.sender = sender;
+        this.scheduler = scheduler;
+        chunkSize = properties.getChunkSize();
+        chunkInterval = Duration.ofMillis(properties.getChunkIntervalMillis());
+    }
+
+    /**
+     * @param notificationData will be released once the notification has been sent to all chunks,
+     *                         or the fan-out fails or is cancelled
+     * @param recipientIds     should not be empty
+     * @return true if at least one recipient has received the notification
+     */
+    public Mono<Boolean> fanOut(ByteBuf notificationData, Set<Long> recipientIds, HotGroupDetector.GroupStats stats) {
+        long startTime = System.nanoTime();
+        NotificationDataReferences references = new NotificationDataReferences(notificationData);
+        return userStatusService.getNodeIdAndUserIdsMapByUserIds(recipientIds)
+                .subscribeOn(scheduler)
+                .publishOn(scheduler)
+                .flatMap(userIdsByNodeId -> {
+                    Set<String> nodeIds = userIdsByNodeId.keySet();
+                    if (nodeIds.isEmpty()) {
+                        return Mono.just(false);
+                    }
+                    int chunkCount = 0;
+                    List<long[]> recipientIdsList = new ArrayList<>(nodeIds.size());
+                    for (String nodeId : nodeIds) {
+                        long[] ids = OutboundMessageService.toSortedArray(userIdsByNodeId.get(nodeId));
+                        recipientIdsList.add(ids);
+                        chunkCount += (ids.length + chunkSize - 1) / chunkSize;
+                    }
+                    // Every RPC request will release the buffer once it has been sent
+                    if (!references.add(chunkCount - 1)) {
+                        return Mono.just(false);
+                    }
+                    List<Mono<Boolean>> monos = new ArrayList<>(nodeIds.size());
+                    int i = 0;
+                    for (String nodeId : nodeIds) {
+                        monos.add(sendInChunks(nodeId, references, recipientIdsList.get(i++)));
+                    }
+                    return ReactorUtil.atLeastOneTrue(monos);
+                })
+                .doFinally(signal -> {
+                    // Release the references of the chunks that haven't been sent
+                    // (e.g. no recipient is online, the fan-out fails or is cancelled)
+                    references.releaseAll();
+                    stats.recordFanOut(recipientIds.size(), System.nanoTime() - startTime);
+                });
+    }
+
+    /**
+     * The chunks of a node are sent one by one so that a slow gateway server only delays its own chunks
+     */
+    private Mono<Boolean> sendInChunks(String nodeId, NotificationDataReferences references, long[] recipientIds) {
+        if (recipientIds.length <= chunkSize) {
+            return send(nodeId, references, recipientIds);
+        }
+        int chunkCount = (recipientIds.length + chunkSize - 1) / chunkSize;
+        return Flux.range(0, chunkCount)
+                .concatMap(index -> {
+                    int from = index * chunkSize;
+                    long[] chunk = Arrays.copyOfRange(recipientIds, from, Math.min(recipientIds.length, from + chunkSize));
+                    Mono<Boolean> sendMono = send(nodeId, references, chunk);
+                    return index == 0 || chunkInterval.isZero()
+                            ? sendMono
+                            : sendMono.delaySubscription(chunkInterval, scheduler);
+                })
+                .reduce(false, (sent1, sent2) -> sent1 || sent2);
+    }
+
+    /**
+     * Don't propagate the error so that the following chunks can still be sent and release the buffer
+     */
+    private Mono<Boolean> send(String nodeId, NotificationDataReferences references, long[] recipientIds) {
+        return Mono.defer(() -> references.handOver()
+                        ? sender.send(nodeId, references.data, recipientIds)
+                        : Mono.just(false))
+                .onErrorResume(throwable -> {
+                    log.error("Failed to send the notification to {} recipients on the node {}", recipientIds.length, nodeId, throwable);
+                    return Mono.just(false);
+                });
+    }
+
+    @FunctionalInterface
+    public interface NotificationSender {
+        /**
+         * @param notificationData will be released once the notification has been sent
+         * @param recipientIds     should be sorted in ascending order without duplicates
+         */
+        Mono<Boolean> send(String nodeId, ByteBuf notificationData, long[] recipientIds);
+    }
+
+    /**
+     * Counts the references of the notification data that are still owned by the fan-out,
+     * i.e. haven't been handed over to the sender, so that every reference is released exactly once
+     * whether the chunks are sent, or the fan-out fails or is cancelled halfway
+     */
+    private static final class NotificationDataReferences {
+        private final ByteBuf data;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        private NotificationDataReferences(ByteBuf data) {
+            this.data = data;
+        }
+
+        /**
+         * @return false if the references have been released
+         */
+        private boolean add(int increment) {
+            if (increment == 0) {
+                return count.get() > 0;
+            }
+            // Retain before counting so that the count never exceeds the references held
+            data.retain(increment);
+            int current;
+            do {
+                current = count.get();
+                if (current == 0) {
+                    data.release(increment);
+                    return false;
+                }
+            } while (!count.compareAndSet(current, current + increment));
+            return true;
+        }
+
+        /**
+         * @return true if a reference has been handed over, and the caller should release it;
+         * false if the references have been released
+         */
+        private boolean handOver() {
+            int current;
+            do {
+                current = count.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!count.compareAndSet(current, current - 1));
+            return true;
+        }
+
+        private void releaseAll() {
+            int current = count.getAndSet(0);
+            if (current > 0) {
+                data.release(current);
+            }
+        }
+    }
+
+}
@@ -30,17 +30,23 @@ import im.turms.common.model.dto.request.TurmsRequest;
 import im.turms.common.util.Validator;
 import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.cluster.service.idgen.ServiceType;
+import im.turms.server.common.cluster.service.idgen.SnowflakeIdGenerator;
 import im.turms.server.common.manager.TrivialTaskManager;
 import im.turms.server.common.property.TurmsPropertiesManager;
 import im.turms.server.common.property.constant.TimeType;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
+import im.turms.turms.bo.PendingConversation;
+import im.turms.turms.bo.PendingMessageKey;
 import im.turms.turms.constant.DaoConstant;
-import im.turms.turms.plugin.extension.handler.ExpiredMessageAutoDeletionNotificationHandler;
 import im.turms.turms.plugin.manager.TurmsPluginManager;
 import im.turms.turms.util.ProtoUtil;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
 import im.turms.turms.workflow.dao.builder.QueryBuilder;
 import im.turms.turms.workflow.dao.builder.UpdateBuilder;
+import im.turms.turms.workflow.dao.domain.GroupMember;
+import im.turms.turms.workflow.dao.domain.GroupMessageWatermark;
 import im.turms.turms.workflow.dao.domain.Message;
 import im.turms.turms.workflow.dao.domain.MessageStatus;
 import im.turms.turms.workflow.dao.util.AggregationUtil;
@@ -63,6 +69,7 @@ import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.Min;
@@ -76,6 +83,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static im.turms.common.constant.statuscode.TurmsStatusCode.*;
+import static im.turms.turms.constant.MetricsConstant.PURGED_EXPIRED_MESSAGE_DOCUMENTS_COUNTER_NAME;
 import static im.turms.turms.constant.MetricsConstant.SENT_MESSAGES_COUNTER_NAME;
 
 /**
@@ -85,13 +93,19 @@ import static im.turms.turms.constant.MetricsConstant.SENT_MESSAGES_COUNTER_NAME
 @Log4j2
 public class MessageService {
 
+    static final int PENDING_CONVERSATION_QUERY_CONCURRENCY = 8;
+
     private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
     private final Node node;
     private final MessageStatusService messageStatusService;
     private final OutboundMessageService outboundMessageService;
     private final GroupMemberService groupMemberService;
     private final UserService userService;
     private final TurmsPluginManager turmsPluginManager;
+    private final MessageWriteBehindService messageWriteBehindService;
+    private final UnreadMessageCounterService unreadMessageCounterService;
+    private final ExpiredMessagePurger expiredMessagePurger;
     private final boolean pluginEnabled;
     @Getter
     private final TimeType timeType;
@@ -102,6 +116,7 @@ public class MessageService {
     @Autowired
     public MessageService(
             @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
             Node node,
             TurmsPropertiesManager turmsPropertiesManager,
             MessageStatusService messageStatusService,
@@ -110,14 +125,19 @@ public class MessageService {
             OutboundMessageService outboundMessageService,
             TurmsPluginManager turmsPluginManager,
             TrivialTaskManager taskManager,
-            MetricsService metricsService) {
+            MetricsService metricsService,
+            MessageWriteBehindService messageWriteBehindService,
+            UnreadMessageCounterService unreadMessageCounterService) {
         this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
         this.node = node;
         this.messageStatusService = messageStatusService;
         this.groupMemberService = groupMemberService;
         this.userService = userService;
         this.outboundMessageService = outboundMessageService;
         this.turmsPluginManager = turmsPluginManager;
+        this.messageWriteBehindService = messageWriteBehindService;
+        this.unreadMessageCounterService = unreadMessageCounterService;
         pluginEnabled = node.getSharedProperties().getPlugin().isEnabled();
         timeType = turmsPropertiesManager.getLocalProperties().getService().getMessage().getTimeType();
         int relayedMessageCacheMaxSize = turmsPropertiesManager.getLocalProperties().getService().getMessage().getSentMessageCacheMaxSize();
@@ -132,18 +152,29 @@ public class MessageService {
         }
 
         sentMessageCounter = metricsService.getRegistry().counter(SENT_MESSAGES_COUNTER_NAME);
+        expiredMessagePurger = new ExpiredMessagePurger(mongoTemplate,
+                messageCollectionRouter,
+                node,
+                () -> pluginEnabled
+                        ? turmsPluginManager.getExpiredMessageAutoDeletionNotificationHandlerList()
+                        : Collections.emptyList(),
+                metricsService.getRegistry().counter(PURGED_EXPIRED_MESSAGE_DOCUMENTS_COUNTER_NAME));
         // Set up the checker for expired messages join requests
         taskManager.reschedule(
                 "messagesChecker",
                 turmsPropertiesManager.getLocalProperties().getService().getMessage().getExpiredMessagesCheckerCron(),
                 () -> {
-                    if (node.isLocalNodeMaster()) {
+                    boolean isDistributed = node.getSharedProperties().getService().getMessage()
+                            .getExpiredMessagePurge()
+                            .isDistributed();
+                    if (isDistributed || node.isLocalNodeMaster()) {
                         int messagesTimeToLiveHours = node.getSharedProperties()
                                 .getService()
                                 .getMessage()
                                 .getMessageTimeToLiveHours();
                         if (messagesTimeToLiveHours != 0) {
-                            deleteExpiredMessagesAndStatuses(messagesTimeToLiveHours).subscribe();
+                            deleteExpiredMessagesAndStatuses(messagesTimeToLiveHours)
+                                    .subscribe(null, throwable -> log.error("Failed to purge expired messages", throwable));
                         }
                     }
                 });
@@ -165,7 +196,7 @@ public class MessageService {
         Query query = new Query()
                 .addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(messageId))
                 .addCriteria(Criteria.where(Message.Fields.SENDER_ID).is(senderId));
-        return mongoTemplate.exists(query, Message.class, Message.COLLECTION_NAME);
+        return mongoTemplate.exists(query, Message.class, messageCollectionRouter.getMessageCollectionName(messageId));
     }
 
     public Mono<Boolean> isMessageSentToUser(@NotNull Long messageId, @NotNull Long recipientId) {
@@ -183,7 +214,19 @@ public class MessageService {
         }
         MessageStatus.Key key = new MessageStatus.Key(messageId, recipientId);
         Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(key));
-        return mongoTemplate.exists(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        Mono<Boolean> existsMono = mongoTemplate.exists(query, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionName(messageId));
+        if (!messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+            return existsMono;
+        }
+        // No status is persisted for group messages in the WATERMARK mode
+        return existsMono.flatMap(exists -> exists
+                ? Mono.just(true)
+                : queryMessage(messageId)
+                .flatMap(message -> message.getIsGroupMessage()
+                        ? groupMemberService.isGroupMember(message.getTargetId(), recipientId)
+                        : Mono.just(false))
+                .defaultIfEmpty(false));
     }
 
     public Mono<Boolean> isMessageSentToUserOrByUser(@NotNull Long messageId, @NotNull Long userId) {
@@ -209,7 +252,7 @@ public class MessageService {
         if (messageMono == null) {
             Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(messageId));
             query.fields().include(Message.Fields.DELIVERY_DATE);
-            messageMono = mongoTemplate.findOne(query, Message.class, Message.COLLECTION_NAME);
+            messageMono = mongoTemplate.findOne(query, Message.class, messageCollectionRouter.getMessageCollectionName(messageId));
         }
         return messageMono
                 .map(message -> {
@@ -253,6 +296,7 @@ public class MessageService {
                 deletionDateRange,
                 Set.of(deliveryStatus),
                 page,
+                null,
                 size);
     }
 
@@ -263,7 +307,7 @@ public class MessageService {
             return Mono.error(e);
         }
         Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(messageId));
-        return mongoTemplate.findOne(query, Message.class, Message.COLLECTION_NAME);
+        return mongoTemplate.findOne(query, Message.class, messageCollectionRouter.getMessageCollectionName(messageId));
     }
 
     public Flux<Message> queryMessages(
@@ -277,6 +321,7 @@ public class MessageService {
             @Nullable DateRange deletionDateRange,
             @Nullable Set<MessageDeliveryStatus> deliveryStatuses,
             @Nullable Integer page,
+            @Nullable ContinuationToken continuationToken,
             @Nullable Integer size) {
         QueryBuilder builder = QueryBuilder.newBuilder()
                 .addIsIfNotNull(Message.Fields.IS_GROUP_MESSAGE, areGroupMessages)
@@ -289,7 +334,21 @@ public class MessageService {
         if (closeToDate) {
             direction = (deliveryDateRange != null && deliveryDateRange.getStart() != null) ? Sort.Direction.ASC : Sort.Direction.DESC;
         }
+        Comparator<Message> comparator = null;
+        if (direction != null) {
+            comparator = Comparator.comparing(Message::getDeliveryDate);
+            if (continuationToken != null) {
+                // Keep the same order as the keyset pagination in all collections
+                comparator = comparator.thenComparing(Message::getId);
+            }
+            if (direction == Sort.Direction.DESC) {
+                comparator = comparator.reversed();
+            }
+        } else if (continuationToken != null) {
+            comparator = Comparator.comparing(Message::getId);
+        }
         if (deliveryStatuses != null) {
+            Comparator<Message> finalComparator = comparator;
             Sort.Direction finalDirection = direction;
             return messageStatusService.queryMessagesIdsByDeliveryStatusesAndTargetIds(deliveryStatuses, areGroupMessages, targetIds)
                     .collect(Collectors.toSet())
@@ -301,26 +360,31 @@ public class MessageService {
                             ids.retainAll(messageIds);
                         }
                         builder.add(Criteria.where(DaoConstant.ID_FIELD_NAME).in(ids));
-                        Query query;
-                        if (finalDirection != null) {
-                            query = builder.paginateIfNotNull(page, size, finalDirection, Message.Fields.DELIVERY_DATE);
-                        } else {
-                            query = builder.paginateIfNotNull(page, size);
-                        }
-                        return mongoTemplate.find(query, Message.class, Message.COLLECTION_NAME);
+                        Query query = paginate(builder, page, continuationToken, size, finalDirection);
+                        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames(ids);
+                        return messageCollectionRouter.find(query, Message.class, collectionNames, finalComparator);
                     });
         } else {
             builder.addInIfNotNull(DaoConstant.ID_FIELD_NAME, messageIds);
-            Query query;
-            if (direction != null) {
-                query = builder.paginateIfNotNull(page, size, direction, Message.Fields.DELIVERY_DATE);
-            } else {
-                query = builder.paginateIfNotNull(page, size);
-            }
-            return mongoTemplate.find(query, Message.class, Message.COLLECTION_NAME);
+            Query query = paginate(builder, page, continuationToken, size, direction);
+            List<String> collectionNames = messageIds != null
+                    ? messageCollectionRouter.getMessageCollectionNames(messageIds)
+                    : messageCollectionRouter.getMessageCollectionNames(deliveryDateRange);
+            return messageCollectionRouter.find(query, Message.class, collectionNames, comparator);
         }
     }
 
+    private Query paginate(
+            QueryBuilder builder,
+            @Nullable Integer page,
+            @Nullable ContinuationToken continuationToken,
+            @Nullable Integer size,
+            @Nullable Sort.Direction direction) {
+        return direction != null
+                ? builder.paginateIfNotNull(page, continuationToken, size, direction, Message.Fields.DELIVERY_DATE)
+                : builder.paginateIfNotNull(page, continuationToken, size);
+    }
+
     public Mono<Message> saveMessage(
             @Nullable Long messageId,
             @NotNull Long senderId,
@@ -366,10 +430,20 @@ public class MessageService {
                 records,
                 burnAfter,
                 referenceId);
-        ReactiveMongoOperations mongoOperations = operations != null ? operations : mongoTemplate;
-        return mongoOperations.insert(message, Message.COLLECTION_NAME);
+        String collectionName = messageCollectionRouter.getMessageCollectionName(messageId);
+        if (operations != null) {
+            // The collections must have been ensured outside the transaction
+            return operations.insert(message, collectionName);
+        }
+        return messageCollectionRouter.ensureCollections(messageId)
+                .then(mongoTemplate.insert(message, collectionName));
     }
 
+    /**
+     * @param operations the operations of the transaction in which the statuses are inserted.
+     *                   Note that the unread message counters are incremented only if it is null
+     *                   because the caller should increment them after the transaction commits
+     */
     public Mono<Boolean> saveMessageStatuses(
             @NotNull Long messageId,
             @NotNull Boolean isGroupMessage,
@@ -378,6 +452,24 @@ public class MessageService {
             @NotNull Long targetId,
             @Nullable Set<Long> auxiliaryMemberIds,
             @Nullable ReactiveMongoOperations operations) {
+        return insertMessageStatuses(messageId, isGroupMessage, isSystemMessage, senderId, targetId,
+                auxiliaryMemberIds, operations)
+                .flatMap(statuses -> operations == null
+                        ? incrementUnreadMessageCounters(statuses).thenReturn(true)
+                        : Mono.just(true));
+    }
+
+    /**
+     * @return the inserted statuses
+     */
+    private Mono<List<MessageStatus>> insertMessageStatuses(
+            @NotNull Long messageId,
+            @NotNull Boolean isGroupMessage,
+            @NotNull Boolean isSystemMessage,
+            @NotNull Long senderId,
+            @NotNull Long targetId,
+            @Nullable Set<Long> auxiliaryMemberIds,
+            @Nullable ReactiveMongoOperations operations) {
         try {
             AssertUtil.notNull(messageId, "messageId");
             AssertUtil.notNull(isGroupMessage, "isGroupMessage");
@@ -388,7 +480,15 @@ public class MessageService {
             return Mono.error(e);
         }
         ReactiveMongoOperations mongoOperations = operations != null ? operations : mongoTemplate;
+        String collectionName = messageCollectionRouter.getMessageStatusCollectionName(messageId);
+        Mono<Void> ensureCollections = operations != null
+                ? Mono.empty()
+                : messageCollectionRouter.ensureCollections(messageId);
         if (isGroupMessage) {
+            if (messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+                // The statuses are derived from the watermarks of group members
+                return Mono.just(Collections.emptyList());
+            }
             Mono<Set<Long>> memberIdsMono;
             if (auxiliaryMemberIds != null) {
                 memberIdsMono = Mono.just(auxiliaryMemberIds);
@@ -400,7 +500,7 @@ public class MessageService {
             return memberIdsMono
                     .flatMap(memberIds -> {
                         if (memberIds.isEmpty()) {
-                            return Mono.just(true);
+                            return Mono.just(Collections.<MessageStatus>emptyList());
                         } else {
                             List<MessageStatus> messageStatuses = new ArrayList<>(memberIds.size());
                             for (Long memberId : memberIds) {
@@ -415,8 +515,9 @@ public class MessageService {
                                         null,
                                         null));
                             }
-                            return mongoOperations.insertAll(Mono.just(messageStatuses), MessageStatus.COLLECTION_NAME)
-                                    .then(Mono.just(true));
+                            return ensureCollections
+                                    .then(mongoOperations.insertAll(Mono.just(messageStatuses), collectionName).then())
+                                    .thenReturn(messageStatuses);
                         }
                     });
         } else {
@@ -430,8 +531,9 @@ public class MessageService {
                     null,
                     null,
                     null);
-            return mongoOperations.insert(messageStatus, MessageStatus.COLLECTION_NAME)
-                    .thenReturn(true);
+            return ensureCollections
+                    .then(mongoOperations.insert(messageStatus, collectionName))
+                    .thenReturn(List.of(messageStatus));
         }
     }
 
@@ -465,32 +567,287 @@ public class MessageService {
         if (messageId == null) {
             messageId = node.nextId(ServiceType.MESSAGE);
         }
+        if (messageWriteBehindService.isEnabled()) {
+            return saveMessageAndMessagesStatusInBackground(messageId, senderId, targetId, isGroupMessage, isSystemMessage,
+                    text, records, burnAfter, deliveryDate, referenceId, auxiliaryMemberIds);
+        }
+        if (isGroupMessage && messageStatusService.isGroupMessageStatusWatermarkEnabled()) {
+            // Only the message needs to be written so there is no need to open a transaction
+            return saveMessage(messageId, senderId, targetId, isGroupMessage, isSystemMessage, text, records,
+                    burnAfter, deliveryDate, referenceId, null);
+        }
         Date finalDeliveryDate = deliveryDate;
         Long finalMessageId = messageId;
-        return mongoTemplate.inTransaction()
-                .execute(operations -> saveMessage(
-                        finalMessageId,
-                        senderId,
-                        targetId,
-                        isGroupMessage,
-                        isSystemMessage,
-                        text,
-                        records,
-                        burnAfter,
-                        finalDeliveryDate,
-                        referenceId,
-                        operations)
-                        .zipWith(saveMessageStatuses(
+        // Collections cannot be created in transactions
+        return messageCollectionRouter.ensureCollections(messageId)
+                .thenMany(mongoTemplate.inTransaction()
+                        .execute(operations -> saveMessage(
                                 finalMessageId,
-                                isSystemMessage,
-                                isGroupMessage,
                                 senderId,
                                 targetId,
-                                auxiliaryMemberIds,
-                                operations))
-                        .map(Tuple2::getT1))
-                .retryWhen(DaoConstant.TRANSACTION_RETRY)
-                .singleOrEmpty();
+                                isGroupMessage,
+                                isSystemMessage,
+                                text,
+                                records,
+                                burnAfter,
+                                finalDeliveryDate,
+                                referenceId,
+                                operations)
+                                .zipWith(insertMessageStatuses(
+                                        finalMessageId,
+                                        isGroupMessage,
+                                        isSystemMessage,
+                                        senderId,
+                                        targetId,
+                                        auxiliaryMemberIds,
+                                        operations)))
+                        .retryWhen(DaoConstant.TRANSACTION_RETRY))
+                .singleOrEmpty()
+                .flatMap(messageAndStatuses -> incrementUnreadMessageCounters(messageAndStatuses.getT2())
+                        .thenReturn(messageAndStatuses.getT1()));
+    }
+
+    /**
+     * The counters are incremented after the message and its statuses have been committed
+     * instead of in the same transaction because the counters of popular conversations are hot documents
+     * and updating them in transactions results in write conflicts and retrying the whole transaction.
+     * The increment is best effort and the counters that have drifted are fixed when reconciling.
+     */
+    private Mono<Void> incrementUnreadMessageCounters(List<MessageStatus> statuses) {
+        return unreadMessageCounterService.incrementCounters(statuses, null)
+                .onErrorResume(t -> {
+                    log.error("Failed to increment the unread message counters of {} message statuses", statuses.size(), t);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Append the message to the write-behind log so that the sender is acknowledged
+     * and the message is forwarded without waiting for the transaction,
+     * or fall back to the transaction if the message cannot be appended.
+     * Note that the message and its statuses cannot be queried until the flusher persists them.
+     */
+    private Mono<Message> saveMessageAndMessagesStatusInBackground(
+            @NotNull Long messageId,
+            @NotNull Long senderId,
+            @NotNull Long targetId,
+            @NotNull Boolean isGroupMessage,
+            @NotNull Boolean isSystemMessage,
+            @Nullable String text,
+            @Nullable List<byte[]> records,
+            @Nullable Integer burnAfter,
+            @NotNull Date deliveryDate,
+            @Nullable Long referenceId,
+            @Nullable Set<Long> auxiliaryMemberIds) {
+        boolean isWatermarkGroupMessage = isGroupMessage && messageStatusService.isGroupMessageStatusWatermarkEnabled();
+        Mono<Collection<Long>> statusRecipientIdsMono;
+        if (!isGroupMessage) {
+            statusRecipientIdsMono = Mono.just(List.of(targetId));
+        } else if (isWatermarkGroupMessage) {
+            // The statuses are derived from the watermarks of group members
+            statusRecipientIdsMono = Mono.just(Collections.emptyList());
+        } else if (auxiliaryMemberIds != null) {
+            statusRecipientIdsMono = Mono.just(auxiliaryMemberIds);
+        } else {
+            statusRecipientIdsMono = groupMemberService
+                    .queryGroupMemberIds(targetId)
+                    .collect(Collectors.toList());
+        }
+        List<byte[]> persistentRecords = node.getSharedProperties().getService().getMessage().isRecordsPersistent()
+                ? records
+                : null;
+        Message message = new Message(
+                messageId,
+                isGroupMessage,
+                isSystemMessage,
+                deliveryDate,
+                null,
+                text,
+                senderId,
+                targetId,
+                persistentRecords,
+                burnAfter,
+                referenceId);
+        return statusRecipientIdsMono
+                .flatMap(recipientIds -> {
+                    if (messageWriteBehindService.enqueue(message, isWatermarkGroupMessage ? null : recipientIds)) {
+                        return Mono.just(message);
+                    }
+                    if (isWatermarkGroupMessage) {
+                        return saveMessage(messageId, senderId, targetId, isGroupMessage, isSystemMessage,
+                                text, records, burnAfter, deliveryDate, referenceId, null);
+                    }
+                    return messageCollectionRouter.ensureCollections(messageId)
+                            .thenMany(mongoTemplate.inTransaction()
+                                    .execute(operations -> saveMessage(messageId, senderId, targetId, isGroupMessage, isSystemMessage,
+                                            text, records, burnAfter, deliveryDate, referenceId, operations)
+                                            .zipWith(insertMessageStatuses(messageId, isGroupMessage, isSystemMessage, senderId, targetId,
+                                                    auxiliaryMemberIds, operations)))
+                                    .retryWhen(DaoConstant.TRANSACTION_RETRY))
+                            .singleOrEmpty()
+                            .flatMap(messageAndStatuses -> incrementUnreadMessageCounters(messageAndStatuses.getT2())
+                                    .thenReturn(messageAndStatuses.getT1()));
+                });
+    }
+
+    /**
+     * Used in the WATERMARK mode of group message statuses:
+     * a group message is pending for a member if it was delivered after the member joined the group
+     * and its ID is greater than the received watermark of the member in the group
+     * (see {@link #acknowledgeGroupMessages(Long, Collection, boolean)} for how the watermark moves).
+     * Note that the system messages and the non-system messages of a group are in the same conversation.
+     * <p>
+     * The oldest pending messages right after the watermark are returned
+     * so that acknowledging them advances the watermark without skipping any pending message.
+     *
+     * @return the conversations of the groups that have pending messages
+     */
+    public Flux<PendingConversation> queryPendingGroupConversations(@NotNull Long userId, int maxMessagesPerConversation) {
+        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames((DateRange) null);
+        return queryPendingGroupMessagesCriteria(userId, null)
+                .flatMapMany(groupIdAndCriteria -> Flux.fromIterable(groupIdAndCriteria.values()))
+                .flatMap(criteria -> {
+                    Query query = new Query(criteria)
+                            .with(Sort.by(Sort.Direction.ASC, DaoConstant.ID_FIELD_NAME))
+                            .limit(maxMessagesPerConversation);
+                    return messageCollectionRouter.find(query, Message.class, collectionNames, Comparator.comparing(Message::getId))
+                            .collectList()
+                            .filter(messages -> !messages.isEmpty())
+                            .flatMap(messages -> {
+                                PendingMessageKey key = new PendingMessageKey(true, false, messages.get(0).getTargetId());
+                                if (messages.size() < maxMessagesPerConversation) {
+                                    long lastMessageId = messages.get(messages.size() - 1).getId();
+                                    return Mono.just(new PendingConversation(key, messages.size(), lastMessageId, messages));
+                                }
+                                Query lastMessageQuery = new Query(criteria)
+                                        .with(Sort.by(Sort.Direction.DESC, DaoConstant.ID_FIELD_NAME))
+                                        .limit(1);
+                                lastMessageQuery.fields().include(DaoConstant.ID_FIELD_NAME);
+                                Mono<Long> lastMessageIdMono = messageCollectionRouter
+                                        .find(lastMessageQuery, Message.class, collectionNames, Comparator.comparing(Message::getId).reversed())
+                                        .next()
+                                        .map(Message::getId);
+                                return Mono.zip(messageCollectionRouter.count(new Query(criteria), Message.class, collectionNames),
+                                        lastMessageIdMono,
+                                        (total, lastMessageId) -> new PendingConversation(key, total, lastMessageId, messages));
+                            });
+                }, PENDING_CONVERSATION_QUERY_CONCURRENCY);
+    }
+
+    /**
+     * Used in the WATERMARK mode of group message statuses to derive the status of a group message for a member
+     */
+    public Mono<MessageStatus> queryGroupMessageStatus(@NotNull Long messageId, @NotNull Long userId) {
+        try {
+            AssertUtil.notNull(messageId, "messageId");
+            AssertUtil.notNull(userId, "userId");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        return queryMessage(messageId)
+                .filter(Message::getIsGroupMessage)
+                .flatMap(message -> messageStatusService.queryGroupMessageWatermark(userId, message.getTargetId())
+                        .map(watermark -> watermark.getReceivedMessageId() != null && watermark.getReceivedMessageId() >= messageId)
+                        .defaultIfEmpty(false)
+                        .map(received -> new MessageStatus(
+                                messageId,
+                                message.getTargetId(),
+                                message.getIsSystemMessage(),
+                                message.getSenderId(),
+                                userId,
+                                received ? MessageDeliveryStatus.RECEIVED : MessageDeliveryStatus.READY,
+                                null,
+                                null,
+                                null)));
+    }
+
+    public Mono<Boolean> acknowledgeGroupMessages(@NotNull Long userId, @NotEmpty Set<Long> messageIds) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notEmpty(messageIds, "messageIds");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        Query query = new Query()
+                .addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(messageIds))
+                .addCriteria(Criteria.where(Message.Fields.IS_GROUP_MESSAGE).is(true));
+        query.fields()
+                .include(Message.Fields.IS_GROUP_MESSAGE)
+                .include(Message.Fields.TARGET_ID);
+        return messageCollectionRouter.find(query, Message.class, messageCollectionRouter.getMessageCollectionNames(messageIds))
+                .collectList()
+                .flatMap(messages -> acknowledgeGroupMessages(userId, messages, false));
+    }
+
+    /**
+     * Advance the watermarks of the user with the group messages that the user has received.
+     * The watermark of a group only moves over the pending messages right after it that have all been acknowledged,
+     * so acknowledging a newer message, or acknowledging messages out of order,
+     * never marks an older pending message that hasn't been acknowledged as received.
+     * <p>
+     * Message IDs don't increase in the order of persistence across turms servers (or with the write-behind mode),
+     * so the watermark doesn't move over the messages generated within the grace period either.
+     * Otherwise, a message with a smaller ID that is persisted later would never be pending.
+     */
+    public Mono<Boolean> acknowledgeGroupMessages(
+            @NotNull Long userId,
+            @NotNull Collection<Message> messages,
+            boolean updateReadMessageId) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(messages, "messages");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        Map<Long, Set<Long>> groupIdAndMessageIdsMap = new HashMap<>();
+        for (Message message : messages) {
+            if (message.getIsGroupMessage()) {
+                groupIdAndMessageIdsMap.computeIfAbsent(message.getTargetId(), groupId -> new HashSet<>())
+                        .add(message.getId());
+            }
+        }
+        if (groupIdAndMessageIdsMap.isEmpty()) {
+            return Mono.just(true);
+        }
+        return queryPendingGroupMessagesCriteria(userId, groupIdAndMessageIdsMap.keySet())
+                .flatMapMany(groupIdAndCriteria -> Flux.fromIterable(groupIdAndCriteria.entrySet()))
+                .flatMap(entry -> {
+                    Long groupId = entry.getKey();
+                    return queryLastContiguousAcknowledgedMessageId(entry.getValue(), groupIdAndMessageIdsMap.get(groupId))
+                            .map(messageId -> Tuples.of(groupId, messageId));
+                }, PENDING_CONVERSATION_QUERY_CONCURRENCY)
+                .collectMap(Tuple2::getT1, Tuple2::getT2)
+                .flatMap(groupIdAndMessageIdMap -> groupIdAndMessageIdMap.isEmpty()
+                        ? Mono.just(true)
+                        : messageStatusService.updateGroupMessageWatermarks(userId, groupIdAndMessageIdMap, updateReadMessageId));
+    }
+
+    /**
+     * @param pendingMessagesCriteria the criteria of the pending messages of the user in a group
+     * @return the ID of the last message in the longest run of acknowledged messages generated before the grace period
+     * at the start of the pending messages in the ascending order of IDs,
+     * or empty if the oldest pending message hasn't been acknowledged or is within the grace period
+     */
+    private Mono<Long> queryLastContiguousAcknowledgedMessageId(
+            @NotNull Criteria pendingMessagesCriteria,
+            @NotEmpty Set<Long> acknowledgedMessageIds) {
+        Long maxAcknowledgedMessageId = Collections.max(acknowledgedMessageIds);
+        Query query = new Query(new Criteria().andOperator(pendingMessagesCriteria,
+                Criteria.where(DaoConstant.ID_FIELD_NAME).lte(maxAcknowledgedMessageId)))
+                .with(Sort.by(Sort.Direction.ASC, DaoConstant.ID_FIELD_NAME))
+                .limit(acknowledgedMessageIds.size());
+        query.fields().include(DaoConstant.ID_FIELD_NAME);
+        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames((DateRange) null);
+        long gracePeriodMillis = node.getSharedProperties().getService().getMessage()
+                .getGroupMessageWatermarkGracePeriodSeconds() * 1000L;
+        // Use the time in the ID instead of the delivery date because the delivery date may be specified by clients
+        long maxSettledTimestampMillis = System.currentTimeMillis() - gracePeriodMillis;
+        return messageCollectionRouter.find(query, Message.class, collectionNames, Comparator.comparing(Message::getId))
+                .takeWhile(message -> acknowledgedMessageIds.contains(message.getId())
+                        && SnowflakeIdGenerator.getTimestampMillis(message.getId()) <= maxSettledTimestampMillis)
+                .map(Message::getId)
+                .last(Long.MIN_VALUE)
+                .filter(messageId -> messageId != Long.MIN_VALUE);
     }
 
     public Flux<Long> queryExpiredMessagesIds(@NotNull Integer timeToLiveHours) {
@@ -503,64 +860,21 @@ public class MessageService {
         Query query = new Query()
                 .addCriteria(Criteria.where(Message.Fields.DELIVERY_DATE).lt(beforeDate));
         query.fields().include(DaoConstant.ID_FIELD_NAME);
-        return mongoTemplate.find(query, Message.class, Message.COLLECTION_NAME)
+        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames(DateRange.of(null, beforeDate));
+        return messageCollectionRouter.find(query, Message.class, collectionNames)
                 .map(Message::getId);
     }
 
-    public Mono<Boolean> deleteExpiredMessagesAndStatuses(@NotNull Integer timeToLiveHours) {
-        return queryExpiredMessagesIds(timeToLiveHours)
-                .collectList()
-                .flatMap(expiredMessageIds -> {
-                    if (expiredMessageIds.isEmpty()) {
-                        return Mono.just(true);
-                    } else {
-                        Mono<List<Long>> messageIdsToDeleteMono = Mono.just(expiredMessageIds);
-                        List<ExpiredMessageAutoDeletionNotificationHandler> handlerList = turmsPluginManager.getExpiredMessageAutoDeletionNotificationHandlerList();
-                        if (pluginEnabled && !handlerList.isEmpty()) {
-                            Query messagesQuery = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(expiredMessageIds));
-                            messageIdsToDeleteMono = mongoTemplate.find(messagesQuery, Message.class, Message.COLLECTION_NAME)
-                                    .collectList()
-                                    .flatMap(messages -> {
-                                        Mono<List<Message>> mono = Mono.just(messages);
-                                        for (ExpiredMessageAutoDeletionNotificationHandler handler : handlerList) {
-                                            mono = mono.flatMap(handler::getMessagesToDelete);
-                                        }
-                                        return mono;
-                                    })
-                                    .map(messages -> {
-                                        List<Long> messageIds = new ArrayList<>(messages.size());
-                                        for (Message message : messages) {
-                                            messageIds.add(message.getId());
-                                        }
-                                        return messageIds;
-                                    });
-                        }
-                        return messageIdsToDeleteMono
-                                .flatMap(messageIds -> mongoTemplate.inTransaction()
-                                        .execute(operations -> {
-                                            Query messagesQuery = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(messageIds));
-                                            Query messageStatusesQuery = new Query().addCriteria(Criteria.where(MessageStatus.Fields.ID_MESSAGE_ID).in(messageIds));
-                                            return operations.remove(messagesQuery, Message.class, Message.COLLECTION_NAME)
-                                                    .flatMap(deleteResult -> {
-                                                        if (deleteResult.wasAcknowledged()) {
-                                                            return operations.remove(messageStatusesQuery, MessageStatus.class, MessageStatus.COLLECTION_NAME)
-                                                                    .map(result -> {
-                                                                        if (result.wasAcknowledged()) {
-                                                                            return true;
-                                                                        } else {
-                                                                            throw new IllegalStateException("Failed to acknowledge the delete operation of message statues");
-                                                                        }
-                                                                    });
-                                                        } else {
-                                                            return Mono.error(new IllegalStateException("Failed to acknowledge the delete operation of messages"));
-                                                        }
-                                                    });
-                                        })
-                                        .retryWhen(DaoConstant.TRANSACTION_RETRY)
-                                        .singleOrEmpty())
-                                .defaultIfEmpty(true);
-                    }
-                });
+    /**
+     * @return the number of the deleted messages and message statuses
+     */
+    public Mono<Long> deleteExpiredMessagesAndStatuses(@NotNull Integer timeToLiveHours) {
+        try {
+            AssertUtil.notNull(timeToLiveHours, "timeToLiveHours");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        return expiredMessagePurger.purge(timeToLiveHours);
     }
 
     public Mono<Boolean> deleteMessages(
@@ -580,29 +894,31 @@ public class MessageService {
                     .getService().getMessage()
                     .isDeleteMessageLogicallyByDefault();
         }
+        List<String> messageCollectionNames = messageCollectionRouter.getMessageCollectionNames(messageIds);
+        List<String> messageStatusCollectionNames = messageCollectionRouter.getMessageStatusCollectionNames(messageIds);
         if (deleteLogically) {
             Update update = new Update().set(Message.Fields.DELETION_DATE, new Date());
             if (deleteMessageStatus) {
                 return mongoTemplate.inTransaction()
-                        .execute(operations -> operations.updateMulti(queryMessage, update, Message.class, Message.COLLECTION_NAME)
-                                .then(operations.remove(queryMessageStatus, MessageStatus.class, MessageStatus.COLLECTION_NAME))
+                        .execute(operations -> messageCollectionRouter.updateMulti(operations, queryMessage, update, Message.class, messageCollectionNames)
+                                .then(messageCollectionRouter.remove(operations, queryMessageStatus, MessageStatus.class, messageStatusCollectionNames))
                                 .thenReturn(true))
                         .retryWhen(DaoConstant.TRANSACTION_RETRY)
                         .singleOrEmpty();
             } else {
-                return mongoTemplate.updateMulti(queryMessage, update, Message.class, Message.COLLECTION_NAME)
+                return messageCollectionRouter.updateMulti(queryMessage, update, Message.class, messageCollectionNames)
                         .map(UpdateResult::wasAcknowledged);
             }
         } else {
             if (deleteMessageStatus) {
                 return mongoTemplate.inTransaction()
-                        .execute(operations -> operations.remove(queryMessage, Message.class, Message.COLLECTION_NAME)
-                                .then(operations.remove(queryMessageStatus, MessageStatus.class, MessageStatus.COLLECTION_NAME))
+                        .execute(operations -> messageCollectionRouter.remove(operations, queryMessage, Message.class, messageCollectionNames)
+                                .then(messageCollectionRouter.remove(operations, queryMessageStatus, MessageStatus.class, messageStatusCollectionNames))
                                 .thenReturn(true))
                         .retryWhen(DaoConstant.TRANSACTION_RETRY)
                         .singleOrEmpty();
             }
-            return mongoTemplate.remove(queryMessage, Message.class, Message.COLLECTION_NAME)
+            return messageCollectionRouter.remove(queryMessage, Message.class, messageCollectionNames)
                     .map(DeleteResult::wasAcknowledged);
         }
     }
@@ -630,7 +946,8 @@ public class MessageService {
                 .setIfNotNull(Message.Fields.RECORDS, records)
                 .build();
         ReactiveMongoOperations mongoOperations = operations != null ? operations : mongoTemplate;
-        return mongoOperations.updateMulti(query, update, Message.class, Message.COLLECTION_NAME)
+        List<String> collectionNames = messageCollectionRouter.getMessageCollectionNames(messageIds);
+        return messageCollectionRouter.updateMulti(mongoOperations, query, update, Message.class, collectionNames)
                 .map(UpdateResult::wasAcknowledged);
     }
 
@@ -677,11 +994,14 @@ public class MessageService {
                             ids.retainAll(messageIds);
                         }
                         Query query = builder.add(Criteria.where(DaoConstant.ID_FIELD_NAME).in(ids)).buildQuery();
-                        return mongoTemplate.count(query, Message.class, Message.COLLECTION_NAME);
+                        return messageCollectionRouter.count(query, Message.class, messageCollectionRouter.getMessageCollectionNames(ids));
                     });
         } else {
             Query query = builder.addInIfNotNull(DaoConstant.ID_FIELD_NAME, messageIds).buildQuery();
-            return mongoTemplate.count(query, Message.class, Message.COLLECTION_NAME);
+            List<String> collectionNames = messageIds != null
+                    ? messageCollectionRouter.getMessageCollectionNames(messageIds)
+                    : messageCollectionRouter.getMessageCollectionNames(deliveryDateRange);
+            return messageCollectionRouter.count(query, Message.class, collectionNames);
         }
     }
 
@@ -698,7 +1018,7 @@ public class MessageService {
                 mongoTemplate,
                 criteria,
                 Message.Fields.SENDER_ID,
-                Message.class);
+                messageCollectionRouter.getMessageCollectionNames(dateRange));
     }
 
     public Mono<Long> countGroupsThatSentMessages(@Nullable DateRange dateRange) {
@@ -710,7 +1030,7 @@ public class MessageService {
                 mongoTemplate,
                 criteria,
                 Message.Fields.TARGET_ID,
-                Message.class);
+                messageCollectionRouter.getMessageCollectionNames(dateRange));
     }
 
     public Mono<Long> countUsersWhoAcknowledgedMessage(
@@ -727,11 +1047,12 @@ public class MessageService {
             }
         }
 
+        // A message may be received long after its delivery so all collections are counted
         return AggregationUtil.countDistinct(
                 mongoTemplate,
                 criteria,
                 MessageStatus.Fields.ID_RECIPIENT_ID,
-                MessageStatus.class);
+                messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null));
     }
 
     public Mono<Long> countSentMessages(
@@ -743,7 +1064,7 @@ public class MessageService {
                 .addIsIfNotNull(Message.Fields.IS_GROUP_MESSAGE, areGroupMessages)
                 .addIsIfNotNull(Message.Fields.IS_SYSTEM_MESSAGE, areSystemMessages)
                 .buildQuery();
-        return mongoTemplate.count(query, Message.class, Message.COLLECTION_NAME);
+        return messageCollectionRouter.count(query, Message.class, messageCollectionRouter.getMessageCollectionNames(dateRange));
     }
 
     public Mono<Long> countSentMessagesOnAverage(
@@ -783,7 +1104,9 @@ public class MessageService {
             }
         }
 
-        return mongoTemplate.count(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        return messageCollectionRouter.count(query,
+                MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null));
     }
 
     public Mono<Long> countAcknowledgedMessagesOnAverage(
@@ -887,7 +1210,7 @@ public class MessageService {
         }
         Query query = new Query().addCriteria(Criteria.where(MessageStatus.Fields.ID_MESSAGE_ID).is(messageId));
         query.fields().include(MessageStatus.Fields.ID_RECIPIENT_ID);
-        return mongoTemplate.find(query, MessageStatus.class, MessageStatus.COLLECTION_NAME)
+        return mongoTemplate.find(query, MessageStatus.class, messageCollectionRouter.getMessageStatusCollectionName(messageId))
                 .map(status -> status.getKey().getRecipientId());
     }
 
@@ -899,7 +1222,7 @@ public class MessageService {
         }
         Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(messageId));
         query.fields().include(Message.Fields.SENDER_ID);
-        return mongoTemplate.findOne(query, Message.class, Message.COLLECTION_NAME)
+        return mongoTemplate.findOne(query, Message.class, messageCollectionRouter.getMessageCollectionName(messageId))
                 .map(Message::getSenderId);
     }
 
@@ -911,7 +1234,7 @@ public class MessageService {
         }
         Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(messageIds));
         query.fields().include(Message.Fields.IS_GROUP_MESSAGE);
-        return mongoTemplate.find(query, Message.class, Message.COLLECTION_NAME);
+        return messageCollectionRouter.find(query, Message.class, messageCollectionRouter.getMessageCollectionNames(messageIds));
     }
 
     // message - recipientsIds
@@ -940,8 +1263,7 @@ public class MessageService {
                     }
                     Mono<Set<Long>> recipientIdsMono;
                     if (isGroupMessage) {
-                        recipientIdsMono = groupMemberService.getMemberIdsByGroupId(targetId)
-                                .collect(Collectors.toSet());
+                        recipientIdsMono = groupMemberService.getMemberIdSetByGroupId(targetId);
                     } else {
                         recipientIdsMono = Mono.just(Collections.singleton(targetId));
                     }
@@ -1056,9 +1378,9 @@ public class MessageService {
                         if (node.getSharedProperties().getService().getMessage().isSendMessageToOtherSenderOnlineDevices()) {
                             recipientIds.add(message.getId());
                         }
-                        return outboundMessageService.forwardNotification(
-                                notification,
-                                recipientIds);
+                        return isGroupMessage
+                                ? outboundMessageService.forwardGroupNotification(notification, targetId, recipientIds)
+                                : outboundMessageService.forwardNotification(notification, recipientIds);
                     });
         } else {
             Mono<Message> messageMono;
@@ -1135,6 +1457,43 @@ public class MessageService {
         }
     }
 
+    /**
+     * @return the group ID and the criteria of the pending messages for each group that the user has joined
+     */
+    private Mono<Map<Long, Criteria>> queryPendingGroupMessagesCriteria(@NotNull Long userId, @Nullable Set<Long> groupIds) {
+        return groupMemberService.queryGroupsMembers(groupIds, Set.of(userId), null, null, null, null, null)
+                .collectList()
+                .flatMap(members -> {
+                    if (members.isEmpty()) {
+                        return Mono.just(Collections.<Long, Criteria>emptyMap());
+                    }
+                    Set<Long> joinedGroupIds = new HashSet<>(members.size());
+                    for (GroupMember member : members) {
+                        joinedGroupIds.add(member.getKey().getGroupId());
+                    }
+                    return messageStatusService.queryGroupMessageWatermarks(userId, joinedGroupIds)
+                            .filter(watermark -> watermark.getReceivedMessageId() != null)
+                            .collectMap(watermark -> watermark.getKey().getGroupId(), GroupMessageWatermark::getReceivedMessageId)
+                            .map(watermarks -> {
+                                Map<Long, Criteria> groupIdAndCriteria = new HashMap<>(members.size() * 2);
+                                for (GroupMember member : members) {
+                                    Long groupId = member.getKey().getGroupId();
+                                    Criteria criteria = Criteria.where(Message.Fields.IS_GROUP_MESSAGE).is(true)
+                                            .and(Message.Fields.TARGET_ID).is(groupId);
+                                    Long receivedMessageId = watermarks.get(groupId);
+                                    if (receivedMessageId != null) {
+                                        criteria.and(DaoConstant.ID_FIELD_NAME).gt(receivedMessageId);
+                                    }
+                                    if (member.getJoinDate() != null) {
+                                        criteria.and(Message.Fields.DELIVERY_DATE).gte(member.getJoinDate());
+                                    }
+                                    groupIdAndCriteria.put(groupId, criteria);
+                                }
+                                return groupIdAndCriteria;
+                            });
+                });
+    }
+
     private void cacheSentMessage(@NotNull Message message) {
         sentMessageCache.put(message.getId(), new Message(
                 message.getId(),
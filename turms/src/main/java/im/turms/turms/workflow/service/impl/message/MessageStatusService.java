@@ -17,26 +17,35 @@
 
 package im.turms.turms.workflow.service.impl.message;
 
+import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import im.turms.common.constant.MessageDeliveryStatus;
 import im.turms.common.constant.statuscode.TurmsStatusCode;
 import im.turms.common.exception.TurmsBusinessException;
 import im.turms.common.util.Validator;
 import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.property.constant.GroupMessageStatusPersistenceMode;
 import im.turms.server.common.util.AssertUtil;
 import im.turms.turms.bo.DateRange;
+import im.turms.turms.constant.DaoConstant;
 import im.turms.turms.constraint.ValidMessageDeliveryStatus;
 import im.turms.turms.constraint.ValidMessageStatusKey;
 import im.turms.turms.util.MapUtil;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
 import im.turms.turms.workflow.dao.builder.QueryBuilder;
 import im.turms.turms.workflow.dao.builder.UpdateBuilder;
+import im.turms.turms.workflow.dao.domain.GroupMessageWatermark;
 import im.turms.turms.workflow.dao.domain.MessageStatus;
 import im.turms.turms.workflow.service.impl.statistics.MetricsService;
 import im.turms.turms.workflow.service.util.DomainConstraintUtil;
 import io.micrometer.core.instrument.Counter;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.Fields;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -49,7 +58,10 @@ import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.PastOrPresent;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static im.turms.turms.constant.MetricsConstant.ACKNOWLEDGED_MESSAGES_COUNTER_NAME;
 
@@ -61,14 +73,20 @@ public class MessageStatusService {
 
     private static final MessageStatus EMPTY_MESSAGE_STATUS = new MessageStatus(null, null, null, null, null, null, null, null);
     private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
+    private final UnreadMessageCounterService unreadMessageCounterService;
     private final Node node;
     private final Counter acknowledgedMessagesCounter;
 
     public MessageStatusService(
             @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
+            UnreadMessageCounterService unreadMessageCounterService,
             Node node,
             MetricsService metricsService) {
         this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
+        this.unreadMessageCounterService = unreadMessageCounterService;
         this.node = node;
         acknowledgedMessagesCounter = metricsService.getRegistry().counter(ACKNOWLEDGED_MESSAGES_COUNTER_NAME);
     }
@@ -98,8 +116,8 @@ public class MessageStatusService {
             }
         }
         query.fields().include(MessageStatus.Fields.ID_MESSAGE_ID);
-        return mongoTemplate
-                .find(query, MessageStatus.class)
+        return messageCollectionRouter
+                .find(query, MessageStatus.class, messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null))
                 .map(status -> status.getKey().getMessageId());
     }
 
@@ -172,7 +190,8 @@ public class MessageStatusService {
                 .setIfNotNull(MessageStatus.Fields.RECEPTION_DATE, receptionDate)
                 .build();
         ReactiveMongoOperations mongoOperations = operations != null ? operations : mongoTemplate;
-        return mongoOperations.updateMulti(query, update, MessageStatus.class, MessageStatus.COLLECTION_NAME)
+        return mongoOperations.updateMulti(query, update, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionName(messageId))
                 .map(UpdateResult::wasAcknowledged);
     }
 
@@ -210,7 +229,11 @@ public class MessageStatusService {
             Date now = new Date();
             update.set(MessageStatus.Fields.READ_DATE, now);
         }
-        return mongoTemplate.updateMulti(query, update, MessageStatus.class, MessageStatus.COLLECTION_NAME)
+        List<String> collectionNames = messageCollectionRouter.getMessageStatusCollectionNames(messageIds);
+        if (unreadMessageCounterService.isEnabled() && deliveryStatus != MessageDeliveryStatus.READY) {
+            return updateMessagesDeliveryStatusAndCounters(recipientId, query, update, deliveryStatus, collectionNames);
+        }
+        return messageCollectionRouter.updateMulti(query, update, MessageStatus.class, collectionNames)
                 .map(updateResult -> {
                     if (deliveryStatus == MessageDeliveryStatus.RECEIVED) {
                         long modifiedCount = updateResult.getModifiedCount();
@@ -222,6 +245,45 @@ public class MessageStatusService {
                 });
     }
 
+    /**
+     * Update the pending statuses and the other statuses separately
+     * so that the number of the pending statuses updated by this request is known
+     * to decrement the unread message counters
+     */
+    private Mono<Boolean> updateMessagesDeliveryStatusAndCounters(
+            Long recipientId,
+            Query query,
+            Update update,
+            MessageDeliveryStatus deliveryStatus,
+            List<String> collectionNames) {
+        Query pendingStatusesQuery = Query.of(query)
+                .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY));
+        pendingStatusesQuery.fields()
+                .include(MessageStatus.Fields.GROUP_ID)
+                .include(MessageStatus.Fields.IS_SYSTEM_MESSAGE)
+                .include(MessageStatus.Fields.SENDER_ID);
+        return messageCollectionRouter.find(pendingStatusesQuery, MessageStatus.class, collectionNames)
+                .collectList()
+                .flatMap(pendingStatuses -> {
+                    Mono<UpdateResult> updatePendingStatuses = pendingStatuses.isEmpty()
+                            ? Mono.just(UpdateResult.acknowledged(0, 0L, null))
+                            : messageCollectionRouter.updateMulti(Query.of(query)
+                                    .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY)),
+                            update, MessageStatus.class, collectionNames);
+                    return updatePendingStatuses.flatMap(updateResult -> {
+                        long modifiedCount = updateResult.getModifiedCount();
+                        if (deliveryStatus == MessageDeliveryStatus.RECEIVED && modifiedCount > 0) {
+                            acknowledgedMessagesCounter.increment(modifiedCount);
+                        }
+                        Query otherStatusesQuery = Query.of(query)
+                                .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).ne(MessageDeliveryStatus.READY));
+                        return unreadMessageCounterService.decrementCounters(recipientId, pendingStatuses, modifiedCount)
+                                .then(messageCollectionRouter.updateMulti(otherStatusesQuery, update, MessageStatus.class, collectionNames))
+                                .map(otherUpdateResult -> updateResult.wasAcknowledged() && otherUpdateResult.wasAcknowledged());
+                    });
+                });
+    }
+
     public Mono<Boolean> updateMessagesReadDate(
             @NotNull Long messageId,
             @Nullable @PastOrPresent Date readDate) {
@@ -243,7 +305,8 @@ public class MessageStatusService {
                 return Mono.error(TurmsBusinessException.get(TurmsStatusCode.DISABLED_FUNCTION));
             }
         }
-        return mongoTemplate.findAndModify(query, update, MessageStatus.class, MessageStatus.COLLECTION_NAME)
+        return mongoTemplate.findAndModify(query, update, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionName(messageId))
                 .defaultIfEmpty(EMPTY_MESSAGE_STATUS)
                 .map(status -> EMPTY_MESSAGE_STATUS != status);
     }
@@ -255,7 +318,7 @@ public class MessageStatusService {
             return Mono.error(e);
         }
         Query query = new Query().addCriteria(Criteria.where(MessageStatus.Fields.ID_MESSAGE_ID).is(messageId));
-        return mongoTemplate.findOne(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        return mongoTemplate.findOne(query, MessageStatus.class, messageCollectionRouter.getMessageStatusCollectionName(messageId));
     }
 
     public Flux<MessageStatus> queryMessageStatuses(
@@ -280,7 +343,8 @@ public class MessageStatusService {
                 .addBetweenIfNotNull(MessageStatus.Fields.READ_DATE, readDateRange)
                 .addBetweenIfNotNull(MessageStatus.Fields.RECALL_DATE, recallDateRange)
                 .paginateIfNotNull(page, size);
-        return mongoTemplate.find(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        return messageCollectionRouter.find(query, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionNames(messageIds));
     }
 
     public Mono<Long> countMessageStatuses(
@@ -303,7 +367,8 @@ public class MessageStatusService {
                 .addBetweenIfNotNull(MessageStatus.Fields.READ_DATE, readDateRange)
                 .addBetweenIfNotNull(MessageStatus.Fields.RECALL_DATE, recallDateRange)
                 .buildQuery();
-        return mongoTemplate.count(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        return messageCollectionRouter.count(query, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionNames(messageIds));
     }
 
     public Mono<Long> countPendingMessages(
@@ -318,6 +383,9 @@ public class MessageStatusService {
         } catch (TurmsBusinessException e) {
             return Mono.error(e);
         }
+        if (unreadMessageCounterService.isEnabled()) {
+            return unreadMessageCounterService.queryUnreadMessageCount(recipientId, areGroupMessages, areSystemMessages, groupOrSenderId);
+        }
         Query query = new Query()
                 .addCriteria(Criteria.where(MessageStatus.Fields.ID_RECIPIENT_ID).is(recipientId))
                 .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY));
@@ -330,7 +398,141 @@ public class MessageStatusService {
             query.addCriteria(Criteria.where(MessageStatus.Fields.GROUP_ID).is(null))
                     .addCriteria(Criteria.where(MessageStatus.Fields.SENDER_ID).is(groupOrSenderId));
         }
-        return mongoTemplate.count(query, MessageStatus.class, MessageStatus.COLLECTION_NAME);
+        return messageCollectionRouter.count(query, MessageStatus.class,
+                messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null));
+    }
+
+    public boolean isGroupMessageStatusWatermarkEnabled() {
+        return node.getSharedProperties().getService().getMessage().getGroupMessageStatusPersistenceMode()
+                == GroupMessageStatusPersistenceMode.WATERMARK;
+    }
+
+    public Mono<GroupMessageWatermark> queryGroupMessageWatermark(@NotNull Long userId, @NotNull Long groupId) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(groupId, "groupId");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        GroupMessageWatermark.Key key = new GroupMessageWatermark.Key(userId, groupId);
+        Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(key));
+        return mongoTemplate.findOne(query, GroupMessageWatermark.class, GroupMessageWatermark.COLLECTION_NAME);
+    }
+
+    public Flux<GroupMessageWatermark> queryGroupMessageWatermarks(@NotNull Long userId, @Nullable Set<Long> groupIds) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+        } catch (TurmsBusinessException e) {
+            return Flux.error(e);
+        }
+        Query query = QueryBuilder
+                .newBuilder()
+                .addIsIfNotNull(GroupMessageWatermark.Fields.ID_USER_ID, userId)
+                .addInIfNotNull(GroupMessageWatermark.Fields.ID_GROUP_ID, groupIds)
+                .buildQuery();
+        return mongoTemplate.find(query, GroupMessageWatermark.class, GroupMessageWatermark.COLLECTION_NAME);
+    }
+
+    /**
+     * Advance the watermarks of the user in the groups.
+     * A watermark never moves backwards so the updates are idempotent and can be applied in any order.
+     *
+     * @param groupIdAndMessageIdMap group ID -> the max ID of the messages received by the user in the group
+     */
+    public Mono<Boolean> updateGroupMessageWatermarks(
+            @NotNull Long userId,
+            @NotNull Map<Long, Long> groupIdAndMessageIdMap,
+            boolean updateReadMessageId) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(groupIdAndMessageIdMap, "groupIdAndMessageIdMap");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        return Flux.fromIterable(groupIdAndMessageIdMap.entrySet())
+                .flatMap(entry -> updateGroupMessageWatermark(userId, entry.getKey(), entry.getValue(), updateReadMessageId))
+                .all(acknowledged -> acknowledged);
+    }
+
+    public Mono<Boolean> updateGroupMessageWatermark(
+            @NotNull Long userId,
+            @NotNull Long groupId,
+            @NotNull Long messageId,
+            boolean updateReadMessageId) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(groupId, "groupId");
+            AssertUtil.notNull(messageId, "messageId");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        GroupMessageWatermark.Key key = new GroupMessageWatermark.Key(userId, groupId);
+        Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).is(key));
+        Update update = new Update().max(GroupMessageWatermark.Fields.RECEIVED_MESSAGE_ID, messageId);
+        if (updateReadMessageId) {
+            update.max(GroupMessageWatermark.Fields.READ_MESSAGE_ID, messageId);
+        }
+        return mongoTemplate.upsert(query, update, GroupMessageWatermark.class, GroupMessageWatermark.COLLECTION_NAME)
+                .map(UpdateResult::wasAcknowledged);
+    }
+
+    /**
+     * Convert the existing per-member statuses of group messages into watermarks
+     * so that the persistence mode can be switched from PER_MEMBER to WATERMARK without losing pending messages.
+     * For every (group, member) pair, the received watermark is set right before the oldest READY message,
+     * or to the newest message if all messages have been received.
+     */
+    public Mono<Boolean> migrateGroupMessageStatusesToWatermarks(boolean deleteMigratedStatuses) {
+        String minReadyMessageId = "minReadyMid";
+        String maxMessageId = "maxMid";
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where(MessageStatus.Fields.GROUP_ID).ne(null)),
+                Aggregation.group(Fields.from(
+                        Fields.field(MessageStatus.Fields.GROUP_ID, MessageStatus.Fields.GROUP_ID),
+                        Fields.field(MessageStatus.Key.Fields.RECIPIENT_ID, MessageStatus.Fields.ID_RECIPIENT_ID)))
+                        .max(MessageStatus.Fields.ID_MESSAGE_ID).as(maxMessageId)
+                        .min(ConditionalOperators
+                                .when(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY.ordinal()))
+                                .thenValueOf(MessageStatus.Fields.ID_MESSAGE_ID)
+                                .otherwise(Long.MAX_VALUE))
+                        .as(minReadyMessageId))
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+        List<String> collectionNames = messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null);
+        Flux<Document> documents = messageCollectionRouter.aggregate(aggregation, collectionNames, Document.class);
+        if (collectionNames.size() > 1) {
+            // Merge the results of the same (group, member) pair in different collections
+            documents = documents
+                    .collect(Collectors.toMap(document -> document.get(DaoConstant.ID_FIELD_NAME, Document.class),
+                            document -> document,
+                            (document1, document2) -> {
+                                long minReadyId = Math.min(((Number) document1.get(minReadyMessageId)).longValue(),
+                                        ((Number) document2.get(minReadyMessageId)).longValue());
+                                long maxId = Math.max(((Number) document1.get(maxMessageId)).longValue(),
+                                        ((Number) document2.get(maxMessageId)).longValue());
+                                return document1.append(minReadyMessageId, minReadyId).append(maxMessageId, maxId);
+                            }))
+                    .flatMapIterable(Map::values);
+        }
+        return documents
+                .flatMap(document -> {
+                    Document id = document.get(DaoConstant.ID_FIELD_NAME, Document.class);
+                    long groupId = ((Number) id.get(MessageStatus.Fields.GROUP_ID)).longValue();
+                    long userId = ((Number) id.get(MessageStatus.Key.Fields.RECIPIENT_ID)).longValue();
+                    long minReadyId = ((Number) document.get(minReadyMessageId)).longValue();
+                    long watermark = minReadyId == Long.MAX_VALUE
+                            ? ((Number) document.get(maxMessageId)).longValue()
+                            : minReadyId - 1;
+                    return updateGroupMessageWatermark(userId, groupId, watermark, false);
+                }, 16)
+                .all(acknowledged -> acknowledged)
+                .flatMap(acknowledged -> {
+                    if (!acknowledged || !deleteMigratedStatuses) {
+                        return Mono.just(acknowledged);
+                    }
+                    Query query = new Query().addCriteria(Criteria.where(MessageStatus.Fields.GROUP_ID).ne(null));
+                    return messageCollectionRouter.remove(query, MessageStatus.class, collectionNames)
+                            .map(DeleteResult::wasAcknowledged);
+                });
     }
 
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of memory-mapped files (segments).
+ * A segment is deleted once it has been sealed (no more records can be appended to it)
+ * and all its records have been persisted.
+ * <p>
+ * Record format: [payload length][CRC32 of payload][payload].
+ * The length is written after the payload so that a record whose length is 0 (the initial content of a file)
+ * or whose CRC32 doesn't match (partially written) marks the end of a segment.
+ * <p>
+ * Note that the records survive the crash of the process once they have been appended,
+ * and survive the crash of OS after {@link #force()} has been called.
+ *
+ * @author James Chen
+ */
+@Log4j2
+public class MessageWriteBehindLog implements Closeable {
+
+    private static final String FILE_SUFFIX = ".log";
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    /**
+     * The segments whose IDs are less than it existed before the log was opened
+     */
+    private final long recoverableSegmentIdBound;
+
+    private Segment activeSegment;
+    private long nextSegmentId;
+
+    public MessageWriteBehindLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        for (Path path : listSegmentFiles()) {
+            nextSegmentId = Math.max(nextSegmentId, parseSegmentId(path) + 1);
+        }
+        // Don't use the next segment ID to recover segments because the segments
+        // may be appended before recovering, and their records are queued when appended
+        recoverableSegmentIdBound = nextSegmentId;
+    }
+
+    /**
+     * @return the segments that existed before the log was opened
+     * and whose records may not have been persisted. Sorted in the order of appending
+     */
+    public List<Segment> recoverSegments() throws IOException {
+        List<Path> paths = listSegmentFiles();
+        List<Segment> segments = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            if (parseSegmentId(path) < recoverableSegmentIdBound) {
+                segments.add(new Segment(path));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return the segment to which the record has been appended,
+     * or null if the record is larger than a segment
+     */
+    @Nullable
+    public synchronized Segment append(byte[] payload) throws IOException {
+        int recordLength = RECORD_HEADER_LENGTH + payload.length;
+        if (recordLength > segmentSize) {
+            return null;
+        }
+        if (activeSegment == null || activeSegment.buffer.remaining() < recordLength) {
+            if (activeSegment != null) {
+                activeSegment.seal();
+            }
+            activeSegment = new Segment(directory.resolve(nextSegmentId++ + FILE_SUFFIX), segmentSize);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        MappedByteBuffer buffer = activeSegment.buffer;
+        int position = buffer.position();
+        buffer.position(position + Integer.BYTES);
+        buffer.putInt((int) crc32.getValue());
+        buffer.put(payload);
+        buffer.putInt(position, payload.length);
+        activeSegment.appendedRecords++;
+        return activeSegment;
+    }
+
+    /**
+     * Flush the appended records of the active segment to the storage device
+     */
+    public void force() {
+        Segment segment;
+        synchronized (this) {
+            segment = activeSegment;
+        }
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Seal the active segment so that it can be deleted once its records have been persisted
+     */
+    @Override
+    public synchronized void close() {
+        if (activeSegment != null) {
+            activeSegment.buffer.force();
+            activeSegment.seal();
+            activeSegment = null;
+        }
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(path -> path.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .sorted((path1, path2) -> Long.compare(parseSegmentId(path1), parseSegmentId(path2)))
+                    .forEach(paths::add);
+        }
+        return paths;
+    }
+
+    private static long parseSegmentId(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    public static final class Segment {
+
+        @Getter
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger persistedRecords = new AtomicInteger();
+        private final AtomicBoolean deleted = new AtomicBoolean();
+        /**
+         * Guarded by the lock of the log before the segment is sealed
+         */
+        private int appendedRecords;
+        private volatile boolean sealed;
+
+        /**
+         * Create a new segment to append records
+         */
+        private Segment(Path path, int size) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        /**
+         * Open an existing segment to recover records
+         */
+        private Segment(Path path) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        /**
+         * Read the records of a recovered segment.
+         * The segment is sealed after all records have been read
+         * so that it won't be deleted before all its records have been persisted
+         *
+         * @return the number of the records read
+         */
+        public int read(Consumer<ByteBuffer> payloadConsumer) {
+            ByteBuffer readBuffer = buffer.duplicate();
+            int records = 0;
+            CRC32 crc32 = new CRC32();
+            while (readBuffer.remaining() >= RECORD_HEADER_LENGTH) {
+                int length = readBuffer.getInt();
+                int checksum = readBuffer.getInt();
+                if (length <= 0 || length > readBuffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = readBuffer.slice();
+                payload.limit(length);
+                crc32.reset();
+                crc32.update(payload.duplicate());
+                if ((int) crc32.getValue() != checksum) {
+                    log.warn("Stopped reading the segment {} because of a partially written record", path);
+                    break;
+                }
+                payloadConsumer.accept(payload);
+                readBuffer.position(readBuffer.position() + length);
+                records++;
+            }
+            appendedRecords = records;
+            seal();
+            return records;
+        }
+
+        public void onRecordsPersisted(int count) {
+            persistedRecords.addAndGet(count);
+            tryDelete();
+        }
+
+        private void seal() {
+            sealed = true;
+            tryDelete();
+        }
+
+        private void tryDelete() {
+            if (sealed && persistedRecords.get() >= appendedRecords && deleted.compareAndSet(false, true)) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.error("Failed to delete the segment: " + path, e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,683 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.business.message.MessageWriteBehindProperties;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_DEAD_LETTERED_MESSAGES_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_FAILED_FLUSHES_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_FLUSH_BATCH_SIZE_NAME;
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_PENDING_MESSAGES_GAUGE_NAME;
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_PERSISTENCE_LAG_NAME;
+
+/**
+ * Persists messages and their statuses in the background:
+ * 1. A message is appended to the local {@link MessageWriteBehindLog} and queued in memory,
+ * and then the sender is acknowledged and the message is forwarded to recipients;
+ * 2. The flusher persists the queued messages periodically in batches with unordered insertMany;
+ * 3. When the server restarts, the messages in the log are queued and persisted again.
+ * Because the IDs of messages are generated before they are appended,
+ * persisting a message again only causes the duplicate key errors that are ignored.
+ * <p>
+ * A failed batch is retried in the next flush so the messages are persisted in the order of appending.
+ * If a batch keeps failing with a non-transient error (e.g. a document fails the validation),
+ * it is split into halves to isolate the messages that cannot be persisted,
+ * and such a message is moved to the dead letter directory so that it won't block the following messages.
+ *
+ * @author James Chen
+ */
+@Service
+@Log4j2
+public class MessageWriteBehindService {
+
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+    private static final Duration SHUTDOWN_FLUSH_TIMEOUT = Duration.ofSeconds(30);
+    private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+    private static final String DEAD_LETTER_FILE_SUFFIX = ".msg";
+
+    private static final int FLAG_GROUP_MESSAGE = 1;
+    private static final int FLAG_SYSTEM_MESSAGE = 1 << 1;
+    private static final int FLAG_BURN_AFTER = 1 << 2;
+    private static final int FLAG_REFERENCE_ID = 1 << 3;
+    private static final int FLAG_TEXT = 1 << 4;
+    private static final int FLAG_RECORDS = 1 << 5;
+    private static final int FLAG_STATUSES = 1 << 6;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
+    private final UnreadMessageCounterService unreadMessageCounterService;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final int maxRetryAttempts;
+    private final int maxPendingMessages;
+
+    @Nullable
+    private final MessageWriteBehindLog writeBehindLog;
+    @Nullable
+    private final Path deadLetterDirectory;
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+    private final Queue<PendingMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingMessageCount = new AtomicInteger();
+    private final AtomicBoolean isFlushing = new AtomicBoolean();
+    /**
+     * The failed batches in the order of appending, which are retried before the pending messages.
+     * Only accessed by the flusher
+     */
+    private final ConcurrentLinkedDeque<FailedBatch> failedBatches = new ConcurrentLinkedDeque<>();
+    /**
+     * Completes after the flush in flight has handled its result
+     */
+    private volatile Future<Void> inFlightFlush = CompletableFuture.completedFuture(null);
+
+    private final DistributionSummary batchSizeSummary;
+    private final Counter failedFlushesCounter;
+    private final Counter deadLetteredMessagesCounter;
+    private final Timer persistenceLagTimer;
+
+    public MessageWriteBehindService(
+            @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
+            UnreadMessageCounterService unreadMessageCounterService,
+            TurmsPropertiesManager turmsPropertiesManager,
+            MetricsService metricsService) throws IOException {
+        this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
+        this.unreadMessageCounterService = unreadMessageCounterService;
+        MessageWriteBehindProperties properties = turmsPropertiesManager.getLocalProperties().getService().getMessage().getWriteBehind();
+        enabled = properties.isEnabled();
+        maxBatchSize = properties.getMaxBatchSize();
+        maxRetryAttempts = properties.getMaxRetryAttempts();
+        maxPendingMessages = properties.getMaxPendingMessages();
+        MeterRegistry registry = metricsService.getRegistry();
+        batchSizeSummary = registry.summary(WRITE_BEHIND_FLUSH_BATCH_SIZE_NAME);
+        failedFlushesCounter = registry.counter(WRITE_BEHIND_FAILED_FLUSHES_COUNTER_NAME);
+        deadLetteredMessagesCounter = registry.counter(WRITE_BEHIND_DEAD_LETTERED_MESSAGES_COUNTER_NAME);
+        persistenceLagTimer = registry.timer(WRITE_BEHIND_PERSISTENCE_LAG_NAME);
+        if (!enabled) {
+            writeBehindLog = null;
+            deadLetterDirectory = null;
+            scheduler = null;
+            return;
+        }
+        registry.gauge(WRITE_BEHIND_PENDING_MESSAGES_GAUGE_NAME, pendingMessageCount);
+        Path logDirectory = Path.of(properties.getLogDirectory());
+        writeBehindLog = new MessageWriteBehindLog(logDirectory, properties.getLogFileSizeBytes());
+        deadLetterDirectory = logDirectory.resolve(DEAD_LETTER_DIRECTORY);
+        scheduler = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("turms-message-write-behind"));
+        // The executor runs tasks in order so the recovered messages are queued before the first flush
+        scheduler.execute(this::recover);
+        int flushIntervalMillis = properties.getFlushIntervalMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param statusRecipientIds the recipients to persist message statuses for,
+     *                           or null if no message status should be persisted
+     * @return true if the message has been appended and will be persisted in the background;
+     * false if the message should be persisted synchronously by the caller
+     * (e.g. too many pending messages, the message is too large)
+     */
+    public boolean enqueue(Message message, @Nullable Collection<Long> statusRecipientIds) {
+        if (!enabled || pendingMessageCount.get() >= maxPendingMessages) {
+            return false;
+        }
+        long[] recipientIds = null;
+        if (statusRecipientIds != null) {
+            recipientIds = new long[statusRecipientIds.size()];
+            int i = 0;
+            for (Long recipientId : statusRecipientIds) {
+                recipientIds[i++] = recipientId;
+            }
+        }
+        MessageWriteBehindLog.Segment segment;
+        try {
+            segment = writeBehindLog.append(encode(message, recipientIds));
+        } catch (IOException e) {
+            log.error("Failed to append the message to the write-behind log", e);
+            return false;
+        }
+        if (segment == null) {
+            return false;
+        }
+        pendingMessageCount.incrementAndGet();
+        pendingMessages.add(new PendingMessage(message, recipientIds, segment, System.nanoTime()));
+        return true;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(SHUTDOWN_FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            // The flush task returns once the persistence has started, so wait for its result
+            // before persisting the remaining messages so that they won't be persisted concurrently
+            inFlightFlush.get(SHUTDOWN_FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            FailedBatch failedBatch;
+            while ((failedBatch = failedBatches.pollFirst()) != null) {
+                persist(failedBatch.messages).block(SHUTDOWN_FLUSH_TIMEOUT);
+                onPersisted(failedBatch.messages);
+            }
+            List<PendingMessage> batch;
+            while (!(batch = drain()).isEmpty()) {
+                persist(batch).block(SHUTDOWN_FLUSH_TIMEOUT);
+                onPersisted(batch);
+            }
+        } catch (Exception e) {
+            log.error("Failed to persist the pending messages before shutdown. " +
+                    "They will be persisted again when the server restarts", e);
+        } finally {
+            writeBehindLog.close();
+        }
+    }
+
+    private void recover() {
+        try {
+            for (MessageWriteBehindLog.Segment segment : writeBehindLog.recoverSegments()) {
+                int count = segment.read(payload -> {
+                    pendingMessageCount.incrementAndGet();
+                    pendingMessages.add(decode(payload, segment));
+                });
+                if (count > 0) {
+                    log.info("Recovered {} messages from the write-behind log {}", count, segment.getPath());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to recover the messages from the write-behind log", e);
+        }
+    }
+
+    /**
+     * Skip if the previous flush hasn't finished so that the batches are persisted one by one.
+     */
+    private void flush() {
+        if (!isFlushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // Bound the messages lost by the crash of OS to the ones appended within a flush interval
+            writeBehindLog.force();
+            FailedBatch failedBatch = failedBatches.pollFirst();
+            List<PendingMessage> batch = failedBatch == null ? drain() : failedBatch.messages;
+            if (batch.isEmpty()) {
+                isFlushing.set(false);
+                return;
+            }
+            inFlightFlush = persist(batch)
+                    .toFuture()
+                    .whenComplete((ignored, throwable) -> {
+                        try {
+                            if (throwable == null) {
+                                onPersisted(batch);
+                            } else {
+                                onPersistFailed(batch, failedBatch == null ? 0 : failedBatch.failedAttempts, throwable);
+                            }
+                        } finally {
+                            isFlushing.set(false);
+                        }
+                    });
+        } catch (Exception e) {
+            isFlushing.set(false);
+            log.error("Failed to flush the pending messages", e);
+        }
+    }
+
+    private void onPersistFailed(List<PendingMessage> batch, int previousFailedAttempts, Throwable throwable) {
+        failedFlushesCounter.increment();
+        int size = batch.size();
+        // Retry the transient errors until they succeed because the other batches will fail anyway,
+        // and the new messages are persisted synchronously once there are too many pending messages
+        if (isTransientError(throwable)) {
+            log.error("Failed to persist {} messages. Retry in the next flush", size, throwable);
+            failedBatches.addFirst(new FailedBatch(batch, previousFailedAttempts));
+            return;
+        }
+        int failedAttempts = previousFailedAttempts + 1;
+        if (failedAttempts < maxRetryAttempts) {
+            log.error("Failed to persist {} messages ({} attempts). Retry in the next flush", size, failedAttempts, throwable);
+            failedBatches.addFirst(new FailedBatch(batch, failedAttempts));
+        } else if (size > 1) {
+            // The messages that have been persisted only cause duplicate key errors when they are persisted again
+            log.error("Failed to persist {} messages ({} attempts). Split the batch to isolate the messages that cannot be persisted",
+                    size, failedAttempts, throwable);
+            int half = size / 2;
+            failedBatches.addFirst(new FailedBatch(new ArrayList<>(batch.subList(half, size)), 0));
+            failedBatches.addFirst(new FailedBatch(new ArrayList<>(batch.subList(0, half)), 0));
+        } else {
+            deadLetter(batch.get(0), failedAttempts, throwable);
+        }
+    }
+
+    /**
+     * Move the message that cannot be persisted to the dead letter directory
+     * so that the following messages can be persisted
+     */
+    private void deadLetter(PendingMessage pendingMessage, int failedAttempts, Throwable throwable) {
+        Message message = pendingMessage.message;
+        Path path = deadLetterDirectory.resolve(message.getId() + DEAD_LETTER_FILE_SUFFIX);
+        try {
+            Files.createDirectories(deadLetterDirectory);
+            Files.write(path, encode(message, pendingMessage.statusRecipientIds));
+        } catch (IOException e) {
+            // Keep the message in the write-behind log so that it will be persisted again when the server restarts
+            pendingMessageCount.decrementAndGet();
+            log.error("Failed to persist the message {} ({} attempts) or move it to the dead letter file {}. " +
+                    "It will be persisted again when the server restarts", message.getId(), failedAttempts, path, e);
+            return;
+        }
+        deadLetteredMessagesCounter.increment();
+        log.error("Failed to persist the message {} ({} attempts). It has been moved to the dead letter file {}",
+                message.getId(), failedAttempts, path, throwable);
+        onPersisted(List.of(pendingMessage));
+    }
+
+    private static boolean isTransientError(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof MongoBulkWriteException) {
+                return ((MongoBulkWriteException) t).getWriteConcernError() != null;
+            }
+            if (t instanceof MongoSocketException
+                    || t instanceof MongoTimeoutException
+                    || t instanceof MongoNotPrimaryException
+                    || t instanceof MongoNodeIsRecoveringException
+                    || t instanceof MongoWriteConcernException
+                    || t instanceof TimeoutException
+                    || t instanceof DataAccessResourceFailureException
+                    || t instanceof TransientDataAccessException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<PendingMessage> drain() {
+        List<PendingMessage> batch = new ArrayList<>(Math.min(maxBatchSize, pendingMessageCount.get()));
+        PendingMessage message;
+        while (batch.size() < maxBatchSize && (message = pendingMessages.poll()) != null) {
+            batch.add(message);
+        }
+        return batch;
+    }
+
+    private Mono<Void> persist(List<PendingMessage> batch) {
+        MongoConverter converter = mongoTemplate.getConverter();
+        // The messages are grouped by their collections, which are the same one unless the collections are bucketed
+        Map<String, Bucket> buckets = new LinkedHashMap<>(4);
+        for (PendingMessage pendingMessage : batch) {
+            Message message = pendingMessage.message;
+            Bucket bucket = buckets.computeIfAbsent(messageCollectionRouter.getMessageCollectionName(message.getId()),
+                    name -> new Bucket(message.getId()));
+            Document messageDocument = new Document();
+            converter.write(message, messageDocument);
+            bucket.messageDocuments.add(messageDocument);
+            long[] recipientIds = pendingMessage.statusRecipientIds;
+            if (recipientIds != null) {
+                for (long recipientId : recipientIds) {
+                    MessageStatus status = new MessageStatus(
+                            message.getId(),
+                            message.groupId(),
+                            message.getIsSystemMessage(),
+                            message.getSenderId(),
+                            recipientId,
+                            MessageDeliveryStatus.READY,
+                            null,
+                            null,
+                            null);
+                    Document statusDocument = new Document();
+                    converter.write(status, statusDocument);
+                    bucket.statuses.add(status);
+                    bucket.statusDocuments.add(statusDocument);
+                }
+            }
+        }
+        return Flux.fromIterable(buckets.entrySet())
+                .concatMap(entry -> {
+                    String messageCollectionName = entry.getKey();
+                    Bucket bucket = entry.getValue();
+                    // Insert messages before their statuses so that a status never refers to a missing message
+                    Mono<Void> insertMessages = messageCollectionRouter.ensureCollections(bucket.anyMessageId)
+                            .then(insertMany(messageCollectionName, bucket.messageDocuments))
+                            .then();
+                    if (bucket.statusDocuments.isEmpty()) {
+                        return insertMessages;
+                    }
+                    return insertMessages
+                            .then(insertMany(messageCollectionRouter.toMessageStatusCollectionName(messageCollectionName),
+                                    bucket.statusDocuments))
+                            .flatMap(persistedIndexes -> persistedIndexes.isEmpty()
+                                    ? unreadMessageCounterService.incrementCounters(bucket.statuses, null)
+                                    : incrementOrReconcileCounters(bucket.statuses, persistedIndexes));
+                })
+                .then();
+    }
+
+    /**
+     * The statuses that have been persisted before may or may not have been counted
+     * (e.g. the counters failed to be incremented after the statuses were inserted, or the server crashed in between),
+     * so the counters of their conversations are recounted from the statuses, which is idempotent,
+     * while the counters of the other conversations are incremented as usual
+     */
+    private Mono<Void> incrementOrReconcileCounters(List<MessageStatus> statuses, Set<Integer> persistedIndexes) {
+        if (!unreadMessageCounterService.isEnabled()) {
+            return Mono.empty();
+        }
+        List<MessageStatus> persistedStatuses = new ArrayList<>(persistedIndexes.size());
+        for (Integer index : persistedIndexes) {
+            persistedStatuses.add(statuses.get(index));
+        }
+        Set<UnreadMessageCounter.Key> keysToReconcile = UnreadMessageCounterService.toDeltas(persistedStatuses).keySet();
+        Map<Long, List<UnreadMessageCounter.Key>> keysToReconcileByUserId = new HashMap<>();
+        for (UnreadMessageCounter.Key key : keysToReconcile) {
+            keysToReconcileByUserId.computeIfAbsent(key.getUserId(), userId -> new ArrayList<>())
+                    .add(key);
+        }
+        // The recount includes the new statuses of the reconciled conversations, so they aren't incremented again
+        List<MessageStatus> statusesToIncrement = new ArrayList<>(statuses.size() - persistedIndexes.size());
+        for (MessageStatus status : statuses) {
+            if (!keysToReconcile.contains(UnreadMessageCounterService.toKey(status))) {
+                statusesToIncrement.add(status);
+            }
+        }
+        return unreadMessageCounterService.incrementCounters(statusesToIncrement, null)
+                .then(Flux.fromIterable(keysToReconcileByUserId.entrySet())
+                        .concatMap(entry -> unreadMessageCounterService.reconcileCounters(entry.getKey(), entry.getValue()))
+                        .then());
+    }
+
+    /**
+     * @return the indexes of the documents that have been persisted before
+     */
+    private Mono<Set<Integer>> insertMany(String collectionName, List<Document> documents) {
+        return mongoTemplate.getCollection(collectionName)
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, UNORDERED)))
+                .map(result -> Collections.<Integer>emptySet())
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    if (!hasOnlyDuplicateKeyErrors(e)) {
+                        return Mono.error(e);
+                    }
+                    List<BulkWriteError> errors = e.getWriteErrors();
+                    Set<Integer> indexes = new HashSet<>(errors.size());
+                    for (BulkWriteError error : errors) {
+                        indexes.add(error.getIndex());
+                    }
+                    return Mono.just(indexes);
+                });
+    }
+
+    /**
+     * The documents that have been persisted before (e.g. the server crashed after persisting a batch
+     * but before deleting the log) cause duplicate key errors, which can be ignored
+     */
+    private static boolean hasOnlyDuplicateKeyErrors(MongoBulkWriteException e) {
+        if (e.getWriteConcernError() != null) {
+            return false;
+        }
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onPersisted(List<PendingMessage> batch) {
+        int size = batch.size();
+        pendingMessageCount.addAndGet(-size);
+        batchSizeSummary.record(size);
+        long now = System.nanoTime();
+        MessageWriteBehindLog.Segment segment = null;
+        int segmentRecords = 0;
+        for (PendingMessage message : batch) {
+            persistenceLagTimer.record(now - message.enqueueTimeNanos, TimeUnit.NANOSECONDS);
+            if (message.segment != segment) {
+                if (segment != null) {
+                    segment.onRecordsPersisted(segmentRecords);
+                }
+                segment = message.segment;
+                segmentRecords = 0;
+            }
+            segmentRecords++;
+        }
+        if (segment != null) {
+            segment.onRecordsPersisted(segmentRecords);
+        }
+    }
+
+    // Codec
+
+    private static byte[] encode(Message message, @Nullable long[] statusRecipientIds) {
+        int flags = 0;
+        int size = Long.BYTES + Byte.BYTES + Long.BYTES * 3;
+        if (message.getIsGroupMessage()) {
+            flags |= FLAG_GROUP_MESSAGE;
+        }
+        if (message.getIsSystemMessage()) {
+            flags |= FLAG_SYSTEM_MESSAGE;
+        }
+        if (message.getBurnAfter() != null) {
+            flags |= FLAG_BURN_AFTER;
+            size += Integer.BYTES;
+        }
+        if (message.getReferenceId() != null) {
+            flags |= FLAG_REFERENCE_ID;
+            size += Long.BYTES;
+        }
+        byte[] text = null;
+        if (message.getText() != null) {
+            flags |= FLAG_TEXT;
+            text = message.getText().getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + text.length;
+        }
+        List<byte[]> records = message.getRecords();
+        if (records != null) {
+            flags |= FLAG_RECORDS;
+            size += Integer.BYTES;
+            for (byte[] record : records) {
+                size += Integer.BYTES + record.length;
+            }
+        }
+        if (statusRecipientIds != null) {
+            flags |= FLAG_STATUSES;
+            size += Integer.BYTES + statusRecipientIds.length * Long.BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size)
+                .putLong(message.getId())
+                .put((byte) flags)
+                .putLong(message.getDeliveryDate().getTime())
+                .putLong(message.getSenderId())
+                .putLong(message.getTargetId());
+        if (message.getBurnAfter() != null) {
+            buffer.putInt(message.getBurnAfter());
+        }
+        if (message.getReferenceId() != null) {
+            buffer.putLong(message.getReferenceId());
+        }
+        if (text != null) {
+            buffer.putInt(text.length).put(text);
+        }
+        if (records != null) {
+            buffer.putInt(records.size());
+            for (byte[] record : records) {
+                buffer.putInt(record.length).put(record);
+            }
+        }
+        if (statusRecipientIds != null) {
+            buffer.putInt(statusRecipientIds.length);
+            for (long recipientId : statusRecipientIds) {
+                buffer.putLong(recipientId);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static PendingMessage decode(ByteBuffer buffer, MessageWriteBehindLog.Segment segment) {
+        long id = buffer.getLong();
+        int flags = buffer.get();
+        Date deliveryDate = new Date(buffer.getLong());
+        long senderId = buffer.getLong();
+        long targetId = buffer.getLong();
+        Integer burnAfter = (flags & FLAG_BURN_AFTER) != 0 ? buffer.getInt() : null;
+        Long referenceId = (flags & FLAG_REFERENCE_ID) != 0 ? buffer.getLong() : null;
+        String text = null;
+        if ((flags & FLAG_TEXT) != 0) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        List<byte[]> records = null;
+        if ((flags & FLAG_RECORDS) != 0) {
+            int count = buffer.getInt();
+            records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] record = new byte[buffer.getInt()];
+                buffer.get(record);
+                records.add(record);
+            }
+        }
+        long[] statusRecipientIds = null;
+        if ((flags & FLAG_STATUSES) != 0) {
+            statusRecipientIds = new long[buffer.getInt()];
+            for (int i = 0; i < statusRecipientIds.length; i++) {
+                statusRecipientIds[i] = buffer.getLong();
+            }
+        }
+        Message message = new Message(
+                id,
+                (flags & FLAG_GROUP_MESSAGE) != 0,
+                (flags & FLAG_SYSTEM_MESSAGE) != 0,
+                deliveryDate,
+                null,
+                text,
+                senderId,
+                targetId,
+                records,
+                burnAfter,
+                referenceId);
+        return new PendingMessage(message, statusRecipientIds, segment, System.nanoTime());
+    }
+
+    private static final class PendingMessage {
+        private final Message message;
+        @Nullable
+        private final long[] statusRecipientIds;
+        private final MessageWriteBehindLog.Segment segment;
+        private final long enqueueTimeNanos;
+
+        private PendingMessage(Message message,
+                               @Nullable long[] statusRecipientIds,
+                               MessageWriteBehindLog.Segment segment,
+                               long enqueueTimeNanos) {
+            this.message = message;
+            this.statusRecipientIds = statusRecipientIds;
+            this.segment = segment;
+            this.enqueueTimeNanos = enqueueTimeNanos;
+        }
+    }
+
+    private static final class FailedBatch {
+        private final List<PendingMessage> messages;
+        /**
+         * The number of attempts that failed with non-transient errors
+         */
+        private final int failedAttempts;
+
+        private FailedBatch(List<PendingMessage> messages, int failedAttempts) {
+            this.messages = messages;
+            this.failedAttempts = failedAttempts;
+        }
+    }
+
+    private static final class Bucket {
+        private final long anyMessageId;
+        private final List<Document> messageDocuments = new ArrayList<>();
+        private final List<MessageStatus> statuses = new ArrayList<>();
+        private final List<Document> statusDocuments = new ArrayList<>();
+
+        private Bucket(long anyMessageId) {
+            this.anyMessageId = anyMessageId;
+        }
+    }
+
+}
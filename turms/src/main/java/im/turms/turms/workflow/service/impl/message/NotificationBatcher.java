@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.property.env.service.env.clientapi.property.NotificationBatchProperties;
+import im.turms.server.common.rpc.request.SendNotificationBatchRequest;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import io.netty.buffer.ByteBuf;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packs the notifications sent to the same turms-gateway server within a short window into one RPC frame
+ * to reduce the per-notification overhead of RSocket frames and syscalls when the fan-out is heavy.
+ *
+ * @author James Chen
+ * @see im.turms.server.common.rpc.request.SendNotificationBatchRequest
+ */
+public class NotificationBatcher {
+
+    private final Node node;
+    private final Scheduler scheduler;
+    private final long windowMicros;
+    private final int maxSize;
+    private final int maxBytes;
+
+    private final Map<String, NodeBatcher> batcherByNodeId = new ConcurrentHashMap<>(16);
+
+    public NotificationBatcher(Node node, NotificationBatchProperties properties) {
+        this(node, properties, Schedulers.parallel());
+    }
+
+    public NotificationBatcher(Node node, NotificationBatchProperties properties, Scheduler scheduler) {
+        this.node = node;
+        this.scheduler = scheduler;
+        windowMicros = properties.getWindowMicros();
+        maxSize = Math.min(properties.getMaxSize(), SendNotificationBatchRequest.MAX_SIZE);
+        maxBytes = properties.getMaxBytes();
+        // Remove the batchers of the members that have left so that they won't accumulate.
+        // A removed batcher still sends its pending batch when its flush is due
+        DiscoveryService discoveryService = node.getDiscoveryService();
+        discoveryService.addListenerOnMembersChange(() ->
+                batcherByNodeId.keySet().retainAll(discoveryService.getAllKnownMembers().keySet()));
+    }
+
+    /**
+     * @param notificationData will be released once the notification has been sent
+     * @param recipientIds     should be sorted in ascending order without duplicates
+     * @return true if the notification has forwarded to one recipient at least
+     */
+    public Mono<Boolean> send(String nodeId, ByteBuf notificationData, long[] recipientIds) {
+        return Mono.create(sink -> batcherByNodeId
+                .computeIfAbsent(nodeId, NodeBatcher::new)
+                .add(new PendingNotification(new SendNotificationRequest(notificationData, recipientIds), sink)));
+    }
+
+    private final class NodeBatcher {
+
+        private final String nodeId;
+
+        private List<PendingNotification> pendingNotifications;
+        private int pendingBytes;
+
+        private NodeBatcher(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        private void add(PendingNotification notification) {
+            List<PendingNotification> batchToSend = null;
+            List<PendingNotification> batchToSchedule = null;
+            synchronized (this) {
+                if (pendingNotifications == null) {
+                    pendingNotifications = new ArrayList<>(maxSize);
+                    batchToSchedule = pendingNotifications;
+                }
+                pendingNotifications.add(notification);
+                pendingBytes += notification.request.getNotificationBuffer().readableBytes();
+                if (pendingNotifications.size() >= maxSize || pendingBytes >= maxBytes) {
+                    batchToSend = pendingNotifications;
+                    pendingNotifications = null;
+                    pendingBytes = 0;
+                }
+            }
+            if (batchToSend != null) {
+                send(batchToSend);
+            } else if (batchToSchedule != null) {
+                List<PendingNotification> batch = batchToSchedule;
+                scheduler.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        /**
+         * @param batch the batch that the flush is scheduled for.
+         *              Do nothing if the batch has been sent because it is full.
+         */
+        private void flush(List<PendingNotification> batch) {
+            synchronized (this) {
+                if (pendingNotifications != batch) {
+                    return;
+                }
+                pendingNotifications = null;
+                pendingBytes = 0;
+            }
+            send(batch);
+        }
+
+        private void send(List<PendingNotification> batch) {
+            RpcService rpcService = node.getRpcService();
+            int size = batch.size();
+            if (size == 1) {
+                PendingNotification notification = batch.get(0);
+                rpcService.requestResponse(nodeId, notification.request)
+                        .subscribe(forwarded -> notification.sink.success(forwarded),
+                                throwable -> notification.sink.error(throwable),
+                                () -> notification.sink.success());
+                return;
+            }
+            List<SendNotificationRequest> requests = new ArrayList<>(size);
+            for (PendingNotification notification : batch) {
+                requests.add(notification.request);
+            }
+            rpcService.requestResponse(nodeId, new SendNotificationBatchRequest(requests))
+                    .subscribe(forwardedMask -> {
+                                for (int i = 0; i < size; i++) {
+                                    batch.get(i).sink.success((forwardedMask & (1L << i)) != 0);
+                                }
+                            },
+                            throwable -> {
+                                for (PendingNotification notification : batch) {
+                                    notification.sink.error(throwable);
+                                }
+                            },
+                            () -> {
+                                // MonoSink ignores the signal if the notification has completed
+                                for (PendingNotification notification : batch) {
+                                    notification.sink.success();
+                                }
+                            });
+        }
+    }
+
+    private static final class PendingNotification {
+        private final SendNotificationRequest request;
+        private final MonoSink<Boolean> sink;
+
+        private PendingNotification(SendNotificationRequest request, MonoSink<Boolean> sink) {
+            this.request = request;
+            this.sink = sink;
+        }
+    }
+
+}
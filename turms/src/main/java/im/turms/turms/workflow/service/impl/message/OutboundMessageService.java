@@ -17,9 +17,6 @@
 
 package im.turms.turms.workflow.service.impl.message;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multiset;
-import com.google.common.collect.SetMultimap;
 import im.turms.common.constant.DeviceType;
 import im.turms.common.model.dto.notification.TurmsNotification;
 import im.turms.common.model.dto.request.TurmsRequest;
@@ -27,21 +24,30 @@ import im.turms.server.common.cluster.node.Node;
 import im.turms.server.common.log4j.ClientApiLogging;
 import im.turms.server.common.property.TurmsPropertiesManager;
 import im.turms.server.common.property.env.common.ClientApiLoggingProperties;
+import im.turms.server.common.property.env.service.business.message.HotGroupFanOutProperties;
+import im.turms.server.common.property.env.service.env.clientapi.property.NotificationBatchProperties;
 import im.turms.server.common.property.env.service.env.clientapi.property.LoggingRequestProperties;
 import im.turms.server.common.rpc.request.SendNotificationRequest;
 import im.turms.server.common.service.session.UserStatusService;
 import im.turms.server.common.util.LoggingRequestUtil;
 import im.turms.server.common.util.ProtoUtil;
 import im.turms.server.common.util.ReactorUtil;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
 import io.netty.buffer.ByteBuf;
-import lombok.Data;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author James Chen
@@ -53,10 +59,31 @@ public class OutboundMessageService {
     private final Node node;
     private final UserStatusService userStatusService;
     private final Map<TurmsRequest.KindCase, LoggingRequestProperties> supportedLoggingNotificationProperties;
+    private final NotificationBatcher notificationBatcher;
+    private final HotGroupDetector hotGroupDetector;
+    private final HotGroupFanOutExecutor hotGroupFanOutExecutor;
 
-    public OutboundMessageService(Node node, TurmsPropertiesManager propertiesManager, UserStatusService userStatusService) {
+    public OutboundMessageService(
+            Node node,
+            TurmsPropertiesManager propertiesManager,
+            UserStatusService userStatusService,
+            MetricsService metricsService) {
         this.node = node;
         this.userStatusService = userStatusService;
+        NotificationBatchProperties batchProperties = propertiesManager.getLocalProperties().getService().getClientApi().getNotificationBatch();
+        notificationBatcher = batchProperties.isEnabled()
+                ? new NotificationBatcher(node, batchProperties)
+                : null;
+        HotGroupFanOutProperties hotGroupFanOutProperties = propertiesManager.getLocalProperties().getService().getMessage().getHotGroupFanOut();
+        if (hotGroupFanOutProperties.isEnabled()) {
+            hotGroupDetector = new HotGroupDetector(hotGroupFanOutProperties, metricsService.getRegistry());
+            hotGroupFanOutExecutor = new HotGroupFanOutExecutor(userStatusService,
+                    (nodeId, notificationData, recipientIds) -> forwardClientMessageToNode(notificationData, nodeId, recipientIds),
+                    hotGroupFanOutProperties);
+        } else {
+            hotGroupDetector = null;
+            hotGroupFanOutExecutor = null;
+        }
         ClientApiLoggingProperties loggingProperties = propertiesManager.getLocalProperties().getGateway().getClientApi().getLogging();
         supportedLoggingNotificationProperties = LoggingRequestUtil.getSupportedLoggingRequestProperties(
                 loggingProperties.getIncludedNotificationCategories(),
@@ -78,7 +105,7 @@ public class OutboundMessageService {
      * @return true if recipientIds is empty, or at least one recipient has received the notification
      */
     public Mono<Boolean> forwardNotification(
-            @NotNull TurmsNotification notificationForLogging,
+            @Nullable TurmsNotification notificationForLogging,
             @NotNull ByteBuf notificationData,
             @NotNull Set<Long> recipientIds) {
         if (recipientIds.isEmpty()) {
@@ -91,17 +118,49 @@ public class OutboundMessageService {
         }
     }
 
+    /**
+     * @return true if recipientIds is empty, or at least one recipient has received the notification
+     */
+    public Mono<Boolean> forwardGroupNotification(
+            @NotNull TurmsNotification notification,
+            long groupId,
+            @NotNull Set<Long> recipientIds) {
+        return forwardGroupNotification(notification, ProtoUtil.getDirectByteBuffer(notification), groupId, recipientIds);
+    }
+
+    /**
+     * Forward the notification of a group on the dedicated fan-out workers if the group is hot,
+     * or forward it as usual otherwise
+     *
+     * @return true if recipientIds is empty, or at least one recipient has received the notification
+     */
+    public Mono<Boolean> forwardGroupNotification(
+            @Nullable TurmsNotification notificationForLogging,
+            @NotNull ByteBuf notificationData,
+            long groupId,
+            @NotNull Set<Long> recipientIds) {
+        if (hotGroupDetector != null && !recipientIds.isEmpty()) {
+            HotGroupDetector.GroupStats stats = hotGroupDetector.recordMessage(groupId, recipientIds.size());
+            if (stats != null) {
+                Mono<Boolean> mono = hotGroupFanOutExecutor.fanOut(notificationData, recipientIds, stats);
+                return tryLogNotification(mono, notificationForLogging);
+            }
+        }
+        return forwardNotification(notificationForLogging, notificationData, recipientIds);
+    }
+
     /**
      * @return true if recipientIds is empty, or at least one recipient has received the notification
      */
     public Mono<Boolean> forwardNotification(
-            @NotNull TurmsNotification notificationForLogging,
+            @Nullable TurmsNotification notificationForLogging,
             @NotNull ByteBuf notificationData,
             @NotNull Long recipientId,
             @NotNull DeviceType excludedDeviceType) {
         return userStatusService.getDeviceAndNodeIdMapByUserId(recipientId)
                 .flatMap(deviceTypeAndNodeIdMap -> {
-                    List<String> nodeIds = new ArrayList<>(deviceTypeAndNodeIdMap.size());
+                    // A user may connect to the same node with multiple devices
+                    Set<String> nodeIds = new HashSet<>(Math.max(16, deviceTypeAndNodeIdMap.size() * 2));
                     for (Map.Entry<DeviceType, String> entry : deviceTypeAndNodeIdMap.entrySet()) {
                         DeviceType deviceType = entry.getKey();
                         if (deviceType != excludedDeviceType) {
@@ -111,17 +170,7 @@ public class OutboundMessageService {
                     if (nodeIds.isEmpty()) {
                         return Mono.just(false);
                     }
-                    int size = nodeIds.size();
-                    Mono<Boolean> mono;
-                    if (size == 1) {
-                        mono = forwardClientMessageToNode(notificationData, nodeIds.iterator().next(), recipientId);
-                    } else {
-                        List<Mono<Boolean>> monos = new ArrayList<>(size);
-                        for (String nodeId : nodeIds) {
-                            monos.add(forwardClientMessageToNode(notificationData, nodeId, recipientId));
-                        }
-                        mono = ReactorUtil.atLeastOneTrue(monos);
-                    }
+                    Mono<Boolean> mono = forwardClientMessageToNodes(notificationData, nodeIds, recipientId);
                     return tryLogNotification(mono, notificationForLogging);
                 })
                 .defaultIfEmpty(false);
@@ -129,6 +178,8 @@ public class OutboundMessageService {
 
     /**
      * @return true if recipientIds is empty, or at least one recipient has received the notification
+     * @implNote The routing table "Node ID -> Recipient IDs" is built in one pass
+     * so that we only send one RPC request to every node that has at least one recipient connected.
      */
     private Mono<Boolean> forwardClientMessageByRecipientIds(
             @NotNull ByteBuf messageData,
@@ -136,33 +187,28 @@ public class OutboundMessageService {
         if (recipientIds.isEmpty()) {
             return Mono.just(true);
         }
-        int recipientIdsSize = recipientIds.size();
-        if (recipientIdsSize == 1) {
+        if (recipientIds.size() == 1) {
             return forwardClientMessageByRecipientId(messageData, recipientIds.iterator().next());
-        } else {
-            int expectedMembersCount = Math.min(node.getDiscoveryService().getAllKnownMembers().size(), recipientIdsSize);
-            int expectedRecipientCountPerMember = Math.min(1, recipientIdsSize / expectedMembersCount);
-            SetMultimap<String, Long> userIdsByNodeId = HashMultimap.create(expectedMembersCount, expectedRecipientCountPerMember);
-            List<Mono<RecipientAndNodeIds>> monos = new ArrayList<>(recipientIdsSize);
-            for (Long recipientId : recipientIds) {
-                monos.add(userStatusService.getDeviceAndNodeIdMapByUserId(recipientId)
-                        .map(map -> new RecipientAndNodeIds(recipientId, map.values())));
-            }
-            return Flux.merge(monos)
-                    .doOnNext(pair -> {
-                        for (String nodeId : pair.getNodeIds()) {
-                            userIdsByNodeId.put(nodeId, pair.getRecipientId());
-                        }
-                    })
-                    .then(Mono.defer(() -> {
-                        Multiset<String> nodeIds = userIdsByNodeId.keys();
-                        List<Mono<Boolean>> monoList = new ArrayList<>(nodeIds.size());
-                        for (String nodeId : nodeIds) {
-                            monoList.add(forwardClientMessageByRecipientIds(messageData, userIdsByNodeId.get(nodeId)));
-                        }
-                        return ReactorUtil.atLeastOneTrue(monoList);
-                    }));
         }
+        return userStatusService.getNodeIdAndUserIdsMapByUserIds(recipientIds)
+                .flatMap(userIdsByNodeId -> {
+                    Set<String> nodeIds = userIdsByNodeId.keySet();
+                    int size = nodeIds.size();
+                    if (size == 0) {
+                        return Mono.just(false);
+                    }
+                    if (size == 1) {
+                        String nodeId = nodeIds.iterator().next();
+                        return forwardClientMessageToNode(messageData, nodeId, toSortedArray(userIdsByNodeId.get(nodeId)));
+                    }
+                    // Every RPC request will release the buffer once it has been sent
+                    messageData.retain(size - 1);
+                    List<Mono<Boolean>> monos = new ArrayList<>(size);
+                    for (String nodeId : nodeIds) {
+                        monos.add(forwardClientMessageToNode(messageData, nodeId, toSortedArray(userIdsByNodeId.get(nodeId))));
+                    }
+                    return ReactorUtil.atLeastOneTrue(monos);
+                });
     }
 
     /**
@@ -177,33 +223,72 @@ public class OutboundMessageService {
                     if (nodeIds.isEmpty()) {
                         return Mono.just(false);
                     }
-                    int size = nodeIds.size();
-                    if (size == 1) {
-                        return forwardClientMessageToNode(notificationData, nodeIds.iterator().next(), recipientId);
-                    } else {
-                        List<Mono<Boolean>> monos = new ArrayList<>(size);
-                        for (String nodeId : nodeIds) {
-                            monos.add(forwardClientMessageToNode(notificationData, nodeId, recipientId));
-                        }
-                        return ReactorUtil.atLeastOneTrue(monos);
+                    // A user may connect to the same node with multiple devices
+                    if (nodeIds.size() > 1) {
+                        nodeIds = new HashSet<>(nodeIds);
                     }
+                    return forwardClientMessageToNodes(notificationData, nodeIds, recipientId);
                 })
                 .defaultIfEmpty(false);
     }
 
+    /**
+     * @param nodeIds should not contain duplicate node IDs
+     */
+    private Mono<Boolean> forwardClientMessageToNodes(
+            @NotNull ByteBuf messageData,
+            @NotEmpty Collection<String> nodeIds,
+            long recipientId) {
+        long[] recipientIds = {recipientId};
+        int size = nodeIds.size();
+        if (size == 1) {
+            return forwardClientMessageToNode(messageData, nodeIds.iterator().next(), recipientIds);
+        }
+        // Every RPC request will release the buffer once it has been sent
+        messageData.retain(size - 1);
+        List<Mono<Boolean>> monos = new ArrayList<>(size);
+        for (String nodeId : nodeIds) {
+            monos.add(forwardClientMessageToNode(messageData, nodeId, recipientIds));
+        }
+        return ReactorUtil.atLeastOneTrue(monos);
+    }
+
+    /**
+     * @param recipientIds should be sorted in ascending order without duplicates
+     */
     private Mono<Boolean> forwardClientMessageToNode(
             @NotNull ByteBuf messageData,
             @NotNull String nodeId,
-            @NotNull Long recipient) {
+            @NotEmpty long[] recipientIds) {
+        if (notificationBatcher != null) {
+            return notificationBatcher.send(nodeId, messageData, recipientIds);
+        }
         SendNotificationRequest request = new SendNotificationRequest(
                 messageData,
-                Set.of(recipient));
+                recipientIds);
         return node.getRpcService()
                 .requestResponse(nodeId, request);
     }
 
-    private Mono<Boolean> tryLogNotification(Mono<Boolean> mono, TurmsNotification notification) {
-        if (LoggingRequestUtil.shouldLog(notification.getRelayedRequest().getKindCase(), supportedLoggingNotificationProperties)) {
+    static long[] toSortedArray(Collection<Long> ids) {
+        long[] array = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            array[i++] = id;
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    public boolean shouldLogNotification(TurmsRequest.KindCase relayedRequestType) {
+        return LoggingRequestUtil.shouldLog(relayedRequestType, supportedLoggingNotificationProperties);
+    }
+
+    /**
+     * @param notification null if the notification doesn't need to be logged
+     */
+    private Mono<Boolean> tryLogNotification(Mono<Boolean> mono, @Nullable TurmsNotification notification) {
+        if (notification != null && shouldLogNotification(notification.getRelayedRequest().getKindCase())) {
             return mono
                     .doOnSuccess(sent -> {
                         String message = sent ? "Sent: " : "Unsent: ";
@@ -214,10 +299,4 @@ public class OutboundMessageService {
         }
     }
 
-    @Data
-    private static class RecipientAndNodeIds {
-        private final Long recipientId;
-        private final Collection<String> nodeIds;
-    }
-
 }
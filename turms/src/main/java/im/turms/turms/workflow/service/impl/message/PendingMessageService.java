@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package im.turms.turms.workflow.service.impl.message;
+
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.bo.PendingConversation;
+import im.turms.turms.bo.PendingMessageKey;
+import im.turms.turms.bo.PendingMessagesPage;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static im.turms.turms.workflow.service.impl.message.MessageService.PENDING_CONVERSATION_QUERY_CONCURRENCY;
+
+/**
+ * Queries the pending messages of a user conversation by conversation
+ * so that the cost of a query is bounded no matter how many messages are pending:
+ * 1. Group the READY message statuses of the user by conversation in one aggregation
+ * to get the total and the latest pending message ID of every conversation;
+ * 2. Sort the conversations by their latest pending message IDs in descending order,
+ * and only take the conversations after the cursor within the page size and the total message budget;
+ * 3. Query the latest pending messages of every conversation in the page with a limit.
+ * <p>
+ * The latest pending message ID of the last conversation in a page is the cursor of the next page.
+ * If the unread message counters are enabled, the steps 1 and 2 are done by reading the counters of the user instead.
+ * In the WATERMARK mode of group message statuses, the pending group conversations are derived from the watermarks.
+ *
+ * @author James Chen
+ */
+@Service
+public class PendingMessageService {
+
+    private static final String CONVERSATION_GROUP_ID = "gid";
+    private static final String CONVERSATION_SENDER_ID = "sid";
+    private static final String CONVERSATION_IS_SYSTEM_MESSAGE = "sm";
+    private static final String TOTAL = "total";
+    private static final String LAST_MESSAGE_ID = "lastMid";
+
+    private static final Comparator<PendingConversation> LATEST_FIRST =
+            Comparator.comparingLong(PendingConversation::getLastMessageId).reversed();
+    private static final Comparator<MessageStatus> STATUS_LATEST_FIRST =
+            Comparator.comparing((MessageStatus status) -> status.getKey().getMessageId()).reversed();
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
+    private final MessageService messageService;
+    private final MessageStatusService messageStatusService;
+    private final UnreadMessageCounterService unreadMessageCounterService;
+
+    public PendingMessageService(
+            @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
+            MessageService messageService,
+            MessageStatusService messageStatusService,
+            UnreadMessageCounterService unreadMessageCounterService) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
+        this.messageService = messageService;
+        this.messageStatusService = messageStatusService;
+        this.unreadMessageCounterService = unreadMessageCounterService;
+    }
+
+    /**
+     * @param cursor      null to query the first page
+     * @param maxMessages the maximum number of the messages of all conversations in the page.
+     *                    Every conversation in the page has at least one message
+     *                    so the conversations after the budget runs out are left to the next page
+     */
+    public Mono<PendingMessagesPage> queryPendingMessages(
+            @NotNull Long userId,
+            @Nullable Long cursor,
+            @NotNull @Min(1) Integer maxConversations,
+            @NotNull @Min(1) Integer maxMessagesPerConversation,
+            @NotNull @Min(1) Integer maxMessages) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(maxConversations, "maxConversations");
+            AssertUtil.min(maxConversations, "maxConversations", 1);
+            AssertUtil.notNull(maxMessagesPerConversation, "maxMessagesPerConversation");
+            AssertUtil.min(maxMessagesPerConversation, "maxMessagesPerConversation", 1);
+            AssertUtil.notNull(maxMessages, "maxMessages");
+            AssertUtil.min(maxMessages, "maxMessages", 1);
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        boolean isGroupMessageStatusWatermarkEnabled = messageStatusService.isGroupMessageStatusWatermarkEnabled();
+        Mono<List<PendingConversation>> conversationsMono =
+                queryPendingConversationHeads(userId, cursor, maxConversations + 1, isGroupMessageStatusWatermarkEnabled);
+        if (isGroupMessageStatusWatermarkEnabled) {
+            Mono<List<PendingConversation>> groupConversationsMono = messageService
+                    .queryPendingGroupConversations(userId, maxMessagesPerConversation)
+                    .filter(conversation -> cursor == null || conversation.getLastMessageId() < cursor)
+                    .collectList();
+            conversationsMono = conversationsMono.zipWith(groupConversationsMono, (conversations, groupConversations) -> {
+                conversations.addAll(groupConversations);
+                return conversations;
+            });
+        }
+        return conversationsMono.flatMap(conversations -> {
+            conversations.sort(LATEST_FIRST);
+            int[] messageLimits = allocateMessages(conversations, maxConversations, maxMessagesPerConversation, maxMessages);
+            int pageSize = messageLimits.length;
+            boolean hasMore = conversations.size() > pageSize;
+            List<PendingConversation> page = conversations.subList(0, pageSize);
+            Long nextCursor = hasMore
+                    ? page.get(pageSize - 1).getLastMessageId()
+                    : null;
+            return Flux.range(0, pageSize)
+                    .flatMapSequential(index -> {
+                                PendingConversation conversation = page.get(index);
+                                int messageLimit = messageLimits[index];
+                                List<Message> messages = conversation.getMessages();
+                                if (messages == null) {
+                                    return queryPendingMessages(userId, conversation, messageLimit);
+                                }
+                                return Mono.just(messages.size() > messageLimit
+                                        ? new PendingConversation(conversation.getKey(),
+                                        conversation.getTotal(),
+                                        conversation.getLastMessageId(),
+                                        messages.subList(0, messageLimit))
+                                        : conversation);
+                            },
+                            PENDING_CONVERSATION_QUERY_CONCURRENCY)
+                    .collectList()
+                    .map(pageConversations -> new PendingMessagesPage(pageConversations, nextCursor));
+        });
+    }
+
+    /**
+     * Take the conversations in order until the message budget runs out
+     * so that the messages of a page are bounded by maxMessages
+     * instead of maxConversations * maxMessagesPerConversation
+     *
+     * @return the maximum number of the messages of every conversation in the page
+     */
+    private static int[] allocateMessages(
+            List<PendingConversation> conversations,
+            int maxConversations,
+            int maxMessagesPerConversation,
+            int maxMessages) {
+        int maxPageSize = Math.min(conversations.size(), maxConversations);
+        int[] messageLimits = new int[maxPageSize];
+        int remainingMessages = maxMessages;
+        int pageSize = 0;
+        while (pageSize < maxPageSize && remainingMessages > 0) {
+            // The total may be stale if it comes from the unread message counters,
+            // so a conversation takes one message at least
+            long total = Math.max(1, conversations.get(pageSize).getTotal());
+            int messageLimit = (int) Math.min(total, Math.min(maxMessagesPerConversation, remainingMessages));
+            messageLimits[pageSize++] = messageLimit;
+            remainingMessages -= messageLimit;
+        }
+        return pageSize == maxPageSize
+                ? messageLimits
+                : Arrays.copyOf(messageLimits, pageSize);
+    }
+
+    /**
+     * @return the conversations without messages
+     */
+    private Mono<List<PendingConversation>> queryPendingConversationHeads(
+            Long userId,
+            @Nullable Long cursor,
+            int limit,
+            boolean excludeGroupMessages) {
+        if (unreadMessageCounterService.isEnabled()) {
+            return unreadMessageCounterService.queryCounters(userId, cursor, limit, excludeGroupMessages)
+                    .map(PendingMessageService::toConversation)
+                    .collectList();
+        }
+        Document match = new Document(MessageStatus.Fields.ID_RECIPIENT_ID, userId)
+                .append(MessageStatus.Fields.DELIVERY_STATUS, MessageDeliveryStatus.READY.ordinal());
+        if (excludeGroupMessages) {
+            match.append(MessageStatus.Fields.GROUP_ID, null);
+        }
+        // The conversation of a group message is the group, and the conversation of a private message is the sender
+        Document isPrivateMessage = new Document("$eq", Arrays.asList(
+                new Document("$ifNull", Arrays.asList("$" + MessageStatus.Fields.GROUP_ID, null)), null));
+        Document conversationId = new Document(CONVERSATION_GROUP_ID, "$" + MessageStatus.Fields.GROUP_ID)
+                .append(CONVERSATION_SENDER_ID, new Document("$cond",
+                        Arrays.asList(isPrivateMessage, "$" + MessageStatus.Fields.SENDER_ID, null)))
+                .append(CONVERSATION_IS_SYSTEM_MESSAGE, "$" + MessageStatus.Fields.IS_SYSTEM_MESSAGE);
+        List<Document> pipeline = new ArrayList<>(5);
+        pipeline.add(new Document("$match", match));
+        pipeline.add(new Document("$group", new Document(DaoConstant.ID_FIELD_NAME, conversationId)
+                .append(TOTAL, new Document("$sum", 1))
+                .append(LAST_MESSAGE_ID, new Document("$max", "$" + MessageStatus.Fields.ID_MESSAGE_ID))));
+        List<String> collectionNames = messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null);
+        if (collectionNames.size() == 1) {
+            if (cursor != null) {
+                pipeline.add(new Document("$match", new Document(LAST_MESSAGE_ID, new Document("$lt", cursor))));
+            }
+            pipeline.add(new Document("$sort", new Document(LAST_MESSAGE_ID, -1)));
+            pipeline.add(new Document("$limit", limit));
+            return aggregate(collectionNames.get(0), pipeline)
+                    .map(PendingMessageService::toConversation)
+                    .collectList();
+        }
+        // The statuses of a conversation may be in multiple collections,
+        // so the results of the collections are merged before they are sorted and limited
+        return Flux.fromIterable(collectionNames)
+                .concatMap(collectionName -> aggregate(collectionName, pipeline))
+                .collect(LinkedHashMap<Object, PendingConversation>::new, (conversations, document) -> {
+                    PendingConversation conversation = toConversation(document);
+                    conversations.merge(document.get(DaoConstant.ID_FIELD_NAME), conversation, (c1, c2) ->
+                            new PendingConversation(c1.getKey(),
+                                    c1.getTotal() + c2.getTotal(),
+                                    Math.max(c1.getLastMessageId(), c2.getLastMessageId()),
+                                    null));
+                })
+                .map(conversations -> {
+                    List<PendingConversation> list = new ArrayList<>(conversations.size());
+                    for (PendingConversation conversation : conversations.values()) {
+                        if (cursor == null || conversation.getLastMessageId() < cursor) {
+                            list.add(conversation);
+                        }
+                    }
+                    list.sort(LATEST_FIRST);
+                    return list.size() > limit ? new ArrayList<>(list.subList(0, limit)) : list;
+                });
+    }
+
+    private Flux<Document> aggregate(String collectionName, List<Document> pipeline) {
+        return mongoTemplate.getCollection(collectionName)
+                .flatMapMany(collection -> collection.aggregate(pipeline));
+    }
+
+    private static PendingConversation toConversation(Document document) {
+        Document id = document.get(DaoConstant.ID_FIELD_NAME, Document.class);
+        Number groupId = (Number) id.get(CONVERSATION_GROUP_ID);
+        Number senderId = (Number) id.get(CONVERSATION_SENDER_ID);
+        boolean isGroupMessage = groupId != null;
+        PendingMessageKey key = new PendingMessageKey(isGroupMessage,
+                Boolean.TRUE.equals(id.getBoolean(CONVERSATION_IS_SYSTEM_MESSAGE)),
+                isGroupMessage ? groupId.longValue() : senderId.longValue());
+        return new PendingConversation(key,
+                ((Number) document.get(TOTAL)).longValue(),
+                ((Number) document.get(LAST_MESSAGE_ID)).longValue(),
+                null);
+    }
+
+    private static PendingConversation toConversation(UnreadMessageCounter counter) {
+        UnreadMessageCounter.Key counterKey = counter.getKey();
+        PendingMessageKey key = new PendingMessageKey(counterKey.getIsGroupMessage(),
+                counterKey.getIsSystemMessage(),
+                counterKey.getTargetId());
+        return new PendingConversation(key, counter.getCount(), counter.getLastMessageId(), null);
+    }
+
+    private Mono<PendingConversation> queryPendingMessages(
+            Long userId,
+            PendingConversation conversation,
+            int maxMessagesPerConversation) {
+        PendingMessageKey key = conversation.getKey();
+        Query statusQuery = new Query()
+                .addCriteria(Criteria.where(MessageStatus.Fields.ID_RECIPIENT_ID).is(userId))
+                .addCriteria(Criteria.where(MessageStatus.Fields.DELIVERY_STATUS).is(MessageDeliveryStatus.READY))
+                .addCriteria(Criteria.where(MessageStatus.Fields.IS_SYSTEM_MESSAGE).is(key.isSystemMessage()))
+                .with(Sort.by(Sort.Direction.DESC, MessageStatus.Fields.ID_MESSAGE_ID))
+                .limit(maxMessagesPerConversation);
+        if (key.isGroupMessage()) {
+            statusQuery.addCriteria(Criteria.where(MessageStatus.Fields.GROUP_ID).is(key.getTargetId()));
+        } else {
+            statusQuery.addCriteria(Criteria.where(MessageStatus.Fields.GROUP_ID).is(null))
+                    .addCriteria(Criteria.where(MessageStatus.Fields.SENDER_ID).is(key.getTargetId()));
+        }
+        statusQuery.fields().include(MessageStatus.Fields.ID_MESSAGE_ID);
+        List<String> statusCollectionNames = messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null);
+        return messageCollectionRouter.find(statusQuery, MessageStatus.class, statusCollectionNames, STATUS_LATEST_FIRST)
+                .map(status -> status.getKey().getMessageId())
+                .collectList()
+                .flatMap(messageIds -> {
+                    if (messageIds.isEmpty()) {
+                        return Mono.just(List.<Message>of());
+                    }
+                    Query messageQuery = new Query()
+                            .addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(messageIds))
+                            .with(Sort.by(Sort.Direction.ASC, DaoConstant.ID_FIELD_NAME));
+                    return messageCollectionRouter.find(messageQuery,
+                            Message.class,
+                            messageCollectionRouter.getMessageCollectionNames(messageIds),
+                            Comparator.comparing(Message::getId))
+                            .collectList();
+                })
+                .map(messages -> new PendingConversation(key, conversation.getTotal(), conversation.getLastMessageId(), messages));
+    }
+
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.manager.TrivialTaskManager;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.constant.GroupMessageStatusPersistenceMode;
+import im.turms.server.common.property.env.service.business.message.UnreadMessageCounterProperties;
+import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintains the number of the pending messages of every conversation of every user
+ * so that the pending conversations of a user can be read from the counters of the user in one indexed query
+ * instead of counting the message statuses of every conversation:
+ * 1. The counters are incremented when the statuses of messages are saved,
+ * in the same transaction as the statuses if the statuses are saved in a transaction;
+ * 2. The counters are decremented when the pending messages are acknowledged.
+ * If some of the messages have been acknowledged by concurrent requests, the affected counters are recounted instead;
+ * 3. The counters are recounted from the message statuses periodically by the master
+ * to correct the drift caused by the operations that don't maintain the counters
+ * (e.g. deleting messages, purging expired messages),
+ * and once the local node becomes the master after it starts
+ * so that the counters of the existing statuses are built soon after the counters are enabled.
+ * <p>
+ * Note that the statuses of group messages don't exist in the WATERMARK mode,
+ * so the pending group conversations are still derived from the watermarks in the mode.
+ *
+ * @author James Chen
+ */
+@Service
+@Log4j2
+public class UnreadMessageCounterService {
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    /**
+     * The same order as the "$sort" stage of {@link #recount(Document)}
+     */
+    static final Comparator<UnreadMessageCounter> COUNTER_ORDER = Comparator
+            .comparing((UnreadMessageCounter counter) -> counter.getKey().getUserId())
+            .thenComparing(counter -> counter.getKey().getIsGroupMessage())
+            .thenComparing(counter -> counter.getKey().getIsSystemMessage())
+            .thenComparing(counter -> counter.getKey().getTargetId());
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageCollectionRouter messageCollectionRouter;
+    private final Node node;
+    private final boolean enabled;
+    private final int reconciliationBatchSize;
+    private final AtomicBoolean isReconciling = new AtomicBoolean();
+    private final AtomicBoolean hasReconciledOnStartup = new AtomicBoolean();
+
+    public UnreadMessageCounterService(
+            @Qualifier("messageMongoTemplate") ReactiveMongoTemplate mongoTemplate,
+            MessageCollectionRouter messageCollectionRouter,
+            Node node,
+            TurmsPropertiesManager turmsPropertiesManager,
+            TrivialTaskManager taskManager) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageCollectionRouter = messageCollectionRouter;
+        this.node = node;
+        UnreadMessageCounterProperties properties = turmsPropertiesManager.getLocalProperties()
+                .getService()
+                .getMessage()
+                .getUnreadMessageCounter();
+        enabled = properties.isEnabled();
+        reconciliationBatchSize = properties.getReconciliationBatchSize();
+        if (!enabled) {
+            return;
+        }
+        taskManager.reschedule(
+                "unreadMessageCountersReconciler",
+                properties.getReconciliationCron(),
+                () -> {
+                    if (node.isLocalNodeMaster()) {
+                        reconcileCountersInBackground(null);
+                    }
+                });
+        if (properties.isReconcileOnStartup()) {
+            node.getDiscoveryService().addListenerOnLeadershipChange(leader -> {
+                if (node.isLocalNodeMaster() && hasReconciledOnStartup.compareAndSet(false, true)) {
+                    log.info("Start reconciling unread message counters because the local node has become the master");
+                    // Try again when the local node becomes the master next time if failed
+                    reconcileCountersInBackground(() -> hasReconciledOnStartup.set(false));
+                }
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param statuses the statuses of the new pending messages
+     */
+    public Mono<Void> incrementCounters(
+            @NotNull Collection<MessageStatus> statuses,
+            @Nullable ReactiveMongoOperations operations) {
+        if (!enabled || statuses.isEmpty()) {
+            return Mono.empty();
+        }
+        Map<UnreadMessageCounter.Key, Delta> deltas = toDeltas(statuses);
+        Date now = new Date();
+        List<WriteModel<Document>> models = new ArrayList<>(deltas.size());
+        for (Map.Entry<UnreadMessageCounter.Key, Delta> entry : deltas.entrySet()) {
+            Delta delta = entry.getValue();
+            Document update = new Document("$inc", new Document(UnreadMessageCounter.Fields.COUNT, delta.count))
+                    .append("$max", new Document(UnreadMessageCounter.Fields.LAST_MESSAGE_ID, delta.lastMessageId))
+                    .append("$set", new Document(UnreadMessageCounter.Fields.LAST_MODIFIED_DATE, now));
+            models.add(new UpdateOneModel<>(toFilter(entry.getKey()), update, UPSERT));
+        }
+        return bulkWrite(operations != null ? operations : mongoTemplate, models).then();
+    }
+
+    /**
+     * @param acknowledgedStatuses the statuses that were pending before they were acknowledged
+     * @param acknowledgedCount    the number of the statuses that have been acknowledged by the caller,
+     *                             which is less than the number of acknowledgedStatuses
+     *                             if some of them have been acknowledged by concurrent requests
+     */
+    public Mono<Void> decrementCounters(
+            @NotNull Long userId,
+            @NotNull Collection<MessageStatus> acknowledgedStatuses,
+            long acknowledgedCount) {
+        if (!enabled || acknowledgedStatuses.isEmpty()) {
+            return Mono.empty();
+        }
+        Map<UnreadMessageCounter.Key, Delta> deltas = toDeltas(acknowledgedStatuses);
+        if (acknowledgedCount != acknowledgedStatuses.size()) {
+            // It is unknown which statuses have been acknowledged by the caller
+            return reconcileCounters(userId, deltas.keySet());
+        }
+        Date now = new Date();
+        List<WriteModel<Document>> models = new ArrayList<>(deltas.size());
+        for (Map.Entry<UnreadMessageCounter.Key, Delta> entry : deltas.entrySet()) {
+            // A counter never becomes negative even if it has drifted
+            Document count = new Document("$max", Arrays.asList(0, new Document("$subtract", Arrays.asList(
+                    new Document("$ifNull", Arrays.asList("$" + UnreadMessageCounter.Fields.COUNT, 0)),
+                    entry.getValue().count))));
+            Document set = new Document("$set", new Document(UnreadMessageCounter.Fields.COUNT, count)
+                    .append(UnreadMessageCounter.Fields.LAST_MODIFIED_DATE, now));
+            models.add(new UpdateOneModel<>(toFilter(entry.getKey()), List.of(set)));
+        }
+        return bulkWrite(mongoTemplate, models).then();
+    }
+
+    /**
+     * @return the counters that have pending messages in the descending order of their last message IDs
+     */
+    public Flux<UnreadMessageCounter> queryCounters(
+            @NotNull Long userId,
+            @Nullable Long cursor,
+            @NotNull @Min(1) Integer limit,
+            boolean excludeGroupMessages) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(limit, "limit");
+            AssertUtil.min(limit, "limit", 1);
+        } catch (TurmsBusinessException e) {
+            return Flux.error(e);
+        }
+        Query query = new Query()
+                .addCriteria(Criteria.where(UnreadMessageCounter.Fields.ID_USER_ID).is(userId))
+                .addCriteria(Criteria.where(UnreadMessageCounter.Fields.COUNT).gt(0))
+                .with(Sort.by(Sort.Direction.DESC, UnreadMessageCounter.Fields.LAST_MESSAGE_ID))
+                .limit(limit);
+        if (cursor != null) {
+            query.addCriteria(Criteria.where(UnreadMessageCounter.Fields.LAST_MESSAGE_ID).lt(cursor));
+        }
+        if (excludeGroupMessages) {
+            query.addCriteria(Criteria.where(UnreadMessageCounter.Fields.ID_IS_GROUP_MESSAGE).is(false));
+        }
+        return mongoTemplate.find(query, UnreadMessageCounter.class, UnreadMessageCounter.COLLECTION_NAME);
+    }
+
+    /**
+     * @param areSystemMessages null to count both the system messages and the non-system messages
+     */
+    public Mono<Long> queryUnreadMessageCount(
+            @NotNull Long userId,
+            boolean areGroupMessages,
+            @Nullable Boolean areSystemMessages,
+            @NotNull Long groupOrSenderId) {
+        try {
+            AssertUtil.notNull(userId, "userId");
+            AssertUtil.notNull(groupOrSenderId, "groupOrSenderId");
+        } catch (TurmsBusinessException e) {
+            return Mono.error(e);
+        }
+        List<UnreadMessageCounter.Key> keys = areSystemMessages != null
+                ? List.of(new UnreadMessageCounter.Key(userId, areGroupMessages, areSystemMessages, groupOrSenderId))
+                : List.of(new UnreadMessageCounter.Key(userId, areGroupMessages, false, groupOrSenderId),
+                new UnreadMessageCounter.Key(userId, areGroupMessages, true, groupOrSenderId));
+        Query query = new Query().addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(keys));
+        query.fields().include(UnreadMessageCounter.Fields.COUNT);
+        return mongoTemplate.find(query, UnreadMessageCounter.class, UnreadMessageCounter.COLLECTION_NAME)
+                .reduce(0L, (total, counter) -> counter.getCount() == null ? total : total + Math.max(0, counter.getCount()));
+    }
+
+    /**
+     * Recount the pending messages of all users and replace the counters with the results.
+     * The counters that are neither recounted nor modified during the reconciliation are removed
+     * because they have no pending message.
+     * Note that the operations that happen during the reconciliation may be overwritten by the results,
+     * which are corrected in the next reconciliation.
+     *
+     * @return the number of the replaced and removed counters
+     */
+    public Mono<Long> reconcileCounters() {
+        if (!enabled || !isReconciling.compareAndSet(false, true)) {
+            return Mono.just(0L);
+        }
+        Date startDate = new Date();
+        return recount(pendingStatusesMatch())
+                .buffer(reconciliationBatchSize)
+                .concatMap(this::replaceCounters)
+                .reduce(0L, Long::sum)
+                .flatMap(replacedCount -> {
+                    Query query = new Query()
+                            .addCriteria(Criteria.where(UnreadMessageCounter.Fields.LAST_MODIFIED_DATE).lt(startDate));
+                    return mongoTemplate.remove(query, UnreadMessageCounter.class, UnreadMessageCounter.COLLECTION_NAME)
+                            .map(result -> replacedCount + result.getDeletedCount());
+                })
+                .doFinally(signal -> isReconciling.set(false));
+    }
+
+    private void reconcileCountersInBackground(@Nullable Runnable onError) {
+        reconcileCounters()
+                .subscribe(count -> log.info("Reconciled {} unread message counters", count),
+                        throwable -> {
+                            log.error("Failed to reconcile unread message counters", throwable);
+                            if (onError != null) {
+                                onError.run();
+                            }
+                        });
+    }
+
+    /**
+     * Recount the pending messages of the conversations of the user
+     */
+    public Mono<Void> reconcileCounters(@NotNull Long userId, @NotNull Collection<UnreadMessageCounter.Key> keys) {
+        if (!enabled || keys.isEmpty()) {
+            return Mono.empty();
+        }
+        List<Document> conversations = new ArrayList<>(keys.size());
+        for (UnreadMessageCounter.Key key : keys) {
+            Document conversation = new Document(MessageStatus.Fields.IS_SYSTEM_MESSAGE, key.getIsSystemMessage());
+            if (key.getIsGroupMessage()) {
+                conversation.append(MessageStatus.Fields.GROUP_ID, key.getTargetId());
+            } else {
+                conversation.append(MessageStatus.Fields.GROUP_ID, null)
+                        .append(MessageStatus.Fields.SENDER_ID, key.getTargetId());
+            }
+            conversations.add(conversation);
+        }
+        Document match = pendingStatusesMatch()
+                .append(MessageStatus.Fields.ID_RECIPIENT_ID, userId)
+                .append("$or", conversations);
+        return recount(match)
+                .collectList()
+                .flatMap(counters -> {
+                    Set<UnreadMessageCounter.Key> keysWithoutPendingMessages = new HashSet<>(keys);
+                    for (UnreadMessageCounter counter : counters) {
+                        keysWithoutPendingMessages.remove(counter.getKey());
+                    }
+                    Mono<Long> replace = counters.isEmpty()
+                            ? Mono.just(0L)
+                            : replaceCounters(counters);
+                    if (keysWithoutPendingMessages.isEmpty()) {
+                        return replace.then();
+                    }
+                    Query query = new Query()
+                            .addCriteria(Criteria.where(DaoConstant.ID_FIELD_NAME).in(keysWithoutPendingMessages));
+                    return replace.then(mongoTemplate.remove(query, UnreadMessageCounter.class, UnreadMessageCounter.COLLECTION_NAME))
+                            .then();
+                });
+    }
+
+    private Document pendingStatusesMatch() {
+        Document match = new Document(MessageStatus.Fields.DELIVERY_STATUS, MessageDeliveryStatus.READY.ordinal());
+        boolean isGroupMessageStatusWatermarkEnabled = node.getSharedProperties().getService().getMessage()
+                .getGroupMessageStatusPersistenceMode() == GroupMessageStatusPersistenceMode.WATERMARK;
+        if (isGroupMessageStatusWatermarkEnabled) {
+            match.append(MessageStatus.Fields.GROUP_ID, null);
+        }
+        return match;
+    }
+
+    /**
+     * @return the counters of the matched statuses in the order of {@link #COUNTER_ORDER}
+     */
+    private Flux<UnreadMessageCounter> recount(Document match) {
+        Document groupId = new Document("$ifNull", Arrays.asList("$" + MessageStatus.Fields.GROUP_ID, null));
+        Document key = new Document(UnreadMessageCounter.Key.Fields.USER_ID, "$" + MessageStatus.Fields.ID_RECIPIENT_ID)
+                .append(UnreadMessageCounter.Key.Fields.IS_GROUP_MESSAGE, new Document("$ne", Arrays.asList(groupId, null)))
+                .append(UnreadMessageCounter.Key.Fields.IS_SYSTEM_MESSAGE, "$" + MessageStatus.Fields.IS_SYSTEM_MESSAGE)
+                .append(UnreadMessageCounter.Key.Fields.TARGET_ID, new Document("$ifNull",
+                        Arrays.asList("$" + MessageStatus.Fields.GROUP_ID, "$" + MessageStatus.Fields.SENDER_ID)));
+        Document sort = new Document(UnreadMessageCounter.Fields.ID_USER_ID, 1)
+                .append(UnreadMessageCounter.Fields.ID_IS_GROUP_MESSAGE, 1)
+                .append(DaoConstant.ID_FIELD_NAME + "." + UnreadMessageCounter.Key.Fields.IS_SYSTEM_MESSAGE, 1)
+                .append(DaoConstant.ID_FIELD_NAME + "." + UnreadMessageCounter.Key.Fields.TARGET_ID, 1);
+        List<Document> pipeline = List.of(
+                new Document("$match", match),
+                new Document("$group", new Document(DaoConstant.ID_FIELD_NAME, key)
+                        .append(UnreadMessageCounter.Fields.COUNT, new Document("$sum", 1))
+                        .append(UnreadMessageCounter.Fields.LAST_MESSAGE_ID,
+                                new Document("$max", "$" + MessageStatus.Fields.ID_MESSAGE_ID))),
+                new Document("$sort", sort));
+        List<String> collectionNames = messageCollectionRouter.getMessageStatusCollectionNames((DateRange) null);
+        List<Flux<UnreadMessageCounter>> sources = new ArrayList<>(collectionNames.size());
+        for (String collectionName : collectionNames) {
+            sources.add(mongoTemplate.getCollection(collectionName)
+                    .flatMapMany(collection -> collection.aggregate(pipeline).allowDiskUse(true))
+                    .map(document -> mongoTemplate.getConverter().read(UnreadMessageCounter.class, document)));
+        }
+        return mergeSortedCounters(sources);
+    }
+
+    private Mono<Long> replaceCounters(List<UnreadMessageCounter> counters) {
+        Date now = new Date();
+        List<WriteModel<Document>> models = new ArrayList<>(counters.size());
+        for (UnreadMessageCounter counter : counters) {
+            Document update = new Document("$set", new Document(UnreadMessageCounter.Fields.COUNT, counter.getCount())
+                    .append(UnreadMessageCounter.Fields.LAST_MESSAGE_ID, counter.getLastMessageId())
+                    .append(UnreadMessageCounter.Fields.LAST_MODIFIED_DATE, now));
+            models.add(new UpdateOneModel<>(toFilter(counter.getKey()), update, UPSERT));
+        }
+        return bulkWrite(mongoTemplate, models);
+    }
+
+    /**
+     * @return the number of the matched and upserted counters
+     */
+    private Mono<Long> bulkWrite(ReactiveMongoOperations operations, List<WriteModel<Document>> models) {
+        return operations.getCollection(UnreadMessageCounter.COLLECTION_NAME)
+                .flatMap(collection -> Mono.from(collection.bulkWrite(models, UNORDERED)))
+                .map(result -> (long) result.getMatchedCount() + result.getUpserts().size());
+    }
+
+    /**
+     * The key is matched as a whole so it must be written in the same order as the fields of the key
+     */
+    private static Document toFilter(UnreadMessageCounter.Key key) {
+        Document id = new Document(UnreadMessageCounter.Key.Fields.USER_ID, key.getUserId())
+                .append(UnreadMessageCounter.Key.Fields.IS_GROUP_MESSAGE, key.getIsGroupMessage())
+                .append(UnreadMessageCounter.Key.Fields.IS_SYSTEM_MESSAGE, key.getIsSystemMessage())
+                .append(UnreadMessageCounter.Key.Fields.TARGET_ID, key.getTargetId());
+        return new Document(DaoConstant.ID_FIELD_NAME, id);
+    }
+
+    /**
+     * @return the key of the counter that counts the status
+     */
+    static UnreadMessageCounter.Key toKey(MessageStatus status) {
+        Long groupId = status.getGroupId();
+        boolean isGroupMessage = groupId != null;
+        return new UnreadMessageCounter.Key(status.getKey().getRecipientId(),
+                isGroupMessage,
+                Boolean.TRUE.equals(status.getIsSystemMessage()),
+                isGroupMessage ? groupId : status.getSenderId());
+    }
+
+    /**
+     * Group the statuses by their counters
+     */
+    static Map<UnreadMessageCounter.Key, Delta> toDeltas(Collection<MessageStatus> statuses) {
+        Map<UnreadMessageCounter.Key, Delta> deltas = new LinkedHashMap<>();
+        for (MessageStatus status : statuses) {
+            deltas.computeIfAbsent(toKey(status), k -> new Delta())
+                    .add(status.getKey().getMessageId());
+        }
+        return deltas;
+    }
+
+    /**
+     * Merge the counters of every collection, which are sorted by {@link #COUNTER_ORDER},
+     * into the sorted counters of all collections
+     */
+    static Flux<UnreadMessageCounter> mergeSortedCounters(List<? extends Publisher<UnreadMessageCounter>> sources) {
+        if (sources.size() == 1) {
+            return Flux.from(sources.get(0));
+        }
+        @SuppressWarnings("unchecked")
+        Publisher<UnreadMessageCounter>[] publishers = sources.toArray(new Publisher[0]);
+        // The counters of the same conversation in different collections are adjacent after merging
+        return Flux.mergeOrdered(COUNTER_ORDER, publishers)
+                .windowUntilChanged(UnreadMessageCounter::getKey)
+                .concatMap(counters -> counters.reduce((counter1, counter2) -> new UnreadMessageCounter(counter1.getKey(),
+                        counter1.getCount() + counter2.getCount(),
+                        Math.max(counter1.getLastMessageId(), counter2.getLastMessageId()),
+                        null)));
+    }
+
+    static final class Delta {
+        long count;
+        long lastMessageId = Long.MIN_VALUE;
+
+        private void add(long messageId) {
+            count++;
+            lastMessageId = Math.max(lastMessageId, messageId);
+        }
+    }
+
+}
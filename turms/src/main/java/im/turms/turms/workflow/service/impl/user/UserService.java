@@ -28,6 +28,7 @@ import im.turms.server.common.cluster.service.idgen.ServiceType;
 import im.turms.server.common.dao.domain.User;
 import im.turms.server.common.manager.PasswordManager;
 import im.turms.server.common.util.AssertUtil;
+import im.turms.turms.bo.ContinuationToken;
 import im.turms.turms.bo.DateRange;
 import im.turms.turms.constant.DaoConstant;
 import im.turms.turms.constant.MetricsConstant;
@@ -379,6 +380,7 @@ public class UserService {
             @Nullable DateRange deletionDateRange,
             @Nullable Boolean isActive,
             @Nullable Integer page,
+            @Nullable ContinuationToken continuationToken,
             @Nullable Integer size,
             boolean queryDeletedRecords) {
         Query query = QueryBuilder
@@ -388,7 +390,7 @@ public class UserService {
                 .addBetweenIfNotNull(User.Fields.DELETION_DATE, deletionDateRange)
                 .addIsIfNotNull(User.Fields.IS_ACTIVE, isActive)
                 .addIsNullIfFalse(User.Fields.DELETION_DATE, queryDeletedRecords)
-                .paginateIfNotNull(page, size);
+                .paginateIfNotNull(page, continuationToken, size);
         return mongoTemplate.find(query, User.class, User.COLLECTION_NAME);
     }
 
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.bo;
+
+import im.turms.common.exception.TurmsBusinessException;
+import im.turms.turms.bo.ContinuationToken;
+import im.turms.turms.workflow.dao.builder.QueryBuilder;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author James Chen
+ */
+class ContinuationTokenTests {
+
+    @Test
+    void decode_shouldReturnSameToken_whenDecodingEncodedToken() {
+        ContinuationToken idOnly = new ContinuationToken(null, null, 1L);
+        ContinuationToken dateAndId = new ContinuationToken("date", new Date(1), 2L);
+
+        ContinuationToken decodedIdOnly = ContinuationToken.decode(idOnly.encode());
+        ContinuationToken decodedDateAndId = ContinuationToken.decode(dateAndId.encode());
+
+        assertEquals(idOnly, decodedIdOnly);
+        assertEquals(dateAndId, decodedDateAndId);
+        assertTrue(decodedDateAndId.getSortFieldValue() instanceof Date);
+    }
+
+    @Test
+    void decode_shouldThrowException_whenDecodingIllegalToken() {
+        assertThrows(
+                TurmsBusinessException.class,
+                () -> ContinuationToken.decode("illegal token"));
+        assertThrows(
+                TurmsBusinessException.class,
+                () -> ContinuationToken.decode(ContinuationToken.FIRST_PAGE.encode()));
+    }
+
+    @Test
+    void decode_shouldThrowException_whenDecodingTamperedToken() {
+        List<Document> tamperedDocuments = List.of(
+                // Operators
+                new Document("id", new Document("$ne", null)),
+                new Document("id", 1L).append("f", "date").append("v", new Document("$gt", new Date(0))),
+                // Arrays
+                new Document("id", List.of(1L, 2L)),
+                new Document("id", 1L).append("f", "date").append("v", List.of(new Date(0))),
+                // Sort fields without values or values without sort fields
+                new Document("id", 1L).append("f", "date"),
+                new Document("id", 1L).append("v", new Date(0)),
+                new Document("id", 1L).append("f", new Document("$where", "true")).append("v", new Date(0)),
+                // Unknown keys
+                new Document("id", 1L).append("x", 1));
+
+        for (Document document : tamperedDocuments) {
+            String token = encode(document);
+            assertThrows(
+                    TurmsBusinessException.class,
+                    () -> ContinuationToken.decode(token),
+                    document::toJson);
+        }
+    }
+
+    @Test
+    void seekIfNotNull_shouldThrowException_whenSortFieldDoesNotMatchToken() {
+        ContinuationToken idOnly = ContinuationToken.decode(new ContinuationToken(null, null, 1L).encode());
+        ContinuationToken dateAndId = ContinuationToken.decode(new ContinuationToken("date", new Date(1), 2L).encode());
+
+        assertThrows(
+                TurmsBusinessException.class,
+                () -> QueryBuilder.newBuilder().seekIfNotNull(idOnly, 10, Sort.Direction.ASC, "date"));
+        assertThrows(
+                TurmsBusinessException.class,
+                () -> QueryBuilder.newBuilder().seekIfNotNull(dateAndId, 10, Sort.Direction.ASC, null));
+        assertThrows(
+                TurmsBusinessException.class,
+                () -> QueryBuilder.newBuilder().seekIfNotNull(dateAndId, 10, Sort.Direction.ASC, "name"));
+        assertDoesNotThrow(
+                () -> QueryBuilder.newBuilder().seekIfNotNull(dateAndId, 10, Sort.Direction.ASC, "date"));
+    }
+
+    private static String encode(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        new DocumentCodec().encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.toByteArray());
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.access.http.controller.user;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.dao.domain.User;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.turms.bo.ContinuationToken;
+import im.turms.turms.workflow.access.http.controller.user.UserController;
+import im.turms.turms.workflow.access.http.dto.response.PaginationDTO;
+import im.turms.turms.workflow.access.http.dto.response.ResponseDTO;
+import im.turms.turms.workflow.access.http.util.DateTimeUtil;
+import im.turms.turms.workflow.access.http.util.PageUtil;
+import im.turms.turms.workflow.service.impl.message.MessageService;
+import im.turms.turms.workflow.service.impl.user.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class UserControllerTests {
+
+    private static final int PAGE_SIZE = 2;
+
+    private final UserService userService = mock(UserService.class);
+    private final UserController userController = newUserController();
+
+    @Test
+    void queryUsers_shouldCountTotal_forOffsetPagination() {
+        PaginationDTO<User> pagination = queryUsers(null);
+
+        assertEquals(10L, pagination.getTotal());
+        assertNull(pagination.getNextContinuationToken());
+    }
+
+    @Test
+    void queryUsers_shouldCountTotal_forFirstPageOfKeysetPagination() {
+        PaginationDTO<User> pagination = queryUsers("");
+
+        assertEquals(10L, pagination.getTotal());
+        assertNotNull(pagination.getNextContinuationToken());
+    }
+
+    @Test
+    void queryUsers_shouldNotCountTotal_forFollowingPagesOfKeysetPagination() {
+        PaginationDTO<User> pagination = queryUsers(new ContinuationToken(null, null, 2L).encode());
+
+        assertNull(pagination.getTotal());
+        assertEquals(PAGE_SIZE, pagination.getRecords().size());
+        assertEquals(new ContinuationToken(null, null, 4L).encode(), pagination.getNextContinuationToken());
+        verify(userService, never()).countUsers(any(), any(), any(), any());
+    }
+
+    private PaginationDTO<User> queryUsers(String continuationToken) {
+        ResponseEntity<ResponseDTO<PaginationDTO<User>>> response = userController
+                .queryUsers(null, null, null, null, null, null, 0, continuationToken, PAGE_SIZE)
+                .block();
+        assertNotNull(response);
+        return response.getBody().getData();
+    }
+
+    private UserController newUserController() {
+        when(userService.countUsers(any(), any(), any(), any()))
+                .thenReturn(Mono.just(10L));
+        when(userService.queryUsers(any(), any(), any(), any(), any(), any(), any(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    ContinuationToken token = invocation.getArgument(5);
+                    long lastId = token == null || token.isFirstPage() ? 0 : (long) token.getId();
+                    List<User> users = new ArrayList<>(PAGE_SIZE);
+                    for (long id = lastId + 1; id <= lastId + PAGE_SIZE; id++) {
+                        users.add(new User(id, null, null, null, null, null, null, null, null, null));
+                    }
+                    return Flux.fromIterable(users);
+                });
+        Node node = mock(Node.class);
+        when(node.getSharedProperties())
+                .thenReturn(new TurmsProperties());
+        return new UserController(userService, new PageUtil(node), mock(MessageService.class), mock(DateTimeUtil.class));
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.access.servicerequest.dispatcher;
+
+import im.turms.common.constant.DeviceType;
+import im.turms.common.constant.statuscode.TurmsStatusCode;
+import im.turms.server.common.cluster.node.NodeType;
+import im.turms.server.common.cluster.node.NodeVersion;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.MemberInfoWithConnection;
+import im.turms.server.common.cluster.service.rpc.balancer.RendezvousHashing;
+import im.turms.server.common.dto.ServiceResponse;
+import im.turms.server.common.property.env.service.env.clientapi.property.IdempotencyProperties;
+import im.turms.turms.workflow.access.servicerequest.dispatcher.ClientRequestDeduplicator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class ClientRequestDeduplicatorTests {
+
+    private final ServiceResponse response = new ServiceResponse(null, TurmsStatusCode.OK, null);
+
+    @Test
+    void deduplicate_shouldReturnCachedResponse_forRetriedRequest() {
+        ClientRequestDeduplicator deduplicator = new ClientRequestDeduplicator(new IdempotencyProperties());
+        AtomicInteger handledTimes = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(deduplicate(deduplicator, 1L, "message", handledTimes, response))
+                    .expectNext(response)
+                    .verifyComplete();
+        }
+        assertEquals(1, handledTimes.get());
+    }
+
+    @Test
+    void deduplicate_shouldHandleRequest_ifContentIsDifferent() {
+        ClientRequestDeduplicator deduplicator = new ClientRequestDeduplicator(new IdempotencyProperties());
+        AtomicInteger handledTimes = new AtomicInteger();
+
+        deduplicate(deduplicator, 1L, "message1", handledTimes, response).block();
+        deduplicate(deduplicator, 1L, "message2", handledTimes, response).block();
+        deduplicate(deduplicator, 2L, "message1", handledTimes, response).block();
+
+        assertEquals(3, handledTimes.get());
+    }
+
+    @Test
+    void deduplicate_shouldHandleRequestAgain_ifRequestFailedWithServerError() {
+        ClientRequestDeduplicator deduplicator = new ClientRequestDeduplicator(new IdempotencyProperties());
+        AtomicInteger handledTimes = new AtomicInteger();
+        ServiceResponse errorResponse = new ServiceResponse(null, TurmsStatusCode.SERVER_INTERNAL_ERROR, null);
+
+        deduplicate(deduplicator, 1L, "message", handledTimes, errorResponse).block();
+        deduplicate(deduplicator, 1L, "message", handledTimes, errorResponse).block();
+
+        assertEquals(2, handledTimes.get());
+    }
+
+    @Test
+    void deduplicate_shouldReturnCachedResponse_forRetriedRequestSentByAnotherGateway() {
+        IdempotencyProperties properties = new IdempotencyProperties();
+        assertTrue(properties.isRouteByUserId());
+        // Every turms server only remembers the requests handled by itself
+        Map<String, ClientRequestDeduplicator> nodeIdAndDeduplicator = Map.of(
+                "turms-1", new ClientRequestDeduplicator(properties),
+                "turms-2", new ClientRequestDeduplicator(properties),
+                "turms-3", new ClientRequestDeduplicator(properties));
+        // The client reconnects to another turms-gateway server,
+        // which may list the turms servers in another order
+        List<MemberInfoWithConnection> membersOfGateway1 = List.of(newMember("turms-1"), newMember("turms-2"), newMember("turms-3"));
+        List<MemberInfoWithConnection> membersOfGateway2 = List.of(newMember("turms-3"), newMember("turms-1"), newMember("turms-2"));
+        AtomicInteger handledTimes = new AtomicInteger();
+        int userCount = 100;
+
+        for (long userId = 1; userId <= userCount; userId++) {
+            ClientRequestDeduplicator deduplicator = nodeIdAndDeduplicator.get(route(membersOfGateway1, userId));
+            deduplicate(deduplicator, userId, 1L, "message", handledTimes, response).block();
+
+            ClientRequestDeduplicator retryDeduplicator = nodeIdAndDeduplicator.get(route(membersOfGateway2, userId));
+            StepVerifier.create(deduplicate(retryDeduplicator, userId, 1L, "message", handledTimes, response))
+                    .expectNext(response)
+                    .verifyComplete();
+        }
+        assertEquals(userCount, handledTimes.get());
+    }
+
+    /**
+     * Routes the request by user ID in the same way as turms-gateway does
+     * if {@link IdempotencyProperties#isRouteByUserId()} is true
+     */
+    private String route(List<MemberInfoWithConnection> members, long userId) {
+        return RendezvousHashing.choose(members, userId).getMember().getNodeId();
+    }
+
+    private MemberInfoWithConnection newMember(String nodeId) {
+        Member member = new Member("turms", nodeId, NodeType.SERVICE, NodeVersion.parse("1.0.0-SNAPSHOT"), false,
+                new Date(), 0, "localhost", 7510, null, true, true);
+        return new MemberInfoWithConnection(member, null);
+    }
+
+    private Mono<ServiceResponse> deduplicate(ClientRequestDeduplicator deduplicator,
+                                              long requestId,
+                                              String content,
+                                              AtomicInteger handledTimes,
+                                              ServiceResponse response) {
+        return deduplicate(deduplicator, 1L, requestId, content, handledTimes, response);
+    }
+
+    private Mono<ServiceResponse> deduplicate(ClientRequestDeduplicator deduplicator,
+                                              long userId,
+                                              long requestId,
+                                              String content,
+                                              AtomicInteger handledTimes,
+                                              ServiceResponse response) {
+        ByteBuf requestBuffer = Unpooled.copiedBuffer(content, StandardCharsets.UTF_8);
+        return deduplicator.deduplicate(userId, DeviceType.ANDROID, requestId, requestBuffer,
+                recipientCountConsumer -> Mono.fromCallable(() -> {
+                    handledTimes.incrementAndGet();
+                    recipientCountConsumer.accept(1);
+                    return response;
+                }));
+    }
+
+}
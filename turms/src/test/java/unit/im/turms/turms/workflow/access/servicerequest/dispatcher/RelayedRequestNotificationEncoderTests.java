@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.access.servicerequest.dispatcher;
+
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.StringValue;
+import im.turms.common.model.dto.notification.TurmsNotification;
+import im.turms.common.model.dto.request.TurmsRequest;
+import im.turms.common.model.dto.request.message.CreateMessageRequest;
+import im.turms.server.common.util.ProtoUtil;
+import im.turms.turms.workflow.access.servicerequest.dispatcher.RelayedRequestNotificationEncoder;
+import im.turms.turms.workflow.access.servicerequest.dto.RelayedRequestPatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author James Chen
+ */
+class RelayedRequestNotificationEncoderTests {
+
+    @Test
+    void encode_shouldEqualPatchedNotification_forSmallRequest() throws InvalidProtocolBufferException {
+        assertEncodedNotificationEqualsPatchedNotification(200);
+    }
+
+    @Test
+    void encode_shouldEqualPatchedNotification_forLargeRequest() throws InvalidProtocolBufferException {
+        assertEncodedNotificationEqualsPatchedNotification(8192);
+    }
+
+    @Test
+    void encode_shouldReturnNull_forRequestOtherThanCreateMessageRequest() {
+        TurmsRequest request = TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(123).build())
+                .build();
+        ByteBuf requestBuffer = ProtoUtil.getDirectByteBuffer(request);
+
+        assertNull(RelayedRequestNotificationEncoder.encode(789, requestBuffer, new RelayedRequestPatch(1L, null)));
+        requestBuffer.release();
+    }
+
+    private void assertEncodedNotificationEqualsPatchedNotification(int textLength) throws InvalidProtocolBufferException {
+        TurmsRequest request = TurmsRequest.newBuilder()
+                .setRequestId(Int64Value.newBuilder().setValue(123).build())
+                .setCreateMessageRequest(CreateMessageRequest.newBuilder()
+                        .setGroupId(Int64Value.newBuilder().setValue(456).build())
+                        .setDeliveryDate(1)
+                        .setText(StringValue.newBuilder().setValue("a".repeat(textLength)).build()))
+                .build();
+        RelayedRequestPatch patch = new RelayedRequestPatch(Long.MAX_VALUE, System.currentTimeMillis());
+        ByteBuf requestBuffer = ProtoUtil.getDirectByteBuffer(request);
+
+        ByteBuf notificationBuffer = RelayedRequestNotificationEncoder.encode(789, requestBuffer, patch);
+        TurmsNotification notification = TurmsNotification.parseFrom(ByteBufUtil.getBytes(notificationBuffer));
+
+        TurmsNotification expected = TurmsNotification.newBuilder()
+                .setRelayedRequest(patch.apply(request))
+                .setRequesterId(Int64Value.newBuilder().setValue(789).build())
+                .build();
+        assertEquals(expected, notification);
+        notificationBuffer.release();
+        assertEquals(1, requestBuffer.refCnt());
+        requestBuffer.release();
+    }
+
+}
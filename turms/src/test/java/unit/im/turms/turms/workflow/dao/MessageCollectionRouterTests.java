@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.dao;
+
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.constant.MessageCollectionLayout;
+import im.turms.server.common.property.constant.TimeType;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class MessageCollectionRouterTests {
+
+    /**
+     * The custom epoch of snowflake IDs
+     */
+    private static final long EPOCH = 1602547200000L;
+    private static final int TIMESTAMP_LEFT_SHIFT = 22;
+
+    @Test
+    void getMessageCollectionName_shouldReturnSingleCollection_forSingleLayout() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.SINGLE, List.of());
+
+        assertEquals("message", router.getMessageCollectionName(newMessageId("2020-11-01T12:00:00Z")));
+        assertEquals(List.of("messageStatus"), router.getMessageStatusCollectionNames((DateRange) null));
+    }
+
+    @Test
+    void getMessageCollectionName_shouldRouteByIdTimestamp_forDailyLayout() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, List.of());
+        long messageId = newMessageId("2020-11-01T23:59:59Z");
+
+        assertEquals("message_d20201101", router.getMessageCollectionName(messageId));
+        assertEquals("messageStatus_d20201101", router.getMessageStatusCollectionName(messageId));
+        assertEquals("messageStatus_d20201101", router.toMessageStatusCollectionName("message_d20201101"));
+    }
+
+    @Test
+    void getMessageCollectionName_shouldRouteToMonday_forWeeklyLayout() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.WEEKLY, List.of());
+
+        // 2020-11-01 is Sunday
+        assertEquals("message_w20201026", router.getMessageCollectionName(newMessageId("2020-11-01T12:00:00Z")));
+        assertEquals("message_w20201102", router.getMessageCollectionName(newMessageId("2020-11-02T00:00:00Z")));
+    }
+
+    @Test
+    void getMessageCollectionNames_shouldOnlyReturnBucketsCoveredByDateRange() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY,
+                List.of("message_d20201030", "message_d20201031", "message_d20201101", "message_d20201102", "user"));
+        DateRange range = DateRange.of(Date.from(Instant.parse("2020-10-31T12:00:00Z")),
+                Date.from(Instant.parse("2020-11-01T12:00:00Z")));
+
+        List<String> names = router.getMessageCollectionNames(range);
+
+        assertEquals(List.of("message_d20201031", "message_d20201101"), names);
+    }
+
+    @Test
+    void getMessageCollectionNames_shouldIncludeCurrentBucket_ifRangeIsOpen() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, List.of("message_d20201030"));
+        DateRange range = DateRange.of(Date.from(Instant.parse("2020-10-30T00:00:00Z")), null);
+
+        List<String> names = router.getMessageCollectionNames(range);
+
+        assertEquals("message_d20201030", names.get(0));
+        assertTrue(names.contains(router.getMessageCollectionName(newMessageId(Instant.now().toString()))));
+    }
+
+    @Test
+    void getMessageCollectionNames_shouldReturnBucketsOfIds() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, List.of());
+        Set<Long> messageIds = Set.of(newMessageId("2020-11-01T01:00:00Z"),
+                newMessageId("2020-11-01T02:00:00Z"),
+                newMessageId("2020-11-03T00:00:00Z"));
+
+        assertEquals(List.of("message_d20201101", "message_d20201103"), router.getMessageCollectionNames(messageIds));
+    }
+
+    @Test
+    void getMessageCollectionNames_shouldReturnAllBuckets_forClientTime() {
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, TimeType.CLIENT_TIME,
+                List.of("message_d20201030", "message_d20201031", "message_d20201101", "message_d20201102"),
+                mock(ReactiveMongoTemplate.class));
+        DateRange range = DateRange.of(Date.from(Instant.parse("2020-10-31T12:00:00Z")),
+                Date.from(Instant.parse("2020-11-01T12:00:00Z")));
+
+        List<String> names = router.getMessageCollectionNames(range);
+
+        // The messages created on 2020-10-30 or 2020-11-02 may be delivered within the range according to the clients
+        assertEquals(List.of("message_d20201030", "message_d20201031", "message_d20201101", "message_d20201102"),
+                names.subList(0, 4));
+    }
+
+    @Test
+    void dropExpiredCollections_shouldDropExpiredBuckets_forServerTime() {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.dropCollection(anyString())).thenReturn(Mono.empty());
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, TimeType.LOCAL_SERVER_TIME,
+                List.of("message_d20201030", "message_d20201031"), mongoTemplate);
+
+        StepVerifier.create(router.dropExpiredCollections(Date.from(Instant.parse("2020-11-01T00:00:00Z"))))
+                .expectNext(1)
+                .verifyComplete();
+
+        verify(mongoTemplate).dropCollection("message_d20201030");
+        verify(mongoTemplate).dropCollection("messageStatus_d20201030");
+        verify(mongoTemplate, never()).dropCollection("message_d20201031");
+    }
+
+    @Test
+    void dropExpiredCollections_shouldNotDropBuckets_forClientTime() {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, TimeType.CLIENT_TIME,
+                List.of("message_d20201030", "message_d20201031"), mongoTemplate);
+
+        StepVerifier.create(router.dropExpiredCollections(new Date()))
+                .expectNext(0)
+                .verifyComplete();
+
+        verify(mongoTemplate, never()).dropCollection(anyString());
+    }
+
+    @Test
+    void find_shouldMergeDocumentsWithoutModifyingQuery_forMultipleCollections() {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        Map<String, List<Long>> collectionNameAndIds = Map.of(
+                "message_d20201030", List.of(1L, 4L, 5L),
+                "message_d20201031", List.of(2L, 3L, 6L));
+        List<Query> collectionQueries = new ArrayList<>();
+        when(mongoTemplate.find(any(Query.class), eq(Long.class), anyString()))
+                .thenAnswer(invocation -> {
+                    Query collectionQuery = invocation.getArgument(0);
+                    collectionQueries.add(collectionQuery);
+                    return Flux.fromIterable(collectionNameAndIds.get(invocation.getArgument(2)))
+                            .skip(collectionQuery.getSkip())
+                            .take(collectionQuery.getLimit());
+                });
+        MessageCollectionRouter router = newRouter(MessageCollectionLayout.DAILY, TimeType.LOCAL_SERVER_TIME,
+                List.of("message_d20201030", "message_d20201031"), mongoTemplate);
+        Query query = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .skip(1)
+                .limit(3);
+
+        StepVerifier.create(router.find(query, Long.class, List.of("message_d20201030", "message_d20201031"),
+                Comparator.naturalOrder()))
+                .expectNext(2L, 3L, 4L)
+                .verifyComplete();
+
+        assertEquals(1, query.getSkip());
+        assertEquals(3, query.getLimit());
+        assertEquals(2, collectionQueries.size());
+        for (Query collectionQuery : collectionQueries) {
+            assertEquals(0, collectionQuery.getSkip());
+            assertEquals(4, collectionQuery.getLimit());
+        }
+    }
+
+    private static MessageCollectionRouter newRouter(MessageCollectionLayout layout, List<String> existingCollectionNames) {
+        return newRouter(layout, TimeType.LOCAL_SERVER_TIME, existingCollectionNames, mock(ReactiveMongoTemplate.class));
+    }
+
+    private static MessageCollectionRouter newRouter(MessageCollectionLayout layout,
+                                                     TimeType timeType,
+                                                     List<String> existingCollectionNames,
+                                                     ReactiveMongoTemplate mongoTemplate) {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().setCollectionLayout(layout);
+        properties.getService().getMessage().setTimeType(timeType);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        when(mongoTemplate.getCollectionNames()).thenReturn(Flux.fromIterable(existingCollectionNames));
+        MessageCollectionRouter router = new MessageCollectionRouter(mongoTemplate, propertiesManager);
+        router.destroy();
+        return router;
+    }
+
+    private static long newMessageId(String instant) {
+        return (Instant.parse(instant).toEpochMilli() - EPOCH) << TIMESTAMP_LEFT_SHIFT;
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.service.impl.admin;
+
+import com.mongodb.client.result.UpdateResult;
+import im.turms.server.common.manager.PasswordManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.domain.Admin;
+import im.turms.turms.workflow.service.impl.admin.AdminRoleService;
+import im.turms.turms.workflow.service.impl.admin.AdminService;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Date;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the cache of the verified admin credentials
+ *
+ * @author James Chen
+ */
+class AdminServiceTests {
+
+    private static final String ACCOUNT = "admin";
+    private static final String RAW_PASSWORD = "password";
+    private static final String ENCODED_PASSWORD = "encoded-password";
+    private static final String NEW_RAW_PASSWORD = "new-password";
+    private static final String NEW_ENCODED_PASSWORD = "new-encoded-password";
+
+    private final Admin admin = new Admin(ACCOUNT, ENCODED_PASSWORD, "name", DaoConstant.ADMIN_ROLE_ROOT_ID, new Date());
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class, RETURNS_DEEP_STUBS);
+    private final PasswordManager passwordManager = mock(PasswordManager.class);
+
+    @Test
+    void authenticate_shouldVerifyPasswordOnce_whenCredentialIsCached() {
+        AdminService adminService = newAdminService();
+
+        StepVerifier.create(adminService.authenticate(ACCOUNT, RAW_PASSWORD))
+                .expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(adminService.authenticate(ACCOUNT, RAW_PASSWORD))
+                .expectNext(true)
+                .verifyComplete();
+
+        verify(passwordManager, times(1)).matchesAdminPasswordAsync(RAW_PASSWORD, ENCODED_PASSWORD);
+    }
+
+    @Test
+    void authenticate_shouldVerifyPassword_whenRawPasswordIsNotCached() {
+        AdminService adminService = newAdminService();
+
+        StepVerifier.create(adminService.authenticate(ACCOUNT, RAW_PASSWORD))
+                .expectNext(true)
+                .verifyComplete();
+        StepVerifier.create(adminService.authenticate(ACCOUNT, "wrong-password"))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(adminService.authenticate(ACCOUNT, "wrong-password"))
+                .expectNext(false)
+                .verifyComplete();
+
+        verify(passwordManager, times(1)).matchesAdminPasswordAsync(RAW_PASSWORD, ENCODED_PASSWORD);
+        verify(passwordManager, times(2)).matchesAdminPasswordAsync("wrong-password", ENCODED_PASSWORD);
+    }
+
+    @Test
+    void authenticate_shouldRejectOldPassword_afterPasswordIsChanged() {
+        AdminService adminService = newAdminService();
+        StepVerifier.create(adminService.authenticate(ACCOUNT, RAW_PASSWORD))
+                .expectNext(true)
+                .verifyComplete();
+
+        when(passwordManager.encodeAdminPassword(NEW_RAW_PASSWORD))
+                .thenReturn(NEW_ENCODED_PASSWORD);
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(Admin.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        when(mongoTemplate.findById(ACCOUNT, Admin.class, Admin.COLLECTION_NAME))
+                .thenReturn(Mono.just(admin.toBuilder().password(NEW_ENCODED_PASSWORD).build()));
+        StepVerifier.create(adminService.updateAdmins(Set.of(ACCOUNT), NEW_RAW_PASSWORD, null, null))
+                .expectNext(true)
+                .verifyComplete();
+
+        StepVerifier.create(adminService.authenticate(ACCOUNT, RAW_PASSWORD))
+                .expectNext(false)
+                .verifyComplete();
+        StepVerifier.create(adminService.authenticate(ACCOUNT, NEW_RAW_PASSWORD))
+                .expectNext(true)
+                .verifyComplete();
+        verify(passwordManager, times(1)).matchesAdminPasswordAsync(RAW_PASSWORD, NEW_ENCODED_PASSWORD);
+        verify(passwordManager, times(1)).matchesAdminPasswordAsync(NEW_RAW_PASSWORD, NEW_ENCODED_PASSWORD);
+    }
+
+    private AdminService newAdminService() {
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties())
+                .thenReturn(new TurmsProperties());
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.getRegistry())
+                .thenReturn(new SimpleMeterRegistry());
+        when(passwordManager.matchesAdminPasswordAsync(anyString(), anyString()))
+                .thenAnswer(invocation -> {
+                    String rawPassword = invocation.getArgument(0);
+                    String encodedPassword = invocation.getArgument(1);
+                    boolean matched = (rawPassword.equals(RAW_PASSWORD) && encodedPassword.equals(ENCODED_PASSWORD))
+                            || (rawPassword.equals(NEW_RAW_PASSWORD) && encodedPassword.equals(NEW_ENCODED_PASSWORD));
+                    return Mono.just(matched);
+                });
+        when(mongoTemplate.changeStream(Admin.class).withOptions(any()).watchCollection(Admin.class).listen())
+                .thenReturn(Flux.never());
+        // The loaded admins replace the admins cached by other tests
+        when(mongoTemplate.find(any(Query.class), eq(Admin.class), eq(Admin.COLLECTION_NAME)))
+                .thenReturn(Flux.just(admin));
+        return new AdminService(propertiesManager, passwordManager, mongoTemplate, mock(AdminRoleService.class), metricsService);
+    }
+
+}
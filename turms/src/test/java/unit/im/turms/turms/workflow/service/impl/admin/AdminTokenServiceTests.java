@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.service.impl.admin;
+
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.turms.workflow.dao.domain.Admin;
+import im.turms.turms.workflow.service.impl.admin.AdminService;
+import im.turms.turms.workflow.service.impl.admin.AdminTokenService;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.Date;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class AdminTokenServiceTests {
+
+    private static final String ACCOUNT = "admin";
+    private final Admin admin = new Admin(ACCOUNT, "encoded-password", "name", 1L, new Date());
+
+    @Test
+    void authenticate_shouldReturnAccount_forIssuedToken() {
+        AdminTokenService tokenService = newTokenService(admin);
+        String token = tokenService.issueToken(admin);
+
+        StepVerifier.create(tokenService.authenticate(token))
+                .expectNext(ACCOUNT)
+                .verifyComplete();
+    }
+
+    @Test
+    void authenticate_shouldReturnEmpty_afterPasswordChanged() {
+        Admin adminWithNewPassword = admin.toBuilder().password("new-encoded-password").build();
+        AdminTokenService tokenService = newTokenService(adminWithNewPassword);
+        String token = tokenService.issueToken(admin);
+
+        StepVerifier.create(tokenService.authenticate(token))
+                .verifyComplete();
+    }
+
+    @Test
+    void authenticate_shouldReturnEmpty_forTamperedToken() {
+        AdminTokenService tokenService = newTokenService(admin);
+        String token = tokenService.issueToken(admin);
+        int expirationTimeIndex = token.indexOf('.') + 1;
+        char digit = token.charAt(expirationTimeIndex);
+        String tamperedToken = token.substring(0, expirationTimeIndex)
+                + (digit == '9' ? '8' : (char) (digit + 1))
+                + token.substring(expirationTimeIndex + 1);
+
+        StepVerifier.create(tokenService.authenticate(tamperedToken))
+                .verifyComplete();
+        StepVerifier.create(tokenService.authenticate("malformed-token"))
+                .verifyComplete();
+    }
+
+    private AdminTokenService newTokenService(Admin storedAdmin) {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getAdminApi().getToken().setEnabled(true);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties())
+                .thenReturn(properties);
+
+        AdminService adminService = mock(AdminService.class);
+        when(adminService.queryAdmin(ACCOUNT))
+                .thenReturn(Mono.just(storedAdmin));
+        return new AdminTokenService(propertiesManager, adminService);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.group;
+
+import com.mongodb.client.result.UpdateResult;
+import im.turms.common.constant.GroupMemberRole;
+import im.turms.turms.workflow.dao.domain.GroupMember;
+import im.turms.turms.workflow.service.impl.group.GroupMemberService;
+import im.turms.turms.workflow.service.impl.group.GroupNearCacheService;
+import im.turms.turms.workflow.service.impl.group.GroupVersionService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that changing a member invalidates the near caches of the group members
+ *
+ * @author James Chen
+ */
+class GroupMemberServiceTests {
+
+    private static final long GROUP_ID = 100L;
+    private static final long MANAGER_ID = 1L;
+    private static final long MEMBER_ID = 2L;
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final GroupVersionService groupVersionService = mock(GroupVersionService.class);
+    private final GroupNearCacheService groupNearCacheService = mock(GroupNearCacheService.class);
+
+    @Test
+    void authAndUpdateGroupMember_shouldInvalidateLocalCacheAndUpdateMembersVersion_whenMutingMember() {
+        GroupMember manager = new GroupMember(GROUP_ID, MANAGER_ID, null, GroupMemberRole.MANAGER, new Date(), null);
+        when(mongoTemplate.findOne(any(Query.class), eq(GroupMember.class), anyString()))
+                .thenReturn(Mono.just(manager));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(GroupMember.class), anyString()))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        when(groupVersionService.updateMembersVersion(GROUP_ID))
+                .thenReturn(Mono.just(true));
+        GroupMemberService service = new GroupMemberService(null, mongoTemplate, null, groupVersionService, null,
+                groupNearCacheService);
+
+        Date muteEndDate = new Date(System.currentTimeMillis() + 60 * 1000);
+        Boolean updated = service.authAndUpdateGroupMember(MANAGER_ID, GROUP_ID, MEMBER_ID, null, null, muteEndDate)
+                .block();
+
+        assertTrue(updated);
+        verify(groupNearCacheService).invalidate(GROUP_ID, false, true);
+        verify(groupVersionService).updateMembersVersion(GROUP_ID);
+    }
+
+}
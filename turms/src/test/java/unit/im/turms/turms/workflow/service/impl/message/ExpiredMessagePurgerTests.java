@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.client.result.DeleteResult;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.env.service.business.message.ExpiredMessagePurgeProperties;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessagePurgeCheckpoint;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.service.impl.message.ExpiredMessagePurger;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The mocked collection evaluates the keyset and the partition conditions of the queries
+ * so that the tests verify which messages are purged instead of how the queries are built.
+ *
+ * @author James Chen
+ */
+class ExpiredMessagePurgerTests {
+
+    private static final int TIME_TO_LIVE_HOURS = 1;
+    private static final Date EXPIRED_DATE = Date.from(Instant.now().minus(1, ChronoUnit.DAYS));
+
+    private static final Comparator<Message> CHUNK_ORDER = Comparator.comparing(Message::getDeliveryDate)
+            .thenComparing(Message::getId);
+
+    private final Map<Long, Message> messages = new TreeMap<>();
+    /**
+     * The messages sorted by (deliveryDate, id)
+     */
+    private final NavigableSet<Message> messagesInChunkOrder = new TreeSet<>(CHUNK_ORDER);
+    private final List<MessagePurgeCheckpoint> savedCheckpoints = new ArrayList<>();
+
+    @Test
+    void purge_shouldDeleteAllExpiredMessagesChunkByChunk_andRemoveCheckpointWhenDone() {
+        for (long id = 1; id <= 5; id++) {
+            addMessage(id, plusSeconds(EXPIRED_DATE, id));
+        }
+        addMessage(6L, new Date());
+        ReactiveMongoTemplate mongoTemplate = newMongoTemplate(null);
+        ExpiredMessagePurger purger = newPurger(mongoTemplate, newNode(newProperties(2, 0, false), 0, 1));
+
+        StepVerifier.create(purger.purge(TIME_TO_LIVE_HOURS))
+                .expectNext(5L)
+                .verifyComplete();
+
+        assertEquals(Set.of(6L), messages.keySet());
+        assertEquals(List.of(2L, 4L, 5L), savedCheckpoints.stream()
+                .map(MessagePurgeCheckpoint::getMessageId)
+                .collect(Collectors.toList()));
+        verify(mongoTemplate).remove(any(Query.class), eq(MessagePurgeCheckpoint.class), eq(MessagePurgeCheckpoint.COLLECTION_NAME));
+    }
+
+    @Test
+    void purge_shouldComplete_whenPurgingManyChunks() {
+        int messageCount = 10_000;
+        for (long id = 1; id <= messageCount; id++) {
+            addMessage(id, EXPIRED_DATE);
+        }
+        ExpiredMessagePurger purger = newPurger(newMongoTemplate(null), newNode(newProperties(1, 0, false), 0, 1));
+
+        StepVerifier.create(purger.purge(TIME_TO_LIVE_HOURS))
+                .expectNext((long) messageCount)
+                .expectComplete()
+                .verify(Duration.ofMinutes(1));
+
+        assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    void purge_shouldResumeFromCheckpoint() {
+        Date checkpointDate = plusSeconds(EXPIRED_DATE, 3);
+        addMessage(1L, plusSeconds(EXPIRED_DATE, 1));
+        // Delivered at the same time as the checkpoint, so the IDs decide the order
+        addMessage(2L, checkpointDate);
+        addMessage(3L, checkpointDate);
+        addMessage(7L, checkpointDate);
+        addMessage(4L, plusSeconds(EXPIRED_DATE, 4));
+        addMessage(5L, plusSeconds(EXPIRED_DATE, 5));
+        MessagePurgeCheckpoint checkpoint = new MessagePurgeCheckpoint("0/1", checkpointDate, 3L);
+        ExpiredMessagePurger purger = newPurger(newMongoTemplate(checkpoint), newNode(newProperties(2, 0, false), 0, 1));
+
+        StepVerifier.create(purger.purge(TIME_TO_LIVE_HOURS))
+                .expectNext(3L)
+                .verifyComplete();
+
+        assertEquals(Set.of(1L, 2L, 3L), messages.keySet());
+    }
+
+    @Test
+    void purge_shouldOnlyDeleteMessagesOfLocalPartition_whenDistributed() {
+        for (long id = 1; id <= 9; id++) {
+            addMessage(id, plusSeconds(EXPIRED_DATE, id));
+        }
+        ReactiveMongoTemplate mongoTemplate = newMongoTemplate(null);
+        ExpiredMessagePurger purger = newPurger(mongoTemplate, newNode(newProperties(2, 0, true), 1, 3));
+
+        StepVerifier.create(purger.purge(TIME_TO_LIVE_HOURS))
+                .expectNext(3L)
+                .verifyComplete();
+
+        assertEquals(Set.of(2L, 3L, 5L, 6L, 8L, 9L), messages.keySet());
+        verify(mongoTemplate).findById("1/3", MessagePurgeCheckpoint.class, MessagePurgeCheckpoint.COLLECTION_NAME);
+        for (MessagePurgeCheckpoint savedCheckpoint : savedCheckpoints) {
+            assertEquals("1/3", savedCheckpoint.getId());
+        }
+    }
+
+    @Test
+    void purge_shouldPauseBetweenChunks_toLimitDeletionRate() {
+        for (long id = 1; id <= 4; id++) {
+            addMessage(id, plusSeconds(EXPIRED_DATE, id));
+        }
+        // 2 documents per chunk and 2 documents per second
+        ExpiredMessagePurgeProperties properties = newProperties(2, 2, false);
+        ExpiredMessagePurger purger = newPurger(newMongoTemplate(null), newNode(properties, 0, 1));
+
+        StepVerifier.withVirtualTime(() -> purger.purge(TIME_TO_LIVE_HOURS))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(1500))
+                .thenAwait(Duration.ofSeconds(1))
+                .expectNext(4L)
+                .verifyComplete();
+    }
+
+    private void addMessage(long id, Date deliveryDate) {
+        Message message = new Message(id, false, false, deliveryDate, null, "text", 1L, 2L, null, null, null);
+        messages.put(id, message);
+        messagesInChunkOrder.add(message);
+    }
+
+    private static Date plusSeconds(Date date, long seconds) {
+        return Date.from(date.toInstant().plusSeconds(seconds));
+    }
+
+    private static ExpiredMessagePurgeProperties newProperties(int chunkSize, int maxDocumentsPerSecond, boolean distributed) {
+        ExpiredMessagePurgeProperties properties = new ExpiredMessagePurgeProperties();
+        properties.setChunkSize(chunkSize);
+        properties.setMaxDocumentsPerSecond(maxDocumentsPerSecond);
+        properties.setDistributed(distributed);
+        return properties;
+    }
+
+    private static Node newNode(ExpiredMessagePurgeProperties purgeProperties, int localMemberIndex, int memberCount) {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().setExpiredMessagePurge(purgeProperties);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        when(discoveryService.getLocalServiceMemberIndex())
+                .thenReturn(localMemberIndex);
+        // Only the size of the list matters
+        when(discoveryService.getActiveServiceMemberList())
+                .thenReturn(Arrays.asList(new Member[memberCount]));
+        Node node = mock(Node.class);
+        when(node.getSharedProperties())
+                .thenReturn(properties);
+        when(node.getDiscoveryService())
+                .thenReturn(discoveryService);
+        return node;
+    }
+
+    private ReactiveMongoTemplate newMongoTemplate(MessagePurgeCheckpoint checkpoint) {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.findById(any(), eq(MessagePurgeCheckpoint.class), eq(MessagePurgeCheckpoint.COLLECTION_NAME)))
+                .thenReturn(checkpoint == null ? Mono.empty() : Mono.just(checkpoint));
+        when(mongoTemplate.save(any(MessagePurgeCheckpoint.class), eq(MessagePurgeCheckpoint.COLLECTION_NAME)))
+                .thenAnswer(invocation -> {
+                    MessagePurgeCheckpoint savedCheckpoint = invocation.getArgument(0);
+                    savedCheckpoints.add(savedCheckpoint);
+                    return Mono.just(savedCheckpoint);
+                });
+        when(mongoTemplate.remove(any(Query.class), eq(MessagePurgeCheckpoint.class), eq(MessagePurgeCheckpoint.COLLECTION_NAME)))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(1)));
+        return mongoTemplate;
+    }
+
+    private ExpiredMessagePurger newPurger(ReactiveMongoTemplate mongoTemplate, Node node) {
+        List<String> collectionNames = List.of(Message.COLLECTION_NAME);
+        MessageCollectionRouter router = mock(MessageCollectionRouter.class);
+        when(router.dropExpiredCollections(any()))
+                .thenReturn(Mono.just(0));
+        when(router.getMessageCollectionNames(any(DateRange.class)))
+                .thenReturn(collectionNames);
+        when(router.getMessageCollectionNames(anyCollection()))
+                .thenReturn(collectionNames);
+        when(router.getMessageStatusCollectionNames(anyCollection()))
+                .thenReturn(List.of(MessageStatus.COLLECTION_NAME));
+        when(router.find(any(Query.class), eq(Message.class), anyList(), any()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    Document queryObject = query.getQueryObject();
+                    List<Message> chunk = messagesInChunkOrder
+                            .stream()
+                            .filter(message -> matches(queryObject, message))
+                            .limit(query.getLimit())
+                            .collect(Collectors.toList());
+                    return Flux.fromIterable(chunk);
+                });
+        when(router.remove(any(Query.class), eq(MessageStatus.class), anyList()))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(0)));
+        when(router.remove(any(Query.class), eq(Message.class), anyList()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    Collection<Long> ids = getIds(query.getQueryObject());
+                    long count = ids.stream()
+                            .filter(id -> {
+                                Message message = messages.remove(id);
+                                return message != null && messagesInChunkOrder.remove(message);
+                            })
+                            .count();
+                    return Mono.just(DeleteResult.acknowledged(count));
+                });
+        return new ExpiredMessagePurger(mongoTemplate, router, node, List::of,
+                new SimpleMeterRegistry().counter("deleted"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Long> getIds(Document query) {
+        return (Collection<Long>) ((Document) query.get("_id")).get("$in");
+    }
+
+    /**
+     * Supports the operators used by the purger: $gt, $gte, $lt, $mod, and $or
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean matches(Document query, Message message) {
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            String key = entry.getKey();
+            if (key.equals("$or")) {
+                boolean anyMatches = false;
+                for (Document condition : (List<Document>) entry.getValue()) {
+                    anyMatches |= matches(condition, message);
+                }
+                if (!anyMatches) {
+                    return false;
+                }
+                continue;
+            }
+            Comparable<Object> value;
+            if (key.equals("_id")) {
+                value = (Comparable<Object>) (Object) message.getId();
+            } else if (key.equals(Message.Fields.DELIVERY_DATE)) {
+                value = (Comparable<Object>) (Object) message.getDeliveryDate();
+            } else {
+                throw new IllegalArgumentException("Unsupported field: " + key);
+            }
+            for (Map.Entry<String, Object> operation : ((Document) entry.getValue()).entrySet()) {
+                Object operand = operation.getValue();
+                boolean isMatched;
+                switch (operation.getKey()) {
+                    case "$gt":
+                        isMatched = value.compareTo(operand) > 0;
+                        break;
+                    case "$gte":
+                        isMatched = value.compareTo(operand) >= 0;
+                        break;
+                    case "$lt":
+                        isMatched = value.compareTo(operand) < 0;
+                        break;
+                    case "$mod":
+                        List<Number> divisorAndRemainder = (List<Number>) operand;
+                        isMatched = message.getId() % divisorAndRemainder.get(0).longValue()
+                                == divisorAndRemainder.get(1).longValue();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported operator: " + operation.getKey());
+                }
+                if (!isMatched) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
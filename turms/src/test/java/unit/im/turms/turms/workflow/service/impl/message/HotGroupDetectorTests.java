@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import im.turms.server.common.property.env.service.business.message.HotGroupFanOutProperties;
+import im.turms.turms.workflow.service.impl.message.HotGroupDetector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_RECIPIENTS_COUNTER_NAME;
+import static im.turms.turms.constant.MetricsConstant.HOT_GROUP_FAN_OUT_TAG_GROUP_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author James Chen
+ */
+class HotGroupDetectorTests {
+
+    @Test
+    void recordMessage_shouldNotTrackGroup_ifRecipientsAreFew() {
+        HotGroupFanOutProperties properties = new HotGroupFanOutProperties();
+        HotGroupDetector detector = new HotGroupDetector(properties, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 1000; i++) {
+            assertNull(detector.recordMessage(1L, properties.getMinRecipientCount() - 1));
+        }
+    }
+
+    @Test
+    void recordMessage_shouldDetectHotGroup_ifRateTimesRecipientsReachesThreshold() {
+        HotGroupFanOutProperties properties = new HotGroupFanOutProperties();
+        properties.setHotnessThreshold(100_000);
+        properties.setRateWindowSeconds(10);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        HotGroupDetector detector = new HotGroupDetector(properties, registry);
+        int recipientCount = 50_000;
+
+        // 1 message / 10 seconds * 50,000 recipients < 100,000
+        assertNull(detector.recordMessage(1L, recipientCount));
+        HotGroupDetector.GroupStats stats = null;
+        // 20 messages / 10 seconds * 50,000 recipients >= 100,000
+        for (int i = 1; i < 20; i++) {
+            stats = detector.recordMessage(1L, recipientCount);
+        }
+        assertNotNull(stats);
+
+        stats.recordFanOut(recipientCount, TimeUnit.MILLISECONDS.toNanos(10));
+        double recipients = registry.get(HOT_GROUP_FAN_OUT_RECIPIENTS_COUNTER_NAME)
+                .tag(HOT_GROUP_FAN_OUT_TAG_GROUP_ID, "1")
+                .counter()
+                .count();
+        assertEquals(recipientCount, recipients);
+    }
+
+}
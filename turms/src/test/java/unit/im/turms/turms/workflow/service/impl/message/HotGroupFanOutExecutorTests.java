@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import im.turms.server.common.property.env.service.business.message.HotGroupFanOutProperties;
+import im.turms.server.common.service.session.UserStatusService;
+import im.turms.turms.workflow.service.impl.message.HotGroupDetector;
+import im.turms.turms.workflow.service.impl.message.HotGroupFanOutExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class HotGroupFanOutExecutorTests {
+
+    private static final Set<Long> RECIPIENT_IDS = Set.of(1L, 2L, 3L);
+
+    private final AtomicInteger sentChunks = new AtomicInteger();
+
+    @Test
+    void fanOut_shouldReleaseNotificationData_afterSendingAllChunks() {
+        ByteBuf data = Unpooled.buffer().writeByte(1);
+        HotGroupFanOutExecutor executor = newExecutor(Mono.just(newRecipientsByNodeId()), 1, 0);
+
+        StepVerifier.create(executor.fanOut(data, RECIPIENT_IDS, newGroupStats()))
+                .expectNext(true)
+                .verifyComplete();
+
+        assertEquals(RECIPIENT_IDS.size(), sentChunks.get());
+        assertEquals(0, data.refCnt());
+    }
+
+    @Test
+    void fanOut_shouldReleaseNotificationData_whenNoRecipientIsOnline() {
+        ByteBuf data = Unpooled.buffer().writeByte(1);
+        HotGroupFanOutExecutor executor = newExecutor(Mono.just(HashMultimap.create()), 1, 0);
+
+        StepVerifier.create(executor.fanOut(data, RECIPIENT_IDS, newGroupStats()))
+                .expectNext(false)
+                .verifyComplete();
+
+        assertEquals(0, data.refCnt());
+    }
+
+    @Test
+    void fanOut_shouldReleaseNotificationData_whenFailedToQueryRecipients() {
+        ByteBuf data = Unpooled.buffer().writeByte(1);
+        HotGroupFanOutExecutor executor = newExecutor(Mono.error(new IllegalStateException("Mocked error")), 1, 0);
+
+        StepVerifier.create(executor.fanOut(data, RECIPIENT_IDS, newGroupStats()))
+                .verifyError(IllegalStateException.class);
+
+        assertEquals(0, data.refCnt());
+    }
+
+    @Test
+    void fanOut_shouldReleaseReferencesOfUnsentChunksOnlyOnce_whenCancelled() {
+        ByteBuf data = Unpooled.buffer().writeByte(1);
+        // One chunk is sent immediately while the others are delayed and the virtual time never advances
+        HotGroupFanOutExecutor executor = newExecutor(Mono.just(newRecipientsByNodeId()), 1, 60_000);
+
+        StepVerifier.create(executor.fanOut(data, RECIPIENT_IDS, newGroupStats()))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(100))
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, sentChunks.get());
+        assertEquals(0, data.refCnt());
+    }
+
+    private HotGroupFanOutExecutor newExecutor(Mono<SetMultimap<String, Long>> recipientsByNodeId,
+                                               int chunkSize,
+                                               int chunkIntervalMillis) {
+        UserStatusService userStatusService = mock(UserStatusService.class);
+        when(userStatusService.getNodeIdAndUserIdsMapByUserIds(any()))
+                .thenReturn(recipientsByNodeId);
+        HotGroupFanOutProperties properties = new HotGroupFanOutProperties();
+        properties.setChunkSize(chunkSize);
+        properties.setChunkIntervalMillis(chunkIntervalMillis);
+        // Like the RPC requests, the sender releases the buffer once it has been sent
+        HotGroupFanOutExecutor.NotificationSender sender = (nodeId, notificationData, recipientIds) -> {
+            sentChunks.incrementAndGet();
+            notificationData.release();
+            return Mono.just(true);
+        };
+        return new HotGroupFanOutExecutor(userStatusService, sender, properties, VirtualTimeScheduler.create());
+    }
+
+    private static SetMultimap<String, Long> newRecipientsByNodeId() {
+        SetMultimap<String, Long> recipientsByNodeId = HashMultimap.create();
+        recipientsByNodeId.putAll("node1", RECIPIENT_IDS);
+        return recipientsByNodeId;
+    }
+
+    private static HotGroupDetector.GroupStats newGroupStats() {
+        HotGroupFanOutProperties properties = new HotGroupFanOutProperties();
+        properties.setMinRecipientCount(1);
+        properties.setHotnessThreshold(1);
+        return new HotGroupDetector(properties, new SimpleMeterRegistry())
+                .recordMessage(1L, RECIPIENT_IDS.size());
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import im.turms.common.constant.GroupMemberRole;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.idgen.SnowflakeIdGenerator;
+import im.turms.server.common.manager.TrivialTaskManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.bo.PendingConversation;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.GroupMember;
+import im.turms.turms.workflow.dao.domain.GroupMessageWatermark;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.service.impl.group.GroupMemberService;
+import im.turms.turms.workflow.service.impl.message.MessageService;
+import im.turms.turms.workflow.service.impl.message.MessageStatusService;
+import im.turms.turms.workflow.service.impl.message.MessageWriteBehindService;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveSessionCallback;
+import org.springframework.data.mongodb.core.ReactiveSessionScoped;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that acknowledging group messages in the WATERMARK mode never skips a pending message,
+ * including the messages persisted after the messages with greater IDs,
+ * and that the unread message counters are incremented outside the transaction of sending messages
+ *
+ * @author James Chen
+ */
+class MessageServiceTests {
+
+    private static final long USER_ID = 1L;
+    private static final long GROUP_ID = 100L;
+
+    private final List<Long> pendingMessageIds = new ArrayList<>(List.of(1L, 2L, 3L, 4L, 5L));
+    private final Map<Long, Long> groupIdAndWatermark = new HashMap<>();
+
+    @Test
+    void acknowledgeGroupMessages_shouldNotAdvanceWatermark_whenOldestPendingMessageIsNotAcknowledged() {
+        MessageService service = newService();
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(5L), newMessage(4L)), false).block();
+
+        assertNull(groupIdAndWatermark.get(GROUP_ID));
+    }
+
+    @Test
+    void acknowledgeGroupMessages_shouldAdvanceWatermark_whenMessagesAreAcknowledgedOutOfOrder() {
+        MessageService service = newService();
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(3L), newMessage(1L), newMessage(2L)), false).block();
+
+        assertEquals(3L, groupIdAndWatermark.get(GROUP_ID));
+    }
+
+    @Test
+    void acknowledgeGroupMessages_shouldOnlyAdvanceWatermarkOverContiguousPrefix_whenMessagesArePartiallyAcknowledged() {
+        MessageService service = newService();
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(1L), newMessage(2L), newMessage(4L)), false).block();
+        assertEquals(2L, groupIdAndWatermark.get(GROUP_ID));
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(5L)), false).block();
+        assertEquals(2L, groupIdAndWatermark.get(GROUP_ID));
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(3L)), false).block();
+        assertEquals(3L, groupIdAndWatermark.get(GROUP_ID));
+    }
+
+    @Test
+    void acknowledgeGroupMessages_shouldKeepMessagePersistedLaterPending_whenItsIdIsLessThanAcknowledgedMessages() {
+        long now = System.currentTimeMillis();
+        long settledMessageId = newMessageId(now - 120_000);
+        long recentMessageId = newMessageId(now);
+        pendingMessageIds.clear();
+        pendingMessageIds.addAll(List.of(settledMessageId, recentMessageId));
+        MessageService service = newService();
+
+        service.acknowledgeGroupMessages(USER_ID, List.of(newMessage(settledMessageId), newMessage(recentMessageId)), false).block();
+        // The recent message is within the grace period, so the watermark doesn't move over it
+        assertEquals(settledMessageId, groupIdAndWatermark.get(GROUP_ID));
+
+        // A message generated by a server whose clock is behind is persisted after the acknowledgement
+        long lateMessageId = newMessageId(now - 1000);
+        pendingMessageIds.add(1, lateMessageId);
+        List<PendingConversation> conversations = service.queryPendingGroupConversations(USER_ID, 10)
+                .collectList()
+                .block();
+
+        assertEquals(1, conversations.size());
+        List<Long> messageIds = conversations.get(0).getMessages()
+                .stream()
+                .map(Message::getId)
+                .collect(Collectors.toList());
+        assertEquals(List.of(lateMessageId, recentMessageId), messageIds);
+    }
+
+    @Test
+    void saveMessageAndMessagesStatus_shouldIncrementCountersAfterTransactionCommits_andIgnoreTheirFailure() {
+        List<Boolean> isCommittedWhenIncrementing = new ArrayList<>();
+        List<MessageStatus> incrementedStatuses = new ArrayList<>();
+
+        ReactiveMongoOperations operations = mock(ReactiveMongoOperations.class);
+        when(operations.insert(any(Message.class), anyString()))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(operations.insert(any(MessageStatus.class), anyString()))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        ReactiveSessionScoped sessionScoped = mock(ReactiveSessionScoped.class);
+        boolean[] isCommitted = new boolean[1];
+        when(sessionScoped.execute(any(ReactiveSessionCallback.class)))
+                .thenAnswer(invocation -> {
+                    ReactiveSessionCallback<Object> callback = invocation.getArgument(0);
+                    return Flux.from(callback.doInSession(operations))
+                            .doOnComplete(() -> isCommitted[0] = true);
+                });
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.inTransaction())
+                .thenReturn(sessionScoped);
+        MessageWriteBehindService writeBehindService = mock(MessageWriteBehindService.class);
+        UnreadMessageCounterService counterService = mock(UnreadMessageCounterService.class);
+        when(counterService.incrementCounters(anyCollection(), isNull()))
+                .thenAnswer(invocation -> {
+                    Collection<MessageStatus> statuses = invocation.getArgument(0);
+                    incrementedStatuses.addAll(statuses);
+                    isCommittedWhenIncrementing.add(isCommitted[0]);
+                    return Mono.error(new IllegalStateException("Write conflict"));
+                });
+        MessageService service = newService(mongoTemplate, writeBehindService, counterService);
+
+        StepVerifier.create(service.saveMessageAndMessagesStatus(1L, 2L, 3L, false, false, "text",
+                null, null, null, null, null))
+                .expectNextMatches(message -> message.getId() == 1L)
+                .verifyComplete();
+
+        assertEquals(List.of(true), isCommittedWhenIncrementing);
+        assertEquals(1, incrementedStatuses.size());
+        assertEquals(3L, incrementedStatuses.get(0).getKey().getRecipientId());
+    }
+
+    private MessageService newService() {
+        return newService(null, null, null);
+    }
+
+    private MessageService newService(
+            ReactiveMongoTemplate mongoTemplate,
+            MessageWriteBehindService writeBehindService,
+            UnreadMessageCounterService counterService) {
+        TurmsProperties properties = new TurmsProperties();
+        Node node = mock(Node.class);
+        when(node.getSharedProperties()).thenReturn(properties);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.getRegistry()).thenReturn(new SimpleMeterRegistry());
+
+        GroupMemberService groupMemberService = mock(GroupMemberService.class);
+        when(groupMemberService.queryGroupsMembers(any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(Flux.just(new GroupMember(GROUP_ID, USER_ID, null, GroupMemberRole.MEMBER, new Date(0), null)));
+
+        MessageStatusService messageStatusService = mock(MessageStatusService.class);
+        when(messageStatusService.queryGroupMessageWatermarks(anyLong(), any()))
+                .thenAnswer(invocation -> {
+                    Long watermark = groupIdAndWatermark.get(GROUP_ID);
+                    return watermark == null
+                            ? Flux.empty()
+                            : Flux.just(new GroupMessageWatermark(new GroupMessageWatermark.Key(USER_ID, GROUP_ID), watermark, null));
+                });
+        when(messageStatusService.updateGroupMessageWatermarks(anyLong(), anyMap(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    Map<Long, Long> groupIdAndMessageId = invocation.getArgument(1);
+                    groupIdAndMessageId.forEach((groupId, messageId) -> groupIdAndWatermark.merge(groupId, messageId, Math::max));
+                    return Mono.just(true);
+                });
+
+        // Returns the pending messages after the watermark in the ascending order of IDs
+        MessageCollectionRouter router = mock(MessageCollectionRouter.class);
+        when(router.getMessageCollectionNames((DateRange) any())).thenReturn(List.of(Message.COLLECTION_NAME));
+        when(router.find(any(Query.class), eq(Message.class), anyList(), any()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    Long watermark = groupIdAndWatermark.get(GROUP_ID);
+                    return Flux.fromIterable(pendingMessageIds)
+                            .filter(messageId -> watermark == null || messageId > watermark)
+                            .take(query.getLimit())
+                            .map(this::newMessage);
+                });
+        when(router.ensureCollections(anyLong()))
+                .thenReturn(Mono.empty());
+        when(router.getMessageCollectionName(anyLong()))
+                .thenReturn(Message.COLLECTION_NAME);
+        when(router.getMessageStatusCollectionName(anyLong()))
+                .thenReturn(MessageStatus.COLLECTION_NAME);
+
+        return new MessageService(mongoTemplate,
+                router,
+                node,
+                propertiesManager,
+                messageStatusService,
+                groupMemberService,
+                null,
+                null,
+                null,
+                mock(TrivialTaskManager.class),
+                metricsService,
+                writeBehindService,
+                counterService);
+    }
+
+    /**
+     * The timestamp of a snowflake ID occupies the bits above the lower 22 bits
+     */
+    private static long newMessageId(long timestampMillis) {
+        return (timestampMillis - SnowflakeIdGenerator.getTimestampMillis(0)) << 22;
+    }
+
+    private Message newMessage(long messageId) {
+        return new Message(messageId, true, false, new Date(messageId), null, null, 2L, GROUP_ID, null, null, null);
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import im.turms.turms.workflow.service.impl.message.MessageWriteBehindLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author James Chen
+ */
+class MessageWriteBehindLogTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoverSegments_shouldReadAppendedRecords_afterRestart() throws IOException {
+        MessageWriteBehindLog log = new MessageWriteBehindLog(directory, 1024);
+        log.append(bytes("message1"));
+        log.append(bytes("message2"));
+        log.close();
+
+        MessageWriteBehindLog restartedLog = new MessageWriteBehindLog(directory, 1024);
+        List<MessageWriteBehindLog.Segment> segments = restartedLog.recoverSegments();
+        assertEquals(1, segments.size());
+        List<String> payloads = new ArrayList<>();
+        int count = segments.get(0).read(payload -> payloads.add(string(payload)));
+
+        assertEquals(2, count);
+        assertEquals(List.of("message1", "message2"), payloads);
+    }
+
+    @Test
+    void recoverSegments_shouldNotReadSegmentsAppendedAfterOpened() throws IOException {
+        MessageWriteBehindLog log = new MessageWriteBehindLog(directory, 1024);
+        log.append(bytes("message1"));
+        log.close();
+
+        MessageWriteBehindLog restartedLog = new MessageWriteBehindLog(directory, 1024);
+        restartedLog.append(bytes("message2"));
+        List<MessageWriteBehindLog.Segment> segments = restartedLog.recoverSegments();
+        assertEquals(1, segments.size());
+        List<String> payloads = new ArrayList<>();
+        segments.get(0).read(payload -> payloads.add(string(payload)));
+
+        assertEquals(List.of("message1"), payloads);
+        restartedLog.close();
+    }
+
+    @Test
+    void append_shouldRollOverAndDeleteSegment_afterRecordsPersisted() throws IOException {
+        MessageWriteBehindLog log = new MessageWriteBehindLog(directory, 24);
+        MessageWriteBehindLog.Segment segment1 = log.append(bytes("message1"));
+        MessageWriteBehindLog.Segment segment2 = log.append(bytes("message2"));
+        assertNotSame(segment1, segment2);
+
+        segment1.onRecordsPersisted(1);
+        assertFalse(Files.exists(segment1.getPath()));
+        segment2.onRecordsPersisted(1);
+        // The active segment shouldn't be deleted until it is sealed
+        assertTrue(Files.exists(segment2.getPath()));
+        log.close();
+        assertFalse(Files.exists(segment2.getPath()));
+    }
+
+    @Test
+    void append_shouldReturnNull_forRecordLargerThanSegment() throws IOException {
+        MessageWriteBehindLog log = new MessageWriteBehindLog(directory, 16);
+        assertNull(log.append(bytes("a message larger than the segment")));
+        log.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
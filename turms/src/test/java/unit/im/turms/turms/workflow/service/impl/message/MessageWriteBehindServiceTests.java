@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.server.common.property.env.service.business.message.MessageWriteBehindProperties;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import im.turms.turms.workflow.service.impl.message.MessageWriteBehindService;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import im.turms.turms.workflow.service.impl.statistics.MetricsService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static im.turms.turms.constant.MetricsConstant.WRITE_BEHIND_DEAD_LETTERED_MESSAGES_COUNTER_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class MessageWriteBehindServiceTests {
+
+    private static final String COLLECTION_NAME = "message";
+    private static final String STATUS_COLLECTION_NAME = "messageStatus";
+    private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path logDirectory;
+
+    private final Set<Long> persistedMessageIds = ConcurrentHashMap.newKeySet();
+    private final Set<MessageStatus.Key> persistedStatusIds = ConcurrentHashMap.newKeySet();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void enqueue_shouldPersistMessageInBackground() {
+        MessageWriteBehindService service = newService(10, documents -> Mono.empty());
+        try {
+            assertTrue(service.enqueue(newMessage(1L), null));
+
+            awaitPersisted(Set.of(1L));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void flush_shouldMoveMessageToDeadLetterDirectory_whenMessageKeepsFailingWithNonTransientError() {
+        long poisonMessageId = 3L;
+        // Enqueue the messages before the first flush so that they are in one batch
+        MessageWriteBehindService service = newService(200, documents -> {
+            for (Document document : documents) {
+                if (document.get("_id").equals(poisonMessageId)) {
+                    return Mono.error(new IllegalArgumentException("The document failed the validation"));
+                }
+            }
+            return Mono.empty();
+        });
+        try {
+            for (long id = 1; id <= 4; id++) {
+                assertTrue(service.enqueue(newMessage(id), null));
+            }
+
+            awaitPersisted(Set.of(1L, 2L, 4L));
+            Path deadLetterFile = logDirectory.resolve("dead-letter").resolve(poisonMessageId + ".msg");
+            awaitCondition(() -> Files.exists(deadLetterFile));
+            assertEquals(1, registry.counter(WRITE_BEHIND_DEAD_LETTERED_MESSAGES_COUNTER_NAME).count());
+
+            // The following messages aren't blocked
+            assertTrue(service.enqueue(newMessage(5L), null));
+            awaitPersisted(Set.of(1L, 2L, 4L, 5L));
+            assertFalse(persistedMessageIds.contains(poisonMessageId));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void flush_shouldRetryBatchWithoutDeadLettering_whenErrorIsTransient() {
+        AtomicInteger remainingFailures = new AtomicInteger(5);
+        MessageWriteBehindService service = newService(10, documents -> remainingFailures.getAndDecrement() > 0
+                ? Mono.error(new MongoSocketException("Mocked network error", new ServerAddress()))
+                : Mono.empty());
+        try {
+            assertTrue(service.enqueue(newMessage(1L), null));
+
+            awaitPersisted(Set.of(1L));
+            assertFalse(Files.exists(logDirectory.resolve("dead-letter")));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void flush_shouldReconcileCountersOfPersistedStatuses_whenRetryingBatchAfterCountersFailedToIncrement() {
+        UnreadMessageCounterService counterService = mock(UnreadMessageCounterService.class);
+        when(counterService.isEnabled())
+                .thenReturn(true);
+        AtomicInteger incrementCount = new AtomicInteger();
+        when(counterService.incrementCounters(anyCollection(), isNull()))
+                .thenAnswer(invocation -> incrementCount.getAndIncrement() == 0
+                        ? Mono.error(new IllegalStateException("Mocked error"))
+                        : Mono.empty());
+        when(counterService.reconcileCounters(anyLong(), anyCollection()))
+                .thenReturn(Mono.empty());
+        MessageWriteBehindService service = newService(10, documents -> Mono.empty(), counterService);
+        try {
+            long senderId = 1L;
+            assertTrue(service.enqueue(newMessage(1L), List.of(10L, 11L)));
+
+            // The statuses have been persisted by the first attempt, so their counters are recounted
+            // instead of being incremented again or being skipped
+            for (long recipientId : List.of(10L, 11L)) {
+                verify(counterService, timeout(TIMEOUT.toMillis())).reconcileCounters(recipientId,
+                        List.of(new UnreadMessageCounter.Key(recipientId, false, false, senderId)));
+            }
+            ArgumentCaptor<Collection<MessageStatus>> statusesCaptor = ArgumentCaptor.forClass(Collection.class);
+            verify(counterService, times(2)).incrementCounters(statusesCaptor.capture(), isNull());
+            assertEquals(2, statusesCaptor.getAllValues().get(0).size());
+            assertTrue(statusesCaptor.getAllValues().get(1).isEmpty());
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void destroy_shouldWaitForInFlightPersistence() throws IOException {
+        AtomicInteger insertCount = new AtomicInteger();
+        MessageWriteBehindService service = newService(10, documents -> {
+            insertCount.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(500)).then();
+        });
+        assertTrue(service.enqueue(newMessage(1L), null));
+        awaitCondition(() -> insertCount.get() > 0);
+
+        service.destroy();
+
+        assertEquals(Set.of(1L), persistedMessageIds);
+        // The message isn't persisted again by the shutdown flush
+        assertEquals(1, insertCount.get());
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".log")));
+        }
+    }
+
+    private MessageWriteBehindService newService(int flushIntervalMillis,
+                                                 Function<List<Document>, Mono<Void>> insert) {
+        return newService(flushIntervalMillis, insert, mock(UnreadMessageCounterService.class));
+    }
+
+    private MessageWriteBehindService newService(int flushIntervalMillis,
+                                                 Function<List<Document>, Mono<Void>> insertMessages,
+                                                 UnreadMessageCounterService unreadMessageCounterService) {
+        TurmsProperties properties = new TurmsProperties();
+        MessageWriteBehindProperties writeBehindProperties = properties.getService().getMessage().getWriteBehind();
+        writeBehindProperties.setEnabled(true);
+        writeBehindProperties.setLogDirectory(logDirectory.toString());
+        writeBehindProperties.setFlushIntervalMillis(flushIntervalMillis);
+        writeBehindProperties.setMaxRetryAttempts(2);
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties())
+                .thenReturn(properties);
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.getRegistry())
+                .thenReturn(registry);
+
+        MongoConverter converter = mock(MongoConverter.class);
+        doAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            Document document = invocation.getArgument(1);
+            document.put("_id", message.getId());
+            return null;
+        }).when(converter).write(any(Message.class), any(Document.class));
+        doAnswer(invocation -> {
+            MessageStatus status = invocation.getArgument(0);
+            Document document = invocation.getArgument(1);
+            document.put("_id", status.getKey());
+            return null;
+        }).when(converter).write(any(MessageStatus.class), any(Document.class));
+        MongoCollection<Document> messageCollection = newCollection(insertMessages, persistedMessageIds);
+        MongoCollection<Document> statusCollection = newCollection(documents -> Mono.empty(), persistedStatusIds);
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.getConverter())
+                .thenReturn(converter);
+        when(mongoTemplate.getCollection(COLLECTION_NAME))
+                .thenReturn(Mono.just(messageCollection));
+        when(mongoTemplate.getCollection(STATUS_COLLECTION_NAME))
+                .thenReturn(Mono.just(statusCollection));
+        MessageCollectionRouter router = mock(MessageCollectionRouter.class);
+        when(router.getMessageCollectionName(anyLong()))
+                .thenReturn(COLLECTION_NAME);
+        when(router.toMessageStatusCollectionName(COLLECTION_NAME))
+                .thenReturn(STATUS_COLLECTION_NAME);
+        when(router.ensureCollections(anyLong()))
+                .thenReturn(Mono.empty());
+        try {
+            return new MessageWriteBehindService(mongoTemplate, router, unreadMessageCounterService,
+                    propertiesManager, metricsService);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Inserts the documents after the insert function completes,
+     * and fails the documents that have been inserted before with duplicate key errors like MongoDB
+     */
+    private static <T> MongoCollection<Document> newCollection(Function<List<Document>, Mono<Void>> insert,
+                                                               Set<T> persistedIds) {
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class)))
+                .thenAnswer(invocation -> {
+                    List<Document> documents = invocation.getArgument(0);
+                    return insert.apply(documents)
+                            .then(Mono.defer(() -> {
+                                List<BulkWriteError> errors = new ArrayList<>();
+                                for (int i = 0; i < documents.size(); i++) {
+                                    if (!persistedIds.add((T) documents.get(i).get("_id"))) {
+                                        errors.add(new BulkWriteError(DUPLICATE_KEY_ERROR_CODE, "Duplicate key", new BsonDocument(), i));
+                                    }
+                                }
+                                if (errors.isEmpty()) {
+                                    return Mono.just(mock(InsertManyResult.class));
+                                }
+                                int insertedCount = documents.size() - errors.size();
+                                return Mono.error(new MongoBulkWriteException(
+                                        BulkWriteResult.acknowledged(insertedCount, 0, 0, 0, List.of()),
+                                        errors,
+                                        null,
+                                        new ServerAddress()));
+                            }));
+                });
+        return collection;
+    }
+
+    private void awaitPersisted(Set<Long> messageIds) {
+        awaitCondition(() -> persistedMessageIds.containsAll(messageIds));
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for the condition");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static Message newMessage(long id) {
+        return new Message(id, false, false, new Date(), null, "text", 1L, 2L, null, null, null);
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.config.domain.discovery.Member;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.cluster.service.discovery.MembersChangeListener;
+import im.turms.server.common.cluster.service.rpc.RpcService;
+import im.turms.server.common.property.env.service.env.clientapi.property.NotificationBatchProperties;
+import im.turms.server.common.rpc.request.SendNotificationBatchRequest;
+import im.turms.server.common.rpc.request.SendNotificationRequest;
+import im.turms.turms.workflow.service.impl.message.NotificationBatcher;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class NotificationBatcherTests {
+
+    private static final String NODE_ID = "gateway-1";
+    private static final Duration WINDOW = Duration.ofNanos(new NotificationBatchProperties().getWindowMicros() * 1000L);
+
+    private final RpcService rpcService = mock(RpcService.class);
+    private final DiscoveryService discoveryService = mock(DiscoveryService.class);
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+
+    @Test
+    void send_shouldSendOneRequest_whenOnlyOneNotificationIsInWindow() {
+        NotificationBatcher batcher = newBatcher(new NotificationBatchProperties());
+        when(rpcService.requestResponse(eq(NODE_ID), any(SendNotificationRequest.class)))
+                .thenReturn(Mono.just(true));
+
+        Mono<Boolean> result = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(1), new long[]{1L});
+
+        StepVerifier.create(result)
+                .then(() -> scheduler.advanceTimeBy(WINDOW))
+                .expectNext(true)
+                .verifyComplete();
+        verify(rpcService, never()).requestResponse(anyString(), any(SendNotificationBatchRequest.class));
+    }
+
+    @Test
+    void send_shouldPackNotificationsInWindow_andCompleteThemByForwardedMask() {
+        NotificationBatcher batcher = newBatcher(new NotificationBatchProperties());
+        when(rpcService.requestResponse(eq(NODE_ID), any(SendNotificationBatchRequest.class)))
+                .thenReturn(Mono.just(0b01L));
+
+        Mono<Boolean> result1 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(1), new long[]{1L});
+        Mono<Boolean> result2 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(2), new long[]{2L, 3L});
+
+        StepVerifier.create(result1.zipWith(result2))
+                .then(() -> scheduler.advanceTimeBy(WINDOW))
+                .assertNext(results -> {
+                    assertTrue(results.getT1());
+                    assertFalse(results.getT2());
+                })
+                .verifyComplete();
+        ArgumentCaptor<SendNotificationBatchRequest> requestCaptor = ArgumentCaptor.forClass(SendNotificationBatchRequest.class);
+        verify(rpcService).requestResponse(eq(NODE_ID), requestCaptor.capture());
+        List<SendNotificationRequest> requests = requestCaptor.getValue().getRequests();
+        assertEquals(2, requests.size());
+        assertArrayEquals(new long[]{1L}, requests.get(0).getRecipientIds());
+        assertArrayEquals(new long[]{2L, 3L}, requests.get(1).getRecipientIds());
+    }
+
+    @Test
+    void send_shouldSendBatchWithoutWaitingForWindow_whenBatchIsFull() {
+        NotificationBatchProperties properties = new NotificationBatchProperties();
+        properties.setMaxSize(2);
+        NotificationBatcher batcher = newBatcher(properties);
+        when(rpcService.requestResponse(eq(NODE_ID), any(SendNotificationBatchRequest.class)))
+                .thenReturn(Mono.just(0b11L));
+
+        Mono<Boolean> result1 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(1), new long[]{1L});
+        Mono<Boolean> result2 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(2), new long[]{2L});
+
+        StepVerifier.create(result1.zipWith(result2))
+                .expectNextMatches(results -> results.getT1() && results.getT2())
+                .verifyComplete();
+    }
+
+    @Test
+    void send_shouldPropagateErrorToAllNotificationsInBatch() {
+        NotificationBatcher batcher = newBatcher(new NotificationBatchProperties());
+        IllegalStateException error = new IllegalStateException("Mocked error");
+        when(rpcService.requestResponse(eq(NODE_ID), any(SendNotificationBatchRequest.class)))
+                .thenReturn(Mono.error(error));
+
+        Mono<Boolean> result1 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(1), new long[]{1L});
+        Mono<Boolean> result2 = batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(2), new long[]{2L});
+
+        CompletableFuture<Boolean> future2 = result2.toFuture();
+        StepVerifier.create(result1)
+                .then(() -> scheduler.advanceTimeBy(WINDOW))
+                .expectErrorMatches(throwable -> throwable == error)
+                .verify();
+        CompletionException exception = assertThrows(CompletionException.class, future2::join);
+        assertEquals(error, exception.getCause());
+    }
+
+    @Test
+    void onMembersChange_shouldRemoveBatchersOfMembersThatLeft() {
+        NotificationBatcher batcher = newBatcher(new NotificationBatchProperties());
+        when(rpcService.requestResponse(anyString(), any(SendNotificationRequest.class)))
+                .thenReturn(Mono.just(true));
+        ArgumentCaptor<MembersChangeListener> listenerCaptor = ArgumentCaptor.forClass(MembersChangeListener.class);
+        verify(discoveryService).addListenerOnMembersChange(listenerCaptor.capture());
+
+        batcher.send(NODE_ID, Unpooled.buffer(1).writeByte(1), new long[]{1L}).subscribe();
+        batcher.send("gateway-2", Unpooled.buffer(1).writeByte(2), new long[]{2L}).subscribe();
+        scheduler.advanceTimeBy(WINDOW);
+        // Only the node IDs matter
+        Map<String, Member> members = Collections.singletonMap(NODE_ID, null);
+        when(discoveryService.getAllKnownMembers())
+                .thenReturn(members);
+        listenerCaptor.getValue().onMembersChange();
+
+        Map<String, ?> batcherByNodeId = (Map<String, ?>) ReflectionTestUtils.getField(batcher, "batcherByNodeId");
+        assertEquals(List.of(NODE_ID), List.copyOf(batcherByNodeId.keySet()));
+    }
+
+    private NotificationBatcher newBatcher(NotificationBatchProperties properties) {
+        Node node = mock(Node.class);
+        when(node.getRpcService())
+                .thenReturn(rpcService);
+        when(node.getDiscoveryService())
+                .thenReturn(discoveryService);
+        return new NotificationBatcher(node, properties, scheduler);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.turms.bo.DateRange;
+import im.turms.turms.bo.PendingConversation;
+import im.turms.turms.bo.PendingMessageKey;
+import im.turms.turms.bo.PendingMessagesPage;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.Message;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import im.turms.turms.workflow.service.impl.message.MessageService;
+import im.turms.turms.workflow.service.impl.message.MessageStatusService;
+import im.turms.turms.workflow.service.impl.message.PendingMessageService;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author James Chen
+ */
+class PendingMessageServiceTests {
+
+    private static final long USER_ID = 1L;
+    /**
+     * The messages of a conversation from the sender "i" have the IDs from "i * 1000 + 1" to "i * 1000 + total"
+     */
+    private static final long MESSAGE_ID_SPAN = 1000;
+
+    @Test
+    void queryPendingMessages_shouldReturnMaxMessagesPerConversation_ifBudgetIsEnough() {
+        PendingMessageService service = newService(List.of(10L, 10L, 10L), null);
+
+        StepVerifier.create(service.queryPendingMessages(USER_ID, null, 2, 3, 1000))
+                .assertNext(page -> {
+                    assertEquals(List.of(3, 3), getMessageCounts(page));
+                    assertEquals(List.of(3L, 2L), getSenderIds(page));
+                    assertEquals(2 * MESSAGE_ID_SPAN + 10, page.getNextCursor());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void queryPendingMessages_shouldLeaveConversationsToNextPage_whenMessageBudgetRunsOut() {
+        PendingMessageService service = newService(List.of(10L, 10L, 10L, 10L, 10L), null);
+
+        StepVerifier.create(service.queryPendingMessages(USER_ID, null, 100, 4, 10))
+                .assertNext(page -> {
+                    // 4 + 4 + 2 messages
+                    assertEquals(List.of(4, 4, 2), getMessageCounts(page));
+                    assertEquals(List.of(5L, 4L, 3L), getSenderIds(page));
+                    assertEquals(3 * MESSAGE_ID_SPAN + 10, page.getNextCursor());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void queryPendingMessages_shouldOnlyChargeBudgetForPendingMessages() {
+        PendingMessageService service = newService(List.of(1L, 1L, 1L, 5L), null);
+
+        StepVerifier.create(service.queryPendingMessages(USER_ID, null, 100, 5, 4))
+                .assertNext(page -> {
+                    assertEquals(List.of(4), getMessageCounts(page));
+                    assertEquals(4 * MESSAGE_ID_SPAN + 5, page.getNextCursor());
+                })
+                .verifyComplete();
+        StepVerifier.create(service.queryPendingMessages(USER_ID, null, 100, 5, 3))
+                .assertNext(page -> assertEquals(List.of(3), getMessageCounts(page)))
+                .verifyComplete();
+        StepVerifier.create(service.queryPendingMessages(USER_ID, 4 * MESSAGE_ID_SPAN + 5, 100, 5, 3))
+                .assertNext(page -> {
+                    assertEquals(List.of(1, 1, 1), getMessageCounts(page));
+                    assertNull(page.getNextCursor());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void queryPendingMessages_shouldTruncatePreloadedGroupConversation_toMessageBudget() {
+        List<Message> groupMessages = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            groupMessages.add(newMessage(9 * MESSAGE_ID_SPAN + id, 9L));
+        }
+        PendingConversation groupConversation = new PendingConversation(new PendingMessageKey(true, false, 9L),
+                5, 9 * MESSAGE_ID_SPAN + 5, groupMessages);
+        PendingMessageService service = newService(List.of(10L), groupConversation);
+
+        StepVerifier.create(service.queryPendingMessages(USER_ID, null, 100, 5, 3))
+                .assertNext(page -> {
+                    assertEquals(List.of(3), getMessageCounts(page));
+                    PendingConversation conversation = page.getConversations().get(0);
+                    assertEquals(groupMessages.subList(0, 3), conversation.getMessages());
+                    assertEquals(5, conversation.getTotal());
+                })
+                .verifyComplete();
+    }
+
+    /**
+     * @param totals the totals of the private conversations from the senders "1" to "totals.size()"
+     */
+    private static PendingMessageService newService(List<Long> totals, PendingConversation groupConversation) {
+        List<UnreadMessageCounter> counters = new ArrayList<>(totals.size());
+        for (int i = totals.size(); i >= 1; i--) {
+            long total = totals.get(i - 1);
+            counters.add(new UnreadMessageCounter(new UnreadMessageCounter.Key(USER_ID, false, false, (long) i),
+                    total, i * MESSAGE_ID_SPAN + total, new Date()));
+        }
+        UnreadMessageCounterService counterService = mock(UnreadMessageCounterService.class);
+        when(counterService.isEnabled())
+                .thenReturn(true);
+        when(counterService.queryCounters(eq(USER_ID), any(), anyInt(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    Long cursor = invocation.getArgument(1);
+                    int limit = invocation.getArgument(2);
+                    return Flux.fromIterable(counters)
+                            .filter(counter -> cursor == null || counter.getLastMessageId() < cursor)
+                            .take(limit);
+                });
+        MessageStatusService messageStatusService = mock(MessageStatusService.class);
+        MessageService messageService = mock(MessageService.class);
+        if (groupConversation != null) {
+            when(messageStatusService.isGroupMessageStatusWatermarkEnabled())
+                    .thenReturn(true);
+            when(messageService.queryPendingGroupConversations(anyLong(), anyInt()))
+                    .thenReturn(Flux.just(groupConversation));
+        }
+
+        MessageCollectionRouter router = mock(MessageCollectionRouter.class);
+        when(router.getMessageStatusCollectionNames(isNull(DateRange.class)))
+                .thenReturn(List.of(MessageStatus.COLLECTION_NAME));
+        when(router.getMessageCollectionNames(anyCollection()))
+                .thenReturn(List.of(Message.COLLECTION_NAME));
+        when(router.find(any(Query.class), eq(MessageStatus.class), anyList(), any()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    long senderId = query.getQueryObject().getLong(MessageStatus.Fields.SENDER_ID);
+                    long total = totals.get((int) senderId - 1);
+                    List<MessageStatus> statuses = new ArrayList<>();
+                    // The latest messages first
+                    for (long id = senderId * MESSAGE_ID_SPAN + total;
+                         id > senderId * MESSAGE_ID_SPAN && statuses.size() < query.getLimit();
+                         id--) {
+                        statuses.add(new MessageStatus(new MessageStatus.Key(id, USER_ID), null, false, senderId,
+                                MessageDeliveryStatus.READY, null, null, null));
+                    }
+                    return Flux.fromIterable(statuses);
+                });
+        when(router.find(any(Query.class), eq(Message.class), anyList(), any()))
+                .thenAnswer(invocation -> {
+                    Query query = invocation.getArgument(0);
+                    Collection<Long> ids = getIds(query.getQueryObject());
+                    return Flux.fromIterable(ids.stream()
+                            .sorted()
+                            .map(id -> newMessage(id, id / MESSAGE_ID_SPAN))
+                            .collect(Collectors.toList()));
+                });
+        return new PendingMessageService(mock(ReactiveMongoTemplate.class), router, messageService,
+                messageStatusService, counterService);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Long> getIds(Document query) {
+        return (Collection<Long>) ((Document) query.get("_id")).get("$in");
+    }
+
+    private static Message newMessage(long id, long senderId) {
+        return new Message(id, false, false, new Date(), null, "text", senderId, USER_ID, null, null, null);
+    }
+
+    private static List<Integer> getMessageCounts(PendingMessagesPage page) {
+        return page.getConversations()
+                .stream()
+                .map(conversation -> conversation.getMessages().size())
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> getSenderIds(PendingMessagesPage page) {
+        return page.getConversations()
+                .stream()
+                .map(conversation -> conversation.getKey().getTargetId())
+                .collect(Collectors.toList());
+    }
+
+}
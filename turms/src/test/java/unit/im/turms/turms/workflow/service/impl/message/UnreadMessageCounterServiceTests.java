@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2019 The Turms Project
+ * https://github.com/turms-im/turms
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package unit.im.turms.turms.workflow.service.impl.message;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import im.turms.common.constant.MessageDeliveryStatus;
+import im.turms.server.common.cluster.node.Node;
+import im.turms.server.common.cluster.service.config.domain.discovery.Leader;
+import im.turms.server.common.cluster.service.discovery.DiscoveryService;
+import im.turms.server.common.manager.TrivialTaskManager;
+import im.turms.server.common.property.TurmsProperties;
+import im.turms.server.common.property.TurmsPropertiesManager;
+import im.turms.turms.constant.DaoConstant;
+import im.turms.turms.workflow.dao.MessageCollectionRouter;
+import im.turms.turms.workflow.dao.domain.MessageStatus;
+import im.turms.turms.workflow.dao.domain.UnreadMessageCounter;
+import im.turms.turms.workflow.service.impl.message.UnreadMessageCounterService;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Applies the writes of the counters to an in-memory collection
+ * and checks that the counters always equal the numbers of the pending message statuses
+ *
+ * @author James Chen
+ */
+class UnreadMessageCounterServiceTests {
+
+    private static final int USER_COUNT = 20;
+    private static final int GROUP_COUNT = 3;
+
+    @Test
+    void counters_shouldEqualPendingStatuses_afterFanOutAndAcknowledgements() {
+        Map<Document, Document> counters = new HashMap<>();
+        UnreadMessageCounterService service = newService(true, counters);
+        Random random = new Random(42);
+        List<MessageStatus> statuses = new ArrayList<>();
+        long messageId = 1;
+        for (int round = 0; round < 50; round++) {
+            // Fan out a private message or a group message
+            List<MessageStatus> newStatuses = new ArrayList<>();
+            long senderId = 1 + random.nextInt(USER_COUNT);
+            boolean isSystemMessage = random.nextInt(10) == 0;
+            if (random.nextBoolean()) {
+                long recipientId = 1 + random.nextInt(USER_COUNT);
+                newStatuses.add(newStatus(messageId++, null, isSystemMessage, senderId, recipientId));
+            } else {
+                long groupId = 1000 + random.nextInt(GROUP_COUNT);
+                long groupMessageId = messageId++;
+                for (long memberId = 1; memberId <= USER_COUNT; memberId++) {
+                    newStatuses.add(newStatus(groupMessageId, groupId, isSystemMessage, senderId, memberId));
+                }
+            }
+            statuses.addAll(newStatuses);
+            service.incrementCounters(newStatuses, null).block();
+            assertCountersEqualPendingStatuses(counters, statuses);
+
+            // Acknowledge some of the pending messages of a user
+            long userId = 1 + random.nextInt(USER_COUNT);
+            List<MessageStatus> acknowledgedStatuses = new ArrayList<>();
+            for (int i = 0; i < statuses.size(); i++) {
+                MessageStatus status = statuses.get(i);
+                if (status.getKey().getRecipientId() == userId
+                        && status.getDeliveryStatus() == MessageDeliveryStatus.READY
+                        && random.nextBoolean()) {
+                    acknowledgedStatuses.add(status);
+                    statuses.set(i, withDeliveryStatus(status, MessageDeliveryStatus.RECEIVED));
+                }
+            }
+            service.decrementCounters(userId, acknowledgedStatuses, acknowledgedStatuses.size()).block();
+            assertCountersEqualPendingStatuses(counters, statuses);
+        }
+    }
+
+    @Test
+    void decrementCounters_shouldNeitherCreateCounterNorMakeItNegative() {
+        Map<Document, Document> counters = new HashMap<>();
+        UnreadMessageCounterService service = newService(true, counters);
+        MessageStatus status = newStatus(1L, null, false, 2L, 1L);
+
+        service.decrementCounters(1L, List.of(status), 1).block();
+        assertTrue(counters.isEmpty());
+
+        service.incrementCounters(List.of(status), null).block();
+        service.decrementCounters(1L, List.of(status, newStatus(2L, null, false, 2L, 1L)), 2).block();
+        Document counter = counters.values().iterator().next();
+        assertEquals(0L, counter.get(UnreadMessageCounter.Fields.COUNT));
+    }
+
+    @Test
+    void incrementCounters_shouldNotWrite_ifDisabled() {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        UnreadMessageCounterService service = newService(false, mongoTemplate);
+
+        service.incrementCounters(List.of(newStatus(1L, null, false, 2L, 1L)), null).block();
+
+        verify(mongoTemplate, never()).getCollection(any(String.class));
+    }
+
+    @Test
+    void reconcileCounters_shouldRunOnce_whenLocalNodeBecomesMasterAfterStartup() {
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.remove(any(Query.class), eq(UnreadMessageCounter.class), eq(UnreadMessageCounter.COLLECTION_NAME)))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(0)));
+        Node node = mock(Node.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        when(node.getDiscoveryService()).thenReturn(discoveryService);
+        newService(true, mongoTemplate, node);
+        ArgumentCaptor<Consumer<Leader>> listenerCaptor = ArgumentCaptor.forClass(Consumer.class);
+        verify(discoveryService).addListenerOnLeadershipChange(listenerCaptor.capture());
+        Consumer<Leader> listener = listenerCaptor.getValue();
+
+        // Another node has become the master
+        listener.accept(new Leader("turms", "node2", new Date()));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(UnreadMessageCounter.class), anyString());
+
+        when(node.isLocalNodeMaster()).thenReturn(true);
+        Leader localLeader = new Leader("turms", "node1", new Date());
+        listener.accept(localLeader);
+        listener.accept(localLeader);
+        verify(mongoTemplate, times(1)).remove(any(Query.class), eq(UnreadMessageCounter.class), anyString());
+    }
+
+    @Test
+    void constructor_shouldNotListenToLeadershipChanges_ifReconcileOnStartupIsDisabled() {
+        Node node = mock(Node.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        when(node.getDiscoveryService()).thenReturn(discoveryService);
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().getUnreadMessageCounter().setEnabled(true);
+        properties.getService().getMessage().getUnreadMessageCounter().setReconcileOnStartup(false);
+
+        newService(properties, mock(ReactiveMongoTemplate.class), node);
+
+        verify(discoveryService, never()).addListenerOnLeadershipChange(any());
+    }
+
+    private static void assertCountersEqualPendingStatuses(Map<Document, Document> counters, List<MessageStatus> statuses) {
+        Map<Document, Long> expected = new HashMap<>();
+        for (MessageStatus status : statuses) {
+            if (status.getDeliveryStatus() == MessageDeliveryStatus.READY) {
+                expected.merge(toCounterId(status), 1L, Long::sum);
+            }
+        }
+        Map<Document, Long> actual = new HashMap<>();
+        counters.forEach((id, counter) -> {
+            long count = counter.getLong(UnreadMessageCounter.Fields.COUNT);
+            if (count > 0) {
+                actual.put(id, count);
+            }
+        });
+        assertEquals(expected, actual);
+    }
+
+    private static Document toCounterId(MessageStatus status) {
+        boolean isGroupMessage = status.getGroupId() != null;
+        return new Document(UnreadMessageCounter.Key.Fields.USER_ID, status.getKey().getRecipientId())
+                .append(UnreadMessageCounter.Key.Fields.IS_GROUP_MESSAGE, isGroupMessage)
+                .append(UnreadMessageCounter.Key.Fields.IS_SYSTEM_MESSAGE, status.getIsSystemMessage())
+                .append(UnreadMessageCounter.Key.Fields.TARGET_ID, isGroupMessage ? status.getGroupId() : status.getSenderId());
+    }
+
+    private static MessageStatus newStatus(Long messageId, Long groupId, boolean isSystemMessage, Long senderId, Long recipientId) {
+        return new MessageStatus(messageId, groupId, isSystemMessage, senderId, recipientId,
+                MessageDeliveryStatus.READY, null, null, null);
+    }
+
+    private static MessageStatus withDeliveryStatus(MessageStatus status, MessageDeliveryStatus deliveryStatus) {
+        return new MessageStatus(status.getKey().getMessageId(), status.getGroupId(), status.getIsSystemMessage(),
+                status.getSenderId(), status.getKey().getRecipientId(), deliveryStatus, null, null, null);
+    }
+
+    private static UnreadMessageCounterService newService(boolean enabled, Map<Document, Document> counters) {
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenAnswer(invocation -> Mono.just(apply(invocation.getArgument(0), counters)));
+        ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+        when(mongoTemplate.getCollection(UnreadMessageCounter.COLLECTION_NAME)).thenReturn(Mono.just(collection));
+        return newService(enabled, mongoTemplate);
+    }
+
+    private static UnreadMessageCounterService newService(boolean enabled, ReactiveMongoTemplate mongoTemplate) {
+        Node node = mock(Node.class);
+        when(node.getDiscoveryService()).thenReturn(mock(DiscoveryService.class));
+        return newService(enabled, mongoTemplate, node);
+    }
+
+    private static UnreadMessageCounterService newService(boolean enabled, ReactiveMongoTemplate mongoTemplate, Node node) {
+        TurmsProperties properties = new TurmsProperties();
+        properties.getService().getMessage().getUnreadMessageCounter().setEnabled(enabled);
+        return newService(properties, mongoTemplate, node);
+    }
+
+    private static UnreadMessageCounterService newService(TurmsProperties properties, ReactiveMongoTemplate mongoTemplate, Node node) {
+        TurmsPropertiesManager propertiesManager = mock(TurmsPropertiesManager.class);
+        when(propertiesManager.getLocalProperties()).thenReturn(properties);
+        when(node.getSharedProperties()).thenReturn(properties);
+        return new UnreadMessageCounterService(mongoTemplate,
+                mock(MessageCollectionRouter.class),
+                node,
+                propertiesManager,
+                mock(TrivialTaskManager.class));
+    }
+
+    /**
+     * Apply the update operators used by the counters
+     */
+    private static BulkWriteResult apply(List<WriteModel<Document>> models, Map<Document, Document> counters) {
+        int matchedCount = 0;
+        List<BulkWriteUpsert> upserts = new ArrayList<>();
+        for (int i = 0; i < models.size(); i++) {
+            UpdateOneModel<Document> model = (UpdateOneModel<Document>) models.get(i);
+            Document id = ((Document) model.getFilter()).get(DaoConstant.ID_FIELD_NAME, Document.class);
+            Document counter = counters.get(id);
+            if (counter == null) {
+                if (!model.getOptions().isUpsert()) {
+                    continue;
+                }
+                counter = new Document(UnreadMessageCounter.Fields.COUNT, 0L);
+                counters.put(id, counter);
+                upserts.add(new BulkWriteUpsert(i, new BsonInt32(i)));
+            } else {
+                matchedCount++;
+            }
+            long count = counter.getLong(UnreadMessageCounter.Fields.COUNT);
+            if (model.getUpdate() != null) {
+                Document update = (Document) model.getUpdate();
+                Document inc = update.get("$inc", Document.class);
+                if (inc != null) {
+                    counter.put(UnreadMessageCounter.Fields.COUNT, count + ((Number) inc.get(UnreadMessageCounter.Fields.COUNT)).longValue());
+                }
+                Document set = update.get("$set", Document.class);
+                if (set != null) {
+                    counter.putAll(set);
+                }
+            } else {
+                // {$set: {c: {$max: [0, {$subtract: [{$ifNull: ["$c", 0]}, n]}]}, ...}}
+                Document set = ((Document) model.getUpdatePipeline().get(0)).get("$set", Document.class);
+                List<?> max = set.get(UnreadMessageCounter.Fields.COUNT, Document.class).get("$max", List.class);
+                List<?> subtract = ((Document) max.get(1)).get("$subtract", List.class);
+                long decrement = ((Number) subtract.get(1)).longValue();
+                counter.put(UnreadMessageCounter.Fields.COUNT, Math.max(0, count - decrement));
+            }
+        }
+        return BulkWriteResult.acknowledged(0, matchedCount, 0, matchedCount, upserts);
+    }
+
+}